@@ -0,0 +1,30 @@
+package org.asterope.geometry.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Run the benchmarks with the GC profiler attached, so that
+ *  gc.alloc.rate.norm (bytes allocated per invocation) is reported
+ *  next to the throughput.  Any standard JMH options may be given, e.g.,
+ *  <pre>
+ *    java -cp ... org.asterope.geometry.bench.BenchmarkMain WcsBenchmark -p batch=65536 -t 4
+ *  </pre>
+ *  The points counter gives the throughput in points per second; the
+ *  primary result is in batches per second.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+	CommandLineOptions cmd = new CommandLineOptions(args);
+	ChainedOptionsBuilder b = new OptionsBuilder()
+	  .parent(cmd)
+	  .addProfiler(GCProfiler.class);
+	if (cmd.getIncludes().isEmpty()) {
+	    b.include("org\\.asterope\\.geometry\\.bench\\..*");
+	}
+	new Runner(b.build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package org.asterope.geometry.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.asterope.geometry.Rotater;
+import org.asterope.geometry.Scaler;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.distorter.DSS;
+import org.asterope.geometry.distorter.Neat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** The components other than projections: rotations, scalings
+ *  and the plane distorters in both directions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ComponentBenchmark {
+
+    @Param({"Rotater", "Scaler", "DSS", "DSSInv", "Neat", "NeatInv"})
+    public String component;
+
+    @Param({"1", "256", "65536"})
+    public int batch;
+
+    private Transformer t;
+    private double[][] in;
+    private double[][] out;
+    private double[] a;
+    private double[] b;
+
+    /** A plate solution with the size of coefficients seen on POSS plates */
+    static DSS dss() {
+	double[] x = {1.00, 1e-3, 0, 1e-6, 1e-6, 1e-6, 1e-7, 1e-8, 1e-8, 1e-8, 1e-8, 1e-9, 1e-12};
+	double[] y = {1.00, -1e-3, 0, -1e-6, 1e-6, -1e-6, 1e-7, -1e-8, 1e-8, -1e-8, 1e-8, -1e-9, 1e-12};
+	return new DSS(0, 0, 25, 25, 67.2, null, x, y);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+	int dim;
+	if (component.equals("Rotater")) {
+	    t = new Rotater("ZYZ", 0.3, 1.1, -0.4);
+	    dim = 3;
+	} else if (component.equals("Scaler")) {
+	    t = new Scaler(500, 500, -2000, 10, 10, 2000);
+	    dim = 2;
+	} else if (component.equals("DSS")) {
+	    t = dss();
+	    dim = 2;
+	} else if (component.equals("DSSInv")) {
+	    t = dss().inverse();
+	    dim = 2;
+	} else if (component.equals("Neat")) {
+	    t = new Neat(0.01, 0, 0);
+	    dim = 2;
+	} else {
+	    t = new Neat(0.01, 0, 0).inverse();
+	    dim = 2;
+	}
+
+	if (dim == 3) {
+	    in = Inputs.sphere(batch, 90);
+	} else {
+	    // About one degree, in radians, around the plate centre
+	    in = Inputs.plane(batch, Inputs.D2R * 2);
+	}
+	out = new double[dim][batch];
+	a = new double[dim];
+	b = new double[dim];
+    }
+
+    @Benchmark
+    public void point(Points points, Blackhole bh) {
+	int dim = a.length;
+	for (int i = 0; i < batch; i++) {
+	    for (int j = 0; j < dim; j++) {
+		a[j] = in[j][i];
+	    }
+	    t.transform(a, b);
+	    bh.consume(b[0]);
+	}
+	points.points += batch;
+    }
+
+    @Benchmark
+    public double[][] batch(Points points) {
+	t.transform(in, 0, out, 0, batch);
+	points.points += batch;
+	return out;
+    }
+}
@@ -0,0 +1,83 @@
+package org.asterope.geometry.bench;
+
+import java.util.Random;
+
+import org.asterope.geometry.TransformationException;
+import org.asterope.geometry.WCS;
+import org.asterope.geometry.WCSBuilder;
+
+/** Test data shared by the benchmarks.  All of the data is generated
+ *  from a fixed seed so that runs can be compared with each other.
+ */
+final class Inputs {
+
+    static final double D2R = Math.PI / 180d;
+
+    /** The names in WCSBuilder.projections without the duplicate Arc,
+     *  plus Tea which is not offered by the builder.
+     */
+    static final String[] PROJECTIONS = {"Ait", "Arc", "Stg", "Toa", "Csc", "Sfl",
+	"Tan", "Xtn", "Car", "Sin", "Hpx", "Zea", "Tea"};
+
+    private Inputs() {
+    }
+
+    /** Unit vectors spread over a cap of the given radius (in degrees)
+     *  around the point ra=30, dec=50.
+     */
+    static double[][] sphere(int n, double radius) {
+	Random r = new Random(7);
+	double[][] v = new double[3][n];
+	double c0 = Math.cos(D2R * radius);
+	double ra = D2R * 30;
+	double de = D2R * 50;
+	for (int i = 0; i < n; i++) {
+	    // A point near the pole, then rotated to the field centre.
+	    double z = 1 - (1 - c0) * r.nextDouble();
+	    double phi = 2 * Math.PI * r.nextDouble();
+	    double s = Math.sqrt(1 - z * z);
+	    double x = s * Math.cos(phi);
+	    double y = s * Math.sin(phi);
+
+	    double x1 = x * Math.sin(de) + z * Math.cos(de);
+	    double z1 = -x * Math.cos(de) + z * Math.sin(de);
+	    v[0][i] = x1 * Math.cos(ra) - y * Math.sin(ra);
+	    v[1][i] = x1 * Math.sin(ra) + y * Math.cos(ra);
+	    v[2][i] = z1;
+	}
+	return v;
+    }
+
+    /** Random positions in a square of the given size */
+    static double[][] plane(int n, double size) {
+	Random r = new Random(11);
+	double[][] p = new double[2][n];
+	for (int i = 0; i < n; i++) {
+	    p[0][i] = size * (r.nextDouble() - 0.5);
+	    p[1][i] = size * (r.nextDouble() - 0.5);
+	}
+	return p;
+    }
+
+    /** Random pixels in a width x width image */
+    static double[][] pixels(int n, double width) {
+	double[][] p = plane(n, width);
+	for (int i = 0; i < n; i++) {
+	    p[0][i] += width / 2;
+	    p[1][i] += width / 2;
+	}
+	return p;
+    }
+
+    /** A 1000x1000 pixel WCS covering 20 degrees around ra=30, dec=50. */
+    static WCS wcs(String projection) throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 30;
+	b.refDe = D2R * 50;
+	b.width = 1000;
+	b.height = 1000;
+	b.projection = projection;
+	b.pixelScale = D2R * 20 / 1000;
+	return b.build();
+    }
+}
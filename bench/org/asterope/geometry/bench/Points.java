@@ -0,0 +1,22 @@
+package org.asterope.geometry.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Counts the points transformed so that JMH reports
+ *  points/sec next to the invocation rate, whatever the batch size.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Points {
+
+    public long points;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+	points = 0;
+    }
+}
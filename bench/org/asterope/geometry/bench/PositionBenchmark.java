@@ -0,0 +1,67 @@
+package org.asterope.geometry.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.asterope.geometry.Position;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Coordinate system conversions through Position, which builds
+ *  the coordinate system and converter on every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class PositionBenchmark {
+
+    @Param({"B1950", "Galactic", "E2000", "H2000", "ICRS"})
+    public String frame;
+
+    @Param({"1", "256"})
+    public int batch;
+
+    private double[] lon;
+    private double[] lat;
+
+    @Setup
+    public void setup() {
+	double[][] v = Inputs.sphere(batch, 90);
+	lon = new double[batch];
+	lat = new double[batch];
+	for (int i = 0; i < batch; i++) {
+	    lon[i] = Math.toDegrees(Math.atan2(v[1][i], v[0][i]));
+	    lat[i] = Math.toDegrees(Math.asin(v[2][i]));
+	}
+    }
+
+    /** J2000 to the frame */
+    @Benchmark
+    public void fromJ2000(Points points, Blackhole bh) throws Exception {
+	for (int i = 0; i < batch; i++) {
+	    bh.consume(new Position(lon[i], lat[i]).getCoordinates(frame));
+	}
+	points.points += batch;
+    }
+
+    /** The frame to J2000 */
+    @Benchmark
+    public void toJ2000(Points points, Blackhole bh) throws Exception {
+	for (int i = 0; i < batch; i++) {
+	    bh.consume(new Position(lon[i], lat[i], frame).getCoordinates());
+	}
+	points.points += batch;
+    }
+}
@@ -0,0 +1,111 @@
+package org.asterope.geometry.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.asterope.geometry.Deprojecter;
+import org.asterope.geometry.Projecter;
+import org.asterope.geometry.Projection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** The bare projecters and deprojecters, without the rotation to the
+ *  reference point or the scaling to pixels.  Each invocation handles
+ *  one batch of points, either one point at a time or with the
+ *  block transform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ProjecterBenchmark {
+
+    @Param({"Ait", "Arc", "Stg", "Toa", "Csc", "Sfl", "Tan", "Xtn", "Car", "Sin", "Hpx", "Zea", "Tea"})
+    public String projection;
+
+    @Param({"1", "256", "65536"})
+    public int batch;
+
+    private Projecter proj;
+    private Deprojecter deproj;
+
+    private double[][] sky;
+    private double[][] plane;
+    private double[][] out2;
+    private double[][] out3;
+    private double[] p2 = new double[2];
+    private double[] p3 = new double[3];
+
+    @Setup
+    public void setup() throws Exception {
+	Projection p = new Projection(projection, new double[]{0, 0});
+	proj = p.getProjecter();
+	deproj = proj.inverse();
+
+	// Use points which the projection can actually handle, so that
+	// the early NaN exits do not flatter the results.
+	sky = Inputs.sphere(batch, 60);
+	plane = new double[2][batch];
+	proj.transform(sky, 0, plane, 0, batch);
+	for (int i = 0; i < batch; i++) {
+	    if (Double.isNaN(plane[0][i]) || Double.isNaN(plane[1][i])) {
+		plane[0][i] = 0;
+		plane[1][i] = 0;
+	    }
+	}
+	out2 = new double[2][batch];
+	out3 = new double[3][batch];
+    }
+
+    @Benchmark
+    public void projectPoint(Points points, Blackhole bh) {
+	double[] in = p3;
+	double[] out = p2;
+	for (int i = 0; i < batch; i++) {
+	    in[0] = sky[0][i];
+	    in[1] = sky[1][i];
+	    in[2] = sky[2][i];
+	    proj.transform(in, out);
+	    bh.consume(out[0]);
+	}
+	points.points += batch;
+    }
+
+    @Benchmark
+    public double[][] projectBatch(Points points) {
+	proj.transform(sky, 0, out2, 0, batch);
+	points.points += batch;
+	return out2;
+    }
+
+    @Benchmark
+    public void deprojectPoint(Points points, Blackhole bh) {
+	double[] in = p2;
+	double[] out = p3;
+	for (int i = 0; i < batch; i++) {
+	    in[0] = plane[0][i];
+	    in[1] = plane[1][i];
+	    deproj.transform(in, out);
+	    bh.consume(out[0]);
+	}
+	points.points += batch;
+    }
+
+    @Benchmark
+    public double[][] deprojectBatch(Points points) {
+	deproj.transform(plane, 0, out3, 0, batch);
+	points.points += batch;
+	return out3;
+    }
+}
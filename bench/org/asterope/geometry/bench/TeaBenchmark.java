@@ -0,0 +1,106 @@
+package org.asterope.geometry.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.asterope.geometry.Deprojecter;
+import org.asterope.geometry.projecter.Tea;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The Tea projection on the whole sky, as used for exposure maps.
+ *  ProjecterBenchmark only covers a cap in the north, so here the
+ *  points are spread over the sphere, the plane points include the
+ *  reflected squares around the prime square, and the corners of
+ *  the pixels of an all-sky map are projected as polygons.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TeaBenchmark {
+
+    @Param({"256", "65536"})
+    public int batch;
+
+    private Tea proj;
+    private Deprojecter deproj;
+
+    private double[][] sky;
+    private double[][] plane;
+    private double[][] corners;
+    private double[][] out2;
+    private double[][] out3;
+
+    @Setup
+    public void setup() {
+	proj = new Tea();
+	deproj = proj.inverse();
+
+	Random r = new Random(11);
+	double rat = Math.sqrt(Math.PI);
+	sky = new double[3][batch];
+	plane = new double[2][batch];
+	for (int i = 0; i < batch; i++) {
+	    double z = 2 * r.nextDouble() - 1;
+	    double phi = 2 * Math.PI * r.nextDouble();
+	    double s = Math.sqrt(1 - z * z);
+	    sky[0][i] = s * Math.cos(phi);
+	    sky[1][i] = s * Math.sin(phi);
+	    sky[2][i] = z;
+	    plane[0][i] = rat * (6 * r.nextDouble() - 3);
+	    plane[1][i] = rat * (6 * r.nextDouble() - 3);
+	}
+
+	// The corners of the pixels of an equal area map with
+	// batch pixels in bands of constant latitude.
+	int side = (int) Math.sqrt(batch);
+	int rows = (batch + side - 1) / side;
+	corners = new double[3][4 * batch];
+	for (int i = 0; i < batch; i++) {
+	    int[] cx = {i % side, i % side + 1, i % side + 1, i % side};
+	    int[] cy = {i / side, i / side, i / side + 1, i / side + 1};
+	    for (int j = 0; j < 4; j++) {
+		double l = 2 * Math.PI * cx[j] / side;
+		double z = 2. * cy[j] / rows - 1;
+		double s = Math.sqrt(1 - z * z);
+		corners[0][4 * i + j] = s * Math.cos(l);
+		corners[1][4 * i + j] = s * Math.sin(l);
+		corners[2][4 * i + j] = z;
+	    }
+	}
+	out2 = new double[2][batch];
+	out3 = new double[3][batch];
+    }
+
+    @Benchmark
+    public double[][] projectBatch(Points points) {
+	proj.transform(sky, 0, out2, 0, batch);
+	points.points += batch;
+	return out2;
+    }
+
+    @Benchmark
+    public double[][] deprojectBatch(Points points) {
+	deproj.transform(plane, 0, out3, 0, batch);
+	points.points += batch;
+	return out3;
+    }
+
+    @Benchmark
+    public double[][][][] projectPolygons(Points points) {
+	points.points += batch;
+	return proj.projectPolygons(corners, 0, batch, 4);
+    }
+}
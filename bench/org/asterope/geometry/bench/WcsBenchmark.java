@@ -0,0 +1,181 @@
+package org.asterope.geometry.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.asterope.geometry.Converter;
+import org.asterope.geometry.ParallelTransformer;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.WCS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Full sky to pixel chains built by WCSBuilder, and their inverses.
+ *  The point and batch benchmarks run in the calling thread.  The
+ *  parallel benchmarks go through a ParallelTransformer using a pool
+ *  of the given number of threads.  They have batch sizes of their own,
+ *  since a ParallelTransformer does smaller batches in a single piece.
+ *  The JMH thread count (-t) may be raised as well to see how a shared
+ *  WCS behaves under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class WcsBenchmark {
+
+    @Param({"Ait", "Arc", "Stg", "Toa", "Csc", "Sfl", "Tan", "Xtn", "Car", "Sin", "Hpx", "Zea"})
+    public String projection;
+
+    private WCS wcs;
+    private Converter inv;
+
+    @Setup
+    public void setup() throws Exception {
+	wcs = Inputs.wcs(projection);
+	inv = wcs.inverse();
+    }
+
+    /** The points for the benchmarks which run in the calling thread */
+    @State(Scope.Benchmark)
+    public static class Serial {
+
+	@Param({"1", "256", "65536"})
+	public int batch;
+
+	double[][] sky;
+	double[][] pix;
+
+	@Setup
+	public void setup() {
+	    sky = Inputs.sphere(batch, 10);
+	    pix = Inputs.pixels(batch, 1000);
+	}
+    }
+
+    /** The pool, transformers and points for the parallel benchmarks */
+    @State(Scope.Benchmark)
+    public static class Parallel {
+
+	@Param({"16384", "65536"})
+	public int batch;
+
+	@Param({"2", "4"})
+	public int threads;
+
+	private ForkJoinPool pool;
+	Transformer forward;
+	Transformer backward;
+	double[][] sky;
+	double[][] pix;
+
+	@Setup
+	public void setup(WcsBenchmark b) throws Exception {
+	    pool = new ForkJoinPool(threads);
+	    forward = new ParallelTransformer(b.wcs, pool, Math.max(256, batch / (4 * threads)));
+	    backward = new ParallelTransformer(b.inv, pool, Math.max(256, batch / (4 * threads)));
+	    sky = Inputs.sphere(batch, 10);
+	    pix = Inputs.pixels(batch, 1000);
+	}
+
+	@TearDown
+	public void tearDown() {
+	    pool.shutdown();
+	}
+    }
+
+    /** Per-thread output arrays, grown to the batch size on first use */
+    @State(Scope.Thread)
+    public static class Out {
+	double[] p2 = new double[2];
+	double[] p3 = new double[3];
+	double[][] b2 = new double[2][0];
+	double[][] b3 = new double[3][0];
+
+	double[][] b2(int n) {
+	    if (b2[0].length != n) {
+		b2 = new double[2][n];
+	    }
+	    return b2;
+	}
+
+	double[][] b3(int n) {
+	    if (b3[0].length != n) {
+		b3 = new double[3][n];
+	    }
+	    return b3;
+	}
+    }
+
+    @Benchmark
+    public void skyToPixelPoint(Serial s, Out o, Points points, Blackhole bh) {
+	double[] in = o.p3;
+	double[][] sky = s.sky;
+	for (int i = 0; i < s.batch; i++) {
+	    in[0] = sky[0][i];
+	    in[1] = sky[1][i];
+	    in[2] = sky[2][i];
+	    wcs.transform(in, o.p2);
+	    bh.consume(o.p2[0]);
+	}
+	points.points += s.batch;
+    }
+
+    @Benchmark
+    public double[][] skyToPixelBatch(Serial s, Out o, Points points) throws Exception {
+	double[][] out = o.b2(s.batch);
+	wcs.transform(s.sky, out);
+	points.points += s.batch;
+	return out;
+    }
+
+    @Benchmark
+    public double[][] skyToPixelParallel(Parallel p, Out o, Points points) throws Exception {
+	double[][] out = o.b2(p.batch);
+	p.forward.transform(p.sky, out);
+	points.points += p.batch;
+	return out;
+    }
+
+    @Benchmark
+    public void pixelToSkyPoint(Serial s, Out o, Points points, Blackhole bh) {
+	double[] in = o.p2;
+	double[][] pix = s.pix;
+	for (int i = 0; i < s.batch; i++) {
+	    in[0] = pix[0][i];
+	    in[1] = pix[1][i];
+	    inv.transform(in, o.p3);
+	    bh.consume(o.p3[0]);
+	}
+	points.points += s.batch;
+    }
+
+    @Benchmark
+    public double[][] pixelToSkyBatch(Serial s, Out o, Points points) throws Exception {
+	double[][] out = o.b3(s.batch);
+	inv.transform(s.pix, out);
+	points.points += s.batch;
+	return out;
+    }
+
+    @Benchmark
+    public double[][] pixelToSkyParallel(Parallel p, Out o, Points points) throws Exception {
+	double[][] out = o.b3(p.batch);
+	p.backward.transform(p.pix, out);
+	points.points += p.batch;
+	return out;
+    }
+}
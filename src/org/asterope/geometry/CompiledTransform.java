@@ -0,0 +1,330 @@
+package org.asterope.geometry;
+
+import org.asterope.geometry.vector.Vectorized;
+
+/** The frozen form of a Converter.  A CompiledTransform is
+ *  created by Converter.compile() from the optimized list of components
+ *  and never changes afterwards, so one instance may be shared by
+ *  all of the threads that use a WCS.
+ *  <p>
+ *  Intermediate results are kept in a Scratch object.  By default
+ *  each thread gets its own Scratch, which is shared by all of the
+ *  compiled transforms, but callers who manage their own threads
+ *  may create one with newScratch() and pass it in explicitly.
+ *  Either way no objects are created when points are transformed.
+ *  <p>
+ *  Where a rotation, one of the common projections and a scaling
+ *  follow one another they are replaced by a single FusedProjecter
+ *  (or FusedDeprojecter for the inverse chain), so that a WCS without
+ *  a plane distorter needs only one step from sky to pixel.
+ *  <p>
+ *  The components themselves must be safe to use from several threads.
+ *  In block transforms the intermediate stages are applied in place to
+ *  a single work array, so every component must accept the same arrays,
+ *  at the same offset, as input and output.
+ */
+public final class CompiledTransform extends Transformer {
+
+    /** The number of points which are pushed through each
+     *  stage before moving on to the next one in block transforms.
+     *  This keeps the work arrays in the cache.
+     */
+    static final int BLOCK_SIZE = 256;
+
+    /** The optimized components as given to the constructor */
+    private final Transformer[] components;
+
+    /** The components applied in turn, after fusion */
+    private final Transformer[] stages;
+
+    /** The components applied in block transforms.  When the vector
+     *  kernels are available the projections which have them are
+     *  left unfused.
+     */
+    private final Transformer[] blockStages;
+
+    /** The output dimension of each component */
+    private final int[] outDims;
+
+    private final int inputDimension;
+    private final int outputDimension;
+
+    /** Per-thread work arrays.  All compiled transforms use the same
+     *  block size, so a thread needs only one Scratch however many
+     *  WCSs it uses.
+     */
+    private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+	protected Scratch initialValue() {
+	    return new Scratch();
+	}
+    };
+
+    /** Work arrays used for the intermediate results of
+     *  a transformation.  A Scratch object may only be used by
+     *  one thread at a time.
+     */
+    public static final class Scratch {
+
+	private final double[] a2 = new double[2];
+	private final double[] b2 = new double[2];
+	private final double[] a3 = new double[3];
+	private final double[] b3 = new double[3];
+
+	private final double[][] block = new double[3][BLOCK_SIZE];
+
+	/** Is the thread's Scratch being used by an enclosing transform? */
+	private boolean busy;
+
+	/** Get a work vector of the given dimension which is not the
+	 *  vector currently holding the data.
+	 */
+	double[] other(int dim, double[] current) {
+	    if (dim == 2) {
+		return current == a2 ? b2 : a2;
+	    } else {
+		return current == a3 ? b3 : a3;
+	    }
+	}
+    }
+
+    /** Create a compiled transform from a list of components.
+     *  The array is copied.
+     */
+    CompiledTransform(Transformer[] components) {
+
+	this.components = components.clone();
+	stages  = fuse(this.components, false);
+	blockStages = Vectorized.isAvailable() ? fuse(this.components, true) : stages;
+	outDims = new int[stages.length];
+	for (int i=0; i<stages.length; i += 1) {
+	    outDims[i] = stages[i].getOutputDimension();
+	}
+
+	if (stages.length > 0) {
+	    inputDimension  = stages[0].getInputDimension();
+	    outputDimension = outDims[stages.length-1];
+	} else {
+	    inputDimension  = 0;
+	    outputDimension = 0;
+	}
+    }
+
+    public String getName() {
+	return "CompiledTransform";
+    }
+
+    public String getDescription() {
+	return "An immutable compound set of transformations";
+    }
+
+    protected int getInputDimension() {
+	return inputDimension;
+    }
+
+    protected int getOutputDimension() {
+	return outputDimension;
+    }
+
+    /** Get a copy of the components in the order they are applied. */
+    public Transformer[] getStages() {
+	return stages.clone();
+    }
+
+    /** Get a copy of the components before any were fused. */
+    public Transformer[] getComponents() {
+	return components.clone();
+    }
+
+    /** Replace rotation, projection and scaling sequences by
+     *  fused transformers where possible.
+     *  @param vectors Leave alone the projections with vector kernels.
+     */
+    static Transformer[] fuse(Transformer[] parts, boolean vectors) {
+
+	java.util.ArrayList<Transformer> list = new java.util.ArrayList<Transformer>();
+
+	for (int i=0; i<parts.length; i += 1) {
+
+	    Transformer t    = parts[i];
+	    Transformer prev = list.size() > 0 ? list.get(list.size()-1) : null;
+	    Transformer next = i < parts.length-1 ? parts[i+1] : null;
+
+	    int kind = FusedProjecter.kindOf(t);
+	    int dkind = FusedDeprojecter.kindOf(t);
+	    if (vectors) {
+		if (kind == FusedProjecter.TAN || kind == FusedProjecter.SIN ||
+		    kind == FusedProjecter.STG || kind == FusedProjecter.ZEA) {
+		    kind = -1;
+		}
+		if (dkind == FusedProjecter.TAN || dkind == FusedProjecter.SIN ||
+		    dkind == FusedProjecter.ZEA) {
+		    dkind = -1;
+		}
+	    }
+
+	    if (kind >= 0) {
+		Rotater r = null;
+		Scaler  s = null;
+		if (prev instanceof Rotater) {
+		    r = (Rotater) list.remove(list.size()-1);
+		}
+		if (next instanceof Scaler) {
+		    s = (Scaler) next;
+		    i += 1;
+		}
+		list.add(new FusedProjecter(r, (Projecter) t, s));
+
+	    } else if (dkind >= 0) {
+		Scaler  s = null;
+		Rotater r = null;
+		if (prev instanceof Scaler) {
+		    s = (Scaler) list.remove(list.size()-1);
+		}
+		if (next instanceof Rotater) {
+		    r = (Rotater) next;
+		    i += 1;
+		}
+		list.add(new FusedDeprojecter(s, (Deprojecter) t, r));
+
+	    } else {
+		list.add(t);
+	    }
+	}
+	return list.toArray(new Transformer[list.size()]);
+    }
+
+    /** Do block transforms use the vector kernels? */
+    boolean isVectorized() {
+	return blockStages != stages;
+    }
+
+    /** Create a set of work arrays for use with the explicit-scratch
+     *  transform methods.
+     */
+    public Scratch newScratch() {
+	return new Scratch();
+    }
+
+    /** Get the work arrays of the current thread.  If a component is
+     *  itself a compiled transform the thread's Scratch is already in
+     *  use and a new one is returned.
+     */
+    private static Scratch acquire() {
+	Scratch s = scratch.get();
+	if (s.busy) {
+	    return new Scratch();
+	}
+	s.busy = true;
+	return s;
+    }
+
+    /** Transform a vector using the work arrays of the current thread. */
+    public void transform(double[] in, double[] out) {
+	Scratch s = acquire();
+	try {
+	    transform(in, out, s);
+	} finally {
+	    s.busy = false;
+	}
+    }
+
+    /** Transform a vector using the supplied work arrays.
+     *  @param in  The input vector.
+     *  @param out The output vector.  This may be the same as the input.
+     *  @param s   Work arrays which are not in use by any other thread.
+     */
+    public void transform(double[] in, double[] out, Scratch s) {
+
+	int n = stages.length;
+	if (n == 0) {
+	    if (in != out) {
+		System.arraycopy(in, 0, out, 0, in.length);
+	    }
+	    return;
+	}
+
+	double[] from = in;
+	for (int i=0; i<n-1; i += 1) {
+	    double[] to = s.other(outDims[i], from);
+	    stages[i].transform(from, to);
+	    from = to;
+	}
+	stages[n-1].transform(from, out);
+    }
+
+    /** Transform a block of points using the work arrays of the current thread. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	Scratch s = acquire();
+	try {
+	    transform(in, inOff, out, outOff, len, s);
+	} finally {
+	    s.busy = false;
+	}
+    }
+
+    /** Transform a block of points using the supplied work arrays.
+     *  Each component is applied to a block of points before the next one is used.
+     */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len, Scratch s) {
+
+	Transformer[] stages = blockStages;
+	int n = stages.length;
+	if (n == 0) {
+	    if (in != out || inOff != outOff) {
+		for (int i=0; i<in.length; i += 1) {
+		    System.arraycopy(in[i], inOff, out[i], outOff, len);
+		}
+	    }
+	    return;
+	}
+	if (n == 1) {
+	    stages[0].transform(in, inOff, out, outOff, len);
+	    return;
+	}
+
+	// All of the components accept aliased input and output
+	// so a single work array is enough for the intermediate stages.
+	double[][] work = s.block;
+
+	for (int start=0; start<len; start += BLOCK_SIZE) {
+	    int count = Math.min(BLOCK_SIZE, len-start);
+
+	    stages[0].transform(in, inOff+start, work, 0, count);
+	    for (int i=1; i<n-1; i += 1) {
+		stages[i].transform(work, 0, work, 0, count);
+	    }
+	    stages[n-1].transform(work, 0, out, outOff+start, count);
+	}
+    }
+
+    /** Return the inverse of the compiled series of transformations. */
+    public CompiledTransform inverse() throws TransformationException {
+	Converter inv = toConverter().inverse();
+	if (inv == null) {
+	    throw new TransformationException("Compiled transform has a component with no inverse");
+	}
+	return inv.compile();
+    }
+
+    /** Is this the inverse of another transformation. */
+    public boolean isInverse(Transformer t) {
+	if (t instanceof CompiledTransform) {
+	    t = ((CompiledTransform) t).toConverter();
+	}
+	return toConverter().isInverse(t);
+    }
+
+    /** Build a new converter with the same components. */
+    private Converter toConverter() {
+	Converter c = new Converter();
+	try {
+	    for (Transformer t: components) {
+		c.add(t);
+	    }
+	} catch (TransformationException e) {
+	    // The components were already checked when they were compiled.
+	    throw new Error("Unexpected error:"+e);
+	}
+	return c;
+    }
+}
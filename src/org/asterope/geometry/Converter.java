@@ -5,12 +5,13 @@ public class Converter extends Transformer implements Component {
     
     
     private java.util.ArrayList<Transformer> components = new java.util.ArrayList<Transformer>();
-    private Transformer[] compArr;
-    private int[] compOutDimensionArr;
-    private int outputDimension = -1;
+    
+    /** The optimized and frozen form of the components.  This is
+     *  null until check() has been called after the last add().
+     */
+    private volatile CompiledTransform compiled;
 
-    private boolean checked = false;
-    private static boolean doDebug = false;
+    private boolean doDebug = false;
     
     public String getName() {
 	return "Converter";
@@ -44,8 +45,11 @@ public class Converter extends Transformer implements Component {
     /** Get the dimensionality of the output vectors.
      */
     public int getOutputDimension() {
-        if(!checked) check();
-        return outputDimension;
+	if (components.size() > 0) {
+	    return components.get(components.size()-1).getOutputDimension();
+	} else {
+	    return 0;
+	}
     }
     
     
@@ -71,17 +75,53 @@ public class Converter extends Transformer implements Component {
 	} else {
 	    components.add(trans);
 	}
-	checked = false;
+	compiled = null;
+    }
+    
+    /** Get the optimized form of this converter.  The returned object
+     *  is immutable and may be shared among threads: later changes
+     *  to this converter do not affect it.
+     */
+    public CompiledTransform compile() {
+	CompiledTransform c = compiled;
+	if (c == null) {
+	    check();
+	    c = compiled;
+	}
+	return c;
     }
     
     
     /** Transform a vector */
     public void transform(double[] in, double[] out) {
-	if (!checked) {
-	    check();
+	
+	CompiledTransform c = compile();
+	if (doDebug) {
+	    debugTransform(c, in, out);
+	} else {
+	    c.transform(in, out);
 	}
-
-	if (compArr.length == 0) {
+    }
+    
+    /** Transform a block of points.  Rather than taking each
+     *  point through all of the components in turn, each component
+     *  is applied to a block of points before the next one is used.
+     */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	
+	CompiledTransform c = compile();
+	if (doDebug) {
+	    super.transform(in, inOff, out, outOff, len);
+	} else {
+	    c.transform(in, inOff, out, outOff, len);
+	}
+    }
+    
+    /** Transform a vector logging each intermediate result. */
+    private void debugTransform(CompiledTransform c, double[] in, double[] out) {
+	
+	Transformer[] stages = c.getComponents();
+	if (stages.length == 0) {
 	    if (in != out) {
 		System.arraycopy(in, 0, out, 0, in.length);
 	    }
@@ -89,32 +129,18 @@ public class Converter extends Transformer implements Component {
 	}
 	
 	double[] from = in;
-	double[] to = null;
-        double[] oldfrom = null;
-	
-	for (int i=0; i<compArr.length; i += 1) {
-	    final Transformer t = compArr[i];
-            final int outDim = compOutDimensionArr[i];
-	    if (doDebug) {
-		log(i, t, from);
+	double[] to   = null;
+	for (int i=0; i<stages.length; i += 1) {
+	    log(i, stages[i], from);
+	    if (i == stages.length-1) {
+		to = out;
+	    } else {
+		to = new double[stages[i].getOutputDimension()];
 	    }
-	    if (i == compArr.length-1)
-		to = out; //force usage of 'out' object on last elem
-            else if(oldfrom!=null && oldfrom.length == outDim)
-                to = oldfrom; //reuse previous 'from' array
-            else if(outDim==2)
-                to = new double[2];
-            else
-                to = new double[3];
-
-	    t.transform(from,to);
-            oldfrom = from;
+	    stages[i].transform(from, to);
 	    from = to;
 	}
-	if (doDebug && compArr.length > 0) {
-	    log(compArr.length, null, to);
-	}
-	
+	log(stages.length, null, to);
     }
     
     private void log(int index, Transformer t, double[] arr) {
@@ -151,7 +177,7 @@ public class Converter extends Transformer implements Component {
     
     /** See if there are any optimizations we can do. */
     public synchronized void check() {
-	 if(checked)
+	 if (compiled != null)
              return;
 
 
@@ -222,23 +248,8 @@ public class Converter extends Transformer implements Component {
 	    break;
 	}
 
-        //cache output dimension
-        if (components.size() > 0) {
-            outputDimension = components.get(components.size()-1).getOutputDimension();
-        } else {
-            outputDimension = 0;
-        }
-
-        //cache components
-	compArr = components.toArray(new Transformer[components.size()]);
-        compOutDimensionArr = new int[components.size()];
-        for(int i = 0;i<components.size();i++){
-            compOutDimensionArr[i] = compArr[i].getOutputDimension();
-        }
-
-
-	checked = true;
-        if (doDebug) {System.err.println("Check: exit "+compArr.length);}
+	compiled = new CompiledTransform(components.toArray(new Transformer[components.size()]));
+	if (doDebug) {System.err.println("Check: exit "+components.size());}
     }
     
     /** Return the inverse of this series of transformations. */
@@ -283,7 +294,7 @@ public class Converter extends Transformer implements Component {
 	// the transformations in 'this'.
 	int n = components.size();
 	for (int i=0; i<n; i += 1) {
-	    if (!components.get(n-i).isInverse(c.components.get(i))) {
+	    if (!components.get(n-1-i).isInverse(c.components.get(i))) {
 		return false;
 	    }
 	}
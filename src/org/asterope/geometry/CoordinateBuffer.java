@@ -0,0 +1,326 @@
+package org.asterope.geometry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/** A set of points held in NIO buffers rather than Java arrays.
+ *  The buffers may be direct or mapped from a file, so that large
+ *  catalogs can be transformed without copying them onto the heap.
+ *  <p>
+ *  The coordinates may be interleaved, with all of the coordinates
+ *  of the first point followed by those of the second, or held
+ *  in a separate buffer for each axis.  In either case the points start
+ *  at the position the buffers had when the CoordinateBuffer was
+ *  created; later changes to the positions of the original buffers
+ *  have no effect.
+ *  <p>
+ *  A single NIO buffer holds at most 2^31-1 elements and a single
+ *  file mapping at most 2 GB, so larger sets of points are split
+ *  into segments: each axis (or the interleaved coordinates) is a
+ *  list of buffers which all hold the same number of points except
+ *  the last, which may hold fewer.  Points are numbered with longs
+ *  across the segments.  map() and allocateDirect() split the data
+ *  into segments of 1 GB.
+ */
+public final class CoordinateBuffer {
+
+    /** The largest segment created by map() and allocateDirect(), in bytes */
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    /** The segments of each axis, or of the interleaved coordinates:
+     *  segments[stream][segment].
+     */
+    private final DoubleBuffer[][] segments;
+
+    /** The number of points in each segment but the last */
+    private final int     segmentPoints;
+
+    private final int     dimension;
+    private final long    size;
+    private final boolean interleaved;
+
+    private CoordinateBuffer(DoubleBuffer[][] segments, int segmentPoints, int dimension,
+			     long size, boolean interleaved) {
+	this.segments      = segments;
+	this.segmentPoints = segmentPoints;
+	this.dimension     = dimension;
+	this.size          = size;
+	this.interleaved   = interleaved;
+    }
+
+    /** Wrap a buffer of interleaved coordinates.  The remaining
+     *  elements of the buffer are used.
+     *  @param data      The coordinates x0,y0,(z0),x1,y1,...
+     *  @param dimension The number of coordinates per point.
+     */
+    public static CoordinateBuffer interleaved(DoubleBuffer data, int dimension) {
+	return interleaved(dimension, data);
+    }
+
+    /** Wrap a series of buffers of interleaved coordinates which are
+     *  used one after another.  Each buffer must hold a whole number of
+     *  points and all but the last the same number.
+     *  @param dimension The number of coordinates per point.
+     *  @param segments  The buffers, each starting at its position.
+     */
+    public static CoordinateBuffer interleaved(int dimension, DoubleBuffer... segments) {
+	if (dimension < 1) {
+	    throw new IllegalArgumentException("Invalid dimension:"+dimension);
+	}
+	for (DoubleBuffer b: segments) {
+	    if (b.remaining() % dimension != 0) {
+		throw new IllegalArgumentException("Buffer does not hold a whole number of points");
+	    }
+	}
+	return create(new DoubleBuffer[][]{segments}, dimension, true);
+    }
+
+    /** Wrap a buffer for each axis.  The buffers must have the
+     *  same number of remaining elements.
+     */
+    public static CoordinateBuffer columns(DoubleBuffer... axes) {
+	DoubleBuffer[][] segs = new DoubleBuffer[axes.length][];
+	for (int i=0; i<axes.length; i += 1) {
+	    segs[i] = new DoubleBuffer[]{axes[i]};
+	}
+	return columns(segs);
+    }
+
+    /** Wrap a series of buffers for each axis.  Every axis must be
+     *  split in the same way, and all of the segments but the last
+     *  must be the same length.
+     *  @param axes The buffers, as axes[axis][segment].
+     */
+    public static CoordinateBuffer columns(DoubleBuffer[][] axes) {
+	if (axes.length < 1) {
+	    throw new IllegalArgumentException("No coordinate buffers");
+	}
+	for (int i=1; i<axes.length; i += 1) {
+	    if (axes[i].length != axes[0].length) {
+		throw new IllegalArgumentException("Coordinate buffers differ in length");
+	    }
+	    for (int j=0; j<axes[i].length; j += 1) {
+		if (axes[i][j].remaining() != axes[0][j].remaining()) {
+		    throw new IllegalArgumentException("Coordinate buffers differ in length");
+		}
+	    }
+	}
+	return create(axes, axes.length, false);
+    }
+
+    /** Slice the segments and check that they can be indexed. */
+    private static CoordinateBuffer create(DoubleBuffer[][] axes, int dimension, boolean interleaved) {
+
+	int per = interleaved ? dimension : 1;
+	int nseg = axes[0].length;
+	if (nseg < 1) {
+	    throw new IllegalArgumentException("No coordinate buffers");
+	}
+	int segmentPoints = axes[0][0].remaining()/per;
+	long size = 0;
+	DoubleBuffer[][] segs = new DoubleBuffer[axes.length][nseg];
+	for (int j=0; j<nseg; j += 1) {
+	    int n = axes[0][j].remaining()/per;
+	    if (j < nseg-1 ? n != segmentPoints : n > segmentPoints) {
+		throw new IllegalArgumentException("Coordinate segments differ in length");
+	    }
+	    if (n == 0 && nseg > 1) {
+		throw new IllegalArgumentException("Empty coordinate segment");
+	    }
+	    size += n;
+	    for (int i=0; i<axes.length; i += 1) {
+		segs[i][j] = axes[i][j].slice();
+	    }
+	}
+	return new CoordinateBuffer(segs, Math.max(segmentPoints, 1), dimension, size, interleaved);
+    }
+
+    /** Allocate direct buffers for the given number of points.
+     *  @param interleaved Should the coordinates be interleaved or
+     *                     held in a buffer for each axis.
+     */
+    public static CoordinateBuffer allocateDirect(int dimension, long size, boolean interleaved) {
+	if (dimension < 1 || size < 0) {
+	    throw new IllegalArgumentException("Invalid dimension or size:"+dimension+" "+size);
+	}
+	int per = interleaved ? dimension : 1;
+	int seg = segmentPoints(per, SEGMENT_BYTES);
+	int nseg = (int) Math.max(1, (size+seg-1)/seg);
+	DoubleBuffer[][] axes = new DoubleBuffer[interleaved ? 1 : dimension][nseg];
+	for (int i=0; i<axes.length; i += 1) {
+	    for (int j=0; j<nseg; j += 1) {
+		long n = Math.min(seg, size - (long) j*seg);
+		axes[i][j] = ByteBuffer.allocateDirect((int) (8*n*per))
+		  .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	    }
+	}
+	return interleaved ? interleaved(dimension, axes[0]) : columns(axes);
+    }
+
+    /** Map the points in a file.  The file is mapped in segments of
+     *  up to 1 GB, so it may be larger than a single mapping allows.
+     *  If the coordinates are not interleaved the axes follow one
+     *  another, each holding size doubles.
+     *  @param channel     The file.
+     *  @param mode        How the file is mapped.
+     *  @param position    The offset of the first coordinate in the file, in bytes.
+     *  @param order       The byte order of the data.
+     *  @param dimension   The number of coordinates per point.
+     *  @param size        The number of points.
+     *  @param interleaved Are the coordinates interleaved?
+     */
+    public static CoordinateBuffer map(FileChannel channel, FileChannel.MapMode mode, long position,
+				       ByteOrder order, int dimension, long size,
+				       boolean interleaved) throws IOException {
+	return map(channel, mode, position, order, dimension, size, interleaved,
+		   segmentPoints(interleaved ? dimension : 1, SEGMENT_BYTES));
+    }
+
+    /** Map a file with a given number of points per segment. */
+    static CoordinateBuffer map(FileChannel channel, FileChannel.MapMode mode, long position,
+				ByteOrder order, int dimension, long size,
+				boolean interleaved, int segmentPoints) throws IOException {
+	if (dimension < 1 || size < 0) {
+	    throw new IllegalArgumentException("Invalid dimension or size:"+dimension+" "+size);
+	}
+	int per = interleaved ? dimension : 1;
+	int nseg = (int) Math.max(1, (size+segmentPoints-1)/segmentPoints);
+	DoubleBuffer[][] axes = new DoubleBuffer[interleaved ? 1 : dimension][nseg];
+	for (int i=0; i<axes.length; i += 1) {
+	    long axisStart = position + 8*size*i;
+	    for (int j=0; j<nseg; j += 1) {
+		long first = (long) j*segmentPoints;
+		long n = Math.min(segmentPoints, size - first);
+		axes[i][j] = channel.map(mode, axisStart + 8*first*per, 8*n*per)
+		  .order(order).asDoubleBuffer();
+	    }
+	}
+	return interleaved ? interleaved(dimension, axes[0]) : columns(axes);
+    }
+
+    /** The number of points of the given number of doubles which fit in a segment. */
+    private static int segmentPoints(int per, int bytes) {
+	return bytes/(8*per);
+    }
+
+    /** The number of coordinates per point */
+    public int getDimension() {
+	return dimension;
+    }
+
+    /** The number of points */
+    public long size() {
+	return size;
+    }
+
+    /** Are the coordinates interleaved? */
+    public boolean isInterleaved() {
+	return interleaved;
+    }
+
+    /** Get one coordinate of a point */
+    public double get(long point, int axis) {
+	checkRange(point, 1);
+	int seg = (int) (point/segmentPoints);
+	int i = (int) (point - (long) seg*segmentPoints);
+	if (interleaved) {
+	    return segments[0][seg].get(i*dimension + axis);
+	} else {
+	    return segments[axis][seg].get(i);
+	}
+    }
+
+    /** Set one coordinate of a point */
+    public void put(long point, int axis, double value) {
+	checkRange(point, 1);
+	int seg = (int) (point/segmentPoints);
+	int i = (int) (point - (long) seg*segmentPoints);
+	if (interleaved) {
+	    segments[0][seg].put(i*dimension + axis, value);
+	} else {
+	    segments[axis][seg].put(i, value);
+	}
+    }
+
+    private void checkRange(long start, int len) {
+	if (start < 0 || len < 0 || start > size - len) {
+	    throw new IndexOutOfBoundsException("Points "+start+" to "+(start+len)+" of "+size);
+	}
+    }
+
+    /** Copy points into a block of arrays.
+     *  @param start The first point to copy.
+     *  @param len   The number of points.
+     *  @param block The destination, in the [axis][point] layout.
+     *  @param off   The offset in the destination arrays.
+     */
+    public void read(long start, int len, double[][] block, int off) {
+	checkRange(start, len);
+	int dim = dimension;
+	while (len > 0) {
+	    // Copy the points which are in the same segment.
+	    int seg = (int) (start/segmentPoints);
+	    int first = (int) (start - (long) seg*segmentPoints);
+	    int n = Math.min(len, segmentPoints-first);
+	    if (interleaved) {
+		DoubleBuffer b = segments[0][seg];
+		for (int i=0; i<n; i += 1) {
+		    int base = (first+i)*dim;
+		    for (int j=0; j<dim; j += 1) {
+			block[j][off+i] = b.get(base+j);
+		    }
+		}
+	    } else {
+		for (int j=0; j<dim; j += 1) {
+		    DoubleBuffer b = segments[j][seg];
+		    double[] a = block[j];
+		    for (int i=0; i<n; i += 1) {
+			a[off+i] = b.get(first+i);
+		    }
+		}
+	    }
+	    start += n;
+	    off   += n;
+	    len   -= n;
+	}
+    }
+
+    /** Copy points from a block of arrays.
+     *  @param start The first point to be set.
+     *  @param len   The number of points.
+     *  @param block The source, in the [axis][point] layout.
+     *  @param off   The offset in the source arrays.
+     */
+    public void write(long start, int len, double[][] block, int off) {
+	checkRange(start, len);
+	int dim = dimension;
+	while (len > 0) {
+	    int seg = (int) (start/segmentPoints);
+	    int first = (int) (start - (long) seg*segmentPoints);
+	    int n = Math.min(len, segmentPoints-first);
+	    if (interleaved) {
+		DoubleBuffer b = segments[0][seg];
+		for (int i=0; i<n; i += 1) {
+		    int base = (first+i)*dim;
+		    for (int j=0; j<dim; j += 1) {
+			b.put(base+j, block[j][off+i]);
+		    }
+		}
+	    } else {
+		for (int j=0; j<dim; j += 1) {
+		    DoubleBuffer b = segments[j][seg];
+		    double[] a = block[j];
+		    for (int i=0; i<n; i += 1) {
+			b.put(first+i, a[off+i]);
+		    }
+		}
+	    }
+	    start += n;
+	    off   += n;
+	    len   -= n;
+	}
+    }
+}
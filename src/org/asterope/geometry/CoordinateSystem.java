@@ -1,5 +1,7 @@
 package org.asterope.geometry;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.asterope.geometry.csys.*;
 
 /** 
@@ -40,6 +42,22 @@ public abstract class CoordinateSystem implements Component {
     /** Standard ICRS coordinates */
     public static final CoordinateSystem ICRS = new ICRS();
     
+    /** Systems returned by the factory, keyed by the initial and epoch,
+     *  e.g., "J1975.5".  A system and its rotations are only created once.
+     */
+    private static final ConcurrentHashMap<String, CoordinateSystem> interned =
+      new ConcurrentHashMap<String, CoordinateSystem>();
+    
+    /** Past this many systems (e.g., helioecliptic systems for many
+     *  different dates) new systems are no longer kept.
+     */
+    private static final int MAX_INTERNED = 1024;
+    
+    static {
+	interned.put("J2000.0", J2000);
+	interned.put("B1950.0", B1950);
+    }
+    
     /** Get a coordinate system by name.
      *  @param name A designation of the desired coordinate
      *              system.  Normally the name is an initial
@@ -53,7 +71,8 @@ public abstract class CoordinateSystem implements Component {
      *      <dt>H   <dd> Helioecliptic coordinates.
      *      <dt>G   <dd> Galactic coordinates.  Only the first letter is parsed.
      *  </dl>
-     *  The name is not case-sensitive.
+     *  The name is not case-sensitive.  The same object is returned
+     *  for the same system and epoch.
      */
     public static CoordinateSystem factory(String name) {
 	return factory(name, null);
@@ -90,18 +109,42 @@ public abstract class CoordinateSystem implements Component {
 	    if  (epoch < 0) {
 		epoch = 2000;
 	    }
-	    return new Julian(epoch);
+	    break;
           case 'B':
 	    if (epoch < 0) {
 		epoch = 1950;
 	    }
-	    return new Besselian(epoch);
+	    break;
           case 'E':
-	    return new Ecliptic(epoch);
           case 'H':
-	    return new Helioecliptic(epoch);
+	    break;
           default:
 	    return null;
 	}
+	
+	String key = c + Double.toString(epoch);
+	CoordinateSystem csys = interned.get(key);
+	if (csys == null) {
+	    switch (c) {
+	      case 'J':
+		csys = new Julian(epoch);
+		break;
+	      case 'B':
+		csys = new Besselian(epoch);
+		break;
+	      case 'E':
+		csys = new Ecliptic(epoch);
+		break;
+	      default:
+		csys = new Helioecliptic(epoch);
+	    }
+	    if (interned.size() < MAX_INTERNED) {
+		CoordinateSystem old = interned.putIfAbsent(key, csys);
+		if (old != null) {
+		    csys = old;
+		}
+	    }
+	}
+	return csys;
     }
 }
@@ -0,0 +1,759 @@
+package org.asterope.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.asterope.geometry.distorter.DSS;
+
+/** Builds a WCS from the keywords of a FITS header.
+ *  <p>
+ *  Celestial WCS keywords (CTYPEi, CRVALi, CRPIXi, CDi_j or PCi_j with
+ *  CDELTi or CDELTi with CROTA2, LONPOLE, LATPOLE, EQUINOX or EPOCH and
+ *  RADESYS) are understood for the zenithal projections and for CAR,
+ *  AIT, SFL, CSC and HPX.  Headers without CTYPE but with the DSS plate
+ *  solution keywords (PLTRAH..., PPOn, AMDXn, AMDYn, CNPIXn) are built
+ *  with the DSS distorter.
+ *  <p>
+ *  The header is read directly from the bytes of its 80 character
+ *  cards, e.g., from a memory mapped file, without making strings of
+ *  the cards.  The work of turning the keywords into the pieces of a
+ *  WCS is kept in a cache keyed on the keyword values, so headers which
+ *  share the same WCS keywords only do it once.  Each parse still
+ *  returns a WCS of its own which the caller is free to change.
+ *  <p>
+ *  As elsewhere in this package, pixel x covers the pixel coordinates
+ *  x to x+1, so FITS pixel coordinates are 0.5 larger.
+ */
+public final class FitsWcsParser {
+
+    private static final int CARD  = 80;
+    private static final int BLOCK = 2880;
+
+    private static final double D2R = Math.PI/180;
+    private static final double R2D = 180/Math.PI;
+
+    // The keywords, in the order they are kept in a Keywords.
+    private static final int CTYPE1  = 0,  CTYPE2  = 1,  RADESYS = 2,  PLTDECSN = 3;
+    private static final int STRINGS = 4;
+
+    private static final int CRVAL1  = 0,  CRVAL2  = 1,  CRPIX1  = 2,  CRPIX2  = 3;
+    private static final int CD1_1   = 4,  CD1_2   = 5,  CD2_1   = 6,  CD2_2   = 7;
+    private static final int PC1_1   = 8,  PC1_2   = 9,  PC2_1   = 10, PC2_2   = 11;
+    private static final int CDELT1  = 12, CDELT2  = 13, CROTA2  = 14;
+    private static final int LONPOLE = 15, LATPOLE = 16, EQUINOX = 17, EPOCH   = 18;
+    private static final int PLTRAH  = 19, PLTRAM  = 20, PLTRAS  = 21;
+    private static final int PLTDECD = 22, PLTDECM = 23, PLTDECS = 24;
+    private static final int PLTSCALE = 25, XPIXELSZ = 26, YPIXELSZ = 27;
+    private static final int CNPIX1  = 28, CNPIX2  = 29;
+    private static final int PPO1    = 30;
+    private static final int AMDX1   = PPO1 + 6;
+    private static final int AMDY1   = AMDX1 + 20;
+    private static final int NUMBERS = AMDY1 + 20;
+
+    private static final String[] STRING_KEYS = {"CTYPE1", "CTYPE2", "RADESYS", "PLTDECSN"};
+
+    private static final String[] NUMBER_KEYS = {
+	"CRVAL1", "CRVAL2", "CRPIX1", "CRPIX2",
+	"CD1_1", "CD1_2", "CD2_1", "CD2_2",
+	"PC1_1", "PC1_2", "PC2_1", "PC2_2",
+	"CDELT1", "CDELT2", "CROTA2",
+	"LONPOLE", "LATPOLE", "EQUINOX", "EPOCH",
+	"PLTRAH", "PLTRAM", "PLTRAS",
+	"PLTDECD", "PLTDECM", "PLTDECS",
+	"PLTSCALE", "XPIXELSZ", "YPIXELSZ",
+	"CNPIX1", "CNPIX2"
+    };
+
+    /** Keywords packed into longs, and where their values go:
+     *  1+slot for numbers and -1-slot for strings.
+     */
+    private static final long[] keyNames;
+    private static final int[]  keySlots;
+    private static final int    keyMask;
+
+    private static final long END = pack("END");
+
+    static {
+	int n = STRING_KEYS.length + NUMBER_KEYS.length + 6 + 40;
+	int size = Integer.highestOneBit(4*n);
+	keyNames = new long[size];
+	keySlots = new int[size];
+	keyMask  = size - 1;
+	for (int i=0; i<STRING_KEYS.length; i += 1) {
+	    addKey(STRING_KEYS[i], -1-i);
+	}
+	// RADECSYS is the older name for RADESYS.
+	addKey("RADECSYS", -1-RADESYS);
+	for (int i=0; i<NUMBER_KEYS.length; i += 1) {
+	    addKey(NUMBER_KEYS[i], i);
+	}
+	for (int i=0; i<6; i += 1) {
+	    addKey("PPO"+(i+1), PPO1+i);
+	}
+	for (int i=0; i<20; i += 1) {
+	    addKey("AMDX"+(i+1), AMDX1+i);
+	    addKey("AMDY"+(i+1), AMDY1+i);
+	}
+    }
+
+    /** The eight keyword characters of a card as a long. */
+    private static long pack(String key) {
+	long k = 0;
+	for (int i=0; i<8; i += 1) {
+	    k = (k << 8) | (i < key.length() ? key.charAt(i) : ' ');
+	}
+	return k;
+    }
+
+    private static int hash(long k) {
+	k *= 0x9E3779B97F4A7C15L;
+	return (int) (k >>> 40);
+    }
+
+    private static void addKey(String key, int slot) {
+	long k = pack(key);
+	int h = hash(k) & keyMask;
+	while (keyNames[h] != 0) {
+	    h = (h+1) & keyMask;
+	}
+	keyNames[h] = k;
+	keySlots[h] = slot >= 0 ? slot+1 : slot;
+    }
+
+    /** Find the slot of a keyword, or 0 if we do not want it. */
+    private static int lookup(long k) {
+	int h = hash(k) & keyMask;
+	long n;
+	while ((n = keyNames[h]) != 0) {
+	    if (n == k) {
+		return keySlots[h];
+	    }
+	    h = (h+1) & keyMask;
+	}
+	return 0;
+    }
+
+    /** The WCS keyword values of a header.  This is the key of the cache. */
+    private static final class Keywords {
+
+	final double[] numbers = new double[NUMBERS];
+	final byte[][] strings = new byte[STRINGS][];
+	long hash;
+
+	Keywords() {
+	    Arrays.fill(numbers, Double.NaN);
+	}
+
+	boolean has(int slot) {
+	    return !Double.isNaN(numbers[slot]);
+	}
+
+	double get(int slot, double def) {
+	    double v = numbers[slot];
+	    return Double.isNaN(v) ? def : v;
+	}
+
+	/** A string value, or "" if absent. */
+	String string(int slot) {
+	    byte[] s = strings[slot];
+	    return s == null ? "" : new String(s, StandardCharsets.US_ASCII);
+	}
+
+	/** A 64 bit FNV-1a hash of the values found. */
+	void computeHash() {
+	    long h = 0xcbf29ce484222325L;
+	    for (int i=0; i<NUMBERS; i += 1) {
+		long v = Double.doubleToLongBits(numbers[i]);
+		for (int b=0; b<64; b += 8) {
+		    h = (h ^ ((v >>> b) & 0xff)) * 0x100000001b3L;
+		}
+	    }
+	    for (byte[] s: strings) {
+		if (s != null) {
+		    for (byte c: s) {
+			h = (h ^ (c & 0xff)) * 0x100000001b3L;
+		    }
+		}
+		h = (h ^ 0xff) * 0x100000001b3L;
+	    }
+	    hash = h;
+	}
+
+	public int hashCode() {
+	    return (int) (hash ^ (hash >>> 32));
+	}
+
+	public boolean equals(Object o) {
+	    if (!(o instanceof Keywords)) {
+		return false;
+	    }
+	    Keywords k = (Keywords) o;
+	    if (k.hash != hash || !Arrays.equals(numbers, k.numbers)) {
+		return false;
+	    }
+	    for (int i=0; i<STRINGS; i += 1) {
+		if (!Arrays.equals(strings[i], k.strings[i])) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+
+    /** The pieces of the WCS for a set of keywords.  The cache holds
+     *  these rather than WCSs, since a WCS can be changed by its user.
+     */
+    private static final class Recipe {
+
+	final CoordinateSystem csys;
+	final String     proj;
+	/** The reference point, or null for the projection's fixed point */
+	final double[]   reference;
+	/** The rotation to native coordinates, or null for the default */
+	final double[][] rotation;
+	/** The scaler parameters */
+	final double[]   scaler;
+	/** The DSS plate center, pixel sizes and scale, or null */
+	final double[]   plate;
+	final double[]   ppo, amdx, amdy;
+
+	Recipe(CoordinateSystem csys, String proj, double[] reference,
+	       double[][] rotation, double[] scaler) {
+	    this(csys, proj, reference, rotation, scaler, null, null, null, null);
+	}
+
+	Recipe(CoordinateSystem csys, String proj, double[] reference,
+	       double[][] rotation, double[] scaler,
+	       double[] plate, double[] ppo, double[] amdx, double[] amdy) {
+	    this.csys      = csys;
+	    this.proj      = proj;
+	    this.reference = reference;
+	    this.rotation  = rotation;
+	    this.scaler    = scaler;
+	    this.plate     = plate;
+	    this.ppo       = ppo;
+	    this.amdx      = amdx;
+	    this.amdy      = amdy;
+	}
+
+	/** Build a new WCS which shares nothing that can be changed. */
+	WCS build() throws TransformationException {
+	    Projection p = reference == null ? new Projection(proj)
+					     : new Projection(proj, reference.clone());
+	    if (rotation != null) {
+		p.setRotater(new Rotater(rotation));
+	    }
+	    if (plate != null) {
+		p.setDistorter(new DSS(plate[0], plate[1], plate[2], plate[3], plate[4],
+				       ppo.clone(), amdx.clone(), amdy.clone()));
+	    }
+	    return new WCS(csys, p, new Scaler(scaler[0], scaler[1], scaler[2],
+					       scaler[3], scaler[4], scaler[5]));
+	}
+    }
+
+    private final Map<Keywords, Recipe> cache;
+    private long hits, misses;
+
+    /** Create a parser which caches the last 1024 headers */
+    public FitsWcsParser() {
+	this(1024);
+    }
+
+    /** Create a parser.
+     *  @param cacheSize The number of headers to keep, or 0 for no cache.
+     */
+    public FitsWcsParser(final int cacheSize) {
+	cache = new LinkedHashMap<Keywords, Recipe>(16, 0.75f, true) {
+	    protected boolean removeEldestEntry(Map.Entry<Keywords, Recipe> e) {
+		return size() > cacheSize;
+	    }
+	};
+    }
+
+    /** Build the WCS for the header starting at the buffer's position.
+     *  The position is left after the last 2880 byte block of the header,
+     *  or at the limit of the buffer if that comes first.
+     *  @throws TransformationException if the header has no usable WCS.
+     */
+    public WCS parse(ByteBuffer header) throws TransformationException {
+
+	Keywords k = new Keywords();
+	int start = header.position();
+	int limit = header.limit();
+	int p     = start;
+	boolean ended = false;
+
+	for (; p+CARD <= limit; p += CARD) {
+	    long key = 0;
+	    for (int i=0; i<8; i += 1) {
+		key = (key << 8) | (header.get(p+i) & 0xff);
+	    }
+	    if (key == END) {
+		ended = true;
+		p += CARD;
+		break;
+	    }
+	    int slot = lookup(key);
+	    if (slot == 0 || header.get(p+8) != '=') {
+		continue;
+	    }
+	    if (slot < 0) {
+		k.strings[-slot-1] = stringValue(header, p+10, p+CARD);
+	    } else {
+		k.numbers[slot-1] = numberValue(header, p+10, p+CARD);
+	    }
+	}
+	if (!ended) {
+	    throw new TransformationException("No END card in FITS header");
+	}
+	int next = start + (p - start + BLOCK - 1)/BLOCK*BLOCK;
+	header.position(Math.min(next, limit));
+
+	k.computeHash();
+	Recipe r;
+	synchronized (cache) {
+	    r = cache.get(k);
+	    if (r != null) {
+		hits += 1;
+	    } else {
+		misses += 1;
+	    }
+	}
+	if (r == null) {
+	    r = recipe(k);
+	    synchronized (cache) {
+		cache.put(k, r);
+	    }
+	}
+	return r.build();
+    }
+
+    /** Build the WCS for a header held in a byte array. */
+    public WCS parse(byte[] header) throws TransformationException {
+	return parse(ByteBuffer.wrap(header));
+    }
+
+    /** Build the WCS for a header given as text, e.g., the contents of
+     *  a .hdr file.  Each line is a card and is padded to 80 characters;
+     *  an END card is added if there is none.
+     */
+    public WCS parse(String header) throws TransformationException {
+	String[] lines = header.split("\r?\n");
+	byte[] b = new byte[(lines.length+1)*CARD];
+	Arrays.fill(b, (byte) ' ');
+	for (int i=0; i<lines.length; i += 1) {
+	    byte[] l = lines[i].getBytes(StandardCharsets.US_ASCII);
+	    System.arraycopy(l, 0, b, i*CARD, Math.min(CARD, l.length));
+	}
+	b[lines.length*CARD]   = 'E';
+	b[lines.length*CARD+1] = 'N';
+	b[lines.length*CARD+2] = 'D';
+	return parse(b);
+    }
+
+    /** The number of parses answered from the cache */
+    public long getCacheHits() {
+	synchronized (cache) {
+	    return hits;
+	}
+    }
+
+    /** The number of parses which were not answered from the cache */
+    public long getCacheMisses() {
+	synchronized (cache) {
+	    return misses;
+	}
+    }
+
+    /** Forget the cached headers */
+    public void clearCache() {
+	synchronized (cache) {
+	    cache.clear();
+	}
+    }
+
+    /** The value of a string card, without the quotes and trailing blanks. */
+    private static byte[] stringValue(ByteBuffer b, int p, int end) {
+	while (p < end && b.get(p) == ' ') {
+	    p += 1;
+	}
+	if (p >= end || b.get(p) != '\'') {
+	    return null;
+	}
+	p += 1;
+	byte[] s = new byte[end-p];
+	int n = 0;
+	while (p < end) {
+	    byte c = b.get(p);
+	    if (c == '\'') {
+		// A doubled quote is a quote.
+		if (p+1 < end && b.get(p+1) == '\'') {
+		    s[n++] = c;
+		    p += 2;
+		    continue;
+		}
+		break;
+	    }
+	    s[n++] = c;
+	    p += 1;
+	}
+	while (n > 0 && s[n-1] == ' ') {
+	    n -= 1;
+	}
+	return Arrays.copyOf(s, n);
+    }
+
+    private static final double[] POW10 = {
+	1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+	1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** The value of a numeric card, or NaN if it is not a number.
+     *  Numbers with at most 15 significant digits and small exponents
+     *  are converted exactly from the digits; anything else goes
+     *  through Double.parseDouble.
+     */
+    private static double numberValue(ByteBuffer b, int p, int end) {
+
+	while (p < end && b.get(p) == ' ') {
+	    p += 1;
+	}
+	int first = p;
+	boolean negative = false;
+	if (p < end && (b.get(p) == '-' || b.get(p) == '+')) {
+	    negative = b.get(p) == '-';
+	    p += 1;
+	}
+	long    mantissa = 0;
+	int     digits   = 0;
+	int     scale    = 0;
+	boolean any      = false;
+	boolean point    = false;
+	for (; p < end; p += 1) {
+	    byte c = b.get(p);
+	    if (c >= '0' && c <= '9') {
+		any = true;
+		if (mantissa == 0 && c == '0') {
+		    // Leading zeros only move the decimal point.
+		    if (point) {
+			scale -= 1;
+		    }
+		} else if (digits < 18) {
+		    mantissa = 10*mantissa + (c - '0');
+		    digits  += 1;
+		    if (point) {
+			scale -= 1;
+		    }
+		} else {
+		    // Too many digits for the long: drop them.
+		    digits += 1;
+		    if (!point) {
+			scale += 1;
+		    }
+		}
+	    } else if (c == '.' && !point) {
+		point = true;
+	    } else {
+		break;
+	    }
+	}
+	if (!any) {
+	    return Double.NaN;
+	}
+	int exponent = 0;
+	if (p < end && (b.get(p) == 'E' || b.get(p) == 'e' || b.get(p) == 'D' || b.get(p) == 'd')) {
+	    p += 1;
+	    boolean eneg = false;
+	    if (p < end && (b.get(p) == '-' || b.get(p) == '+')) {
+		eneg = b.get(p) == '-';
+		p += 1;
+	    }
+	    int start = p;
+	    while (p < end && b.get(p) >= '0' && b.get(p) <= '9' && exponent < 10000) {
+		exponent = 10*exponent + (b.get(p) - '0');
+		p += 1;
+	    }
+	    if (p == start) {
+		return Double.NaN;
+	    }
+	    if (eneg) {
+		exponent = -exponent;
+	    }
+	}
+	while (p < end && b.get(p) == ' ') {
+	    p += 1;
+	}
+	if (p < end && b.get(p) != '/') {
+	    return Double.NaN;
+	}
+
+	int e = exponent + scale;
+	double v;
+	if (mantissa == 0) {
+	    v = 0;
+	} else if (digits <= 15 && e >= -22 && e <= 22) {
+	    v = e < 0 ? mantissa / POW10[-e] : mantissa * POW10[e];
+	} else {
+	    byte[] s = new byte[p-first];
+	    for (int i=0; i<s.length; i += 1) {
+		byte c = b.get(first+i);
+		s[i] = (c == 'D' || c == 'd') ? (byte) 'E' : c;
+	    }
+	    try {
+		return Double.parseDouble(new String(s, StandardCharsets.US_ASCII).trim());
+	    } catch (NumberFormatException x) {
+		return Double.NaN;
+	    }
+	}
+	return negative ? -v : v;
+    }
+
+    /** Work out the pieces of the WCS from the keyword values. */
+    private static Recipe recipe(Keywords k) throws TransformationException {
+	if (k.strings[CTYPE1] == null && k.has(PLTRAH)) {
+	    return dss(k);
+	}
+
+	String t1 = k.string(CTYPE1);
+	String t2 = k.string(CTYPE2);
+	if (t1.length() < 8 || t2.length() < 8) {
+	    throw new TransformationException("Missing or invalid CTYPE: '"+t1+"' '"+t2+"'");
+	}
+	String code = t1.substring(5, 8);
+	if (!code.equals(t2.substring(5, 8))) {
+	    throw new TransformationException("Inconsistent projections: '"+t1+"' '"+t2+"'");
+	}
+	if (!k.has(CRVAL1) || !k.has(CRVAL2) || !k.has(CRPIX1) || !k.has(CRPIX2)) {
+	    throw new TransformationException("Missing CRVAL or CRPIX");
+	}
+
+	double crval1 = k.numbers[CRVAL1];
+	double crval2 = k.numbers[CRVAL2];
+	double[] cd = linear(k);
+
+	// Latitude first: swap the world axes.
+	boolean swap = isLatitude(t1);
+	if (swap) {
+	    String t = t1;
+	    t1 = t2;
+	    t2 = t;
+	    double c = crval1;
+	    crval1 = crval2;
+	    crval2 = c;
+	    cd = new double[]{cd[2], cd[3], cd[0], cd[1]};
+	}
+	if (!isLatitude(t2)) {
+	    throw new TransformationException("Not a celestial WCS: '"+t1+"' '"+t2+"'");
+	}
+
+	CoordinateSystem csys = coordinateSystem(t1, k);
+	String name = code.charAt(0) + code.substring(1).toLowerCase();
+	boolean zenithal = Projection.fixedPoint(name) == null;
+	if (!zenithal && !cylindrical(name)) {
+	    throw new TransformationException("Unsupported projection: "+code);
+	}
+	if (!ProjecterRegistry.getDefault().contains(name)) {
+	    throw new TransformationException("Unsupported projection: "+code);
+	}
+	double[][] m = rotation(zenithal, crval1*D2R, crval2*D2R,
+				k.get(LONPOLE, Double.NaN), k.get(LATPOLE, 90));
+	return new Recipe(csys, name, zenithal ? new double[]{crval1*D2R, crval2*D2R} : null,
+			  m, scaler(k.numbers[CRPIX1], k.numbers[CRPIX2], cd));
+    }
+
+    private static boolean isLatitude(String ctype) {
+	String p = ctype.substring(0, 4);
+	return p.equals("DEC-") || p.substring(1).equals("LAT");
+    }
+
+    /** The CD matrix in degrees from CD, PC and CDELT, or CDELT and CROTA2. */
+    private static double[] linear(Keywords k) throws TransformationException {
+	if (k.has(CD1_1) || k.has(CD1_2) || k.has(CD2_1) || k.has(CD2_2)) {
+	    return new double[]{k.get(CD1_1, 0), k.get(CD1_2, 0), k.get(CD2_1, 0), k.get(CD2_2, 0)};
+	}
+	if (!k.has(CDELT1) || !k.has(CDELT2)) {
+	    throw new TransformationException("No CD or CDELT keywords");
+	}
+	double d1 = k.numbers[CDELT1];
+	double d2 = k.numbers[CDELT2];
+	if (k.has(PC1_1) || k.has(PC1_2) || k.has(PC2_1) || k.has(PC2_2)) {
+	    return new double[]{d1*k.get(PC1_1, 1), d1*k.get(PC1_2, 0),
+				d2*k.get(PC2_1, 0), d2*k.get(PC2_2, 1)};
+	}
+	double r = k.get(CROTA2, 0)*D2R;
+	double c = Math.cos(r), s = Math.sin(r);
+	return new double[]{d1*c, -d2*s, d1*s, d2*c};
+    }
+
+    /** The parameters of the scaler from the projection plane
+     *  (in radians) to pixels.
+     */
+    private static double[] scaler(double crpix1, double crpix2, double[] cd)
+      throws TransformationException {
+	double det = cd[0]*cd[3] - cd[1]*cd[2];
+	if (det == 0) {
+	    throw new TransformationException("Singular CD matrix");
+	}
+	return new double[]{crpix1-0.5, crpix2-0.5,
+			    R2D*cd[3]/det, -R2D*cd[1]/det,
+			   -R2D*cd[2]/det,  R2D*cd[0]/det};
+    }
+
+    private static CoordinateSystem coordinateSystem(String ctype, Keywords k)
+      throws TransformationException {
+
+	String prefix = ctype.substring(0, 4);
+	double equinox = k.get(EQUINOX, k.get(EPOCH, Double.NaN));
+	if (prefix.equals("GLON")) {
+	    return CoordinateSystem.Gal;
+	}
+	if (prefix.equals("ELON")) {
+	    return CoordinateSystem.factory("E"+(Double.isNaN(equinox) ? 2000 : equinox));
+	}
+	if (prefix.equals("HLON")) {
+	    return CoordinateSystem.factory("H"+(Double.isNaN(equinox) ? 2000 : equinox));
+	}
+	if (!prefix.equals("RA--")) {
+	    throw new TransformationException("Unsupported coordinate type: '"+ctype+"'");
+	}
+
+	String sys = k.string(RADESYS);
+	if (sys.length() == 0) {
+	    if (Double.isNaN(equinox)) {
+		sys = "ICRS";
+	    } else {
+		sys = equinox < 1984 ? "FK4" : "FK5";
+	    }
+	}
+	if (sys.equals("ICRS")) {
+	    return CoordinateSystem.ICRS;
+	} else if (sys.startsWith("FK4")) {
+	    return CoordinateSystem.factory("B"+(Double.isNaN(equinox) ? 1950 : equinox));
+	} else {
+	    if (Double.isNaN(equinox) || equinox == 2000) {
+		return CoordinateSystem.J2000;
+	    }
+	    return CoordinateSystem.factory("J"+equinox);
+	}
+    }
+
+    /** The projections whose reference point is on the native equator. */
+    private static boolean cylindrical(String name) {
+	return name.equals("Car") || name.equals("Ait") || name.equals("Sfl") ||
+	       name.equals("Csc") || name.equals("Hpx");
+    }
+
+    /** The rotation matrix from celestial to native coordinates
+     *  following Calabretta and Greisen (2002).
+     */
+    private static double[][] rotation(boolean zenithal, double ra0, double dec0,
+				       double lonpole, double latpole) {
+
+	double theta0 = zenithal ? Math.PI/2 : 0;
+	double phip;
+	if (Double.isNaN(lonpole)) {
+	    phip = dec0 >= theta0 ? 0 : Math.PI;
+	} else {
+	    phip = lonpole*D2R;
+	}
+
+	// The celestial coordinates of the native pole.
+	double rap, decp;
+	if (zenithal) {
+	    rap  = ra0;
+	    decp = dec0;
+	} else {
+	    double t = Math.atan2(0, Math.cos(phip));
+	    double d = Math.acos(Math.max(-1, Math.min(1, Math.sin(dec0)/Math.sqrt(1 - Math.pow(Math.sin(phip), 2)))));
+	    double d1 = t + d, d2 = t - d;
+	    boolean ok1 = Math.abs(d1) <= Math.PI/2 + 1e-12;
+	    boolean ok2 = Math.abs(d2) <= Math.PI/2 + 1e-12;
+	    double lat = latpole*D2R;
+	    if (ok1 && ok2) {
+		decp = Math.abs(d1-lat) <= Math.abs(d2-lat) ? d1 : d2;
+	    } else {
+		decp = ok1 ? d1 : d2;
+	    }
+	    if (Math.abs(Math.cos(decp)) < 1e-12) {
+		rap = decp > 0 ? ra0 + phip - Math.PI : ra0 - phip;
+	    } else {
+		rap = ra0 - Math.atan2(Math.sin(phip)/Math.cos(dec0),
+				       (-Math.sin(decp)*Math.sin(dec0))/(Math.cos(decp)*Math.cos(dec0)));
+	    }
+	}
+
+	// Rotate the basis vectors into native coordinates.
+	double[][] m = new double[3][3];
+	double[][] axes = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+	double cp  = Math.cos(decp), sp = Math.sin(decp);
+	for (int j=0; j<3; j += 1) {
+	    double x = axes[j][0], y = axes[j][1], z = axes[j][2];
+	    // cos(ra-rap), sin(ra-rap) times cos(dec)
+	    double ca = x*Math.cos(rap) + y*Math.sin(rap);
+	    double sa = y*Math.cos(rap) - x*Math.sin(rap);
+	    double nz = z*sp + ca*cp;
+	    double px = z*cp - ca*sp;
+	    double py = -sa;
+	    double nx = px*Math.cos(phip) - py*Math.sin(phip);
+	    double ny = px*Math.sin(phip) + py*Math.cos(phip);
+	    if (zenithal) {
+		// The zenithal projecters measure native longitude from
+		// 90 degrees further on.
+		m[0][j] = ny;
+		m[1][j] = -nx;
+	    } else {
+		m[0][j] = nx;
+		m[1][j] = ny;
+	    }
+	    m[2][j] = nz;
+	}
+	return m;
+    }
+
+    /** The pieces of a WCS from a DSS plate solution. */
+    private static Recipe dss(Keywords k) throws TransformationException {
+
+	double ra  = 15*(k.get(PLTRAH, 0) + k.get(PLTRAM, 0)/60 + k.get(PLTRAS, 0)/3600);
+	double dec = k.get(PLTDECD, 0) + k.get(PLTDECM, 0)/60 + k.get(PLTDECS, 0)/3600;
+	byte[] sign = k.strings[PLTDECSN];
+	if (sign != null && sign.length > 0 && sign[0] == '-') {
+	    dec = -dec;
+	}
+	ra  *= D2R;
+	dec *= D2R;
+
+	if (!k.has(PLTSCALE) || !k.has(XPIXELSZ) || !k.has(YPIXELSZ) || !k.has(AMDX1) || !k.has(AMDY1)) {
+	    throw new TransformationException("Incomplete DSS plate solution");
+	}
+	double scale = k.numbers[PLTSCALE];
+	double xsize = k.numbers[XPIXELSZ];
+	double ysize = k.numbers[YPIXELSZ];
+	double[] ppo = new double[6];
+	for (int i=0; i<6; i += 1) {
+	    ppo[i] = k.get(PPO1+i, 0);
+	}
+	double[] amdx = new double[20];
+	double[] amdy = new double[20];
+	for (int i=0; i<20; i += 1) {
+	    amdx[i] = k.get(AMDX1+i, 0);
+	    amdy[i] = k.get(AMDY1+i, 0);
+	}
+
+	double equinox = k.get(EQUINOX, 2000);
+	CoordinateSystem csys = equinox == 2000 ? CoordinateSystem.J2000
+						 : CoordinateSystem.factory("J"+equinox);
+	// The distorter leaves plate millimeters scaled to radians by the
+	// plate scale.  Plate x runs opposite to pixel x, and the pixel
+	// centers are at (cnpix + i + 0.5) * pixel size.
+	double mm = 1000 * R2D * 3600 / scale;
+	return new Recipe(csys, "Tan", new double[]{ra, dec}, null,
+			  new double[]{ppo[2]/xsize - k.get(CNPIX1, 0),
+				       ppo[5]/ysize - k.get(CNPIX2, 0),
+				       -mm/xsize, 0, 0, mm/ysize},
+			  new double[]{ra, dec, xsize, ysize, scale}, ppo, amdx, amdy);
+    }
+}
@@ -0,0 +1,241 @@
+package org.asterope.geometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Converts arrays of coordinates from one coordinate system to another.
+ *  The distortions and rotations which take the first system to J2000
+ *  and J2000 to the second are combined once when the converter is created.
+ *  Position does the same thing for one point at a time but builds
+ *  the transformation anew for each call.
+ *  <p>
+ *  Longitudes and latitudes are given as separate arrays, in degrees
+ *  or radians.  Output longitudes run from 0 to 360 degrees
+ *  (or 0 to 2 PI).  The output arrays may be the input arrays.
+ *  <p>
+ *  A FrameConverter is immutable and may be used by several threads
+ *  at once.  After the first call in a thread no objects are created.
+ */
+public final class FrameConverter {
+
+    private static final double D2R = Math.PI/180;
+    private static final double R2D = 180/Math.PI;
+
+    /** The unit vector transformation */
+    private final CompiledTransform transform;
+
+    /** True if the transformation is a single rotation (or none), in
+     *  which case the matrix below is used directly.
+     */
+    private final boolean rotation;
+
+    private final double m00, m01, m02;
+    private final double m10, m11, m12;
+    private final double m20, m21, m22;
+
+    /** Per-thread unit vector blocks for transformations with distortions. */
+    private final ThreadLocal<double[][][]> blocks = new ThreadLocal<double[][][]>() {
+	protected double[][][] initialValue() {
+	    return new double[2][3][CompiledTransform.BLOCK_SIZE];
+	}
+    };
+
+    /** Get a converter between two named coordinate systems.
+     *  @param from The name of the input system as understood by CoordinateSystem.factory.
+     *  @param to   The name of the output system.
+     *  @throws TransformationException if either name is not recognized.
+     */
+    public static FrameConverter of(String from, String to) throws TransformationException {
+	return of(system(from), system(to));
+    }
+
+    /** Get a converter between two coordinate systems. */
+    public static FrameConverter of(CoordinateSystem from, CoordinateSystem to) throws TransformationException {
+	Converter c = new Converter();
+	if (from != null) {
+	    if (from.getRotater() != null) {
+		c.add(from.getRotater().inverse());
+	    }
+	    if (from.getSphereDistorter() != null) {
+		c.add(from.getSphereDistorter().inverse());
+	    }
+	}
+	if (to != null) {
+	    c.add(to.getSphereDistorter());
+	    c.add(to.getRotater());
+	}
+	return new FrameConverter(c.compile());
+    }
+
+    private static CoordinateSystem system(String name) throws TransformationException {
+	CoordinateSystem csys = name == null ? null : CoordinateSystem.factory(name);
+	if (csys == null) {
+	    throw new TransformationException("Unknown coordinate system:"+name);
+	}
+	return csys;
+    }
+
+    private FrameConverter(CompiledTransform transform) {
+
+	this.transform = transform;
+
+	Transformer[] stages = transform.getStages();
+	double[][] m = null;
+	if (stages.length == 0) {
+	    m = new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+	} else if (stages.length == 1 && stages[0] instanceof Rotater) {
+	    m = ((Rotater) stages[0]).getMatrix();
+	}
+	rotation = m != null;
+	if (m == null) {
+	    m = new double[3][3];
+	}
+	m00 = m[0][0]; m01 = m[0][1]; m02 = m[0][2];
+	m10 = m[1][0]; m11 = m[1][1]; m12 = m[1][2];
+	m20 = m[2][0]; m21 = m[2][1]; m22 = m[2][2];
+    }
+
+    /** Get the transformation of unit vectors used by this converter. */
+    public CompiledTransform getTransform() {
+	return transform;
+    }
+
+    /** Convert coordinates given in degrees. */
+    public void convert(double[] lon, double[] lat, double[] outLon, double[] outLat) {
+	convert(lon, lat, outLon, outLat, 0, lon.length, true);
+    }
+
+    /** Convert coordinates given in radians. */
+    public void convertRadians(double[] lon, double[] lat, double[] outLon, double[] outLat) {
+	convert(lon, lat, outLon, outLat, 0, lon.length, false);
+    }
+
+    /** Convert a range of coordinates.
+     *  @param lon     The input longitudes.
+     *  @param lat     The input latitudes.
+     *  @param outLon  The output longitudes.
+     *  @param outLat  The output latitudes.
+     *  @param off     The index of the first point in all four arrays.
+     *  @param len     The number of points to convert.
+     *  @param degrees Are the coordinates in degrees rather than radians?
+     */
+    public void convert(double[] lon, double[] lat, double[] outLon, double[] outLat,
+			int off, int len, boolean degrees) {
+	if (rotation) {
+	    rotate(lon, lat, outLon, outLat, off, len, degrees);
+	} else {
+	    distort(lon, lat, outLon, outLat, off, len, degrees);
+	}
+    }
+
+    /** Convert coordinates using the threads of a pool.  The points are
+     *  split into pieces of ParallelTransformer.DEFAULT_CHUNK points.
+     */
+    public void convert(double[] lon, double[] lat, double[] outLon, double[] outLat,
+			boolean degrees, ForkJoinPool pool) {
+	int len = lon.length;
+	if (len <= ParallelTransformer.DEFAULT_CHUNK) {
+	    convert(lon, lat, outLon, outLat, 0, len, degrees);
+	} else {
+	    pool.invoke(new Task(lon, lat, outLon, outLat, 0, len, degrees));
+	}
+    }
+
+    /** Convert when the transformation is just a rotation. */
+    private void rotate(double[] lon, double[] lat, double[] outLon, double[] outLat,
+			int off, int len, boolean degrees) {
+
+	double f = degrees ? D2R : 1;
+	double g = degrees ? R2D : 1;
+	double full = degrees ? 360 : 2*Math.PI;
+
+	for (int i=off; i<off+len; i += 1) {
+	    double a  = lon[i]*f;
+	    double d  = lat[i]*f;
+	    double cd = Math.cos(d);
+	    double x  = Math.cos(a)*cd;
+	    double y  = Math.sin(a)*cd;
+	    double z  = Math.sin(d);
+
+	    double u = m00*x + m01*y + m02*z;
+	    double v = m10*x + m11*y + m12*z;
+	    double w = m20*x + m21*y + m22*z;
+
+	    double l = Math.atan2(v, u)*g;
+	    if (l < 0) {
+		l += full;
+	    }
+	    outLon[i] = l;
+	    outLat[i] = Math.asin(w)*g;
+	}
+    }
+
+    /** Convert through the general transformation a block at a time. */
+    private void distort(double[] lon, double[] lat, double[] outLon, double[] outLat,
+			 int off, int len, boolean degrees) {
+
+	double f = degrees ? D2R : 1;
+	double g = degrees ? R2D : 1;
+	double full = degrees ? 360 : 2*Math.PI;
+
+	double[][][] b = blocks.get();
+	double[][] in  = b[0];
+	double[][] out = b[1];
+
+	for (int start=off; start<off+len; start += CompiledTransform.BLOCK_SIZE) {
+	    int count = Math.min(CompiledTransform.BLOCK_SIZE, off+len-start);
+
+	    for (int i=0; i<count; i += 1) {
+		double a  = lon[start+i]*f;
+		double d  = lat[start+i]*f;
+		double cd = Math.cos(d);
+		in[0][i] = Math.cos(a)*cd;
+		in[1][i] = Math.sin(a)*cd;
+		in[2][i] = Math.sin(d);
+	    }
+
+	    transform.transform(in, 0, out, 0, count);
+
+	    for (int i=0; i<count; i += 1) {
+		double l = Math.atan2(out[1][i], out[0][i])*g;
+		if (l < 0) {
+		    l += full;
+		}
+		outLon[start+i] = l;
+		outLat[start+i] = Math.asin(out[2][i])*g;
+	    }
+	}
+    }
+
+    /** Convert a range of points in a pool. */
+    private class Task extends RecursiveAction {
+
+	static final long serialVersionUID = 1L;
+
+	private final double[] lon, lat, outLon, outLat;
+	private final int off;
+	private final int len;
+	private final boolean degrees;
+
+	Task(double[] lon, double[] lat, double[] outLon, double[] outLat,
+	     int off, int len, boolean degrees) {
+	    this.lon     = lon;
+	    this.lat     = lat;
+	    this.outLon  = outLon;
+	    this.outLat  = outLat;
+	    this.off     = off;
+	    this.len     = len;
+	    this.degrees = degrees;
+	}
+
+	protected void compute() {
+	    if (len <= ParallelTransformer.DEFAULT_CHUNK) {
+		convert(lon, lat, outLon, outLat, off, len, degrees);
+	    } else {
+		int half = len/2;
+		invokeAll(new Task(lon, lat, outLon, outLat, off,      half,     degrees),
+			  new Task(lon, lat, outLon, outLat, off+half, len-half, degrees));
+	    }
+	}
+    }
+}
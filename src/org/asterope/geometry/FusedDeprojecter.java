@@ -0,0 +1,299 @@
+package org.asterope.geometry;
+
+import org.asterope.geometry.projecter.Arc;
+import org.asterope.geometry.projecter.Car;
+import org.asterope.geometry.projecter.Sin;
+import org.asterope.geometry.projecter.Stg;
+import org.asterope.geometry.projecter.Tan;
+import org.asterope.geometry.projecter.Zea;
+
+/** A scaling, deprojection and rotation carried out as a single
+ *  step.  This is the pixel to sky part of a WCS when there is no
+ *  plane distorter, i.e., the inverse of a FusedProjecter.
+ */
+public final class FusedDeprojecter extends Transformer {
+
+    /** The components being fused.  The scaler and rotater may be null. */
+    private final Scaler      scale;
+    private final Deprojecter deproj;
+    private final Rotater     rot;
+
+    /** Which deprojection kernel to use */
+    private final int kind;
+
+    private final boolean linear;
+    private final double x0, y0, a00, a01, a10, a11;
+
+    private final boolean rotate;
+    private final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+    /** Which kernel handles a given deprojecter.  The kernels
+     *  are numbered as in FusedProjecter.
+     *  @return The kernel or -1 if the deprojecter cannot be fused.
+     */
+    static int kindOf(Transformer t) {
+
+	if (t == null) {
+	    return -1;
+	}
+	Class<?> c = t.getClass();
+	if (c == Tan.TanDeproj.class) {
+	    return FusedProjecter.TAN;
+	} else if (c == Sin.SinDeproj.class) {
+	    return FusedProjecter.SIN;
+	} else if (c == Arc.ArcDeproj.class) {
+	    return FusedProjecter.ARC;
+	} else if (c == Stg.StgDeproj.class) {
+	    return FusedProjecter.STG;
+	} else if (c == Zea.ZeaDeproj.class) {
+	    return FusedProjecter.ZEA;
+	} else if (c == Car.CarDeproj.class) {
+	    return FusedProjecter.CAR;
+	}
+	return -1;
+    }
+
+    /** Create a fused deprojecter.
+     *  @param scale  The scaling applied before the deprojection (or null).
+     *  @param deproj One of the deprojecters accepted by kindOf.
+     *  @param rot    The rotation applied after the deprojection (or null).
+     */
+    FusedDeprojecter(Scaler scale, Deprojecter deproj, Rotater rot) {
+
+	this.scale  = scale;
+	this.deproj = deproj;
+	this.rot    = rot;
+
+	kind = kindOf(deproj);
+	if (kind < 0) {
+	    throw new IllegalArgumentException("Deprojecter cannot be fused: "+deproj.getName());
+	}
+
+	linear = scale != null;
+	if (linear) {
+	    x0  = scale.x0;  y0  = scale.y0;
+	    a00 = scale.a00; a01 = scale.a01;
+	    a10 = scale.a10; a11 = scale.a11;
+	} else {
+	    x0  = 0; y0  = 0;
+	    a00 = 1; a01 = 0;
+	    a10 = 0; a11 = 1;
+	}
+
+	rotate = rot != null;
+	if (rotate) {
+	    double[][] m = rot.getMatrix();
+	    m00 = m[0][0]; m01 = m[0][1]; m02 = m[0][2];
+	    m10 = m[1][0]; m11 = m[1][1]; m12 = m[1][2];
+	    m20 = m[2][0]; m21 = m[2][1]; m22 = m[2][2];
+	} else {
+	    m00 = 1; m01 = 0; m02 = 0;
+	    m10 = 0; m11 = 1; m12 = 0;
+	    m20 = 0; m21 = 0; m22 = 1;
+	}
+    }
+
+    public String getName() {
+	return "FusedDeprojecter";
+    }
+
+    public String getDescription() {
+	return "Scaling, "+deproj.getName()+" deprojection and rotation in a single step";
+    }
+
+    protected int getInputDimension() {
+	return 2;
+    }
+
+    protected int getOutputDimension() {
+	return 3;
+    }
+
+    /** Get the components in the order they are applied.  Missing
+     *  components are not included.
+     */
+    public Transformer[] getComponents() {
+	return nonNull(scale, deproj, rot);
+    }
+
+    /** Transform a single point.  The input and output may be the same array. */
+    public void transform(double[] in, double[] out) {
+	kernel(in[0], in[1], out, 0, out, 1, out, 2);
+    }
+
+    /** Transform a block of points. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	final double[] x = in[0],  y = in[1];
+	final double[] u = out[0], v = out[1], w = out[2];
+
+	for (int i=0; i<len; i += 1) {
+	    kernel(x[inOff+i], y[inOff+i], u, outOff+i, v, outOff+i, w, outOff+i);
+	}
+    }
+
+    /** Scale, deproject and rotate one point, putting the results
+     *  in u[iu], v[iv] and w[iw].
+     */
+    private void kernel(double px, double py,
+			double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+
+	double p = px, q = py;
+	if (linear) {
+	    p = x0 + a00*px + a01*py;
+	    q = y0 + a10*px + a11*py;
+	}
+
+	double a, b, c;
+	switch (kind) {
+
+	  case FusedProjecter.TAN:
+	    if (Double.isNaN(p)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		double factor = 1 / Math.sqrt(p*p + q*q + 1);
+		a = factor*p;
+		b = factor*q;
+		c = factor;
+	    }
+	    break;
+
+	  case FusedProjecter.SIN:
+	    if (Double.isNaN(p) || !(p*p + q*q <= 1)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		a = p;
+		b = q;
+		c = Math.sqrt(1 - p*p - q*q);
+	    }
+	    break;
+
+	  case FusedProjecter.ARC:
+	    double r2 = p*p + q*q;
+	    if (Double.isNaN(p) || !(r2 <= Math.PI*Math.PI)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		double r     = Math.sqrt(r2);
+		double sinde = Math.cos(r);
+		double ratio = 0;
+		if (r > 0) {
+		    ratio = Math.sqrt(1 - sinde*sinde)/r;
+		}
+		a = ratio * p;
+		b = ratio * q;
+		c = sinde;
+	    }
+	    break;
+
+	  case FusedProjecter.STG:
+	    if (Double.isNaN(p)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		double r     = Math.sqrt(p*p + q*q);
+		double theta = 2*Math.atan2(r, 2);
+		c = Math.cos(theta);
+		if (Math.abs(c) != 1) {
+		    a = p*(1+c)/2;
+		    b = q*(1+c)/2;
+		} else {
+		    a = 0;
+		    b = 0;
+		}
+	    }
+	    break;
+
+	  case FusedProjecter.ZEA:
+	    if (Double.isNaN(p) || !(p*p + q*q <= 4)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		double r     = Math.sqrt(p*p + q*q);
+		double ratio;
+		c     = 1 - r*r/2;
+		ratio = 1 - c*c;
+		if (ratio > 0) {
+		    ratio = Math.sqrt(ratio)/r;
+		} else {
+		    ratio = 0;
+		}
+		a = ratio * p;
+		b = ratio * q;
+	    }
+	    break;
+
+	  default:
+	    // CAR
+	    if (Double.isNaN(p)) {
+		a = Double.NaN;
+		b = Double.NaN;
+		c = Double.NaN;
+	    } else {
+		double cd = Math.cos(q);
+		a = Math.cos(p)*cd;
+		b = Math.sin(p)*cd;
+		c = Math.sin(q);
+	    }
+	    break;
+	}
+
+	if (rotate) {
+	    u[iu] = m00*a + m01*b + m02*c;
+	    v[iv] = m10*a + m11*b + m12*c;
+	    w[iw] = m20*a + m21*b + m22*c;
+	} else {
+	    u[iu] = a;
+	    v[iv] = b;
+	    w[iw] = c;
+	}
+    }
+
+    /** Get the inverse transformation: rotation, projection and
+     *  scaling in a single step.
+     */
+    public FusedProjecter inverse() throws TransformationException {
+	return new FusedProjecter(rot == null ? null : rot.inverse(),
+				  (Projecter) deproj.inverse(),
+				  scale == null ? null : scale.inverse());
+    }
+
+    /** Is this the inverse of another transformation?  */
+    public boolean isInverse(Transformer t) {
+
+	if (! (t instanceof FusedProjecter)) {
+	    return false;
+	}
+	Transformer[] mine   = getComponents();
+	Transformer[] theirs = ((FusedProjecter) t).getComponents();
+	if (mine.length != theirs.length) {
+	    return false;
+	}
+	int n = mine.length;
+	for (int i=0; i<n; i += 1) {
+	    if (!mine[n-1-i].isInverse(theirs[i])) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /** Collect the components which are present. */
+    static Transformer[] nonNull(Transformer a, Transformer b, Transformer c) {
+
+	java.util.ArrayList<Transformer> list = new java.util.ArrayList<Transformer>();
+	for (Transformer t: new Transformer[]{a, b, c}) {
+	    if (t != null) {
+		list.add(t);
+	    }
+	}
+	return list.toArray(new Transformer[list.size()]);
+    }
+}
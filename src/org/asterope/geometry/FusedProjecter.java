@@ -0,0 +1,268 @@
+package org.asterope.geometry;
+
+import org.asterope.geometry.projecter.Arc;
+import org.asterope.geometry.projecter.Car;
+import org.asterope.geometry.projecter.Sin;
+import org.asterope.geometry.projecter.Stg;
+import org.asterope.geometry.projecter.Tan;
+import org.asterope.geometry.projecter.Zea;
+
+/** A rotation, projection and scaling carried out as a single
+ *  step.  This is the sky to pixel part of a WCS when there is
+ *  no plane distorter.  The arithmetic is exactly that of the
+ *  individual components, but no intermediate vectors are needed.
+ *  <p>
+ *  Fused projecters are created by the CompiledTransform when
+ *  a Converter is checked; users should not normally need to create them.
+ */
+public final class FusedProjecter extends Transformer {
+
+    static final int TAN = 0;
+    static final int SIN = 1;
+    static final int ARC = 2;
+    static final int STG = 3;
+    static final int ZEA = 4;
+    static final int CAR = 5;
+
+    /** The components being fused.  The rotater and scaler may be null. */
+    private final Rotater   rot;
+    private final Projecter proj;
+    private final Scaler    scale;
+
+    /** Which projection kernel to use */
+    private final int kind;
+
+    private final boolean rotate;
+    private final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+    private final boolean linear;
+    private final double x0, y0, a00, a01, a10, a11;
+
+    /** Which kernel handles a given projecter.
+     *  @return The kernel or -1 if the projecter cannot be fused.
+     */
+    static int kindOf(Transformer t) {
+
+	if (t == null) {
+	    return -1;
+	}
+	// Only the exact classes: subclasses such as Xtn
+	// may override the projection.
+	Class<?> c = t.getClass();
+	if (c == Tan.class) {
+	    return TAN;
+	} else if (c == Sin.class) {
+	    return SIN;
+	} else if (c == Arc.class) {
+	    return ARC;
+	} else if (c == Stg.class) {
+	    return STG;
+	} else if (c == Zea.class) {
+	    return ZEA;
+	} else if (c == Car.class) {
+	    return CAR;
+	}
+	return -1;
+    }
+
+    /** Create a fused projecter.
+     *  @param rot   The rotation applied before the projection (or null).
+     *  @param proj  One of the projecters accepted by kindOf.
+     *  @param scale The scaling applied after the projection (or null).
+     */
+    FusedProjecter(Rotater rot, Projecter proj, Scaler scale) {
+
+	this.rot   = rot;
+	this.proj  = proj;
+	this.scale = scale;
+
+	kind = kindOf(proj);
+	if (kind < 0) {
+	    throw new IllegalArgumentException("Projecter cannot be fused: "+proj.getName());
+	}
+
+	rotate = rot != null;
+	if (rotate) {
+	    double[][] m = rot.getMatrix();
+	    m00 = m[0][0]; m01 = m[0][1]; m02 = m[0][2];
+	    m10 = m[1][0]; m11 = m[1][1]; m12 = m[1][2];
+	    m20 = m[2][0]; m21 = m[2][1]; m22 = m[2][2];
+	} else {
+	    m00 = 1; m01 = 0; m02 = 0;
+	    m10 = 0; m11 = 1; m12 = 0;
+	    m20 = 0; m21 = 0; m22 = 1;
+	}
+
+	linear = scale != null;
+	if (linear) {
+	    x0  = scale.x0;  y0  = scale.y0;
+	    a00 = scale.a00; a01 = scale.a01;
+	    a10 = scale.a10; a11 = scale.a11;
+	} else {
+	    x0  = 0; y0  = 0;
+	    a00 = 1; a01 = 0;
+	    a10 = 0; a11 = 1;
+	}
+    }
+
+    public String getName() {
+	return "FusedProjecter";
+    }
+
+    public String getDescription() {
+	return "Rotation, "+proj.getName()+" projection and scaling in a single step";
+    }
+
+    protected int getInputDimension() {
+	return 3;
+    }
+
+    protected int getOutputDimension() {
+	return 2;
+    }
+
+    /** Get the components in the order they are applied.  Missing
+     *  components are not included.
+     */
+    public Transformer[] getComponents() {
+	return FusedDeprojecter.nonNull(rot, proj, scale);
+    }
+
+    /** Transform a single point.  The input and output may be the same array. */
+    public void transform(double[] in, double[] out) {
+	kernel(in[0], in[1], in[2], out, 0, out, 1);
+    }
+
+    /** Transform a block of points. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	final double[] x = in[0],  y = in[1], z = in[2];
+	final double[] u = out[0], v = out[1];
+
+	for (int i=0; i<len; i += 1) {
+	    kernel(x[inOff+i], y[inOff+i], z[inOff+i], u, outOff+i, v, outOff+i);
+	}
+    }
+
+    /** Rotate, project and scale one point, putting the results in u[iu] and v[iv]. */
+    private void kernel(double sx, double sy, double sz,
+			double[] u, int iu, double[] v, int iv) {
+
+	double a = sx, b = sy, c = sz;
+	if (rotate) {
+	    a = m00*sx + m01*sy + m02*sz;
+	    b = m10*sx + m11*sy + m12*sz;
+	    c = m20*sx + m21*sy + m22*sz;
+	}
+
+	double p, q;
+	switch (kind) {
+
+	  case TAN:
+	    if (Double.isNaN(c) || c < 0) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		double fac = 1/c;
+		p = fac*a;
+		q = fac*b;
+	    }
+	    break;
+
+	  case SIN:
+	    if (Double.isNaN(c) || c <= 0) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		p = a;
+		q = b;
+	    }
+	    break;
+
+	  case ARC:
+	    if (Double.isNaN(c)) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		double denom = a*a + b*b;
+		if (denom == 0) {
+		    p = 0;
+		    q = 0;
+		} else {
+		    double ratio = (Math.PI/2 - Math.asin(c))/Math.sqrt(denom);
+		    p = ratio * a;
+		    q = ratio * b;
+		}
+	    }
+	    break;
+
+	  case STG:
+	    if (Double.isNaN(c) || c < 0) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		double fac = 2/(1+c);
+		p = fac*a;
+		q = fac*b;
+	    }
+	    break;
+
+	  case ZEA:
+	    if (Double.isNaN(c)) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		double num = 2*(1-c);
+		if (num < 0) {
+		    num = 0;
+		}
+		double denom = a*a + b*b;
+		if (denom == 0) {
+		    p = 0;
+		    q = 0;
+		} else {
+		    double ratio = Math.sqrt(num) / Math.sqrt(denom);
+		    p = ratio * a;
+		    q = ratio * b;
+		}
+	    }
+	    break;
+
+	  default:
+	    // CAR
+	    if (Double.isNaN(c)) {
+		p = Double.NaN;
+		q = Double.NaN;
+	    } else {
+		p = Math.atan2(b, a);
+		q = Math.asin(c);
+	    }
+	    break;
+	}
+
+	if (linear) {
+	    u[iu] = x0 + a00*p + a01*q;
+	    v[iv] = y0 + a10*p + a11*q;
+	} else {
+	    u[iu] = p;
+	    v[iv] = q;
+	}
+    }
+
+    /** Get the inverse transformation: scaling, deprojection and rotation
+     *  in a single step.
+     */
+    public FusedDeprojecter inverse() throws TransformationException {
+	return new FusedDeprojecter(scale == null ? null : scale.inverse(),
+				    proj.inverse(),
+				    rot == null ? null : rot.inverse());
+    }
+
+    /** Is this the inverse of another transformation? */
+    public boolean isInverse(Transformer t) {
+	if (! (t instanceof FusedDeprojecter)) {
+	    return false;
+	}
+	return ((FusedDeprojecter) t).isInverse(this);
+    }
+}
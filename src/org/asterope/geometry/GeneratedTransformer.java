@@ -0,0 +1,69 @@
+package org.asterope.geometry;
+
+/** The superclass of the transformers created by TransformGenerator.
+ *  The generated subclass supplies the two transform methods; everything
+ *  else is delegated to the compiled transform it was generated from.
+ */
+public abstract class GeneratedTransformer extends Transformer {
+
+    /** The transformation this was generated from. */
+    private final CompiledTransform source;
+
+    /** Components which could not be inlined and are called
+     *  from the generated code.
+     */
+    protected final Transformer[] calls;
+
+    /** Per-thread arrays used to pass points to the components
+     *  in calls: two double[2] and two double[3] arrays.
+     */
+    private final ThreadLocal<double[][]> scratch = new ThreadLocal<double[][]>() {
+	protected double[][] initialValue() {
+	    return new double[][]{new double[2], new double[2], new double[3], new double[3]};
+	}
+    };
+
+    protected GeneratedTransformer(CompiledTransform source, Transformer[] calls) {
+	this.source = source;
+	this.calls  = calls;
+    }
+
+    /** Get the work arrays for the current thread. */
+    protected final double[][] scratch() {
+	return scratch.get();
+    }
+
+    /** Get the transformation this was generated from. */
+    public CompiledTransform getSource() {
+	return source;
+    }
+
+    public String getName() {
+	return "GeneratedTransformer";
+    }
+
+    public String getDescription() {
+	return "A compound set of transformations compiled to bytecode";
+    }
+
+    protected int getInputDimension() {
+	return source.getInputDimension();
+    }
+
+    protected int getOutputDimension() {
+	return source.getOutputDimension();
+    }
+
+    /** Get the inverse transformation, also compiled to bytecode if possible. */
+    public Transformer inverse() throws TransformationException {
+	return TransformGenerator.generate(source.inverse());
+    }
+
+    /** Is this the inverse of another transformation? */
+    public boolean isInverse(Transformer t) {
+	if (t instanceof GeneratedTransformer) {
+	    t = ((GeneratedTransformer) t).source;
+	}
+	return source.isInverse(t);
+    }
+}
@@ -0,0 +1,181 @@
+package org.asterope.geometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A wrapper which spreads bulk transformations over the
+ *  threads of a ForkJoinPool.  The points are split in halves
+ *  until each piece is no larger than the chunk size, and each
+ *  piece is passed to the block transform of the wrapped transformer.
+ *  <p>
+ *  Converters are compiled before they are wrapped, so each worker
+ *  thread uses its own Scratch.  Other transformers must be safe to use
+ *  from several threads, which is the case for all of the components
+ *  in this package.
+ *  <p>
+ *  Single points are transformed in the calling thread.
+ */
+public final class ParallelTransformer extends Transformer {
+
+    /** The default number of points handled by one task */
+    public static final int DEFAULT_CHUNK = 4096;
+
+    private final Transformer  target;
+    private final ForkJoinPool pool;
+    private final int          chunk;
+
+    /** Wrap a transformer using the common pool and the default chunk size. */
+    public ParallelTransformer(Transformer t) {
+	this(t, ForkJoinPool.commonPool(), DEFAULT_CHUNK);
+    }
+
+    /** Wrap a transformer.
+     *  @param t     The transformer to be used.  Converters are compiled.
+     *  @param pool  The pool in which the work is done.
+     *  @param chunk The largest number of points handled by a single task.
+     */
+    public ParallelTransformer(Transformer t, ForkJoinPool pool, int chunk) {
+	if (chunk < 1) {
+	    throw new IllegalArgumentException("Invalid chunk size:"+chunk);
+	}
+	if (t instanceof Converter) {
+	    t = ((Converter) t).compile();
+	}
+	this.target = t;
+	this.pool   = pool;
+	this.chunk  = chunk;
+    }
+
+    /** Get the transformer doing the work */
+    public Transformer getTarget() {
+	return target;
+    }
+
+    public String getName() {
+	return "Parallel";
+    }
+
+    public String getDescription() {
+	return "Parallel bulk transformation of "+target.getName();
+    }
+
+    protected int getInputDimension() {
+	return target.getInputDimension();
+    }
+
+    protected int getOutputDimension() {
+	return target.getOutputDimension();
+    }
+
+    public Transformer inverse() throws TransformationException {
+	return new ParallelTransformer(target.inverse(), pool, chunk);
+    }
+
+    public boolean isInverse(Transformer t) {
+	if (t instanceof ParallelTransformer) {
+	    t = ((ParallelTransformer) t).target;
+	}
+	return target.isInverse(t);
+    }
+
+    public void transform(double[] in, double[] out) {
+	target.transform(in, out);
+    }
+
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	if (len <= chunk) {
+	    target.transform(in, inOff, out, outOff, len);
+	} else {
+	    pool.invoke(new ArrayTask(in, inOff, out, outOff, len));
+	}
+    }
+
+    public void transform(CoordinateBuffer in, CoordinateBuffer out) throws TransformationException {
+
+	int idim = getInputDimension();
+	int odim = getOutputDimension();
+	if (idim == 0 && odim == 0) {
+	    idim = in.getDimension();
+	    odim = idim;
+	}
+	if (in.getDimension() != idim || out.getDimension() != odim ||
+	    in.size() != out.size()) {
+	    throw new TransformationException("Buffer mismatch on vector transformation");
+	}
+	pool.invoke(new BufferTask(in, out, idim, odim, 0, in.size()));
+    }
+
+    /** Transform a range of points held in arrays. */
+    private class ArrayTask extends RecursiveAction {
+
+	static final long serialVersionUID = 1L;
+
+	private final double[][] in;
+	private final double[][] out;
+	private final int inOff;
+	private final int outOff;
+	private final int len;
+
+	ArrayTask(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	    this.in     = in;
+	    this.inOff  = inOff;
+	    this.out    = out;
+	    this.outOff = outOff;
+	    this.len    = len;
+	}
+
+	protected void compute() {
+	    if (len <= chunk) {
+		target.transform(in, inOff, out, outOff, len);
+	    } else {
+		int half = len/2;
+		invokeAll(new ArrayTask(in, inOff,      out, outOff,      half),
+			  new ArrayTask(in, inOff+half, out, outOff+half, len-half));
+	    }
+	}
+    }
+
+    /** Transform a range of points held in buffers.  Each
+     *  leaf task uses its own work arrays.
+     */
+    private class BufferTask extends RecursiveAction {
+
+	static final long serialVersionUID = 1L;
+
+	private final CoordinateBuffer in;
+	private final CoordinateBuffer out;
+	private final int idim;
+	private final int odim;
+	private final long start;
+	private final long len;
+
+	BufferTask(CoordinateBuffer in, CoordinateBuffer out, int idim, int odim, long start, long len) {
+	    this.in    = in;
+	    this.out   = out;
+	    this.idim  = idim;
+	    this.odim  = odim;
+	    this.start = start;
+	    this.len   = len;
+	}
+
+	protected void compute() {
+	    if (len > chunk) {
+		long half = len/2;
+		invokeAll(new BufferTask(in, out, idim, odim, start,      half),
+			  new BufferTask(in, out, idim, odim, start+half, len-half));
+		return;
+	    }
+
+	    int block = (int) Math.min(CompiledTransform.BLOCK_SIZE, len);
+	    double[][] a = new double[idim][block];
+	    double[][] b = new double[odim][block];
+
+	    for (long i=0; i<len; i += block) {
+		int count = (int) Math.min(block, len-i);
+		in.read(start+i, count, a, 0);
+		target.transform(a, 0, b, 0, count);
+		out.write(start+i, count, b, 0);
+	    }
+	}
+    }
+}
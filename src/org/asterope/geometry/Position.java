@@ -3,9 +3,10 @@ package org.asterope.geometry;
 
 /** This class represents a position in the sky.  This
  *  class is used to pass a position that may be represented in different
- * frames in different parts of a program.  However since it creates
- * CoordinateSystem objects for each transformation it should not be
- * used to do coordinate transformations for large arrays of positions.
+ * frames in different parts of a program.  However since it builds
+ * the transformation anew for each point it should not be
+ * used to do coordinate transformations for large arrays of positions:
+ * use FrameConverter for those.
  */
 public class Position {
     
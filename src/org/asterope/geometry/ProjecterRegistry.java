@@ -0,0 +1,130 @@
+package org.asterope.geometry;
+
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.asterope.geometry.projecter.*;
+
+/** Creates projecters by name.  The projections in
+ *  org.asterope.geometry.projecter are registered when the class is
+ *  loaded, followed by any Providers found by ServiceLoader.  Other
+ *  projections may be registered at any time.
+ *  <p>
+ *  Projecters which have no settable state are created once and
+ *  shared.  Those which do (Hpx and Toa) are created anew for each
+ *  request.
+ */
+public final class ProjecterRegistry {
+
+    /** Registers further projections.  Implementations are found
+     *  through META-INF/services/org.asterope.geometry.ProjecterRegistry$Provider.
+     */
+    public interface Provider {
+	void register(ProjecterRegistry registry);
+    }
+
+    private static final class Entry {
+	final Supplier<? extends Projecter> supplier;
+	final boolean shared;
+	volatile Projecter instance;
+
+	Entry(Supplier<? extends Projecter> supplier, boolean shared) {
+	    this.supplier = supplier;
+	    this.shared   = shared;
+	}
+
+	Projecter get() {
+	    if (!shared) {
+		return supplier.get();
+	    }
+	    Projecter p = instance;
+	    if (p == null) {
+		// Two threads may both create one, which is harmless.
+		p = supplier.get();
+		instance = p;
+	    }
+	    return p;
+	}
+    }
+
+    private static final ProjecterRegistry DEFAULT = new ProjecterRegistry();
+
+    static {
+	DEFAULT.register("Ait", Ait::new, true);
+	DEFAULT.register("Arc", Arc::new, true);
+	DEFAULT.register("Car", Car::new, true);
+	DEFAULT.register("Csc", Csc::new, true);
+	DEFAULT.register("Sfl", Sfl::new, true);
+	DEFAULT.register("Sin", Sin::new, true);
+	DEFAULT.register("Stg", Stg::new, true);
+	DEFAULT.register("Tan", Tan::new, true);
+	DEFAULT.register("Tea", Tea::new, true);
+	DEFAULT.register("Xtn", Xtn::new, true);
+	DEFAULT.register("Zea", Zea::new, true);
+	DEFAULT.register("Hpx", Hpx::new, false);
+	DEFAULT.register("Toa", Toa::new, false);
+
+	for (Provider p : ServiceLoader.load(Provider.class, ProjecterRegistry.class.getClassLoader())) {
+	    p.register(DEFAULT);
+	}
+    }
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Get the registry used by Projection. */
+    public static ProjecterRegistry getDefault() {
+	return DEFAULT;
+    }
+
+    /** Register a projection, replacing any earlier one of the same name.
+     *  @param name     The name of the projection, normally three letters.
+     *  @param supplier Creates the projecter.
+     *  @param shared   If true one instance is created and returned for
+     *                  every request, so the projecter must not have
+     *                  state which users can change.
+     */
+    public void register(String name, Supplier<? extends Projecter> supplier, boolean shared) {
+	entries.put(name, new Entry(supplier, shared));
+    }
+
+    /** Remove a projection.  Names which are not registered are ignored. */
+    public void unregister(String name) {
+	entries.remove(name);
+    }
+
+    /** Is there a projection of this name? */
+    public boolean contains(String name) {
+	return entries.containsKey(name);
+    }
+
+    /** The names of the registered projections */
+    public Set<String> names() {
+	return new TreeSet<String>(entries.keySet());
+    }
+
+    /** Get a projecter by name.  Names which are not registered
+     *  but contain a '.' are taken as fully qualified class names.
+     *  @throws TransformationException if there is no such projection.
+     */
+    public Projecter create(String name) throws TransformationException {
+	Entry e = entries.get(name);
+	if (e == null) {
+	    if (name.indexOf('.') < 0) {
+		throw new TransformationException("Unknown projection:"+name);
+	    }
+	    try {
+		return (Projecter) Utilities.newInstance(name, null);
+	    } catch (RuntimeException ex) {
+		throw new TransformationException("Unknown projection:"+name);
+	    }
+	}
+	Projecter p = e.get();
+	if (p == null) {
+	    throw new TransformationException("Error creating projection:"+name);
+	}
+	return p;
+    }
+}
@@ -70,11 +70,15 @@ public class Projection {
      *  the image data.
      *  @param proj  The three letter string denoting the projection.
      *  @return The fixed point for the projection or null
-     *          if not a fixed point projection.
+     *          if not a fixed point projection.  The array is a copy
+     *          and may be changed by the caller.
      */
     public static double[] fixedPoint(String proj) {
 	double[] ref = fixedPoints.get(proj);
-	return ref;
+	if (ref == null) {
+	    return null;
+	}
+	return ref.clone();
     }
     
     /** Get the rotation that needs to be performed before the rotation. */
@@ -113,14 +117,9 @@ public class Projection {
 	if (this.refProj == null) {
 	    throw new TransformationException("Invalid non-parametrized projection:"+type);
 	}
-//	String projClass   = "org.asterope.geometry.projecter."+type+"Projecter";
 	fixedProjection    = true;   
 	
-	
-        this.proj =  (Projecter) Utilities.newInstance(type, "org.asterope.geometry.projecter");
-	if (this.proj == null) {
-	    throw new TransformationException("Error creating non-parametrized projection:"+type);
-	}
+	this.proj = ProjecterRegistry.getDefault().create(type);
 	this.rotation = null;
     }
     
@@ -146,12 +145,7 @@ public class Projection {
     public Projection (String type, double[] reference) 
       throws TransformationException {
 	 
-//	String projClass    = "org.asterope.geometry.projecter."+type+"Projecter";
-	
-        this.proj =  (Projecter) Utilities.newInstance(type, "org.asterope.geometry.projecter");
-	if (this.proj == null) {
-	    throw new TransformationException("Cannot create parametrized projection:"+type+"\n");
-	}
+	this.proj = ProjecterRegistry.getDefault().create(type);
 	  
 	// We need to rotate the reference pixel to the pole.
 //	rotation = new Rotater("ZYZ", Math.PI+reference[0], -(Math.PI/2 - reference[1]), Math.PI/2);
@@ -1,5 +1,8 @@
 package org.asterope.geometry;
 
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
+
 import static java.lang.Math.abs;
 
 /*
@@ -10,13 +13,17 @@ public class Rotater extends Transformer implements Component {
     
     
     /** The matrix coefficients. */
-    private double[][] matrix;
+    private final double m00, m01, m02;
+    private final double m10, m11, m12;
+    private final double m20, m21, m22;
     
-    /** The transpose coefficients. */
-    private Rotater transRot;
+    /** The transpose coefficients.  This is created on demand,
+     *  possibly more than once when several threads ask at the same time.
+     */
+    private volatile Rotater transRot;
     
-    /** Temporary for when data is aliased.*/
-    private double[] temp = new double[3];
+    /** The unit quaternion (w, x, y, z) of the rotation, created on demand. */
+    private volatile double[] quaternion;
     
     /** Create a matrix from input data. 
      *  Each row should have the same number
@@ -32,14 +39,43 @@ public class Rotater extends Transformer implements Component {
 	    throw new TransformationException("Rotation not 3x3 matrix");
 	}
 	
-	matrix = vectors.clone();
-       	
-	for (int i=0; i<matrix.length; i += 1) {
+	for (int i=0; i<3; i += 1) {
 	    if (vectors[i].length != 3) {
 	        throw new TransformationException("Rotation not 3x3 matrix");
 	    }
-	    matrix[i] = vectors[i].clone();
 	}
+	m00 = vectors[0][0]; m01 = vectors[0][1]; m02 = vectors[0][2];
+	m10 = vectors[1][0]; m11 = vectors[1][1]; m12 = vectors[1][2];
+	m20 = vectors[2][0]; m21 = vectors[2][1]; m22 = vectors[2][2];
+    }
+    
+    /** Create a matrix from its coefficients, row by row. */
+    private Rotater(double m00, double m01, double m02,
+		    double m10, double m11, double m12,
+		    double m20, double m21, double m22) {
+	this.m00 = m00; this.m01 = m01; this.m02 = m02;
+	this.m10 = m10; this.m11 = m11; this.m12 = m12;
+	this.m20 = m20; this.m21 = m21; this.m22 = m22;
+    }
+    
+    /** Create the rotation given by a quaternion.  The
+     *  quaternion is normalized first.
+     *  @param w The scalar part.
+     *  @param x The first component of the vector part.
+     *  @param y The second component of the vector part.
+     *  @param z The third component of the vector part.
+     */
+    public static Rotater fromQuaternion(double w, double x, double y, double z) {
+	double n = 1/Math.sqrt(w*w + x*x + y*y + z*z);
+	w *= n;
+	x *= n;
+	y *= n;
+	z *= n;
+	Rotater r = new Rotater(1 - 2*(y*y + z*z), 2*(x*y - w*z),     2*(x*z + w*y),
+				2*(x*y + w*z),     1 - 2*(x*x + z*z), 2*(y*z - w*x),
+				2*(x*z - w*y),     2*(y*z + w*x),     1 - 2*(x*x + y*y));
+	r.quaternion = new double[]{w, x, y, z};
+	return r;
     }
     
     /** Get the input dimension to a Rotater */
@@ -61,9 +97,90 @@ public class Rotater extends Transformer implements Component {
 	return "An object that rotates 3-d vectors in space.";
     }
     
-    /** Return the double coefficients for the matrix */
+    /** Return a copy of the coefficients of the matrix */
     public double[][] getMatrix() {
-	return matrix;
+	return new double[][]{{m00, m01, m02}, {m10, m11, m12}, {m20, m21, m22}};
+    }
+    
+    /** Get a copy of the unit quaternion (w, x, y, z) of the rotation.
+     *  If the matrix is not quite a rotation the quaternion is
+     *  that of a nearby rotation.
+     */
+    public double[] getQuaternion() {
+	double[] q = quaternion;
+	if (q == null) {
+	    q = toQuaternion();
+	    quaternion = q;
+	}
+	return q.clone();
+    }
+    
+    /** Find the quaternion of the matrix.  The largest
+     *  component is found first to keep the division well conditioned.
+     */
+    private double[] toQuaternion() {
+	double tr = m00 + m11 + m22;
+	double w, x, y, z;
+	if (tr > 0) {
+	    double s = 2*Math.sqrt(1 + tr);
+	    w = s/4;
+	    x = (m21 - m12)/s;
+	    y = (m02 - m20)/s;
+	    z = (m10 - m01)/s;
+	} else if (m00 > m11 && m00 > m22) {
+	    double s = 2*Math.sqrt(1 + m00 - m11 - m22);
+	    w = (m21 - m12)/s;
+	    x = s/4;
+	    y = (m01 + m10)/s;
+	    z = (m02 + m20)/s;
+	} else if (m11 > m22) {
+	    double s = 2*Math.sqrt(1 + m11 - m00 - m22);
+	    w = (m02 - m20)/s;
+	    x = (m01 + m10)/s;
+	    y = s/4;
+	    z = (m12 + m21)/s;
+	} else {
+	    double s = 2*Math.sqrt(1 + m22 - m00 - m11);
+	    w = (m10 - m01)/s;
+	    x = (m02 + m20)/s;
+	    y = (m12 + m21)/s;
+	    z = s/4;
+	}
+	double n = 1/Math.sqrt(w*w + x*x + y*y + z*z);
+	return new double[]{w*n, x*n, y*n, z*n};
+    }
+    
+    /** Interpolate between this rotation and another along the
+     *  shortest path (spherical linear interpolation of the quaternions).
+     *  @param r The rotation reached when t is 1.
+     *  @param t The fraction of the way from this rotation to r.
+     */
+    public Rotater slerp(Rotater r, double t) {
+	
+	double[] a = getQuaternion();
+	double[] b = r.getQuaternion();
+	double cos = a[0]*b[0] + a[1]*b[1] + a[2]*b[2] + a[3]*b[3];
+	if (cos < 0) {
+	    // q and -q are the same rotation: take the short way round.
+	    cos = -cos;
+	    for (int i=0; i<4; i += 1) {
+		b[i] = -b[i];
+	    }
+	}
+	
+	double wa, wb;
+	if (cos > 1 - 1e-10) {
+	    // Nearly parallel: a normalized linear interpolation is as accurate.
+	    wa = 1-t;
+	    wb = t;
+	} else {
+	    double theta = Math.acos(cos);
+	    double sin   = Math.sin(theta);
+	    wa = Math.sin((1-t)*theta)/sin;
+	    wb = Math.sin(t*theta)/sin;
+	}
+	return fromQuaternion(wa*a[0] + wb*b[0], wa*a[1] + wb*b[1],
+			      wa*a[2] + wb*b[2], wa*a[3] + wb*b[3]);
     }
     
     /** Get the transpose of the Matrix.  For rotation
@@ -74,22 +191,15 @@ public class Rotater extends Transformer implements Component {
      */
     public Rotater transpose() {
 	
-	if (transRot == null) {
-	    
-	    double[][] trans = new double[3][3];
-	
-	    for (int i=0; i<3; i += 1) {
-	        for (int j=0; j<3; j += 1) {
-		    trans[i][j] = matrix[j][i];
-		}
-	    }
-	    try {
-	        transRot = new Rotater(trans);
-	    } catch(Exception e) {
-		System.err.println("Should be 3x3 matrix, but transpose failed?");
-	    }
+	Rotater t = transRot;
+	if (t == null) {
+	    t = new Rotater(m00, m10, m20,
+			    m01, m11, m21,
+			    m02, m12, m22);
+	    t.transRot = this;
+	    transRot = t;
 	}
-	return transRot;
+	return t;
     }
     
     /** This isn't really right... We should check this is a rotation matrix better! */
@@ -106,61 +216,65 @@ public class Rotater extends Transformer implements Component {
 	
 	// If the new rotation is null, just return a copy of what we have.
 	if (r == null) {
-	    try {
-	        return new Rotater(this.matrix);
-	    } catch(Exception e) {
-		// Shouldn't get here since this is just a clone...
-		throw new Error("Unexpected error:"+e);
-	    }
-	}
-	
-        /** Multiply a vector by the matrix.
-         *  Arguments may not be aliases for the same array for
-         *  maximum efficiency.
-         *  @param v The vector to be multiplied.
-         *  @param r The result vector. 
-         */
-	double[][] a = this.matrix;
-	double[][] b = r.matrix;
-	
-	double[][] result = new double[a.length][b[0].length];
-	
-	for (int i=0; i<3; i += 1) {
-	    for (int j=0; j<3; j += 1) {
-		for (int k=0; k < b.length; k += 1) {
-		    result[i][j] += b[i][k]*a[k][j];
-		}
-	    }
+	    return new Rotater(m00, m01, m02,
+			       m10, m11, m12,
+			       m20, m21, m22);
 	}
-	Rotater res = null;
-	try {
-	    res = new Rotater(result);
-	} catch (Exception e) {
-	    System.err.println("Add resulted in non 3x3 matrix!");
-	}
-	return res;
 	
+	return new Rotater(r.m00*m00 + r.m01*m10 + r.m02*m20,
+			   r.m00*m01 + r.m01*m11 + r.m02*m21,
+			   r.m00*m02 + r.m01*m12 + r.m02*m22,
+			   
+			   r.m10*m00 + r.m11*m10 + r.m12*m20,
+			   r.m10*m01 + r.m11*m11 + r.m12*m21,
+			   r.m10*m02 + r.m11*m12 + r.m12*m22,
+			   
+			   r.m20*m00 + r.m21*m10 + r.m22*m20,
+			   r.m20*m01 + r.m21*m11 + r.m22*m21,
+			   r.m20*m02 + r.m21*m12 + r.m22*m22);
     }
     
     
     /** Multiple a vector by the matrix.*/
     public void  transform(double[] in, double[] out) {
 	
-	// Handle aliased arguments.
-	if (in == out) {
-	    System.arraycopy(in,0,temp,0,in.length);
-	    in = temp;
-	}
-	    
+	// Copy the input so that the arguments may be aliased.
+	double a = in[0];
+	double b = in[1];
+	double c = in[2];
 	
-	for (int i=0; i<in.length; i += 1) {
-	    out[i] = 0;
-	    for (int j=0; j< matrix[0].length; j += 1) {
-		out[i] += matrix[i][j]*in[j];
-	    }
+	out[0] = m00*a + m01*b + m02*c;
+	out[1] = m10*a + m11*b + m12*c;
+	out[2] = m20*a + m21*b + m22*c;
+    }
+
+    /** Multiply a block of vectors by the matrix. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	final double m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	final double m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	final double m20 = this.m20, m21 = this.m21, m22 = this.m22;
+
+	final double[] x = in[0],  y = in[1],  z = in[2];
+	final double[] u = out[0], v = out[1], w = out[2];
+
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.rotate(m00, m01, m02, m10, m11, m12, m20, m21, m22,
+			     x, y, z, inOff, u, v, w, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double a = x[inOff+i];
+	    double b = y[inOff+i];
+	    double c = z[inOff+i];
+	    u[outOff+i] = m00*a + m01*b + m02*c;
+	    v[outOff+i] = m10*a + m11*b + m12*c;
+	    w[outOff+i] = m20*a + m21*b + m22*c;
 	}
     }
-    
+
     /**
      *  Form a rotation from the Euler angles - three successive
      *  rotations about specified Cartesian axes
@@ -198,7 +312,7 @@ public class Rotater extends Transformer implements Component {
      */
     public Rotater(String order, double phi, double theta, double psi) {
 	
-      matrix = new double[3][3];
+      double[][] matrix = new double[3][3];
       double[][] rotn   = new double[3][3];
       char axis;
 
@@ -298,35 +412,38 @@ public class Rotater extends Transformer implements Component {
 	       }
 	    }
         }
+      
+      m00 = matrix[0][0]; m01 = matrix[0][1]; m02 = matrix[0][2];
+      m10 = matrix[1][0]; m11 = matrix[1][1]; m12 = matrix[1][2];
+      m20 = matrix[2][0]; m21 = matrix[2][1]; m22 = matrix[2][2];
     }
     
-    /** Is this the inverse rotation? */
+    /** Is this the inverse rotation?  The product of the two
+     *  matrices is formed term by term and compared with the unit matrix.
+     */
     public boolean isInverse(Transformer trans) {
 	if (! (trans instanceof Rotater) ) {
 	    return false;
 	}
 	
-//	Rotater rx = (Rotater) trans;
-	
-//	double[][] tx = ((Rotater)trans).matrix;
-	Rotater sum = add((Rotater) trans);
-	return sum.isUnit();
-    }
-    
-    /** Is this the unit rotation? */
-    private boolean isUnit() {
-	
-	double delta = abs(1-matrix[0][0]) + abs(1-matrix[1][1]) + abs(1-matrix[2][2]) +
-		       abs(matrix[0][1]) + abs(matrix[0][2]) + abs(matrix[1][0]) + abs(matrix[1][2]) +
-		       abs(matrix[2][0]) + abs(matrix[2][1]);
+	Rotater r = (Rotater) trans;
+	double delta = abs(1 - (r.m00*m00 + r.m01*m10 + r.m02*m20)) +
+		       abs(1 - (r.m10*m01 + r.m11*m11 + r.m12*m21)) +
+		       abs(1 - (r.m20*m02 + r.m21*m12 + r.m22*m22)) +
+		       abs(r.m00*m01 + r.m01*m11 + r.m02*m21) +
+		       abs(r.m00*m02 + r.m01*m12 + r.m02*m22) +
+		       abs(r.m10*m00 + r.m11*m10 + r.m12*m20) +
+		       abs(r.m10*m02 + r.m11*m12 + r.m12*m22) +
+		       abs(r.m20*m00 + r.m21*m10 + r.m22*m20) +
+		       abs(r.m20*m01 + r.m21*m11 + r.m22*m21);
 	return delta < 1.e-10;
     }
     
     /** Debug output */
     public void printOut() {
-	System.err.println("\nRotation:"+this+"\n"+matrix[0][0]+" "+matrix[0][1]+" "+matrix[0][2]+"\n"+
-			   "         "+matrix[1][0]+" "+matrix[1][1]+" "+matrix[1][2]+"\n"+
-			   "         "+matrix[2][0]+" "+matrix[2][1]+" "+matrix[2][2]+"\n");
+	System.err.println("\nRotation:"+this+"\n"+m00+" "+m01+" "+m02+"\n"+
+			   "         "+m10+" "+m11+" "+m12+"\n"+
+			   "         "+m20+" "+m21+" "+m22+"\n");
 										
     }
 					
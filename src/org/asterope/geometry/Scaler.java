@@ -1,6 +1,9 @@
 
 package org.asterope.geometry;
 
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
+
 import static java.lang.Math.abs;
 
 /** This class does 2-D scalings, rotations and linear transformations.
@@ -69,7 +72,31 @@ public class Scaler extends Transformer implements Component {
 	y[1] = y0 + a10*x[0] + a11*x[1];
 	y[0] = t;
     }
-    
+
+    /** Scale a block of points.  The input and output may be the same arrays. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	final double x0  = this.x0,  y0  = this.y0;
+	final double a00 = this.a00, a01 = this.a01;
+	final double a10 = this.a10, a11 = this.a11;
+
+	final double[] x = in[0],  y = in[1];
+	final double[] u = out[0], v = out[1];
+
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.scale(x0, y0, a00, a01, a10, a11, x, y, inOff, u, v, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double a = x[inOff+i];
+	    double b = y[inOff+i];
+	    u[outOff+i] = x0 + a00*a + a01*b;
+	    v[outOff+i] = y0 + a10*a + a11*b;
+	}
+    }
+
     /** 
      * Return the inverse transformation.
      * @return A transformation object that scales in the opposite direction.
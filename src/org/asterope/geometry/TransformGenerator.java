@@ -0,0 +1,1063 @@
+package org.asterope.geometry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Compile a chain of transformations into bytecode.
+ *  <p>
+ *  The generated class has a single transform method for points
+ *  and one for blocks of points.  Each inlines the arithmetic of the
+ *  Rotaters, Scalers and the common projections (Tan, Sin, Arc, Stg,
+ *  Zea and Car, and their deprojecters) with the coefficients as
+ *  constants, so the JIT sees one method rather than a megamorphic
+ *  call for every component.  Other components are called through
+ *  the normal Transformer interface.  The results are the same as
+ *  those of the compiled transform.
+ *  <p>
+ *  The classes are defined as hidden classes, so they are unloaded
+ *  when the transformer is no longer used.  On virtual machines which
+ *  do not support hidden classes generate() simply returns the
+ *  compiled transform.
+ */
+public final class TransformGenerator {
+
+    private static final String BASE  = "org/asterope/geometry/GeneratedTransformer";
+    private static final String XFORM = "org/asterope/geometry/Transformer";
+    private static final String NAME  = "org/asterope/geometry/GeneratedChain";
+    private static final String MATH  = "java/lang/Math";
+
+    /** MethodHandles.Lookup.defineHiddenClass, if present */
+    private static final Method defineHidden;
+
+    /** An empty array of class options */
+    private static final Object noOptions;
+
+    static {
+	Method m    = null;
+	Object opts = null;
+	try {
+	    Class<?> optClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+	    opts = Array.newInstance(optClass, 0);
+	    m = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+						      byte[].class, boolean.class, opts.getClass());
+	} catch (Exception e) {
+	    m = null;
+	}
+	defineHidden = m;
+	noOptions    = opts;
+    }
+
+    private TransformGenerator() {
+    }
+
+    /** Can transformations be compiled on this virtual machine? */
+    public static boolean isAvailable() {
+	return defineHidden != null;
+    }
+
+    /** Compile the transformations in a converter.
+     *  @return A GeneratedTransformer, or the compiled transform of the
+     *          converter when bytecode cannot be generated.
+     */
+    public static Transformer generate(Converter conv) {
+	return generate(conv.compile());
+    }
+
+    /** Compile a series of transformations.
+     *  @return A GeneratedTransformer, or the input when bytecode cannot be
+     *          generated or none of the components can be inlined.
+     */
+    public static Transformer generate(CompiledTransform c) {
+
+	if (!isAvailable()) {
+	    return c;
+	}
+
+	Transformer[] parts = c.getComponents();
+	boolean inline = false;
+	for (Transformer t: parts) {
+	    if (canInline(t)) {
+		inline = true;
+	    }
+	}
+	if (!inline) {
+	    return c;
+	}
+
+	try {
+	    List<Transformer> calls = new ArrayList<Transformer>();
+	    byte[] bytes = build(parts, calls);
+
+	    MethodHandles.Lookup lookup = (MethodHandles.Lookup)
+	      defineHidden.invoke(MethodHandles.lookup(), bytes, Boolean.TRUE, noOptions);
+	    Constructor<?> cons = lookup.lookupClass().getConstructor(CompiledTransform.class,
+								       Transformer[].class);
+	    return (Transformer) cons.newInstance(c, calls.toArray(new Transformer[calls.size()]));
+
+	} catch (Exception e) {
+	    return c;
+	} catch (LinkageError e) {
+	    return c;
+	}
+    }
+
+    /** Can the arithmetic of a component be written into the generated code? */
+    static boolean canInline(Transformer t) {
+	Class<?> c = t.getClass();
+	return c == Rotater.class || c == Scaler.class ||
+	       FusedProjecter.kindOf(t) >= 0 || FusedDeprojecter.kindOf(t) >= 0;
+    }
+
+    /** Build the class file.
+     *  @param parts The components to be applied in turn.
+     *  @param calls Filled with the components called from the generated code.
+     */
+    private static byte[] build(Transformer[] parts, List<Transformer> calls) throws IOException {
+
+	ConstantPool cp = new ConstantPool();
+	int thisClass  = cp.cls(NAME);
+	int superClass = cp.cls(BASE);
+	int codeAttr   = cp.utf8("Code");
+
+	int idim = parts[0].getInputDimension();
+	int odim = parts[parts.length-1].getOutputDimension();
+
+	// Only fetch the scratch arrays when some component is called.
+	boolean needScratch = false;
+	for (Transformer t: parts) {
+	    if (!canInline(t)) {
+		needScratch = true;
+	    }
+	}
+
+	// The constructor just passes its arguments on.
+	Code init = new Code(cp, 3);
+	init.aload(0);
+	init.aload(1);
+	init.aload(2);
+	init.invoke(INVOKESPECIAL, BASE, "<init>",
+		    "(Lorg/asterope/geometry/CompiledTransform;[Lorg/asterope/geometry/Transformer;)V");
+	init.op(RETURN);
+
+	// transform(double[] in, double[] out)
+	Code point = new Code(cp, 3);
+	int scratch = 3;
+	if (needScratch) {
+	    point.scratch(scratch);
+	}
+	int[] cur = new int[idim];
+	for (int j=0; j<idim; j += 1) {
+	    cur[j] = point.newDouble();
+	    point.aload(1);
+	    point.iconst(j);
+	    point.op(DALOAD);
+	    point.dstore(cur[j]);
+	}
+	cur = stages(point, parts, cur, scratch, calls);
+	for (int j=0; j<odim; j += 1) {
+	    point.aload(2);
+	    point.iconst(j);
+	    point.dload(cur[j]);
+	    point.op(DASTORE);
+	}
+	point.op(RETURN);
+
+	// transform(double[][] in, int inOff, double[][] out, int outOff, int len)
+	// Locals 0-5 are the arguments, 6 is the loop index, then come the
+	// coordinate arrays and the scratch arrays.
+	int nIn   = 7;
+	int nOut  = nIn + idim;
+	scratch   = nOut + odim;
+	Code block = new Code(cp, scratch+1);
+	for (int j=0; j<idim; j += 1) {
+	    block.aload(1);
+	    block.iconst(j);
+	    block.op(AALOAD);
+	    block.astore(nIn+j);
+	}
+	for (int j=0; j<odim; j += 1) {
+	    block.aload(3);
+	    block.iconst(j);
+	    block.op(AALOAD);
+	    block.astore(nOut+j);
+	}
+	if (needScratch) {
+	    block.scratch(scratch);
+	}
+	block.iconst(0);
+	block.istore(6);
+
+	Label loop = new Label();
+	Label done = new Label();
+	block.mark(loop);
+	block.iload(6);
+	block.iload(5);
+	block.branch(IF_ICMPGE, done);
+
+	cur = new int[idim];
+	for (int j=0; j<idim; j += 1) {
+	    cur[j] = block.newDouble();
+	    block.aload(nIn+j);
+	    block.iload(2);
+	    block.iload(6);
+	    block.op(IADD);
+	    block.op(DALOAD);
+	    block.dstore(cur[j]);
+	}
+	// The calls are the same for both methods.
+	cur = stages(block, parts, cur, scratch, new ArrayList<Transformer>());
+	for (int j=0; j<odim; j += 1) {
+	    block.aload(nOut+j);
+	    block.iload(4);
+	    block.iload(6);
+	    block.op(IADD);
+	    block.dload(cur[j]);
+	    block.op(DASTORE);
+	}
+	block.iinc(6, 1);
+	block.branch(GOTO, loop);
+	block.mark(done);
+	block.op(RETURN);
+
+	// Make sure that all of the names are in the pool before writing it.
+	int[] initNames  = {cp.utf8("<init>"),
+			    cp.utf8("(Lorg/asterope/geometry/CompiledTransform;[Lorg/asterope/geometry/Transformer;)V")};
+	int[] pointNames = {cp.utf8("transform"), cp.utf8("([D[D)V")};
+	int[] blockNames = {cp.utf8("transform"), cp.utf8("([[DI[[DII)V")};
+
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
+
+	out.writeInt(0xCAFEBABE);
+	out.writeShort(0);
+	out.writeShort(49);
+	cp.write(out);
+	out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+	out.writeShort(thisClass);
+	out.writeShort(superClass);
+	out.writeShort(0);  // interfaces
+	out.writeShort(0);  // fields
+	out.writeShort(3);  // methods
+	init.write(out, initNames, codeAttr);
+	point.write(out, pointNames, codeAttr);
+	block.write(out, blockNames, codeAttr);
+	out.writeShort(0);  // attributes
+	out.flush();
+
+	return bytes.toByteArray();
+    }
+
+    /** Emit the code for all of the components.
+     *  @param in The local variables holding the input vector.
+     *  @return The local variables holding the output vector.
+     */
+    private static int[] stages(Code c, Transformer[] parts, int[] in,
+				int scratch, List<Transformer> calls) {
+
+	for (Transformer t: parts) {
+
+	    Class<?> cls = t.getClass();
+	    int[] out;
+	    if (cls == Rotater.class) {
+		out = rotater(c, ((Rotater) t).getMatrix(), in);
+	    } else if (cls == Scaler.class) {
+		out = scaler(c, (Scaler) t, in);
+	    } else if (FusedProjecter.kindOf(t) >= 0) {
+		out = projecter(c, FusedProjecter.kindOf(t), in);
+	    } else if (FusedDeprojecter.kindOf(t) >= 0) {
+		out = deprojecter(c, FusedDeprojecter.kindOf(t), in);
+	    } else {
+		out = call(c, t, calls.size(), in, scratch);
+		calls.add(t);
+	    }
+
+	    // Temporaries of this stage may be reused by the next.
+	    c.release(out);
+	    in = out;
+	}
+	return in;
+    }
+
+    /** Call a component which is not inlined. */
+    private static int[] call(Code c, Transformer t, int index, int[] in, int scratch) {
+
+	int idim = t.getInputDimension();
+	int odim = t.getOutputDimension();
+	if ((idim != 2 && idim != 3) || (odim != 2 && odim != 3)) {
+	    throw new IllegalArgumentException("Unsupported dimensions in "+t.getName());
+	}
+	int[] out = c.newDoubles(odim);
+
+	// Scratch arrays 0 and 1 have two elements, 2 and 3 have three.
+	int from = idim == 2 ? 0 : 2;
+	int to   = odim == 2 ? 1 : 3;
+
+	for (int j=0; j<idim; j += 1) {
+	    c.aload(scratch);
+	    c.iconst(from);
+	    c.op(AALOAD);
+	    c.iconst(j);
+	    c.dload(in[j]);
+	    c.op(DASTORE);
+	}
+
+	c.aload(0);
+	c.field(GETFIELD, BASE, "calls", "[Lorg/asterope/geometry/Transformer;");
+	c.iconst(index);
+	c.op(AALOAD);
+	c.aload(scratch);
+	c.iconst(from);
+	c.op(AALOAD);
+	c.aload(scratch);
+	c.iconst(to);
+	c.op(AALOAD);
+	c.invoke(INVOKEVIRTUAL, XFORM, "transform", "([D[D)V");
+
+	for (int j=0; j<odim; j += 1) {
+	    c.aload(scratch);
+	    c.iconst(to);
+	    c.op(AALOAD);
+	    c.iconst(j);
+	    c.op(DALOAD);
+	    c.dstore(out[j]);
+	}
+	return out;
+    }
+
+    /** out[i] = m[i][0]*in[0] + m[i][1]*in[1] + m[i][2]*in[2] */
+    private static int[] rotater(Code c, double[][] m, int[] in) {
+
+	int[] out = c.newDoubles(3);
+	for (int i=0; i<3; i += 1) {
+	    c.dconst(m[i][0]);
+	    c.dload(in[0]);
+	    c.op(DMUL);
+	    c.dconst(m[i][1]);
+	    c.dload(in[1]);
+	    c.op(DMUL);
+	    c.op(DADD);
+	    c.dconst(m[i][2]);
+	    c.dload(in[2]);
+	    c.op(DMUL);
+	    c.op(DADD);
+	    c.dstore(out[i]);
+	}
+	return out;
+    }
+
+    /** out[0] = x0 + a00*in[0] + a01*in[1], out[1] = y0 + a10*in[0] + a11*in[1] */
+    private static int[] scaler(Code c, Scaler s, int[] in) {
+
+	int[] out = c.newDoubles(2);
+	double[][] coef = {{s.x0, s.a00, s.a01}, {s.y0, s.a10, s.a11}};
+	for (int i=0; i<2; i += 1) {
+	    c.dconst(coef[i][0]);
+	    c.dconst(coef[i][1]);
+	    c.dload(in[0]);
+	    c.op(DMUL);
+	    c.op(DADD);
+	    c.dconst(coef[i][2]);
+	    c.dload(in[1]);
+	    c.op(DMUL);
+	    c.op(DADD);
+	    c.dstore(out[i]);
+	}
+	return out;
+    }
+
+    /** The projections from the sphere to the plane.  These follow
+     *  the block transforms of the projecters operation by operation.
+     */
+    private static int[] projecter(Code c, int kind, int[] in) {
+
+	int[] out = c.newDoubles(2);
+	int x = in[0], y = in[1], z = in[2];
+	Label nan = new Label();
+	Label end = new Label();
+
+	c.ifNaN(z, nan);
+
+	switch (kind) {
+
+	  case FusedProjecter.TAN:
+	  case FusedProjecter.STG: {
+	      c.dload(z);
+	      c.dconst(0);
+	      c.op(DCMPG);
+	      c.branch(IFLT, nan);
+
+	      // fac = 1/z or 2/(1+z)
+	      int fac = c.newDouble();
+	      if (kind == FusedProjecter.TAN) {
+		  c.dconst(1);
+		  c.dload(z);
+	      } else {
+		  c.dconst(2);
+		  c.dconst(1);
+		  c.dload(z);
+		  c.op(DADD);
+	      }
+	      c.op(DDIV);
+	      c.dstore(fac);
+	      c.mul(fac, x, out[0]);
+	      c.mul(fac, y, out[1]);
+	      break;
+	  }
+
+	  case FusedProjecter.SIN:
+	    c.dload(z);
+	    c.dconst(0);
+	    c.op(DCMPG);
+	    c.branch(IFLE, nan);
+	    c.move(x, out[0]);
+	    c.move(y, out[1]);
+	    break;
+
+	  case FusedProjecter.ARC:
+	  case FusedProjecter.ZEA: {
+	      int num = c.newDouble();
+	      if (kind == FusedProjecter.ZEA) {
+		  // num = 2*(1-z), but not less than 0
+		  Label pos = new Label();
+		  c.dconst(2);
+		  c.dconst(1);
+		  c.dload(z);
+		  c.op(DSUB);
+		  c.op(DMUL);
+		  c.dstore(num);
+		  c.dload(num);
+		  c.dconst(0);
+		  c.op(DCMPG);
+		  c.branch(IFGE, pos);
+		  c.dconst(0);
+		  c.dstore(num);
+		  c.mark(pos);
+	      }
+
+	      int denom = c.newDouble();
+	      c.sumOfSquares(x, y);
+	      c.dstore(denom);
+
+	      Label nonzero = new Label();
+	      c.dload(denom);
+	      c.dconst(0);
+	      c.op(DCMPL);
+	      c.branch(IFNE, nonzero);
+	      c.dconst(0);
+	      c.dstore(out[0]);
+	      c.dconst(0);
+	      c.dstore(out[1]);
+	      c.branch(GOTO, end);
+
+	      c.mark(nonzero);
+	      int ratio = c.newDouble();
+	      if (kind == FusedProjecter.ARC) {
+		  // (PI/2 - asin(z))/sqrt(denom)
+		  c.dconst(Math.PI/2);
+		  c.dload(z);
+		  c.math("asin");
+		  c.op(DSUB);
+	      } else {
+		  // sqrt(num)/sqrt(denom)
+		  c.dload(num);
+		  c.math("sqrt");
+	      }
+	      c.dload(denom);
+	      c.math("sqrt");
+	      c.op(DDIV);
+	      c.dstore(ratio);
+	      c.mul(ratio, x, out[0]);
+	      c.mul(ratio, y, out[1]);
+	      break;
+	  }
+
+	  default:
+	    // CAR: atan2(y, x), asin(z)
+	    c.dload(y);
+	    c.dload(x);
+	    c.invoke(INVOKESTATIC, MATH, "atan2", "(DD)D");
+	    c.dstore(out[0]);
+	    c.dload(z);
+	    c.math("asin");
+	    c.dstore(out[1]);
+	    break;
+	}
+
+	c.branch(GOTO, end);
+	c.mark(nan);
+	c.setNaN(out);
+	c.mark(end);
+	return out;
+    }
+
+    /** The deprojections from the plane to the sphere.  These follow
+     *  the block transforms of the deprojecters operation by operation.
+     */
+    private static int[] deprojecter(Code c, int kind, int[] in) {
+
+	int[] out = c.newDoubles(3);
+	int x = in[0], y = in[1];
+	Label nan = new Label();
+	Label end = new Label();
+
+	c.ifNaN(x, nan);
+
+	switch (kind) {
+
+	  case FusedProjecter.TAN: {
+	      // factor = 1 / sqrt(x*x + y*y + 1)
+	      c.dconst(1);
+	      c.sumOfSquares(x, y);
+	      c.dconst(1);
+	      c.op(DADD);
+	      c.math("sqrt");
+	      c.op(DDIV);
+	      c.dstore(out[2]);
+	      c.mul(out[2], x, out[0]);
+	      c.mul(out[2], y, out[1]);
+	      break;
+	  }
+
+	  case FusedProjecter.SIN:
+	    c.sumOfSquares(x, y);
+	    c.dconst(1);
+	    c.op(DCMPG);
+	    c.branch(IFGT, nan);
+	    c.move(x, out[0]);
+	    c.move(y, out[1]);
+	    // sqrt(1 - x*x - y*y)
+	    c.dconst(1);
+	    c.dload(x);
+	    c.dload(x);
+	    c.op(DMUL);
+	    c.op(DSUB);
+	    c.dload(y);
+	    c.dload(y);
+	    c.op(DMUL);
+	    c.op(DSUB);
+	    c.math("sqrt");
+	    c.dstore(out[2]);
+	    break;
+
+	  case FusedProjecter.ARC: {
+	      int r = c.newDouble();
+	      c.sumOfSquares(x, y);
+	      c.dstore(r);
+	      c.dload(r);
+	      c.dconst(Math.PI*Math.PI);
+	      c.op(DCMPG);
+	      c.branch(IFGT, nan);
+	      c.dload(r);
+	      c.math("sqrt");
+	      c.dstore(r);
+
+	      // z = cos(r); ratio = r > 0 ? sqrt(1 - z*z)/r : 0
+	      c.dload(r);
+	      c.math("cos");
+	      c.dstore(out[2]);
+
+	      int ratio = c.newDouble();
+	      Label skip = new Label();
+	      c.dconst(0);
+	      c.dstore(ratio);
+	      c.dload(r);
+	      c.dconst(0);
+	      c.op(DCMPL);
+	      c.branch(IFLE, skip);
+	      c.dconst(1);
+	      c.dload(out[2]);
+	      c.dload(out[2]);
+	      c.op(DMUL);
+	      c.op(DSUB);
+	      c.math("sqrt");
+	      c.dload(r);
+	      c.op(DDIV);
+	      c.dstore(ratio);
+	      c.mark(skip);
+	      c.mul(ratio, x, out[0]);
+	      c.mul(ratio, y, out[1]);
+	      break;
+	  }
+
+	  case FusedProjecter.STG: {
+	      // z = cos(2*atan2(sqrt(x*x + y*y), 2))
+	      c.dconst(2);
+	      c.sumOfSquares(x, y);
+	      c.math("sqrt");
+	      c.dconst(2);
+	      c.invoke(INVOKESTATIC, MATH, "atan2", "(DD)D");
+	      c.op(DMUL);
+	      c.math("cos");
+	      c.dstore(out[2]);
+
+	      Label pole = new Label();
+	      c.dload(out[2]);
+	      c.math("abs");
+	      c.dconst(1);
+	      c.op(DCMPL);
+	      c.branch(IFEQ, pole);
+	      // x*(1+z)/2
+	      for (int j=0; j<2; j += 1) {
+		  c.dload(in[j]);
+		  c.dconst(1);
+		  c.dload(out[2]);
+		  c.op(DADD);
+		  c.op(DMUL);
+		  c.dconst(2);
+		  c.op(DDIV);
+		  c.dstore(out[j]);
+	      }
+	      c.branch(GOTO, end);
+	      c.mark(pole);
+	      c.dconst(0);
+	      c.dstore(out[0]);
+	      c.dconst(0);
+	      c.dstore(out[1]);
+	      break;
+	  }
+
+	  case FusedProjecter.ZEA: {
+	      int r = c.newDouble();
+	      c.sumOfSquares(x, y);
+	      c.dstore(r);
+	      c.dload(r);
+	      c.dconst(4);
+	      c.op(DCMPG);
+	      c.branch(IFGT, nan);
+	      c.dload(r);
+	      c.math("sqrt");
+	      c.dstore(r);
+
+	      // z = 1 - r*r/2
+	      c.dconst(1);
+	      c.dload(r);
+	      c.dload(r);
+	      c.op(DMUL);
+	      c.dconst(2);
+	      c.op(DDIV);
+	      c.op(DSUB);
+	      c.dstore(out[2]);
+
+	      // ratio = 1 - z*z > 0 ? sqrt(1 - z*z)/r : 0
+	      int ratio = c.newDouble();
+	      Label zero = new Label();
+	      Label have = new Label();
+	      c.dconst(1);
+	      c.dload(out[2]);
+	      c.dload(out[2]);
+	      c.op(DMUL);
+	      c.op(DSUB);
+	      c.dstore(ratio);
+	      c.dload(ratio);
+	      c.dconst(0);
+	      c.op(DCMPL);
+	      c.branch(IFLE, zero);
+	      c.dload(ratio);
+	      c.math("sqrt");
+	      c.dload(r);
+	      c.op(DDIV);
+	      c.dstore(ratio);
+	      c.branch(GOTO, have);
+	      c.mark(zero);
+	      c.dconst(0);
+	      c.dstore(ratio);
+	      c.mark(have);
+	      c.mul(ratio, x, out[0]);
+	      c.mul(ratio, y, out[1]);
+	      break;
+	  }
+
+	  default: {
+	      // CAR: cos(x)*cos(y), sin(x)*cos(y), sin(y)
+	      int cd = c.newDouble();
+	      c.dload(y);
+	      c.math("cos");
+	      c.dstore(cd);
+	      c.dload(x);
+	      c.math("cos");
+	      c.dload(cd);
+	      c.op(DMUL);
+	      c.dstore(out[0]);
+	      c.dload(x);
+	      c.math("sin");
+	      c.dload(cd);
+	      c.op(DMUL);
+	      c.dstore(out[1]);
+	      c.dload(y);
+	      c.math("sin");
+	      c.dstore(out[2]);
+	      break;
+	  }
+	}
+
+	c.branch(GOTO, end);
+	c.mark(nan);
+	c.setNaN(out);
+	c.mark(end);
+	return out;
+    }
+
+    // Class file constants.
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL  = 0x0010;
+    private static final int ACC_SUPER  = 0x0020;
+
+    private static final int DCONST_0      = 0x0e;
+    private static final int DCONST_1      = 0x0f;
+    private static final int BIPUSH        = 0x10;
+    private static final int SIPUSH        = 0x11;
+    private static final int LDC2_W        = 0x14;
+    private static final int ILOAD         = 0x15;
+    private static final int DLOAD         = 0x18;
+    private static final int ALOAD         = 0x19;
+    private static final int DALOAD        = 0x31;
+    private static final int AALOAD        = 0x32;
+    private static final int ISTORE        = 0x36;
+    private static final int DSTORE        = 0x39;
+    private static final int ASTORE        = 0x3a;
+    private static final int DASTORE       = 0x52;
+    private static final int IADD          = 0x60;
+    private static final int DADD          = 0x63;
+    private static final int DSUB          = 0x67;
+    private static final int DMUL          = 0x6b;
+    private static final int DDIV          = 0x6f;
+    private static final int IINC          = 0x84;
+    private static final int DCMPL         = 0x97;
+    private static final int DCMPG         = 0x98;
+    private static final int IFEQ          = 0x99;
+    private static final int IFNE          = 0x9a;
+    private static final int IFLT          = 0x9b;
+    private static final int IFGE          = 0x9c;
+    private static final int IFGT          = 0x9d;
+    private static final int IFLE          = 0x9e;
+    private static final int IF_ICMPGE     = 0xa2;
+    private static final int GOTO          = 0xa7;
+    private static final int RETURN        = 0xb1;
+    private static final int GETFIELD      = 0xb4;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC  = 0xb8;
+    private static final int WIDE          = 0xc4;
+
+    /** A position in the code which may be the target of a branch. */
+    private static final class Label {
+	int pos = -1;
+    }
+
+    /** The constant pool of the class being built. */
+    private static final class ConstantPool {
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(bytes);
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+	private int count = 1;
+
+	int utf8(String s) {
+	    Integer i = index.get("U"+s);
+	    if (i == null) {
+		try {
+		    data.writeByte(1);
+		    data.writeUTF(s);
+		} catch (IOException e) {
+		    throw new Error("Unexpected error:"+e);
+		}
+		i = add("U"+s, 1);
+	    }
+	    return i;
+	}
+
+	int cls(String name) {
+	    Integer i = index.get("C"+name);
+	    if (i == null) {
+		int n = utf8(name);
+		entry(7, n, -1);
+		i = add("C"+name, 1);
+	    }
+	    return i;
+	}
+
+	int member(int tag, String owner, String name, String desc) {
+	    String key = tag+owner+"."+name+desc;
+	    Integer i = index.get(key);
+	    if (i == null) {
+		int c  = cls(owner);
+		int nt = index.containsKey("N"+name+desc) ? index.get("N"+name+desc) : -1;
+		if (nt < 0) {
+		    int n = utf8(name);
+		    int d = utf8(desc);
+		    entry(12, n, d);
+		    nt = add("N"+name+desc, 1);
+		}
+		entry(tag, c, nt);
+		i = add(key, 1);
+	    }
+	    return i;
+	}
+
+	int dbl(double v) {
+	    String key = "D"+Double.doubleToRawLongBits(v);
+	    Integer i = index.get(key);
+	    if (i == null) {
+		try {
+		    data.writeByte(6);
+		    data.writeLong(Double.doubleToRawLongBits(v));
+		} catch (IOException e) {
+		    throw new Error("Unexpected error:"+e);
+		}
+		// Doubles take two entries.
+		i = add(key, 2);
+	    }
+	    return i;
+	}
+
+	private void entry(int tag, int a, int b) {
+	    try {
+		data.writeByte(tag);
+		data.writeShort(a);
+		if (b >= 0) {
+		    data.writeShort(b);
+		}
+	    } catch (IOException e) {
+		throw new Error("Unexpected error:"+e);
+	    }
+	}
+
+	private int add(String key, int size) {
+	    int i = count;
+	    index.put(key, i);
+	    count += size;
+	    return i;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+	    data.flush();
+	    out.writeShort(count);
+	    bytes.writeTo(out);
+	}
+    }
+
+    /** The code of one method. */
+    private static final class Code {
+
+	private final ConstantPool cp;
+	private byte[] code = new byte[256];
+	private int    length;
+
+	/** Branches waiting for their targets: position of the instruction,
+	 *  position of the offset and the label.
+	 */
+	private final List<Object[]> fixups = new ArrayList<Object[]>();
+
+	/** The next free local variable and the number used. */
+	private int nextLocal;
+	private int maxLocals;
+
+	Code(ConstantPool cp, int firstLocal) {
+	    this.cp   = cp;
+	    nextLocal = firstLocal;
+	    maxLocals = firstLocal;
+	}
+
+	private void u1(int b) {
+	    if (length == code.length) {
+		byte[] nc = new byte[2*code.length];
+		System.arraycopy(code, 0, nc, 0, length);
+		code = nc;
+	    }
+	    code[length] = (byte) b;
+	    length += 1;
+	}
+
+	private void u2(int s) {
+	    u1(s >> 8);
+	    u1(s);
+	}
+
+	void op(int opcode) {
+	    u1(opcode);
+	}
+
+	/** Load or store a local variable, using the short forms where possible. */
+	private void local(int opcode, int shortForm, int slot) {
+	    if (slot <= 3) {
+		u1(shortForm + slot);
+	    } else if (slot <= 255) {
+		u1(opcode);
+		u1(slot);
+	    } else {
+		u1(WIDE);
+		u1(opcode);
+		u2(slot);
+	    }
+	}
+
+	void aload(int slot)  { local(ALOAD,  0x2a, slot); }
+	void astore(int slot) { local(ASTORE, 0x4b, slot); }
+	void iload(int slot)  { local(ILOAD,  0x1a, slot); }
+	void istore(int slot) { local(ISTORE, 0x3b, slot); }
+	void dload(int slot)  { local(DLOAD,  0x26, slot); }
+	void dstore(int slot) { local(DSTORE, 0x47, slot); }
+
+	void iinc(int slot, int inc) {
+	    u1(IINC);
+	    u1(slot);
+	    u1(inc);
+	}
+
+	void iconst(int v) {
+	    if (v >= -1 && v <= 5) {
+		u1(0x03 + v);
+	    } else if (v >= -128 && v <= 127) {
+		u1(BIPUSH);
+		u1(v);
+	    } else {
+		u1(SIPUSH);
+		u2(v);
+	    }
+	}
+
+	void dconst(double v) {
+	    long bits = Double.doubleToRawLongBits(v);
+	    if (bits == Double.doubleToRawLongBits(0)) {
+		u1(DCONST_0);
+	    } else if (bits == Double.doubleToRawLongBits(1)) {
+		u1(DCONST_1);
+	    } else {
+		u1(LDC2_W);
+		u2(cp.dbl(v));
+	    }
+	}
+
+	void invoke(int opcode, String owner, String name, String desc) {
+	    u1(opcode);
+	    u2(cp.member(10, owner, name, desc));
+	}
+
+	void field(int opcode, String owner, String name, String desc) {
+	    u1(opcode);
+	    u2(cp.member(9, owner, name, desc));
+	}
+
+	/** Call a one argument function in java.lang.Math. */
+	void math(String name) {
+	    invoke(INVOKESTATIC, MATH, name, "(D)D");
+	}
+
+	void branch(int opcode, Label target) {
+	    fixups.add(new Object[]{length, length+1, target});
+	    u1(opcode);
+	    u2(0);
+	}
+
+	void mark(Label label) {
+	    label.pos = length;
+	}
+
+	/** Branch if the variable is NaN. */
+	void ifNaN(int slot, Label target) {
+	    dload(slot);
+	    dload(slot);
+	    op(DCMPL);
+	    branch(IFNE, target);
+	}
+
+	void setNaN(int[] slots) {
+	    for (int s: slots) {
+		dconst(Double.NaN);
+		dstore(s);
+	    }
+	}
+
+	void move(int from, int to) {
+	    dload(from);
+	    dstore(to);
+	}
+
+	void mul(int a, int b, int result) {
+	    dload(a);
+	    dload(b);
+	    op(DMUL);
+	    dstore(result);
+	}
+
+	/** Push a*a + b*b */
+	void sumOfSquares(int a, int b) {
+	    dload(a);
+	    dload(a);
+	    op(DMUL);
+	    dload(b);
+	    dload(b);
+	    op(DMUL);
+	    op(DADD);
+	}
+
+	int newDouble() {
+	    int slot = nextLocal;
+	    nextLocal += 2;
+	    maxLocals = Math.max(maxLocals, nextLocal);
+	    return slot;
+	}
+
+	int[] newDoubles(int n) {
+	    int[] slots = new int[n];
+	    for (int i=0; i<n; i += 1) {
+		slots[i] = newDouble();
+	    }
+	    return slots;
+	}
+
+	/** Free the locals allocated after the given output variables. */
+	void release(int[] outputs) {
+	    nextLocal = outputs[outputs.length-1] + 2;
+	}
+
+	/** Fetch the scratch arrays into the given local. */
+	void scratch(int slot) {
+	    aload(0);
+	    invoke(INVOKEVIRTUAL, BASE, "scratch", "()[[D");
+	    astore(slot);
+	    maxLocals = Math.max(maxLocals, slot+1);
+	    if (nextLocal <= slot) {
+		nextLocal = slot+1;
+	    }
+	}
+
+	void write(DataOutputStream out, int[] names, int codeAttr) throws IOException {
+
+	    for (Object[] f: fixups) {
+		int   at     = (Integer) f[0];
+		int   offset = (Integer) f[1];
+		Label target = (Label) f[2];
+		int   delta  = target.pos - at;
+		if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) {
+		    throw new IllegalStateException("Generated method too long");
+		}
+		code[offset]   = (byte) (delta >> 8);
+		code[offset+1] = (byte) delta;
+	    }
+
+	    out.writeShort(ACC_PUBLIC);
+	    out.writeShort(names[0]);
+	    out.writeShort(names[1]);
+	    out.writeShort(1);
+	    out.writeShort(codeAttr);
+	    out.writeInt(12 + length);
+	    out.writeShort(16);       // max stack
+	    out.writeShort(maxLocals);
+	    out.writeInt(length);
+	    out.write(code, 0, length);
+	    out.writeShort(0);        // exception table
+	    out.writeShort(0);        // attributes
+	}
+    }
+}
@@ -89,6 +89,27 @@ public abstract class Transformer implements Component {
 	    throw new TransformationException("Array mismatch on vector transformation");
 	}
 	
+	transform(in, 0, out, 0, in[0].length);
+    }
+    
+    /** Convert a block of points held in the same [2/3][n] layout
+     *  used by transform(double[][], double[][]).  Only the points
+     *  in[*][inOff] ... in[*][inOff+len-1] are read and the results are written
+     *  to out[*][outOff] ... out[*][outOff+len-1].
+     *  <p>
+     *  This default implementation copies each point into a temporary vector
+     *  and calls transform(double[], double[]) on it.  Subclasses which are
+     *  used for bulk work override it with a loop over the component arrays so
+     *  that there is no per-point dispatch or copying.  Overriding methods must
+     *  allow the input and output to be the same arrays at the same offset.
+     *  @param in     The input positions.
+     *  @param inOff  The index of the first input point.
+     *  @param out    The output positions.
+     *  @param outOff The index of the first output point.
+     *  @param len    The number of points to be transformed.
+     */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	
 	double[] xin, xout;
 	
 	int idim = getInputDimension();
@@ -96,7 +117,7 @@ public abstract class Transformer implements Component {
 	if (idim == 0 && odim == 0) {
 	    // Identity transformations, e.g., converters that have no elements.
 	    for (int i=0; i<in.length; i += 1) {
-		System.arraycopy(in[i], 0, out[i], 0, in[i].length);
+		System.arraycopy(in[i], inOff, out[i], outOff, len);
 	    }
 	    return;
 	}
@@ -111,7 +132,7 @@ public abstract class Transformer implements Component {
 	    xout = new double[3];
 	}
 	
-	for (int i=0; i<in[0].length; i += 1) {
+	for (int i=0; i<len; i += 1) {
 	    
 	    // The copying into/from the temporary array is the price we pay
 	    // for defining the vectors as in[2/3][n] rather than in[n][2/3].
@@ -120,15 +141,49 @@ public abstract class Transformer implements Component {
 	    // about a factor of 4 in total program throughput.
 	    
 	    for (int j=0; j<idim; j += 1) {
-		xin[j] = in[j][i];
+		xin[j] = in[j][inOff+i];
 	    }
 	    
 	    transform(xin, xout);
 	    
 	    for (int j=0; j<odim; j += 1) {
-		out[j][i] = xout[j];
+		out[j][outOff+i] = xout[j];
 	    }
 	}
     }
+
+    /** Convert the points in a CoordinateBuffer, putting the results
+     *  in a second buffer.  The points are copied a block at a time
+     *  into small work arrays and passed to the block transform, so
+     *  the buffers may be much larger than the heap.
+     *  @param in  The input positions.
+     *  @param out The output positions.  This may be the same buffer
+     *             as the input if the dimensions are the same.
+     */
+    public void transform(CoordinateBuffer in, CoordinateBuffer out) throws TransformationException {
+
+	int idim = getInputDimension();
+	int odim = getOutputDimension();
+	if (idim == 0 && odim == 0) {
+	    idim = in.getDimension();
+	    odim = idim;
+	}
+	if (in.getDimension() != idim || out.getDimension() != odim ||
+	    in.size() != out.size()) {
+	    throw new TransformationException("Buffer mismatch on vector transformation");
+	}
+
+	int block = CompiledTransform.BLOCK_SIZE;
+	double[][] a = new double[idim][block];
+	double[][] b = new double[odim][block];
+
+	long n = in.size();
+	for (long start=0; start<n; start += block) {
+	    int count = (int) Math.min(block, n-start);
+	    in.read(start, count, a, 0);
+	    transform(a, 0, b, 0, count);
+	    out.write(start, count, b, 0);
+	}
+    }
 }
 	
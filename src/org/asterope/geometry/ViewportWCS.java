@@ -0,0 +1,570 @@
+package org.asterope.geometry;
+
+import java.lang.invoke.VarHandle;
+
+/** A WCS for an interactive view which may be panned, zoomed,
+ *  rotated and resized without building a new transformation chain.
+ *  <p>
+ *  The chain is the same as the one WCSBuilder builds: the coordinate
+ *  system, the rotation of the view center to the reference point of
+ *  the projection, the projection and the final scaling.  The
+ *  projecter is created once.  The rotation and the scaling are held as
+ *  plain coefficients and recomputed in place, so an update does no
+ *  allocation and only pan changes the rotation.
+ *  <p>
+ *  Render threads do not use the viewport directly.  Each keeps a
+ *  Snapshot, which it refreshes at the start of a frame and then uses
+ *  as an ordinary Transformer.  Snapshots are copied out under a
+ *  sequence lock, so they are always consistent and updates never wait
+ *  for readers.
+ */
+public final class ViewportWCS {
+
+    /** The number of points transformed at a time by a snapshot */
+    private static final int BLOCK = 256;
+
+    private final String          projection;
+    private final CoordinateSystem csys;
+    private final Projecter       projecter;
+    private final Deprojecter     deprojecter;
+    private final SphereDistorter distorter;
+    private final SphereDistorter undistorter;
+    private final double[]        fixedPoint;
+    private final double[]        csysMatrix;
+
+    // The view parameters.  Only changed while holding the lock.
+    private double refRa, refDe;
+    private double pixelScale;
+    private double rotation;
+    private int    width, height;
+
+    /** Scratch space for the updates */
+    private final double[] pm  = new double[9];
+    private final double[] fm  = new double[9];
+    private final double[] rm  = new double[9];
+    private final double[] vec = new double[3];
+    private final double[] pos = new double[2];
+
+    // The published state, guarded by the sequence number: the
+    // sphere to plane rotation and the plane to pixel scaling and its
+    // inverse.
+    private volatile long version;
+    private double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+    private double x0, y0, a00, a01, a10, a11;
+    private double u0, v0, b00, b01, b10, b11;
+
+    /** Create a viewport in J2000 coordinates.
+     *  @param projection  The three letter name of the projection.
+     *  @param refRa       The longitude of the center of the view in radians.
+     *  @param refDe       The latitude of the center of the view in radians.
+     *  @param width       The width of the view in pixels.
+     *  @param height      The height of the view in pixels.
+     *  @param pixelScale  The size of a pixel in radians.
+     */
+    public ViewportWCS(String projection, double refRa, double refDe,
+		       int width, int height, double pixelScale)
+      throws TransformationException {
+	this(CoordinateSystem.J2000, projection, refRa, refDe, width, height, pixelScale);
+    }
+
+    /** Create a viewport in the given coordinate system. */
+    public ViewportWCS(CoordinateSystem csys, String projection, double refRa, double refDe,
+		       int width, int height, double pixelScale)
+      throws TransformationException {
+
+	if (width <= 0 || height <= 0) {
+	    throw new IllegalArgumentException("Zero width or height");
+	}
+	if (pixelScale <= 0) {
+	    throw new IllegalArgumentException("Invalid pixel scale");
+	}
+	this.projection  = projection;
+	this.csys        = csys;
+	this.fixedPoint  = Projection.fixedPoint(projection);
+	this.projecter   = new Projection(projection, new double[]{0, 0}).getProjecter();
+	this.deprojecter = projecter.inverse();
+	if (deprojecter == null) {
+	    throw new IllegalArgumentException("projection "+projection+" does not support inverse function");
+	}
+	this.distorter   = csys.getSphereDistorter();
+	this.undistorter = distorter == null ? null : distorter.inverse();
+
+	Rotater r = csys.getRotater();
+	if (r == null) {
+	    csysMatrix = null;
+	} else {
+	    double[][] m = r.getMatrix();
+	    csysMatrix = new double[]{m[0][0], m[0][1], m[0][2],
+				      m[1][0], m[1][1], m[1][2],
+				      m[2][0], m[2][1], m[2][2]};
+	}
+
+	this.refRa      = refRa;
+	this.refDe      = refDe;
+	this.width      = width;
+	this.height     = height;
+	this.pixelScale = pixelScale;
+	update(true);
+    }
+
+    /** Move the center of the view.
+     *  @param dRa The change in longitude in radians.
+     *  @param dDe The change in latitude in radians.  The latitude
+     *             stops at the poles.
+     */
+    public synchronized void pan(double dRa, double dDe) {
+	refRa += dRa;
+	refDe  = Math.max(-Math.PI/2, Math.min(Math.PI/2, refDe + dDe));
+	update(true);
+    }
+
+    /** Set the center of the view in radians. */
+    public synchronized void setCenter(double ra, double de) {
+	refRa = ra;
+	refDe = Math.max(-Math.PI/2, Math.min(Math.PI/2, de));
+	update(true);
+    }
+
+    /** Magnify the view.  Factors greater than 1 zoom in. */
+    public synchronized void zoom(double factor) {
+	if (!(factor > 0)) {
+	    throw new IllegalArgumentException("Invalid zoom factor");
+	}
+	pixelScale /= factor;
+	update(false);
+    }
+
+    /** Set the size of a pixel in radians. */
+    public synchronized void setPixelScale(double pixelScale) {
+	if (!(pixelScale > 0)) {
+	    throw new IllegalArgumentException("Invalid pixel scale");
+	}
+	this.pixelScale = pixelScale;
+	update(false);
+    }
+
+    /** Rotate the view anticlockwise.
+     *  @param angle The additional rotation in radians.
+     */
+    public synchronized void rotate(double angle) {
+	rotation += angle;
+	update(false);
+    }
+
+    /** Set the anticlockwise rotation of the view in radians. */
+    public synchronized void setRotation(double rotation) {
+	this.rotation = rotation;
+	update(false);
+    }
+
+    /** Change the size of the view, keeping the center and scale. */
+    public synchronized void resize(int width, int height) {
+	if (width <= 0 || height <= 0) {
+	    throw new IllegalArgumentException("Zero width or height");
+	}
+	this.width  = width;
+	this.height = height;
+	update(false);
+    }
+
+    public synchronized double getRefRa() {
+	return refRa;
+    }
+
+    public synchronized double getRefDe() {
+	return refDe;
+    }
+
+    public synchronized double getPixelScale() {
+	return pixelScale;
+    }
+
+    public synchronized double getRotation() {
+	return rotation;
+    }
+
+    public synchronized int getWidth() {
+	return width;
+    }
+
+    public synchronized int getHeight() {
+	return height;
+    }
+
+    public String getProjection() {
+	return projection;
+    }
+
+    public CoordinateSystem getCoordinateSystem() {
+	return csys;
+    }
+
+    /** The number of updates so far. */
+    public long getVersion() {
+	return version >>> 1;
+    }
+
+    /** Build an ordinary WCS for the current view. */
+    public synchronized WCS toWCS() throws TransformationException {
+	Projection proj;
+	if (fixedPoint != null) {
+	    proj = new Projection(projection);
+	    proj.setReference(refRa, refDe);
+	} else {
+	    proj = new Projection(projection, new double[]{refRa, refDe});
+	}
+	return new WCS(csys, proj, new Scaler(x0, y0, a00, a01, a10, a11));
+    }
+
+    /** Recompute the published state.  The rotation is only
+     *  recomputed when the center has moved.
+     */
+    private void update(boolean center) {
+
+	double[] m = pm;
+	if (center) {
+	    // The same rotations as Projection uses.
+	    if (fixedPoint != null) {
+		identity(fm);
+		euler(fm, 'Z', -fixedPoint[0]);
+		euler(fm, 'Y',  fixedPoint[1]);
+		identity(rm);
+		euler(rm, 'Z', -refRa);
+		euler(rm, 'Y',  refDe);
+		multiplyTransposed(rm, fm, m);
+	    } else {
+		identity(m);
+		euler(m, 'Z', refRa);
+		euler(m, 'Y', -refDe + Math.PI/2);
+		euler(m, 'Z', Math.PI/2);
+	    }
+	}
+
+	// Where the center falls in the projection plane.
+	double cd = Math.cos(refDe);
+	double vx = Math.cos(refRa)*cd, vy = Math.sin(refRa)*cd, vz = Math.sin(refDe);
+	vec[0] = m[0]*vx + m[1]*vy + m[2]*vz;
+	vec[1] = m[3]*vx + m[4]*vy + m[5]*vz;
+	vec[2] = m[6]*vx + m[7]*vy + m[8]*vz;
+	projecter.transform(vec, pos);
+
+	// As in WCSBuilder: a rotation followed by the scaling.
+	double xs  = pixelScale;
+	double ys  = -pixelScale;
+	double cr  = Math.cos(rotation), sr = Math.sin(rotation);
+	double nx0 = 0.5*width  + pos[0]/xs;
+	double ny0 = 0.5*height - pos[1]/ys;
+	double n00 = -cr/xs, n01 = -sr/xs;
+	double n10 = -sr/ys, n11 =  cr/ys;
+	double det = n00*n11 - n01*n10;
+
+	long v = version;
+	version = v + 1;
+	VarHandle.storeStoreFence();
+
+	if (center) {
+	    double[] c = csysMatrix;
+	    if (c == null) {
+		m00 = m[0]; m01 = m[1]; m02 = m[2];
+		m10 = m[3]; m11 = m[4]; m12 = m[5];
+		m20 = m[6]; m21 = m[7]; m22 = m[8];
+	    } else {
+		// The coordinate system rotation comes first.
+		m00 = m[0]*c[0] + m[1]*c[3] + m[2]*c[6];
+		m01 = m[0]*c[1] + m[1]*c[4] + m[2]*c[7];
+		m02 = m[0]*c[2] + m[1]*c[5] + m[2]*c[8];
+		m10 = m[3]*c[0] + m[4]*c[3] + m[5]*c[6];
+		m11 = m[3]*c[1] + m[4]*c[4] + m[5]*c[7];
+		m12 = m[3]*c[2] + m[4]*c[5] + m[5]*c[8];
+		m20 = m[6]*c[0] + m[7]*c[3] + m[8]*c[6];
+		m21 = m[6]*c[1] + m[7]*c[4] + m[8]*c[7];
+		m22 = m[6]*c[2] + m[7]*c[5] + m[8]*c[8];
+	    }
+	}
+	x0  = nx0;
+	y0  = ny0;
+	a00 = n00;
+	a01 = n01;
+	a10 = n10;
+	a11 = n11;
+	u0  = -nx0*n11/det + ny0*n01/det;
+	v0  =  nx0*n10/det - ny0*n00/det;
+	b00 =  n11/det;
+	b01 = -n01/det;
+	b10 = -n10/det;
+	b11 =  n00/det;
+
+	version = v + 2;
+    }
+
+    private static void identity(double[] m) {
+	for (int i=0; i<9; i += 1) {
+	    m[i] = (i % 4 == 0) ? 1 : 0;
+	}
+    }
+
+    /** Apply a further rotation about an axis, as Rotater does for Euler angles. */
+    private static void euler(double[] m, char axis, double angle) {
+	double s = Math.sin(angle);
+	double c = Math.cos(angle);
+	int i, j;
+	if (axis == 'X') {
+	    i = 1;
+	    j = 2;
+	} else if (axis == 'Y') {
+	    // The Y rotation has the sine on the other side.
+	    i = 2;
+	    j = 0;
+	} else {
+	    i = 0;
+	    j = 1;
+	}
+	for (int k=0; k<3; k += 1) {
+	    double a = m[3*i+k];
+	    double b = m[3*j+k];
+	    m[3*i+k] =  c*a + s*b;
+	    m[3*j+k] = -s*a + c*b;
+	}
+    }
+
+    /** Set t to transpose(m) times f. */
+    private static void multiplyTransposed(double[] m, double[] f, double[] t) {
+	for (int i=0; i<3; i += 1) {
+	    for (int j=0; j<3; j += 1) {
+		t[3*i+j] = m[i]*f[j] + m[3+i]*f[3+j] + m[6+i]*f[6+j];
+	    }
+	}
+    }
+
+    /** Create a snapshot of the current view. */
+    public Snapshot newSnapshot() {
+	Snapshot s = new Snapshot(this);
+	refresh(s);
+	return s;
+    }
+
+    /** Bring a snapshot up to date.
+     *  @return true if the view had changed.
+     */
+    public boolean refresh(Snapshot s) {
+
+	if (s.view != this) {
+	    throw new IllegalArgumentException("Snapshot of another viewport");
+	}
+	long v;
+	do {
+	    v = version;
+	    if (v == s.seq) {
+		return false;
+	    }
+	    if ((v & 1) != 0) {
+		Thread.onSpinWait();
+		continue;
+	    }
+	    s.m00 = m00; s.m01 = m01; s.m02 = m02;
+	    s.m10 = m10; s.m11 = m11; s.m12 = m12;
+	    s.m20 = m20; s.m21 = m21; s.m22 = m22;
+	    s.x0  = x0;  s.y0  = y0;
+	    s.a00 = a00; s.a01 = a01; s.a10 = a10; s.a11 = a11;
+	    s.u0  = u0;  s.v0  = v0;
+	    s.b00 = b00; s.b01 = b01; s.b10 = b10; s.b11 = b11;
+	    VarHandle.loadLoadFence();
+	} while (version != v || (v & 1) != 0);
+	s.seq = v;
+	return true;
+    }
+
+    /** A consistent copy of the view, transforming from celestial
+     *  to pixel coordinates.  A snapshot holds scratch space for block
+     *  transformations and should only be used by one thread at a time.
+     */
+    public static final class Snapshot extends Transformer {
+
+	private final ViewportWCS view;
+	private final Inverse     inverse;
+	private final double[][]  work  = new double[3][BLOCK];
+	private final double[]    point = new double[3];
+	private long seq = -1;
+
+	private double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+	private double x0, y0, a00, a01, a10, a11;
+	private double u0, v0, b00, b01, b10, b11;
+
+	private Snapshot(ViewportWCS view) {
+	    this.view    = view;
+	    this.inverse = new Inverse();
+	}
+
+	/** The viewport version this snapshot shows */
+	public long getVersion() {
+	    return seq >>> 1;
+	}
+
+	public String getName() {
+	    return "ViewportWCS";
+	}
+
+	public String getDescription() {
+	    return "Snapshot of a "+view.projection+" viewport";
+	}
+
+	protected int getInputDimension() {
+	    return 3;
+	}
+
+	protected int getOutputDimension() {
+	    return 2;
+	}
+
+	/** The pixel to celestial transformation.  It follows later
+	 *  refreshes of this snapshot and shares its scratch space.
+	 */
+	public Transformer inverse() {
+	    return inverse;
+	}
+
+	public boolean isInverse(Transformer t) {
+	    return t == inverse;
+	}
+
+	public void transform(double[] in, double[] out) {
+	    double[] p = point;
+	    double a, b, c;
+	    if (view.distorter != null) {
+		view.distorter.transform(in, p);
+		a = p[0];
+		b = p[1];
+		c = p[2];
+	    } else {
+		a = in[0];
+		b = in[1];
+		c = in[2];
+	    }
+	    p[0] = m00*a + m01*b + m02*c;
+	    p[1] = m10*a + m11*b + m12*c;
+	    p[2] = m20*a + m21*b + m22*c;
+	    view.projecter.transform(p, out);
+	    double x = out[0], y = out[1];
+	    out[0] = x0 + a00*x + a01*y;
+	    out[1] = y0 + a10*x + a11*y;
+	}
+
+	public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	    final double m00 = this.m00, m01 = this.m01, m02 = this.m02;
+	    final double m10 = this.m10, m11 = this.m11, m12 = this.m12;
+	    final double m20 = this.m20, m21 = this.m21, m22 = this.m22;
+	    final double x0  = this.x0,  y0  = this.y0;
+	    final double a00 = this.a00, a01 = this.a01, a10 = this.a10, a11 = this.a11;
+	    final double[][] w = work;
+
+	    for (int done=0; done<len; done += BLOCK) {
+		int n = Math.min(BLOCK, len-done);
+		double[][] src = in;
+		int off = inOff + done;
+		if (view.distorter != null) {
+		    view.distorter.transform(in, off, w, 0, n);
+		    src = w;
+		    off = 0;
+		}
+		double[] x = src[0], y = src[1], z = src[2];
+		for (int i=0; i<n; i += 1) {
+		    double a = x[off+i];
+		    double b = y[off+i];
+		    double c = z[off+i];
+		    w[0][i] = m00*a + m01*b + m02*c;
+		    w[1][i] = m10*a + m11*b + m12*c;
+		    w[2][i] = m20*a + m21*b + m22*c;
+		}
+		view.projecter.transform(w, 0, out, outOff+done, n);
+		double[] u = out[0], v = out[1];
+		for (int i=outOff+done; i<outOff+done+n; i += 1) {
+		    double a = u[i];
+		    double b = v[i];
+		    u[i] = x0 + a00*a + a01*b;
+		    v[i] = y0 + a10*a + a11*b;
+		}
+	    }
+	}
+
+	/** Pixel to celestial coordinates for a snapshot. */
+	private final class Inverse extends Transformer {
+
+	    public String getName() {
+		return "ViewportWCS inverse";
+	    }
+
+	    public String getDescription() {
+		return "Pixel to celestial coordinates for a "+view.projection+" viewport";
+	    }
+
+	    protected int getInputDimension() {
+		return 2;
+	    }
+
+	    protected int getOutputDimension() {
+		return 3;
+	    }
+
+	    public Transformer inverse() {
+		return Snapshot.this;
+	    }
+
+	    public boolean isInverse(Transformer t) {
+		return t == Snapshot.this;
+	    }
+
+	    public void transform(double[] in, double[] out) {
+		double[] p = point;
+		double x = in[0], y = in[1];
+		p[0] = u0 + b00*x + b01*y;
+		p[1] = v0 + b10*x + b11*y;
+		view.deprojecter.transform(p, out);
+		unrotate(out);
+		if (view.undistorter != null) {
+		    view.undistorter.transform(out, out);
+		}
+	    }
+
+	    private void unrotate(double[] v) {
+		double a = v[0], b = v[1], c = v[2];
+		v[0] = m00*a + m10*b + m20*c;
+		v[1] = m01*a + m11*b + m21*c;
+		v[2] = m02*a + m12*b + m22*c;
+	    }
+
+	    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+		final double m00 = Snapshot.this.m00, m01 = Snapshot.this.m01, m02 = Snapshot.this.m02;
+		final double m10 = Snapshot.this.m10, m11 = Snapshot.this.m11, m12 = Snapshot.this.m12;
+		final double m20 = Snapshot.this.m20, m21 = Snapshot.this.m21, m22 = Snapshot.this.m22;
+		final double u0  = Snapshot.this.u0,  v0  = Snapshot.this.v0;
+		final double b00 = Snapshot.this.b00, b01 = Snapshot.this.b01;
+		final double b10 = Snapshot.this.b10, b11 = Snapshot.this.b11;
+		final double[][] w = work;
+
+		for (int done=0; done<len; done += BLOCK) {
+		    int n = Math.min(BLOCK, len-done);
+		    double[] x = in[0], y = in[1];
+		    for (int i=0; i<n; i += 1) {
+			double a = x[inOff+done+i];
+			double b = y[inOff+done+i];
+			w[0][i] = u0 + b00*a + b01*b;
+			w[1][i] = v0 + b10*a + b11*b;
+		    }
+		    view.deprojecter.transform(w, 0, out, outOff+done, n);
+		    double[] u = out[0], v = out[1], s = out[2];
+		    for (int i=outOff+done; i<outOff+done+n; i += 1) {
+			double a = u[i], b = v[i], c = s[i];
+			u[i] = m00*a + m10*b + m20*c;
+			v[i] = m01*a + m11*b + m21*c;
+			s[i] = m02*a + m12*b + m22*c;
+		    }
+		    if (view.undistorter != null) {
+			view.undistorter.transform(out, outOff+done, out, outOff+done, n);
+		    }
+		}
+	    }
+	}
+    }
+}
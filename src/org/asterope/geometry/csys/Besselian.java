@@ -40,12 +40,17 @@ import org.asterope.geometry.SphereDistorter;
 public class Besselian extends CoordinateSystem
   implements Component {
 
-    private double epoch;
+    private final double epoch;
     
-    /** These two work arrays mean that this class is not
-     *  thread safe.  If multiple threads are to be used each thread
-     *  needs its own coordinate system object.
+    /** The precession from B1950, created on first use. */
+    private volatile Rotater rotater;
+    
+    /** The E-terms do not depend upon the epoch, so all
+     *  Besselian systems share one distorter.
      */
+    private static final SphereDistorter eterms =
+      new org.asterope.geometry.spheredistorter.Besselian();
+    
     /** Get a CoordinateSystem of a given epoch.
      *  @param epoch The epoch as a calendar year (possibly fractional).
      */    
@@ -68,11 +73,16 @@ public class Besselian extends CoordinateSystem
     
     
     public Rotater getRotater() {
-	return precession(epoch);
+	Rotater r = rotater;
+	if (r == null) {
+	    r = precession(epoch);
+	    rotater = r;
+	}
+	return r;
     }
     
     public SphereDistorter getSphereDistorter() {
-	return new org.asterope.geometry.spheredistorter.Besselian();
+	return eterms;
     }
 
     /**
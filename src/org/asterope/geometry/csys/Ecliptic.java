@@ -9,8 +9,11 @@ import org.asterope.geometry.Rotater;
 public class Ecliptic extends CoordinateSystem 
   implements Component {
     
-    private double epoch;
-    private double elon;
+    private final double epoch;
+    private final double elon;
+    
+    /** The rotation from J2000, created on first use. */
+    private volatile Rotater rotater;
     
     /** 
      * Get the name of this component.
@@ -48,18 +51,29 @@ public class Ecliptic extends CoordinateSystem
     }
       
     public Rotater getRotater() {
+	Rotater r = rotater;
+	if (r == null) {
+	    r = rotation();
+	    rotater = r;
+	}
+	return r;
+    }
+    
+    private Rotater rotation() {
+	
         double DAS2R = 4.84813681109535993589914102e-6;
-
+	
         //   Interval between basic epoch J2000.0 and current epoch (JC) */
         double t = ( epoch - 2000 ) / 100;
-        //System.out.println("Ecliptic Coordinate System set, epoch=" + epoch);
-
- 
+	
         //   Mean obliquity 
         double eps0 = DAS2R * ( 84381.448 + ( -46.8150 + ( -0.00059 + 0.001813 * t ) * t ) * t );
- 
-        //   Get the matrix
-	Rotater r1 = new Julian(epoch).getRotater();
+	
+	//   Get the matrix.  The precession comes from the interned
+	//   Julian system so that it is only computed once for each epoch.
+	//   The factory would read a negative epoch as J2000.
+	Rotater r1 = epoch >= 0 ? CoordinateSystem.factory("J"+epoch).getRotater()
+				: new Julian(epoch).getRotater();
 	Rotater r2 = new Rotater("XZ", eps0, elon, 0.);
 	if (r1 == null) {
 	    return r2;
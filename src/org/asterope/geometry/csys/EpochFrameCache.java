@@ -0,0 +1,275 @@
+package org.asterope.geometry.csys;
+
+import org.asterope.geometry.CoordinateSystem;
+import org.asterope.geometry.Rotater;
+import org.asterope.geometry.TransformationException;
+
+/** Rotations from J2000 to a time-dependent coordinate system over
+ *  a range of epochs.  The exact rotation is computed on a grid of
+ *  epochs and stored as a unit quaternion.  Rotations for epochs
+ *  between the grid points are found by spherical linear interpolation
+ *  of the neighbouring quaternions, which is much cheaper than building
+ *  a new coordinate system, especially for helioecliptic systems where
+ *  the position of the Sun must be found.
+ *  <p>
+ *  The largest error of the interpolation is measured when the cache is
+ *  built, by comparing the interpolated and exact matrices halfway
+ *  between each pair of grid points, and is returned by getAccuracy().
+ *  Epochs outside of the grid are computed exactly.
+ *  <p>
+ *  Only precession (and for helioecliptic systems the motion of the Sun)
+ *  is included: the coordinate systems in this package do not
+ *  implement nutation.
+ *  <p>
+ *  The cache does not change after it is built and may be used by
+ *  several threads.
+ */
+public final class EpochFrameCache {
+
+    /** The system type: 'J', 'B', 'E' or 'H' as in CoordinateSystem.factory */
+    private final char type;
+
+    private final double start;
+    private final double step;
+    private final int    count;
+
+    /** The quaternions (w, x, y, z) at each grid point */
+    private final double[] quats;
+
+    /** The largest difference in any matrix element between an
+     *  interpolated and an exact rotation.
+     */
+    private final double accuracy;
+
+    /** Build a cache for a range of epochs.
+     *  @param type  The kind of system, as the initial used by CoordinateSystem.factory:
+     *               J (Julian), B (Besselian), E (ecliptic) or H (helioecliptic).
+     *  @param start The first epoch in calendar years.
+     *  @param end   The last epoch.
+     *  @param step  The spacing of the grid in years.
+     *  @throws TransformationException if the system is not time-dependent.
+     */
+    public EpochFrameCache(String type, double start, double end, double step)
+      throws TransformationException {
+
+	this.type = type == null || type.length() == 0 ? ' ' : Character.toUpperCase(type.charAt(0));
+	if ("JBEH".indexOf(this.type) < 0) {
+	    throw new TransformationException("Not a time-dependent coordinate system:"+type);
+	}
+	if (!(step > 0) || !(end >= start)) {
+	    throw new IllegalArgumentException("Invalid epoch range:"+start+" to "+end+" by "+step);
+	}
+
+	this.start = start;
+	this.step  = step;
+	this.count = (int) Math.ceil((end-start)/step) + 1;
+	this.quats = new double[4*Math.max(count, 2)];
+
+	for (int i=0; i<count; i += 1) {
+	    double[] q = exact(start + i*step).getQuaternion();
+	    // Keep neighbours in the same hemisphere so that the
+	    // interpolation takes the short way round.
+	    if (i > 0 && dot(quats, 4*(i-1), q) < 0) {
+		q[0] = -q[0]; q[1] = -q[1]; q[2] = -q[2]; q[3] = -q[3];
+	    }
+	    System.arraycopy(q, 0, quats, 4*i, 4);
+	}
+
+	double worst = 0;
+	double[] m = new double[9];
+	for (int i=0; i<count-1; i += 1) {
+	    double epoch = start + (i+0.5)*step;
+	    interpolate(i, 0.5, m);
+	    double[][] e = exact(epoch).getMatrix();
+	    for (int j=0; j<9; j += 1) {
+		worst = Math.max(worst, Math.abs(m[j] - e[j/3][j%3]));
+	    }
+	}
+	accuracy = worst;
+    }
+
+    /** Build a cache whose grid is fine enough that interpolated matrix
+     *  elements differ from the exact ones by no more than the tolerance.
+     *  The grid starts with a single interval covering the whole range
+     *  (or a year, if the range is shorter) and the spacing is halved
+     *  as needed.
+     */
+    public static EpochFrameCache withAccuracy(String type, double start, double end, double tolerance)
+      throws TransformationException {
+
+	double step = Math.max(end-start, 1);
+	EpochFrameCache c = new EpochFrameCache(type, start, end, step);
+	while (c.getAccuracy() > tolerance) {
+	    step /= 2;
+	    if (step < 1e-6) {
+		throw new IllegalArgumentException("Tolerance cannot be met:"+tolerance);
+	    }
+	    c = new EpochFrameCache(type, start, end, step);
+	}
+	return c;
+    }
+
+    /** The largest error found in the matrix elements of interpolated rotations. */
+    public double getAccuracy() {
+	return accuracy;
+    }
+
+    /** The first epoch of the grid */
+    public double getStart() {
+	return start;
+    }
+
+    /** The last epoch of the grid */
+    public double getEnd() {
+	return start + (count-1)*step;
+    }
+
+    /** The spacing of the grid */
+    public double getStep() {
+	return step;
+    }
+
+    /** Get the rotation from J2000 at an epoch.  This is never null,
+     *  even at J2000.
+     */
+    public Rotater getRotater(double epoch) {
+	double[] m = new double[9];
+	matrix(epoch, m);
+	return rotater(m);
+    }
+
+    /** Get the rotations for a set of epochs.
+     *  @param epochs The epochs.
+     *  @param out    Filled with the rotations for the corresponding epochs.
+     */
+    public void getRotaters(double[] epochs, Rotater[] out) {
+	double[] m = new double[9];
+	for (int i=0; i<epochs.length; i += 1) {
+	    matrix(epochs[i], m);
+	    out[i] = rotater(m);
+	}
+    }
+
+    /** Get the rotation matrix for an epoch without creating any objects.
+     *  @param epoch The epoch.
+     *  @param m     Filled with the matrix elements, row by row.
+     */
+    public void matrix(double epoch, double[] m) {
+	double f = (epoch-start)/step;
+	if (!(f >= 0 && f <= count-1)) {
+	    double[][] e = exact(epoch).getMatrix();
+	    for (int j=0; j<9; j += 1) {
+		m[j] = e[j/3][j%3];
+	    }
+	    return;
+	}
+	if (count == 1) {
+	    quaternionMatrix(quats, 0, m);
+	    return;
+	}
+	int i = Math.min((int) f, count-2);
+	interpolate(i, f-i, m);
+    }
+
+    /** Rotate a block of vectors, each at its own epoch.
+     *  The input and output may be the same arrays.
+     */
+    public void rotate(double[] epochs, double[][] in, int inOff, double[][] out, int outOff, int len) {
+	double[] m = new double[9];
+	for (int i=0; i<len; i += 1) {
+	    matrix(epochs[i], m);
+	    double a = in[0][inOff+i];
+	    double b = in[1][inOff+i];
+	    double c = in[2][inOff+i];
+	    out[0][outOff+i] = m[0]*a + m[1]*b + m[2]*c;
+	    out[1][outOff+i] = m[3]*a + m[4]*b + m[5]*c;
+	    out[2][outOff+i] = m[6]*a + m[7]*b + m[8]*c;
+	}
+    }
+
+    /** The exact rotation at an epoch */
+    private Rotater exact(double epoch) {
+	CoordinateSystem csys;
+	switch (type) {
+	  case 'J':
+	    csys = new Julian(epoch);
+	    break;
+	  case 'B':
+	    csys = new Besselian(epoch);
+	    break;
+	  case 'E':
+	    csys = new Ecliptic(epoch);
+	    break;
+	  default:
+	    csys = new Helioecliptic(epoch);
+	}
+	Rotater r = csys.getRotater();
+	if (r == null) {
+	    r = new Rotater("Z", 0, 0, 0);
+	}
+	return r;
+    }
+
+    /** Interpolate between grid points i and i+1.
+     *  @param t The fraction of the way to the second point.
+     */
+    private void interpolate(int i, double t, double[] m) {
+
+	int a = 4*i;
+	int b = a+4;
+	double cos = dot(quats, a, quats, b);
+
+	double wa, wb;
+	if (cos > 1 - 1e-10) {
+	    // Nearly parallel: a normalized linear interpolation is as accurate.
+	    wa = 1-t;
+	    wb = t;
+	} else {
+	    double theta = Math.acos(cos);
+	    double sin   = Math.sin(theta);
+	    wa = Math.sin((1-t)*theta)/sin;
+	    wb = Math.sin(t*theta)/sin;
+	}
+
+	double w = wa*quats[a]   + wb*quats[b];
+	double x = wa*quats[a+1] + wb*quats[b+1];
+	double y = wa*quats[a+2] + wb*quats[b+2];
+	double z = wa*quats[a+3] + wb*quats[b+3];
+	double n = 1/Math.sqrt(w*w + x*x + y*y + z*z);
+	quaternionMatrix(w*n, x*n, y*n, z*n, m);
+    }
+
+    private static double dot(double[] q, int a, double[] p) {
+	return dot(q, a, p, 0);
+    }
+
+    private static double dot(double[] q, int a, double[] p, int b) {
+	return q[a]*p[b] + q[a+1]*p[b+1] + q[a+2]*p[b+2] + q[a+3]*p[b+3];
+    }
+
+    private static void quaternionMatrix(double[] q, int a, double[] m) {
+	quaternionMatrix(q[a], q[a+1], q[a+2], q[a+3], m);
+    }
+
+    /** The rotation matrix of a unit quaternion, row by row. */
+    private static void quaternionMatrix(double w, double x, double y, double z, double[] m) {
+	m[0] = 1 - 2*(y*y + z*z);
+	m[1] = 2*(x*y - w*z);
+	m[2] = 2*(x*z + w*y);
+	m[3] = 2*(x*y + w*z);
+	m[4] = 1 - 2*(x*x + z*z);
+	m[5] = 2*(y*z - w*x);
+	m[6] = 2*(x*z - w*y);
+	m[7] = 2*(y*z + w*x);
+	m[8] = 1 - 2*(x*x + y*y);
+    }
+
+    private static Rotater rotater(double[] m) {
+	try {
+	    return new Rotater(new double[][]{{m[0], m[1], m[2]}, {m[3], m[4], m[5]}, {m[6], m[7], m[8]}});
+	} catch (TransformationException e) {
+	    // Shouldn't get here since the matrix is 3x3.
+	    throw new Error("Unexpected error:"+e);
+	}
+    }
+}
@@ -9,6 +9,9 @@ import org.asterope.geometry.Rotater;
 public class Galactic extends CoordinateSystem 
   implements Component {
     
+    /** The rotation from J2000, created on first use. */
+    private volatile Rotater rotater;
+    
     /**
      * Get the name of this object.
      */
@@ -28,6 +31,15 @@ public class Galactic extends CoordinateSystem
      */
       
     public Rotater getRotater() {
+	Rotater r = rotater;
+	if (r == null) {
+	    r = rotation();
+	    rotater = r;
+	}
+	return r;
+    }
+    
+    private Rotater rotation() {
 	double[] poles = new double[] {122.931918, 27.128251, 192.859481};
 	return new Rotater("ZYZ", Math.toRadians(poles[2]),
 			          Math.toRadians(90-poles[1]),
@@ -14,7 +14,7 @@ import static java.lang.Math.sin;
 public class Helioecliptic extends Ecliptic
   implements Component {
     
-    private double epoch;
+    private final double epoch;
     
     /**
      * Get the name of the component.
@@ -18,7 +18,10 @@ public class ICRS extends CoordinateSystem
   implements Component {
       
       
-    private static double[] angles = {
+    /** The rotation from J2000, created on first use. */
+    private volatile Rotater rotater;
+    
+    private static final double[] angles = {
 	Math.toRadians(-.0199 / 3600),
 	Math.toRadians(-.0091 / 3600),
 	Math.toRadians(+.0229 / 3600)
@@ -43,6 +46,11 @@ public class ICRS extends CoordinateSystem
      */
       
     public Rotater getRotater() {
-	return new Rotater("XYZ", angles[0], angles[1], angles[2]);
+	Rotater r = rotater;
+	if (r == null) {
+	    r = new Rotater("XYZ", angles[0], angles[1], angles[2]);
+	    rotater = r;
+	}
+	return r;
     }
 }
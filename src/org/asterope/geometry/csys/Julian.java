@@ -15,7 +15,10 @@ import org.asterope.geometry.Rotater;
 public class Julian extends CoordinateSystem 
   implements Component {
     
-    private double epoch;
+    private final double epoch;
+    
+    /** The precession from J2000, created on first use. */
+    private volatile Rotater rotater;
 
     /**
      * Get the name of this object.
@@ -46,9 +49,13 @@ public class Julian extends CoordinateSystem
     public Rotater getRotater() {
         if (epoch == 2000) {
 	    return null;
-	} else {
-	    return precession();
 	}
+	Rotater r = rotater;
+	if (r == null) {
+	    r = precession();
+	    rotater = r;
+	}
+	return r;
     }
 	
     /** Get the Julian Precession Matrix for a given epoch (from J2000).
@@ -10,8 +10,7 @@ import static java.lang.Math.abs;
 import static java.lang.Math.toDegrees;
 
 
-/** The distortion object for a given DSS structure. This class is
- *  not thread safe.
+/** The distortion object for a given DSS structure.
  */
 
 
@@ -22,23 +21,6 @@ public class DSS extends Distorter
     private double CONS2R    = toDegrees(1)*3600;
 
 
-    /* Position coefficients */
-    private double xmm;
-    private double ymm;
-    
-    private double xy;
-    private double x2;
-    private double y2;
-    private double x2y;
-    private double y2x;
-    
-    private double x2y2;
-    private double x4y4;
-    private double x3;
-    private double y3;
-    private double x4;
-    private double y4;
-
     /* Plate parameters */
 //    private double  plate_ra;	        /* Right ascension of plate center */
 //    private double  plate_dec;	        /* Declination of plate center */
@@ -71,24 +53,6 @@ public class DSS extends Distorter
     }
     
 	
-    private void setPosition(double xmm, double ymm) {
-    	this.xmm     = xmm;
-	    this.ymm     = ymm;
-    
-        this.xy      = xmm * ymm;
-        this.x2      = xmm * xmm;
-        this.y2      = ymm * ymm;
-        this.x2y     = x2 * ymm;
-        this.y2x     = y2 * xmm;
-        this.x2y2    = x2 + y2;
-        this.x4y4    = x2y2 * x2y2;
-        this.x3      = x2 * xmm;
-        this.y3      = y2 * ymm;
-        this.x4      = x2 * x2;
-        this.y4      = y2 * y2;
-    }
-
-    
     public void transform(double[] x, double[] y) {
 		  
         int    max_iterations = 50;
@@ -114,17 +78,15 @@ public class DSS extends Distorter
 	
         for (i=0; i < max_iterations; i++) {
 	    
-	    setPosition(xmm,ymm);
+	    ft = f(xmm,ymm);
+	    gt = g(xmm,ymm);
 	    
-	    ft = f();
-            gt = g();
 	    
-	    
-	    fx = dfdx();
-	    fy = dfdy();
+	    fx = dfdx(xmm,ymm);
+	    fy = dfdy(xmm,ymm);
         
-            gx = dgdx();
-            gy = dgdy();
+	    gx = dgdx(xmm,ymm);
+	    gy = dgdy(xmm,ymm);
         
             double df = ft - xi;
             double dg = gt - eta;
@@ -166,65 +128,102 @@ public class DSS extends Distorter
     }
     
 
-    /** Give the corrected X coordinate for the current actual position */
-    private double f() {
-        return  x_coeff[0]*xmm      + x_coeff[1]*ymm +
-                x_coeff[2]          + x_coeff[3]*x2 +
-                x_coeff[4]*xy       + x_coeff[5]*y2 +
-                x_coeff[6]*x2y2     + x_coeff[7]*x3 +
-                x_coeff[8]*x2y      + x_coeff[9]*y2x +
-                x_coeff[10]*y3      + x_coeff[11]*xmm*x2y2 +
-                x_coeff[12]*xmm*x4y4;
+    // The plate model and its derivatives.  The powers of the
+    // position are recomputed in each method rather than kept in
+    // fields so that a DSS object may be shared between threads.
+
+    /** Give the corrected X coordinate for an actual position */
+    private double f(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x2y  = x2 * ymm;
+	double y2x  = y2 * xmm;
+	double x2y2 = x2 + y2;
+	double x4y4 = x2y2 * x2y2;
+	double x3   = x2 * xmm;
+	double y3   = y2 * ymm;
+	return  x_coeff[0]*xmm      + x_coeff[1]*ymm +
+		x_coeff[2]          + x_coeff[3]*x2 +
+		x_coeff[4]*xy       + x_coeff[5]*y2 +
+		x_coeff[6]*x2y2     + x_coeff[7]*x3 +
+		x_coeff[8]*x2y      + x_coeff[9]*y2x +
+		x_coeff[10]*y3      + x_coeff[11]*xmm*x2y2 +
+		x_coeff[12]*xmm*x4y4;
     }
 
     /** Derivative of corrected X coordinate with respect to actual X coordinate */
-    private double dfdx() {    
-           /*  Derivative of X model wrt x */
-        return   x_coeff[0]           + x_coeff[3]*2.0*xmm +
-                 x_coeff[4]*ymm       + x_coeff[6]*2.0*xmm +
-                 x_coeff[7]*3.0*x2    + x_coeff[8]*2.0*xy +
-                 x_coeff[9]*y2        + x_coeff[11]*(3.0*x2+y2) +
-                 x_coeff[12]*(5.0*x4 +6.0*x2*y2+y4);
+    private double dfdx(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x4   = x2 * x2;
+	double y4   = y2 * y2;
+	return   x_coeff[0]           + x_coeff[3]*2.0*xmm +
+		 x_coeff[4]*ymm       + x_coeff[6]*2.0*xmm +
+		 x_coeff[7]*3.0*x2    + x_coeff[8]*2.0*xy +
+		 x_coeff[9]*y2        + x_coeff[11]*(3.0*x2+y2) +
+		 x_coeff[12]*(5.0*x4 +6.0*x2*y2+y4);
     }
 
     /** Derivative of corrected X coordinate with respect to actual Y coordinate */
-    private double dfdy() {
-        
-            /* Derivative of X model wrt y */
-        return   x_coeff[1]           + x_coeff[4]*xmm +
-                 x_coeff[5]*2.0*ymm   + x_coeff[6]*2.0*ymm +
-                 x_coeff[8]*x2        + x_coeff[9]*2.0*xy +
-                 x_coeff[10]*3.0*y2   + x_coeff[11]*2.0*xy +
-                 x_coeff[12]*4.0*xy*x2y2;
+    private double dfdy(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x2y2 = x2 + y2;
+	return   x_coeff[1]           + x_coeff[4]*xmm +
+		 x_coeff[5]*2.0*ymm   + x_coeff[6]*2.0*ymm +
+		 x_coeff[8]*x2        + x_coeff[9]*2.0*xy +
+		 x_coeff[10]*3.0*y2   + x_coeff[11]*2.0*xy +
+		 x_coeff[12]*4.0*xy*x2y2;
     }
-        
-    /** Give the corrected Y coordinate for the currenat actual position */
-    private double g() {
-         return y_coeff[0]*ymm       + y_coeff[1]*xmm +
-                y_coeff[2]            + y_coeff[3]*y2 +
-                y_coeff[4]*xy         + y_coeff[5]*x2 +
-                y_coeff[6]*x2y2       + y_coeff[7]*y3 +
-                y_coeff[8]*y2x        + y_coeff[9]*x2y +
-                y_coeff[10]*x3        + y_coeff[11]*ymm*x2y2 +
-                y_coeff[12]*ymm*x4y4;
+
+    /** Give the corrected Y coordinate for an actual position */
+    private double g(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x2y  = x2 * ymm;
+	double y2x  = y2 * xmm;
+	double x2y2 = x2 + y2;
+	double x4y4 = x2y2 * x2y2;
+	double x3   = x2 * xmm;
+	double y3   = y2 * ymm;
+	return  y_coeff[0]*ymm       + y_coeff[1]*xmm +
+		y_coeff[2]           + y_coeff[3]*y2 +
+		y_coeff[4]*xy        + y_coeff[5]*x2 +
+		y_coeff[6]*x2y2      + y_coeff[7]*y3 +
+		y_coeff[8]*y2x       + y_coeff[9]*x2y +
+		y_coeff[10]*x3       + y_coeff[11]*ymm*x2y2 +
+		y_coeff[12]*ymm*x4y4;
     }
 
     /** Derivative of corrected Y coordinate with respect to actual X coordinate */
-    private double dgdx() {
-        return   y_coeff[1]           + y_coeff[4]*ymm +
-                 y_coeff[5]*2.0*xmm   + y_coeff[6]*2.0*xmm +
-                 y_coeff[8]*y2       + y_coeff[9]*2.0*xy +
-                 y_coeff[10]*3.0*x2  + y_coeff[11]*2.0*xy +
-                 y_coeff[12]*4.0*xy*x2y2;
+    private double dgdx(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x2y2 = x2 + y2;
+	return   y_coeff[1]           + y_coeff[4]*ymm +
+		 y_coeff[5]*2.0*xmm   + y_coeff[6]*2.0*xmm +
+		 y_coeff[8]*y2        + y_coeff[9]*2.0*xy +
+		 y_coeff[10]*3.0*x2   + y_coeff[11]*2.0*xy +
+		 y_coeff[12]*4.0*xy*x2y2;
     }
 
     /** Derivative of corrected Y coordinate with respect to actual Y coordinate */
-    private double dgdy() {
-        return   y_coeff[0]            + y_coeff[3]*2.0*ymm +
-                 y_coeff[4]*xmm        + y_coeff[6]*2.0*ymm +
-                 y_coeff[7]*3.0*y2     + y_coeff[8]*2.0*xy +
-                 y_coeff[9]*x2         + y_coeff[11]*(x2+3.0*y2) +
-                 y_coeff[12]*(5.0*y4 + 6.0*x2*y2 + x4);
+    private double dgdy(double xmm, double ymm) {
+	double xy   = xmm * ymm;
+	double x2   = xmm * xmm;
+	double y2   = ymm * ymm;
+	double x4   = x2 * x2;
+	double y4   = y2 * y2;
+	return   y_coeff[0]            + y_coeff[3]*2.0*ymm +
+		 y_coeff[4]*xmm        + y_coeff[6]*2.0*ymm +
+		 y_coeff[7]*3.0*y2     + y_coeff[8]*2.0*xy +
+		 y_coeff[9]*x2         + y_coeff[11]*(x2+3.0*y2) +
+		 y_coeff[12]*(5.0*y4 + 6.0*x2*y2 + x4);
     }
     
     /** The inverse Distorter (i.e., the undistorter) uses much of the same
@@ -288,12 +287,10 @@ public class DSS extends Distorter
             double	xmm = x[0] * CONS2R / plate_scale;	
             double	ymm = x[1] * CONS2R / plate_scale;
 
-            setPosition(xmm,ymm);
-    
             //  Compute corrected coordinates XI,ETA in "
 
-            double xi  = f();
-            double eta = g();
+	    double xi  = f(xmm,ymm);
+	    double eta = g(xmm,ymm);
 	  
 	  
             /* Convert from " to radians */
@@ -46,6 +46,52 @@ public class Ait extends Projecter {
 	}
     }
     
+    /** Project a block of points.  This is forwardTransform
+     *  written out over the component arrays.
+     */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	for (int i=0; i<len; i += 1) {
+	    double sx = x[inOff+i];
+	    double sy = y[inOff+i];
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz)) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+		continue;
+	    }
+	    
+	    double cos_b = sqrt(1-sz*sz);
+	    double cos_l = 0;
+	    if (1 - abs(sz) > 1.e-10) {
+		cos_l = sx/cos_b;
+	    }
+	    
+	    double cos_l2 = (0.5*(1+cos_l));
+	    if (cos_l2 > 0) {
+		cos_l2 = sqrt(cos_l2);
+	    } else {
+		cos_l2 = 0;
+	    }
+	    double sin_l2 = (0.5*(1-cos_l));
+	    if (sin_l2 > 0) {
+		sin_l2 = sqrt(sin_l2);
+	    } else {
+		sin_l2 = 0;
+	    }
+	    if (sy < 0) {
+		sin_l2 = -sin_l2;
+	    }
+	    
+	    double gamma = sqrt( 2 / (1 + cos_b*cos_l2));
+	    u[outOff+i] = 2*gamma*cos_b*sin_l2;
+	    v[outOff+i] = gamma*sz;
+	}
+    }
+    
     public static void forwardTransform(double[] sphere, double[] plane) {
 	
 	// Sphere[2] is just sin_b.
@@ -233,6 +279,48 @@ public class Ait extends Projecter {
 	        reverseTransform(plane, sphere);
 	    }
 	}
+	
+	/** Deproject a block of points.  This is reverseTransform
+	 *  written out over the component arrays.
+	 */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    for (int i=0; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		if (Double.isNaN(px) || !(px*px/8 + py*py/2 <= 1)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		    continue;
+		}
+		
+		double z = (1 - px*px/16 - py*py/4 );
+		if (z > 0) {
+		    z = sqrt(z);
+		} else {
+		    z = 0;
+		}
+		
+		double sz    = py*z;
+		double cos_b = sqrt(1-sz*sz);
+		w[outOff+i] = sz;
+		if (abs(cos_b) > 1.e-12) {
+		    double sl2 = z*px/(2*cos_b);
+		    double cl2 = (2*z*z-1)/cos_b;
+		    double cl  = 2*cl2*cl2-1;
+		    double sl  = 2*sl2*cl2;
+		    u[outOff+i] = cl*cos_b;
+		    v[outOff+i] = sl*cos_b;
+		} else {
+		    u[outOff+i] = 0;
+		    v[outOff+i] = 0;
+		}
+	    }
+	}
     }
     
     public static void main(String[] args) {
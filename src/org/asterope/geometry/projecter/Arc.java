@@ -60,6 +60,33 @@ public class Arc extends Projecter {
 	}
     }
     
+    /** Project a block of points from the sphere to the plane. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	for (int i=0; i<len; i += 1) {
+	    double sx = x[inOff+i];
+	    double sy = y[inOff+i];
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz)) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+	    } else {
+		double denom = sx*sx + sy*sy;
+		if (denom == 0) {
+		    u[outOff+i] = 0;
+		    v[outOff+i] = 0;
+		} else {
+		    double ratio = (Math.PI/2 - Math.asin(sz))/Math.sqrt(denom);
+		    u[outOff+i] = ratio * sx;
+		    v[outOff+i] = ratio * sy;
+		}
+	    }
+	}
+    }
+    
     public boolean validPosition(double[] plane) {
 	return super.validPosition(plane) &&
 	       (plane[0]*plane[0] + plane[1]*plane[1]) <= Math.PI*Math.PI;
@@ -114,5 +141,33 @@ public class Arc extends Projecter {
 	        sphere[1] = ratio * plane[1];
 	    }
 	}
+	
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    for (int i=0; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		double r2 = px*px + py*py;
+		if (Double.isNaN(px) || !(r2 <= Math.PI*Math.PI)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		} else {
+		    double r     = Math.sqrt(r2);
+		    double sinde = Math.cos(r);
+		    double ratio = 0;
+		    if (r > 0) {
+			ratio = Math.sqrt(1 - sinde*sinde)/r;
+		    }
+		    u[outOff+i] = ratio * px;
+		    v[outOff+i] = ratio * py;
+		    w[outOff+i] = sinde;
+		}
+	    }
+	}
     }
 }
@@ -71,6 +71,24 @@ public final class Car extends Projecter {
 	}
     }
     
+    /** Transform a block of points */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	for (int i=0; i<len; i += 1) {
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz)) {
+		u[outOff+i] = NaN;
+		v[outOff+i] = NaN;
+	    } else {
+		u[outOff+i] = atan2(y[inOff+i], x[inOff+i]);
+		v[outOff+i] = asin(sz);
+	    }
+	}
+    }
+    
     /** The entire plane is valid */
     public boolean allValid() {
 	return true;
@@ -144,5 +162,27 @@ public final class Car extends Projecter {
 	        sphere[2] = sd;
 	    }
 	}
+    
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    for (int i=0; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		if (Double.isNaN(px)) {
+		    u[outOff+i] = NaN;
+		    v[outOff+i] = NaN;
+		    w[outOff+i] = NaN;
+		} else {
+		    double cd = cos(py);
+		    u[outOff+i] = cos(px)*cd;
+		    v[outOff+i] = sin(px)*cd;
+		    w[outOff+i] = sin(py);
+		}
+	    }
+	}
     }
 }
@@ -169,6 +169,50 @@ public final class Csc extends org.asterope.geometry.Projecter {
 			               
 	}
     }
+    
+    /** Project a block of points from the sphere to the plane.
+     *  A single work vector is used for the whole block.
+     */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] s = new double[3];
+	
+	for (int i=0; i<len; i += 1) {
+	    s[0] = sphere[0][inOff+i];
+	    s[1] = sphere[1][inOff+i];
+	    s[2] = sphere[2][inOff+i];
+	    
+	    if (Double.isNaN(s[2])) {
+		plane[0][outOff+i] = Double.NaN;
+		plane[1][outOff+i] = Double.NaN;
+		continue;
+	    }
+	    
+	    int    face = -1;
+	    double max  = 0;
+	    for (int j=0; j<3; j += 1) {
+		if (Math.abs(s[j]) > max) {
+		    max  = Math.abs(s[j]);
+		    face = j;
+		}
+	    }
+	    if (s[face] < 0) {
+		face = negIndex[face];
+	    } else {
+		face = posIndex[face];
+	    }
+	    
+	    double eps = s[epsIndex[face]]*epsSign[face];
+	    double zet = s[zetIndex[face]]*zetSign[face];
+	    double eta = s[etaIndex[face]]*etaSign[face];
+	    
+	    double alpha = eps/eta;
+	    double beta  = zet/eta;
+	    
+	    plane[0][outOff+i] = f(alpha,beta) + faceCenter[face][0];
+	    plane[1][outOff+i] = f(beta,alpha) + faceCenter[face][1];
+	}
+    }
 
     /** Projection function.
      */
@@ -269,6 +313,45 @@ public final class Csc extends org.asterope.geometry.Projecter {
 	    }
         }
     
+	/** Deproject a block of points from the plane to the sphere.
+	 *  A single work vector is used for the whole block.
+	 */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] s = new double[3];
+	
+	    for (int i=0; i<len; i += 1) {
+		double x = plane[0][inOff+i];
+		double y = plane[1][inOff+i];
+		
+		int face = -1;
+		if (!Double.isNaN(x)) {
+		    face = findFace(x,y);
+		}
+		if (face < 0) {
+		    sphere[0][outOff+i] = Double.NaN;
+		    sphere[1][outOff+i] = Double.NaN;
+		    sphere[2][outOff+i] = Double.NaN;
+		    continue;
+		}
+		
+		x = (x - faceCenter[face][0])/(Math.PI/4);
+		y = (y - faceCenter[face][1])/(Math.PI/4);
+		
+		double alpha = g(x,y);
+		double beta  = g(y,x);
+		
+		s[epsIndex[face]] = alpha*epsSign[face];
+		s[zetIndex[face]] = beta*zetSign[face];
+		s[etaIndex[face]] = 1*etaSign[face];
+		
+		double norm = 1/Math.sqrt(alpha*alpha + beta*beta + 1);
+		sphere[0][outOff+i] = s[0]*norm;
+		sphere[1][outOff+i] = s[1]*norm;
+		sphere[2][outOff+i] = s[2]*norm;
+	    }
+	}
+    
 
         /** Deprojection equation. */
         private double g(double x, double y) {
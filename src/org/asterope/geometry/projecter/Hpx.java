@@ -108,6 +108,15 @@ public class Hpx extends Projecter {
     }
     
     
+    /** Get an index for the NESTED pixels of this dimension.
+     *  This gives the same pixels as getPixel, but with long pixel
+     *  numbers so that dimensions above 13 may be used, and
+     *  provides the RING scheme and the neighbours of pixels.
+     */
+    public HpxIndex getIndex() {
+	return new HpxIndex(Integer.numberOfTrailingZeros(nSide), HpxIndex.Scheme.NESTED);
+    }
+    
     public String getName() {
 	return "Hpx";
     }
@@ -142,24 +151,12 @@ public class Hpx extends Projecter {
 	}
 	
 	int square = pix/nSq;
+	long rem   = pix % nSq;
 	
-	int    rem   = pix % nSq;
-	double delta = 0.5;
-	int    div   = nSide/2;
-	
-	double x = botLeftX[square];
-	double y = botLeftY[square];
-	
-	while (div > 0) {
-	    int nrem = rem%div;
-	    
-	    x += (rem%2)*delta;
-	    y += (rem/2)*delta;
-	    
-	    delta /= 2;
-	    div   /= 2;
-	    rem    = nrem;
-	}
+	// The nested pixel number interleaves the bits of the
+	// pixel coordinates within the square.
+	double x = botLeftX[square] + HpxIndex.compress(rem)*sqDelta;
+	double y = botLeftY[square] + HpxIndex.compress(rem >>> 1)*sqDelta;
 	return new double[]{x,y};
     }
 	    
@@ -292,6 +289,20 @@ public class Hpx extends Projecter {
 	proj(sphere, plane);
     }
     
+    /** Project a block of points using a single pair of work vectors. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	double[] unit = new double[3];
+	double[] pos  = new double[2];
+	for (int i=0; i<len; i += 1) {
+	    unit[0] = sphere[0][inOff+i];
+	    unit[1] = sphere[1][inOff+i];
+	    unit[2] = sphere[2][inOff+i];
+	    proj(unit, pos);
+	    plane[0][outOff+i] = pos[0];
+	    plane[1][outOff+i] = pos[1];
+	}
+    }
+    
     /** Find the pixel that includes the given position.
      * 
      * @param pos The position in the nominal HEALPix projection plane */
@@ -335,6 +346,9 @@ public class Hpx extends Projecter {
 	double xSq  = Math.floor(u);
         double ySq  = Math.floor(v);
 	
+	// The position within the square
+	double dx   = u - xSq;
+	double dy   = v - ySq;
 	
 	// Find out which tile we are in.
 	
@@ -367,35 +381,12 @@ public class Hpx extends Projecter {
 	    return -1;
 	}
 	
-	int pix = nSq*tile;
-	
-	double delta = 0.5;
-	double dx    = u - xSq;
-	double dy    = v - ySq;
+	// The bits of the pixel coordinates within the square
+	// interleave to give the nested pixel number.
+	long ix = Math.min((long) (dx*nSide), nSide-1);
+	long iy = Math.min((long) (dy*nSide), nSide-1);
 	
-	int npix = nSide;
-	while (npix > 1) {
-	    
-	    int ipix = 0;   // Will be 0-3 at the end.
-	    
-	    if (dy  >= delta) {
-		ipix = 2;
-		dy  -= delta;
-	    }
-	    
-	    if (dx   >= delta) {
-		ipix += 1;
-		dx   -= delta;
-	    }
-	    
-	    npix   /= 2;
-	    delta  /= 2;
-	    
-	    pix += ipix*npix*npix;
-	    
-	}
-	
-	return pix;
+	return nSq*tile + (int) (HpxIndex.spread(ix) | (HpxIndex.spread(iy) << 1));
     }
     
     /** This method converts a pixel number based on the assumption
@@ -479,5 +470,19 @@ public class Hpx extends Projecter {
 	public void transform(double[] plane, double[] sphere) {
 	    deproj(plane, sphere);
         }
+	
+	/** Deproject a block of points using a single pair of work vectors. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	    double[] pos  = new double[2];
+	    double[] unit = new double[3];
+	    for (int i=0; i<len; i += 1) {
+		pos[0] = plane[0][inOff+i];
+		pos[1] = plane[1][inOff+i];
+		deproj(pos, unit);
+		sphere[0][outOff+i] = unit[0];
+		sphere[1][outOff+i] = unit[1];
+		sphere[2][outOff+i] = unit[2];
+	    }
+	}
     }
 }
@@ -0,0 +1,551 @@
+package org.asterope.geometry.projecter;
+
+/** Pixel indexing for HEALPix maps in the NESTED and RING schemes.
+ *  Positions are given as unit vectors or as longitude and latitude
+ *  in radians, and pixel numbers are longs so that every order up to
+ *  29 (nside = 2^29, about 3.5e18 pixels) may be used.
+ *  <p>
+ *  Internally a pixel is found as a base square (face) and integer
+ *  coordinates ix, iy within it.  A NESTED pixel number is the face
+ *  followed by the bits of ix and iy interleaved, with ix in the
+ *  even bits, so no loop over the levels is needed.  This is the
+ *  numbering used by Hpx.getPixel.  The algorithms follow
+ *  those of the HEALPix library (Gorski et al. 2005, ApJ 622, 759),
+ *  including the more accurate treatment of positions near the poles.
+ *  <p>
+ *  An index does not change after it is created and may be used by
+ *  several threads.
+ */
+public final class HpxIndex {
+
+    /** The pixel numbering schemes */
+    public enum Scheme {
+	/** Pixels numbered along rings of constant latitude from the north */
+	RING,
+	/** Pixels numbered hierarchically within each of the 12 base squares */
+	NESTED
+    }
+
+    /** The largest supported order */
+    public static final int MAX_ORDER = 29;
+
+    /** The ring of the northern corner of each face, in units of nside */
+    private static final int[] JRLL = {2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4};
+
+    /** The longitude of the northern corner of each face, in units of pi/4 */
+    private static final int[] JPLL = {1, 3, 5, 7, 0, 2, 4, 6, 1, 3, 5, 7};
+
+    /** The offsets of the neighbours in the order SW, W, NW, N, NE, E, SE, S */
+    private static final int[] XOFFSET = {-1, -1,  0,  1,  1,  1,  0, -1};
+    private static final int[] YOFFSET = { 0,  1,  1,  1,  0, -1, -1, -1};
+
+    /** The face across each edge or corner of a face, indexed by
+     *  (x direction+1)+3*(y direction+1), or -1 where three faces meet.
+     */
+    private static final int[][] FACES = {
+	{  8,  9, 10, 11, -1, -1, -1, -1, 10, 11,  8,  9 },   // S
+	{  5,  6,  7,  4,  8,  9, 10, 11,  9, 10, 11,  8 },   // SE
+	{ -1, -1, -1, -1,  5,  6,  7,  4, -1, -1, -1, -1 },   // E
+	{  4,  5,  6,  7, 11,  8,  9, 10, 11,  8,  9, 10 },   // SW
+	{  0,  1,  2,  3,  4,  5,  6,  7,  8,  9, 10, 11 },   // center
+	{  1,  2,  3,  0,  0,  1,  2,  3,  5,  6,  7,  4 },   // NE
+	{ -1, -1, -1, -1,  7,  4,  5,  6, -1, -1, -1, -1 },   // W
+	{  3,  0,  1,  2,  3,  0,  1,  2,  4,  5,  6,  7 },   // NW
+	{  2,  3,  0,  1, -1, -1, -1, -1,  0,  1,  2,  3 },   // N
+    };
+
+    /** How the coordinates change on crossing into the face above,
+     *  for the northern, equatorial and southern faces:
+     *  1 reflects x, 2 reflects y and 4 swaps x and y.
+     */
+    private static final int[][] SWAPS = {
+	{ 0, 0, 3 },   // S
+	{ 0, 0, 6 },   // SE
+	{ 0, 0, 0 },   // E
+	{ 0, 0, 5 },   // SW
+	{ 0, 0, 0 },   // center
+	{ 5, 0, 0 },   // NE
+	{ 0, 0, 0 },   // W
+	{ 6, 0, 0 },   // NW
+	{ 3, 0, 0 },   // N
+    };
+
+    private static final double HALF_PI = Math.PI/2;
+
+    private final int    order;
+    private final Scheme scheme;
+    private final long   nside;
+    private final long   npface;
+    private final long   npix;
+    private final long   ncap;
+
+    /** Create an index.
+     *  @param order  The base 2 logarithm of nside, from 0 to MAX_ORDER.
+     *  @param scheme The numbering of the pixels.
+     */
+    public HpxIndex(int order, Scheme scheme) {
+	if (order < 0 || order > MAX_ORDER) {
+	    throw new IllegalArgumentException("Invalid HEALPix order:"+order);
+	}
+	this.order  = order;
+	this.scheme = scheme;
+	this.nside  = 1L << order;
+	this.npface = nside*nside;
+	this.npix   = 12*npface;
+	this.ncap   = 2*nside*(nside-1);
+    }
+
+    public int getOrder() {
+	return order;
+    }
+
+    public Scheme getScheme() {
+	return scheme;
+    }
+
+    public long getNside() {
+	return nside;
+    }
+
+    /** The total number of pixels */
+    public long getNpix() {
+	return npix;
+    }
+
+    /** Find the pixel containing the direction of a vector.
+     *  The vector need not be normalized.
+     */
+    public long vec2pix(double x, double y, double z) {
+	double r   = Math.sqrt(x*x + y*y + z*z);
+	double sth = Math.sqrt(x*x + y*y)/r;
+	return loc2pix(z/r, sth, ring(Math.atan2(y, x)));
+    }
+
+    /** Find the pixel containing a position.
+     *  @param lon The longitude in radians.
+     *  @param lat The latitude in radians.
+     */
+    public long ang2pix(double lon, double lat) {
+	return loc2pix(Math.sin(lat), Math.cos(lat), ring(lon));
+    }
+
+    /** Find the pixels for a block of unit vectors.
+     *  Invalid vectors (e.g., containing NaNs) give -1.
+     */
+    public void vec2pix(double[][] unit, int inOff, long[] pix, int outOff, int len) {
+	final double[] x = unit[0], y = unit[1], z = unit[2];
+	for (int i=0; i<len; i += 1) {
+	    pix[outOff+i] = vec2pix(x[inOff+i], y[inOff+i], z[inOff+i]);
+	}
+    }
+
+    /** Find the pixels for a block of longitudes and latitudes in radians.
+     *  Invalid positions give -1.
+     */
+    public void ang2pix(double[] lon, double[] lat, int inOff, long[] pix, int outOff, int len) {
+	for (int i=0; i<len; i += 1) {
+	    pix[outOff+i] = ang2pix(lon[inOff+i], lat[inOff+i]);
+	}
+    }
+
+    /** Get the unit vector to the center of a pixel.
+     *  @param unit Filled with the vector.
+     */
+    public void pix2vec(long pix, double[] unit) {
+	center(pix, false, unit, 0, unit, 1, unit, 2);
+    }
+
+    /** Get the longitude and latitude in radians of the center of a pixel.
+     *  The longitude is in [0, 2pi).
+     *  @param lonLat Filled with the longitude and latitude.
+     */
+    public void pix2ang(long pix, double[] lonLat) {
+	center(pix, true, lonLat, 0, lonLat, 1, null, 0);
+    }
+
+    /** Get the unit vectors to the centers of a block of pixels.
+     *  Invalid pixel numbers give NaNs.
+     */
+    public void pix2vec(long[] pix, int inOff, double[][] unit, int outOff, int len) {
+	final double[] x = unit[0], y = unit[1], z = unit[2];
+	for (int i=0; i<len; i += 1) {
+	    int k = outOff+i;
+	    center(pix[inOff+i], false, x, k, y, k, z, k);
+	}
+    }
+
+    /** Find the neighbours of a pixel.
+     *  @param pix    The pixel.
+     *  @param result Filled with the neighbours in the order SW, W, NW, N, NE, E, SE, S
+     *                (where north is toward the northern corner of the face).
+     *                The W, N, E or S neighbour is -1 where only
+     *                seven pixels meet at a corner.
+     */
+    public void neighbours(long pix, long[] result) {
+
+	check(pix);
+	long nest = scheme == Scheme.NESTED ? pix : ring2nest(pix);
+	int  face = (int) (nest >>> (2*order));
+	long ix   = compress(nest & (npface-1));
+	long iy   = compress((nest & (npface-1)) >>> 1);
+
+	long max = nside-1;
+	for (int i=0; i<8; i += 1) {
+	    long x = ix + XOFFSET[i];
+	    long y = iy + YOFFSET[i];
+	    int  f = face;
+	    if (x < 0 || x > max || y < 0 || y > max) {
+		int nb = 4;
+		if (x < 0) {
+		    x  += nside;
+		    nb -= 1;
+		} else if (x > max) {
+		    x  -= nside;
+		    nb += 1;
+		}
+		if (y < 0) {
+		    y  += nside;
+		    nb -= 3;
+		} else if (y > max) {
+		    y  -= nside;
+		    nb += 3;
+		}
+		f = FACES[nb][face];
+		if (f < 0) {
+		    result[i] = -1;
+		    continue;
+		}
+		int bits = SWAPS[nb][face >> 2];
+		if ((bits & 1) != 0) {
+		    x = max - x;
+		}
+		if ((bits & 2) != 0) {
+		    y = max - y;
+		}
+		if ((bits & 4) != 0) {
+		    long t = x;
+		    x = y;
+		    y = t;
+		}
+	    }
+	    long n = xyf2nest(x, y, f);
+	    result[i] = scheme == Scheme.NESTED ? n : nest2ring(n);
+	}
+    }
+
+    /** Convert a NESTED pixel number to the RING scheme */
+    public long nest2ring(long pix) {
+	check(pix);
+	int  face = (int) (pix >>> (2*order));
+	long xy   = pix & (npface-1);
+	return xyf2ring(compress(xy), compress(xy >>> 1), face);
+    }
+
+    /** Convert a RING pixel number to the NESTED scheme */
+    public long ring2nest(long pix) {
+	check(pix);
+	long xyf = ring2xyf(pix);
+	return xyf2nest(xyfX(xyf), xyfY(xyf), xyfFace(xyf));
+    }
+
+    /** Convert a block of NESTED pixel numbers to the RING scheme.  The arrays may be the same. */
+    public void nest2ring(long[] in, int inOff, long[] out, int outOff, int len) {
+	for (int i=0; i<len; i += 1) {
+	    out[outOff+i] = nest2ring(in[inOff+i]);
+	}
+    }
+
+    /** Convert a block of RING pixel numbers to the NESTED scheme.  The arrays may be the same. */
+    public void ring2nest(long[] in, int inOff, long[] out, int outOff, int len) {
+	for (int i=0; i<len; i += 1) {
+	    out[outOff+i] = ring2nest(in[inOff+i]);
+	}
+    }
+
+    private void check(long pix) {
+	if (pix < 0 || pix >= npix) {
+	    throw new IllegalArgumentException("Invalid pixel "+pix+" for nside "+nside);
+	}
+    }
+
+    /** The longitude in units of pi/2 in [0,4) */
+    private static double ring(double phi) {
+	double tt = phi/HALF_PI;
+	if (tt < 0 || tt >= 4) {
+	    tt -= 4*Math.floor(tt/4);
+	    if (tt >= 4) {
+		tt = 0;
+	    }
+	}
+	return tt;
+    }
+
+    /** Find the pixel for a position given as z, sin(theta) and
+     *  the longitude in units of pi/2.
+     */
+    private long loc2pix(double z, double sth, double tt) {
+
+	double za = Math.abs(z);
+	if (!(za <= 1) || Double.isNaN(tt)) {
+	    return -1;
+	}
+
+	if (scheme == Scheme.RING) {
+	    long nl4 = 4*nside;
+	    if (za <= 2./3) {
+		double t1 = nside*(0.5+tt);
+		double t2 = nside*z*0.75;
+		long jp = (long) (t1-t2);
+		long jm = (long) (t1+t2);
+		long ir = nside + 1 + jp - jm;
+		long kshift = 1 - (ir & 1);
+		long ip = ((jp + jm - nside + kshift + 1 + 2*nl4) >> 1) & (nl4-1);
+		return ncap + (ir-1)*nl4 + ip;
+	    } else {
+		double tp  = tt - (long) tt;
+		double tmp = polar(za, sth);
+		long jp = (long) (tp*tmp);
+		long jm = (long) ((1-tp)*tmp);
+		long ir = jp + jm + 1;
+		long ip = (long) (tt*ir);
+		if (ip >= 4*ir) {
+		    ip -= 4*ir;
+		}
+		return z > 0 ? 2*ir*(ir-1) + ip : npix - 2*ir*(ir+1) + ip;
+	    }
+	}
+
+	long face, ix, iy;
+	if (za <= 2./3) {
+	    double t1 = nside*(0.5+tt);
+	    double t2 = nside*(z*0.75);
+	    long jp  = (long) (t1-t2);
+	    long jm  = (long) (t1+t2);
+	    long ifp = jp >> order;
+	    long ifm = jm >> order;
+	    face = ifp == ifm ? (ifp | 4) : ifp < ifm ? ifp : ifm+8;
+	    ix   = jm & (nside-1);
+	    iy   = nside - (jp & (nside-1)) - 1;
+	} else {
+	    int    ntt = Math.min(3, (int) tt);
+	    double tp  = tt - ntt;
+	    double tmp = polar(za, sth);
+	    long jp = Math.min((long) (tp*tmp),     nside-1);
+	    long jm = Math.min((long) ((1-tp)*tmp), nside-1);
+	    if (z >= 0) {
+		face = ntt;
+		ix   = nside - jm - 1;
+		iy   = nside - jp - 1;
+	    } else {
+		face = ntt + 8;
+		ix   = jp;
+		iy   = jm;
+	    }
+	}
+	return xyf2nest(ix, iy, (int) face);
+    }
+
+    /** nside*sqrt(3(1-|z|)), computed from sin(theta) near the poles */
+    private double polar(double za, double sth) {
+	return za < 0.99 ? nside*Math.sqrt(3*(1-za)) : nside*sth/Math.sqrt((1+za)/3);
+    }
+
+    /** Find the center of a pixel, either as a unit vector in u, v
+     *  and w or as a longitude in [0, 2pi) in u and a latitude in v.
+     *  Invalid pixel numbers give NaNs.
+     */
+    private void center(long pix, boolean angles,
+			double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+
+	if (pix < 0 || pix >= npix) {
+	    u[iu] = Double.NaN;
+	    v[iv] = Double.NaN;
+	    if (!angles) {
+		w[iw] = Double.NaN;
+	    }
+	    return;
+	}
+
+	long ix, iy;
+	int face;
+	if (scheme == Scheme.NESTED) {
+	    face = (int) (pix >>> (2*order));
+	    ix   = compress(pix & (npface-1));
+	    iy   = compress((pix & (npface-1)) >>> 1);
+	} else {
+	    long xyf = ring2xyf(pix);
+	    ix   = xyfX(xyf);
+	    iy   = xyfY(xyf);
+	    face = xyfFace(xyf);
+	}
+
+	long jr = JRLL[face]*nside - ix - iy - 1;
+	long nr, kshift;
+	double z, sth;
+	if (jr < nside) {
+	    nr = jr;
+	    double tmp = (double) (nr*nr)/(3*npface);
+	    z   = 1 - tmp;
+	    sth = Math.sqrt(tmp*(2-tmp));
+	    kshift = 0;
+	} else if (jr > 3*nside) {
+	    nr = 4*nside - jr;
+	    double tmp = (double) (nr*nr)/(3*npface);
+	    z   = tmp - 1;
+	    sth = Math.sqrt(tmp*(2-tmp));
+	    kshift = 0;
+	} else {
+	    nr = nside;
+	    z   = (2*nside - jr)*(2./(3*nside));
+	    sth = Math.sqrt((1-z)*(1+z));
+	    kshift = (jr - nside) & 1;
+	}
+
+	long jp = (JPLL[face]*nr + ix - iy + 1 + kshift)/2;
+	if (jp > 4*nside) {
+	    jp -= 4*nside;
+	} else if (jp < 1) {
+	    jp += 4*nside;
+	}
+	double phi = (jp - (kshift+1)*0.5)*(HALF_PI/nr);
+
+	if (angles) {
+	    u[iu] = phi < 2*Math.PI ? phi : phi - 2*Math.PI;
+	    v[iv] = Math.atan2(z, sth);
+	} else {
+	    u[iu] = sth*Math.cos(phi);
+	    v[iv] = sth*Math.sin(phi);
+	    w[iw] = z;
+	}
+    }
+
+    private long xyf2nest(long ix, long iy, int face) {
+	return ((long) face << (2*order)) | spread(ix) | (spread(iy) << 1);
+    }
+
+    private long xyf2ring(long ix, long iy, int face) {
+
+	long nl4 = 4*nside;
+	long jr  = JRLL[face]*nside - ix - iy - 1;
+
+	long nr, kshift, before;
+	if (jr < nside) {
+	    nr     = jr;
+	    before = 2*nr*(nr-1);
+	    kshift = 0;
+	} else if (jr > 3*nside) {
+	    nr     = nl4 - jr;
+	    before = npix - 2*(nr+1)*nr;
+	    kshift = 0;
+	} else {
+	    nr     = nside;
+	    before = ncap + (jr-nside)*nl4;
+	    kshift = (jr-nside) & 1;
+	}
+
+	long jp = (JPLL[face]*nr + ix - iy + 1 + kshift)/2;
+	if (jp > nl4) {
+	    jp -= nl4;
+	} else if (jp < 1) {
+	    jp += nl4;
+	}
+	return before + jp - 1;
+    }
+
+    /** Find the face and coordinates of a RING pixel.
+     *  @return The face, ix and iy packed into a long, as
+     *          read by xyfFace, xyfX and xyfY.
+     */
+    private long ring2xyf(long pix) {
+
+	long nl2 = 2*nside;
+	long iring, iphi, kshift, nr;
+	int  face;
+
+	if (pix < ncap) {
+	    // North polar cap, rings counted from the north pole
+	    iring  = (1 + isqrt(1 + 2*pix)) >> 1;
+	    iphi   = pix + 1 - 2*iring*(iring-1);
+	    kshift = 0;
+	    nr     = iring;
+	    face   = (int) ((iphi-1)/nr);
+
+	} else if (pix < npix - ncap) {
+	    long ip  = pix - ncap;
+	    long tmp = ip >> (order+2);
+	    iring  = tmp + nside;
+	    iphi   = ip - tmp*4*nside + 1;
+	    kshift = (iring+nside) & 1;
+	    nr     = nside;
+	    long ire = tmp + 1;
+	    long irm = nl2 + 1 - tmp;
+	    long ifm = (iphi - (ire >> 1) + nside - 1) >> order;
+	    long ifp = (iphi - (irm >> 1) + nside - 1) >> order;
+	    face = (int) (ifp == ifm ? (ifp | 4) : ifp < ifm ? ifp : ifm+8);
+
+	} else {
+	    // South polar cap, rings counted from the south pole
+	    long ip = npix - pix;
+	    iring  = (1 + isqrt(2*ip - 1)) >> 1;
+	    iphi   = 4*iring + 1 - (ip - 2*iring*(iring-1));
+	    kshift = 0;
+	    nr     = iring;
+	    iring  = 2*nl2 - iring;
+	    face   = 8 + (int) ((iphi-1)/nr);
+	}
+
+	long irt = iring - JRLL[face]*nside + 1;
+	long ipt = 2*iphi - JPLL[face]*nr - kshift - 1;
+	if (ipt >= nl2) {
+	    ipt -= 8*nside;
+	}
+	long ix = ( ipt - irt) >> 1;
+	long iy = (-ipt - irt) >> 1;
+	return ((long) face << 58) | (ix << 29) | iy;
+    }
+
+    // The coordinates are below 2^MAX_ORDER, so each fits in 29 bits.
+    private static int xyfFace(long xyf) {
+	return (int) (xyf >>> 58);
+    }
+
+    private static long xyfX(long xyf) {
+	return (xyf >>> 29) & ((1L << 29) - 1);
+    }
+
+    private static long xyfY(long xyf) {
+	return xyf & ((1L << 29) - 1);
+    }
+
+    private static long isqrt(long v) {
+	long r = (long) Math.sqrt(v + 0.5);
+	if (r*r > v) {
+	    r -= 1;
+	} else if ((r+1)*(r+1) <= v) {
+	    r += 1;
+	}
+	return r;
+    }
+
+    /** Put the low 32 bits of a value in the even bits of the result */
+    static long spread(long v) {
+	v &= 0xFFFFFFFFL;
+	v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+	v = (v | (v <<  8)) & 0x00FF00FF00FF00FFL;
+	v = (v | (v <<  4)) & 0x0F0F0F0F0F0F0F0FL;
+	v = (v | (v <<  2)) & 0x3333333333333333L;
+	v = (v | (v <<  1)) & 0x5555555555555555L;
+	return v;
+    }
+
+    /** Gather the even bits of a value, the inverse of spread */
+    static long compress(long v) {
+	v &= 0x5555555555555555L;
+	v = (v | (v >>>  1)) & 0x3333333333333333L;
+	v = (v | (v >>>  2)) & 0x0F0F0F0F0F0F0F0FL;
+	v = (v | (v >>>  4)) & 0x00FF00FF00FF00FFL;
+	v = (v | (v >>>  8)) & 0x0000FFFF0000FFFFL;
+	v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+	return v;
+    }
+}
@@ -47,6 +47,27 @@ public final class Sfl extends Projecter {
 	}
     }
     
+    /** Transform a block of points */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	for (int i=0; i<len; i += 1) {
+	    double sx = x[inOff+i];
+	    double sy = y[inOff+i];
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz)) {
+		u[outOff+i] = NaN;
+		v[outOff+i] = NaN;
+	    } else {
+		double lat  = atan2(sz, sqrt(sx*sx+sy*sy));
+		u[outOff+i] = atan2(sy, sx)*Math.cos(lat);
+		v[outOff+i] = lat;
+	    }
+	}
+    }
+    
     public boolean validPosition(double[] plane) {
 	return super.validPosition(plane) &&
             abs(plane[1]) <= PI/2 &&
@@ -104,5 +125,30 @@ public final class Sfl extends Projecter {
 		}
 	    }
 	}
+    
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    for (int i=0; i<len; i += 1) {
+		double ra  = x[inOff+i];
+		double dec = y[inOff+i];
+		double cd  = cos(dec);
+		if (Double.isNaN(ra) || !(abs(dec) <= PI/2 && abs(ra) <= PI*cd)) {
+		    u[outOff+i] = NaN;
+		    v[outOff+i] = NaN;
+		    w[outOff+i] = NaN;
+		} else {
+		    if (cd > 0) {
+			ra /= cd;
+		    }
+		    u[outOff+i] = cos(ra)*cd;
+		    v[outOff+i] = sin(ra)*cd;
+		    w[outOff+i] = sin(dec);
+		}
+	    }
+	}
     }
 }
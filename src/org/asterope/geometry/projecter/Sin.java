@@ -10,6 +10,8 @@ package org.asterope.geometry.projecter;
 import org.asterope.geometry.Deprojecter;
 import org.asterope.geometry.Projecter;
 import org.asterope.geometry.Transformer;
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
 
 public final class Sin extends Projecter {
     
@@ -49,6 +51,30 @@ public final class Sin extends Projecter {
 	}
     }
     
+    /** Project a block of points from the sphere to the plane. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.sin(x, y, z, inOff, u, v, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz) || sz <= 0) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+	    } else {
+		u[outOff+i] = x[inOff+i];
+		v[outOff+i] = y[inOff+i];
+	    }
+	}
+    }
+    
     public boolean validPosition(double[] plane) {
 	return super.validPosition(plane) &&
 	  (plane[0]*plane[0] + plane[1]*plane[1] <= 1);
@@ -94,5 +120,33 @@ public final class Sin extends Projecter {
 	        sphere[2] = Math.sqrt(1 - plane[0]*plane[0] - plane[1]*plane[1]);
 	    }
         }
+    
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    int start = 0;
+	    Kernels k = Vectorized.KERNELS;
+	    if (k != null) {
+		start = k.sinDeproj(x, y, inOff, u, v, w, outOff, len);
+	    }
+
+	    for (int i=start; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		double r2 = px*px + py*py;
+		if (Double.isNaN(px) || !(r2 <= 1)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		} else {
+		    u[outOff+i] = px;
+		    v[outOff+i] = py;
+		    w[outOff+i] = Math.sqrt(1 - px*px - py*py);
+		}
+	    }
+	}
     }
 }
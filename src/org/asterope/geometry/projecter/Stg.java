@@ -9,6 +9,8 @@ package org.asterope.geometry.projecter;
 import org.asterope.geometry.Deprojecter;
 import org.asterope.geometry.Projecter;
 import org.asterope.geometry.Transformer;
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
 
 public class Stg extends Projecter {
     
@@ -37,6 +39,31 @@ public class Stg extends Projecter {
 	}
     }
     
+    /** Project a block of points from the sphere to the plane. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.stg(x, y, z, inOff, u, v, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz) || sz < 0) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+	    } else {
+		double fac = 2/(1+sz);
+		u[outOff+i] = fac*x[inOff+i];
+		v[outOff+i] = fac*y[inOff+i];
+	    }
+	}
+    }
+    
     /** The entire projection plane is valid */
     public boolean allValid() {
 	return true;
@@ -102,5 +129,34 @@ public class Stg extends Projecter {
 		}
 	    }
         }
+    
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    for (int i=0; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		if (Double.isNaN(px)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		} else {
+		    double r     = Math.sqrt(px*px + py*py);
+		    double theta = 2*Math.atan2(r, 2);
+		    double z     = Math.cos(theta);
+		    w[outOff+i] = z;
+		    if (Math.abs(z) != 1) {
+			u[outOff+i] = px*(1+z)/2;
+			v[outOff+i] = py*(1+z)/2;
+		    } else {
+			u[outOff+i] = 0;
+			v[outOff+i] = 0;
+		    }
+		}
+	    }
+	}
     }
 }
@@ -10,6 +10,8 @@ package org.asterope.geometry.projecter;
 import org.asterope.geometry.Deprojecter;
 import org.asterope.geometry.Projecter;
 import org.asterope.geometry.Transformer;
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
 
 public class Tan extends Projecter {
     
@@ -43,6 +45,31 @@ public class Tan extends Projecter {
 	}
     }
     
+    /** Project a block of points from the sphere to the plane. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.tan(x, y, z, inOff, u, v, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz) || sz < 0) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+	    } else {
+		double fac = 1/sz;
+		u[outOff+i] = fac*x[inOff+i];
+		v[outOff+i] = fac*y[inOff+i];
+	    }
+	}
+    }
+    
     /** Get the inverse transformation */
     public Deprojecter inverse() {
 	return new Tan.TanDeproj();
@@ -92,5 +119,33 @@ public class Tan extends Projecter {
 	        sphere[2] = factor;
 	    }
         }
+    
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    int start = 0;
+	    Kernels k = Vectorized.KERNELS;
+	    if (k != null) {
+		start = k.tanDeproj(x, y, inOff, u, v, w, outOff, len);
+	    }
+
+	    for (int i=start; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		if (Double.isNaN(px)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		} else {
+		    double factor = 1 / Math.sqrt(px*px + py*py + 1);
+		    u[outOff+i] = factor*px;
+		    v[outOff+i] = factor*py;
+		    w[outOff+i] = factor;
+		}
+	    }
+	}
     }
 }
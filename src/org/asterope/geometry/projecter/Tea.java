@@ -38,58 +38,103 @@ public class Tea extends org.asterope.geometry.Projecter {
     }
     
     
-    private double[] copy = new double[3];
     public void transform(double[] unit, double[] plane) {
+	toPlane(unit[0], unit[1], unit[2], plane, 0, plane, 1);
+    }
+    
+    /** Project a block of points. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
 	
-
-	System.arraycopy(unit, 0, copy, 0, 3);
+	final double[] x = in[0],  y = in[1],  z = in[2];
+	final double[] u = out[0], v = out[1];
+	
+	for (int i=0; i<len; i += 1) {
+	    toPlane(x[inOff+i], y[inOff+i], z[inOff+i], u, outOff+i, v, outOff+i);
+	}
+    }
+    
+    /** Project a unit vector and store the plane coordinates
+     *  in the given array elements.  Only local variables are
+     *  used so this may be called from several threads.
+     */
+    private static void toPlane(double px, double py, double pz,
+				double[] u, int iu, double[] v, int iv) {
 	
 	double signx = 1;
 	double signy = 1;
 	
-	if (copy[0] < 0) {
-	    copy[0] = -copy[0];
-	    signx   = -1;
+	if (px < 0) {
+	    px    = -px;
+	    signx = -1;
 	}
 	
-	if (copy[1] < 0) {
-	    copy[1] = -copy[1];
-	    signy   = -1;
+	if (py < 0) {
+	    py    = -py;
+	    signy = -1;
 	}
 	
 	boolean flipped = false;
-	if (copy[2] < 0) {
+	if (pz < 0) {
 	    // Flip along the 1,0 -> 0,1 diagonal.
-	    copy[2] = -copy[2];
+	    pz      = -pz;
 	    flipped = true;
 	}
 	
 	// Output offset
 	//  z = sin(theta)
-	double t   = Math.sqrt((1-copy[2])/2);
-	double lat = Math.atan2(copy[1], copy[0]);
-	double u   = 4*t*lat/Math.PI; 
+	double t   = Math.sqrt((1-pz)/2);
+	double lat = Math.atan2(py, px);
+	double a   = 4*t*lat/Math.PI; 
 	
-	double x = t*sqrt2 - u/sqrt2;
-	double y = u/Math.sqrt(2);
+	double x = t*sqrt2 - a/sqrt2;
+	double y = a/sqrt2;
 	
 	if (flipped) {
-	    u = 1-x;
-	    t = 1-y;
-	    
-	    x = t;
-	    y = u;
+	    double fx = 1-y;
+	    y = 1-x;
+	    x = fx;
 	}
 	
 	x *= signx;
 	y *= signy;
 	
-	plane[0] = rat*x;
-	plane[1] = rat*y;
-	
+	u[iu] = rat*x;
+	v[iv] = rat*y;
     }
     
-    
+    /** Project the vertices of a set of polygons, e.g., the corners of
+     *  pixels, and split those which straddle the edge of the projection
+     *  plane as straddleComponents does.  All of the vertices are
+     *  projected in a single block.
+     *  @param unit     The unit vectors of the vertices as unit[3][n],
+     *                  with polygon i using elements off+i*vertices
+     *                  to off+(i+1)*vertices-1.
+     *  @param off      The offset of the first vertex.
+     *  @param count    The number of polygons.
+     *  @param vertices The number of vertices in each polygon.
+     *  @return For each polygon the components to be used, each as
+     *          [2][m] plane coordinates.  A polygon which does not straddle
+     *          has a single component with its projected vertices.
+     */
+    public double[][][][] projectPolygons(double[][] unit, int off, int count, int vertices) {
+	
+	int n = count*vertices;
+	double[][] plane = new double[2][n];
+	transform(unit, off, plane, 0, n);
+	
+	double[][][][] result = new double[count][][][];
+	for (int i=0; i<count; i += 1) {
+	    double[][] poly = new double[2][vertices];
+	    System.arraycopy(plane[0], i*vertices, poly[0], 0, vertices);
+	    System.arraycopy(plane[1], i*vertices, poly[1], 0, vertices);
+	    if (straddle(poly)) {
+		result[i] = straddleComponents(poly);
+	    } else {
+		result[i] = new double[][][]{poly};
+	    }
+	}
+	return result;
+    }
     
     /** Deproject from the plane back to the unit sphere */
     public class TeaDeproj extends org.asterope.geometry.Deprojecter {
@@ -110,84 +155,100 @@ public class Tea extends org.asterope.geometry.Projecter {
 	}
 	
         public void transform(double[] plane, double[] sphere) {
+	    toSphere(plane[0], plane[1], sphere, 0, sphere, 1, sphere, 2);
+	}
+	
+	/** Deproject a block of points. */
+	public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
 	    
-	    double xflip = 1;
-	    double yflip = 1;
-	    double zflip = 1;
-	    
-	    double x = plane[0]/rat;
-	    double y = plane[1]/rat;
-	    
-	    // We actually only calculate the transform for
-	    // the northern hemisphere, first quadrant in the prime square.
-	    // We need to transform everything else to that point
-	    // 
-	    // First transform to the -1..1,-1,..1 prime square.
-	    while (x > 1) {
-		xflip *= -1;
-		x     -= 2;
-	    }
-	    while (x < -1) {
-		xflip *= -1;
-		x     += 2;
-	    }
-	    
-	    while (y > 1) {
-		yflip *= -1;
-	        y     -= 2;
-	    }
-	    
-	    while (y < -1) {
-		yflip *= -1;
-		y     += 2;
-	    }
+	    final double[] x = in[0],  y = in[1];
+	    final double[] u = out[0], v = out[1], w = out[2];
 	    
-	    // Find the quadrant we are in within the square.
-	    if (x < 0 ) {
-		xflip *= -1;
-		x      = -x;
-	    }
-	    if (y < 0) {
-		yflip *= -1;
-		y      = -y;
+	    for (int i=0; i<len; i += 1) {
+		toSphere(x[inOff+i], y[inOff+i], u, outOff+i, v, outOff+i, w, outOff+i);
 	    }
-	    
-	    // Northern or southern hemisphere (y=1-x is divider)
-	    if (x > 1-y) {
-		zflip    = -1;
-		double t =  x;
-		x        = 1-y;
-		y        = 1-t;
+	}
+    }
+    
+    /** Deproject a point and store the unit vector in the given
+     *  array elements.  Only local variables are used so this may
+     *  be called from several threads.
+     */
+    private static void toSphere(double px, double py,
+				 double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+	
+	double x = px/rat;
+	double y = py/rat;
+	
+	// We actually only calculate the transform for
+	// the northern hemisphere, first quadrant in the prime square.
+	// We need to transform everything else to that point
+	// 
+	// First transform to the -1..1,-1,..1 prime square.  Each
+	// step of 2 across an edge of the square reflects the position,
+	// and points already on an edge are left there.
+	double xflip = 1;
+	double yflip = 1;
+	if (!(Math.abs(x) <= 1)) {
+	    double k = steps(x);
+	    x -= x < 0 ? -2*k : 2*k;
+	    if (((long) k & 1) != 0) {
+		xflip = -1;
 	    }
-	    
-	    double t = (x+y)/sqrt2;
-	    double u = sqrt2*y;
-	    
-	    double z = 0;
-	    if (t > 0) {
-	        double l = Math.PI/4 * u/t;
-		z = 1-2*t*t;
-		x = Math.cos(l)*z;
-		y = Math.sin(l)*z;
-	    } else {
-		z = 1;
-		x = 0;
-		y = 0;
+	}
+	if (!(Math.abs(y) <= 1)) {
+	    double k = steps(y);
+	    y -= y < 0 ? -2*k : 2*k;
+	    if (((long) k & 1) != 0) {
+		yflip = -1;
 	    }
-	    x = x*xflip;
-	    y = y*yflip;
-	    z = z*zflip;
-	    
-	    sphere[0] = x;
-	    sphere[1] = y;
-	    sphere[2] = z;
-//	    double[] coo = Util.vector2Rade(sphere);
-//	    System.err.printf("DeProject: %.3f %.3f  ->  %.3f %.3f\n",
-//			   plane[0], plane[1],
-//			   Math.toDegrees(coo[0]), Math.toDegrees(coo[1])
-//			   );
-        }
+	}
+	double zflip = 1;
 	
+	// Find the quadrant we are in within the square.
+	if (x < 0 ) {
+	    xflip *= -1;
+	    x      = -x;
+	}
+	if (y < 0) {
+	    yflip *= -1;
+	    y      = -y;
+	}
+	
+	// Northern or southern hemisphere (y=1-x is divider)
+	if (x > 1-y) {
+	    zflip    = -1;
+	    double t =  x;
+	    x        = 1-y;
+	    y        = 1-t;
+	}
+	
+	double t = (x+y)/sqrt2;
+	double a = sqrt2*y;
+	
+	double z = 0;
+	if (t > 0) {
+	    double l = Math.PI/4 * a/t;
+	    z = 1-2*t*t;
+	    double r = Math.sqrt(1-z*z);
+	    x = Math.cos(l)*r;
+	    y = Math.sin(l)*r;
+	} else {
+	    z = 1;
+	    x = 0;
+	    y = 0;
+	}
+	
+	u[iu] = x*xflip;
+	v[iv] = y*yflip;
+	w[iw] = z*zflip;
+    }
+    
+    /** The number of steps of 2 which bring a coordinate outside
+     *  [-1,1] into it.  This is NaN for infinite or NaN coordinates.
+     */
+    private static double steps(double x) {
+	return Math.ceil((Math.abs(x)-1)/2);
     }
     
     public static void main(String[] args) throws Exception {
@@ -216,6 +277,22 @@ public class Tea extends org.asterope.geometry.Projecter {
 	return true;
     }
     
+    /** The reflection of a point across the nearest edge of the
+     *  projection square, which is where the other side of the edge
+     *  continues.
+     */
+    public double[] shadowPoint(double x, double y) {
+	if (Math.abs(x) == Math.abs(y)) {
+	    return new double[]{x,y};
+	    
+	} else if (Math.abs(y) > Math.abs(x)) {
+	    return new double[]{x, Math.copySign(2*rat, y)-y};
+	    
+	} else {
+	    return new double[]{Math.copySign(2*rat, x)-x, y};
+	}
+    }
+    
     public boolean straddle(double[][] vertices) {
 	return myStraddler.straddle(vertices);
     }
@@ -43,6 +43,12 @@ public class Toa extends org.asterope.geometry.Projecter {
     private final static double MIN_DELTA = 1.e-10;
     private              double minDelta  = MIN_DELTA;
     
+    /** The furthest, in grid cells, a point may be from a node of
+     *  the grid and still take the node's value.  The minimum delta
+     *  alone would cover several cells on the finest grids.
+     */
+    private final static double MAX_SNAP = 1.e-3;
+    
     /** A number deemed to be indistinguishable from zero.
      *  When we wish to check if a unit vector is inside
      *  a triangle (on the sphere) we take the dot product
@@ -109,55 +115,72 @@ public class Toa extends org.asterope.geometry.Projecter {
 	  {1,1}, {0,1}, {1,0}, {1,1}
     };
     
-    /** The requested grid level.  A gridLevel >= 0 implies
-     *  that we are using a grid.
+    /** The grid in use, or null if we are not using a grid.
+     *  A deprojection reads this once so that it sees the level,
+     *  subdivision and cache of a single setGrid call.
      */
-    private int gridLevel = -1;
+    private volatile Grid grid;
 
-    /** The delta associated with the grid */
-    private double gridDelta;
-    
-    /** The offsets associated with the grid */
-    private double gridOffX;
-    private double gridOffY;
+    /** The settings of a grid. */
+    private static final class Grid {
+	/** The grid level */
+	final int          level;
+	/** The number of subdivisions of each grid tile */
+	final int          sub;
+	/** The cache holding the precomputed grid of unit vector values */
+	final ToaTileCache cache;
+	Grid(int level, int sub, ToaTileCache cache) {
+	    this.level = level;
+	    this.sub   = sub;
+	    this.cache = cache;
+	}
+    }
+
+    /** The grid of the tile last used by a deprojection.  Points
+     *  on the same tile are taken from it without going to the cache.
+     */
+    private volatile GridTile lastTile;
+
+    /** The grid of a tile and the cache key it was found with. */
+    private static final class GridTile {
+	final long     key;
+	final double[] grid;
+	GridTile(long key, double[] grid) {
+	    this.key  = key;
+	    this.grid = grid;
+	}
+    }
     
-    /** The size of the grid */
-    private double nPix;
+    public Toa() {
+    }
     
-    /** The precomputed grid of unit vector values */
-    private double[][][] gridValues;
+    /** Use precomputed tiles when deprojecting.  Points which fall
+     *  (within the minimum delta given to setPrecision) on a node of the
+     *  grid of tiles at the given level, each divided 2^subdiv times,
+     *  are taken from the default tile cache rather than computed.
+     *  Other points are deprojected as usual.
+     *  E.g., level 3 and subdiv 9 give the pixel corners of
+     *  level 3 tiles of 512x512 pixels, and the pixel centers of
+     *  level 4 tiles of 256x256 pixels.
+     *  <p>
+     *  The grid values are not interpolated between nodes, since the
+     *  projection is only piecewise smooth.
+     */
+    public void setGrid(int level, int subdiv) {
+	setGrid(level, subdiv, ToaTileCache.getDefault());
+    }
     
-    /** Temporaries */
-//    private double[] vec  = new double[2];
-    private double[] tpos = new double[2];
-
-    /** Do we have sinister or dexter diagonals. */
-    private boolean diagonal;
+    /** Use precomputed tiles from a given cache when deprojecting. */
+    public void setGrid(int level, int subdiv, ToaTileCache cache) {
+	ToaTileCache.check(level, subdiv);
+	grid     = new Grid(level, subdiv, cache);
+	lastTile = null;
+    }
     
-    public Toa() {
-//  TODO Toast grid is not supported
-//
-//	if (Settings.has(Val.ToastGrid)) {
-//
-//	    String[] params = Settings.getArray(Val.ToastGrid);
-//	    gridLevel = Integer.parseInt(params[0]);
-//            int gridX = Integer.parseInt(params[1]);
-//            int gridY = Integer.parseInt(params[2]);
-//            int gridSub = 0;
-//            if (params.length < 4) {
-//		gridSub = 8;
-//	    } else {
-//		gridSub = Integer.parseInt(params[3]);
-//	    }
-//	    double nTile    = Math.pow(2, gridLevel);
-//
-//            gridOffX  = (2* gridX -nTile)/nTile;
-//	    gridOffY  = (2* gridY -nTile)/nTile;
-//	    nPix      = Math.pow(2, gridSub)+1;
-//	    gridDelta = 2./Math.pow(2,gridLevel+ gridSub);
-//
-//	    gridValues = tile(gridLevel, gridX, gridY, gridSub);
-//	}
+    /** Stop using precomputed tiles. */
+    public void clearGrid() {
+	grid     = null;
+	lastTile = null;
     }
     
     public boolean validPosition(double[] plane) {
@@ -227,14 +250,13 @@ public class Toa extends org.asterope.geometry.Projecter {
 	}
 	
 	double[][] qr = quadrantRotation[square];
+	double[] tpos = new double[2];
 	tpos[0]  = pos[0]*qr[0][0]+pos[1]*qr[0][1];
 	tpos[1]  = pos[0]*qr[1][0]+pos[1]*qr[1][1];
 	return tpos;
     }
     
     
-    private double[] result = new double[2];
-    
     public double[] find(double lon, double lat) {
 	
 	double[] unit = {
@@ -242,6 +264,7 @@ public class Toa extends org.asterope.geometry.Projecter {
 	    Math.sin(lon)*Math.cos(lat),
 	    Math.sin(lat)
 	};
+	double[] result = new double[2];
         transform(unit, result);
 	return result;
     }
@@ -262,148 +285,336 @@ public class Toa extends org.asterope.geometry.Projecter {
 	return new ToaDeproj();
     }
     
-    double[] copy = new double[3];
     public void transform(double[] unit, double[] plane) {
+	toPlane(unit[0], unit[1], unit[2], plane, 0, plane, 1);
+    }
+    
+    /** Project a block of unit vectors. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
 	
-	System.arraycopy(unit, 0, copy, 0, 3);
+	final double[] x = in[0],  y = in[1],  z = in[2];
+	final double[] u = out[0], v = out[1];
 	
-	boolean dir = true;
-	double delta = 1;
-	double[][] vectors;
+	for (int i=0; i<len; i += 1) {
+	    toPlane(x[inOff+i], y[inOff+i], z[inOff+i], u, outOff+i, v, outOff+i);
+	}
+    }
+    
+    /** Project a unit vector and store the plane coordinates in
+     *  the given array elements.  The first levels of the
+     *  subdivision are looked up in the shared triangle tree and
+     *  the rest are computed in local variables.
+     */
+    private void toPlane(double px, double py, double pz,
+			 double[] u, int iu, double[] v, int iv) {
 	
 	double signx = 1;
 	double signy = 1;
 	
-	if (copy[0] < 0) {
-	    copy[0] = -copy[0];
-	    signx   = -1;
+	if (px < 0) {
+	    px    = -px;
+	    signx = -1;
 	}
-	if (copy[1] < 0) {
-	    copy[1] = -copy[1];
-	    signy   = -1;
+	if (py < 0) {
+	    py    = -py;
+	    signy = -1;
 	}
 	
 	boolean flipped = false;
-	if (copy[2] < 0) {
+	if (pz < 0) {
 	    // Flip along the 1,0 -> 0,1 diagonal.
-	    copy[2] = -copy[2];
+	    pz      = -pz;
 	    flipped = true;
 	}
 	
+	final double eps = epsilon;
+	final double min = minDelta;
+	
 	// Output offset
-	plane[0] = 0;
-	plane[1] = 0;
+	double x = 0;
+	double y = 0;
+	double delta = 1;
+	
+	// Descend through the precomputed levels.
+	TriangleTree tree = TriangleTree.NORTH;
+	int node  = 0;
+	int level = 0;
+	while (delta > min && level < TriangleTree.LEVELS) {
+	    delta /= 2;
+	    int fragment = tree.fragment(node, px, py, pz, eps);
+	    double[][] offsets = tree.dir[node] ? posTriOffsets : negTriOffsets;
+	    x += delta*offsets[fragment][0];
+	    y += delta*offsets[fragment][1];
+	    node   = 4*node + 1 + fragment;
+	    level += 1;
+	}
 	
-	if (dir) {
-	    vectors = new double[][]{
-		  {0,1,0}, {0,0,1}, {1,0,0} 
-	    };
+	boolean dir = tree.dir[node];
+	double v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z;
+	if (level == TriangleTree.LEVELS) {
+	    double[] t = tree.vertices;
+	    int k = 9*(node - TriangleTree.FIRST_LEAF);
+	    v0x = t[k];   v0y = t[k+1]; v0z = t[k+2];
+	    v1x = t[k+3]; v1y = t[k+4]; v1z = t[k+5];
+	    v2x = t[k+6]; v2y = t[k+7]; v2z = t[k+8];
 	} else {
-	    vectors = new double[][]{
-		  {0,0,-1}, {0,1,0},{1,0,0}
-	    };
+	    // The precision is too coarse to get to the leaves.
+	    v0x = 0; v0y = 0; v0z = 0;
+	    v1x = 0; v1y = 0; v1z = 0;
+	    v2x = 0; v2y = 0; v2z = 0;
 	}
-
-	while (delta > minDelta) {
+	
+	while (delta > min) {
 	    
-	    double[][] midpoints = new double[3][3];
 	    delta /= 2;
 	    
-	    int fragment = findTriangle(copy, vectors, midpoints);
-	    if (dir) {
-		plane[0] += delta*posTriOffsets[fragment][0];
-		plane[1] += delta*posTriOffsets[fragment][1];
-	    } else {
-		plane[0] += delta*negTriOffsets[fragment][0];
-		plane[1] += delta*negTriOffsets[fragment][1];
-	    }
-	    if (fragment == 0) {
-		vectors[1] = midpoints[0];
-		vectors[2] = midpoints[2];
-	    } else if (fragment == 1) {
-		vectors[0] = midpoints[0];
-		vectors[2] = midpoints[1];
-	    } else if (fragment == 2)  {
-		vectors[0] = midpoints[2];
-		vectors[1] = midpoints[1];
+	    double sx, sy, sz, n;
+	    sx = v0x + v1x; sy = v0y + v1y; sz = v0z + v1z;
+	    n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+	    double m0x = sx/n, m0y = sy/n, m0z = sz/n;
+	    sx = v1x + v2x; sy = v1y + v2y; sz = v1z + v2z;
+	    n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+	    double m1x = sx/n, m1y = sy/n, m1z = sz/n;
+	    sx = v2x + v0x; sy = v2y + v0y; sz = v2z + v0z;
+	    n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+	    double m2x = sx/n, m2y = sy/n, m2z = sz/n;
+	    
+	    int fragment;
+	    if (inside(px, py, pz, v0x, v0y, v0z, m0x, m0y, m0z, m2x, m2y, m2z, eps)) {
+		fragment = 0;
+		v1x = m0x; v1y = m0y; v1z = m0z;
+		v2x = m2x; v2y = m2y; v2z = m2z;
+	    } else if (inside(px, py, pz, m0x, m0y, m0z, v1x, v1y, v1z, m1x, m1y, m1z, eps)) {
+		fragment = 1;
+		v0x = m0x; v0y = m0y; v0z = m0z;
+		v2x = m1x; v2y = m1y; v2z = m1z;
+	    } else if (inside(px, py, pz, m2x, m2y, m2z, m1x, m1y, m1z, v2x, v2y, v2z, eps)) {
+		fragment = 2;
+		v0x = m2x; v0y = m2y; v0z = m2z;
+		v1x = m1x; v1y = m1y; v1z = m1z;
 	    } else {
+		fragment = 3;
 		if (dir) {
-		    vectors[0] = midpoints[2];
-		    vectors[1] = midpoints[0];
-		    vectors[2] = midpoints[1];
+		    v0x = m2x; v0y = m2y; v0z = m2z;
+		    v1x = m0x; v1y = m0y; v1z = m0z;
+		    v2x = m1x; v2y = m1y; v2z = m1z;
 		} else {
-		    vectors = midpoints;
+		    v0x = m0x; v0y = m0y; v0z = m0z;
+		    v1x = m1x; v1y = m1y; v1z = m1z;
+		    v2x = m2x; v2y = m2y; v2z = m2z;
 		}
+	    }
+	    double[][] offsets = dir ? posTriOffsets : negTriOffsets;
+	    x += delta*offsets[fragment][0];
+	    y += delta*offsets[fragment][1];
+	    if (fragment == 3) {
 		dir = !dir;
 	    }
-//	    if (loop < 10) {
-//		System.out.println("Loop:"+fragment+" "+plane[0]+" "+plane[1]);
-//		show("  v0:", vectors[0]);
-//		show("  v1:", vectors[1]);
-//		show("  v2:", vectors[2]);
-//	    }
-//	    loop += 1;
 	}
 	if (flipped) {
-	    double tmp = plane[0];
-	    plane[0]   = 1 - plane[1];
-	    plane[1]   = 1 - tmp;
+	    double tmp = x;
+	    x          = 1 - y;
+	    y          = 1 - tmp;
 	}
 	    
-	plane[0] *= RSCALE*signx;
-	plane[1] =  RSCALE*(plane[1])*signy;
+	u[iu] = x * (RSCALE*signx);
+	v[iv] = RSCALE*y*signy;
     }
     
-    int findTriangle(double[] unit, double[][] vectors, double[][] midpoints) {
+    /**
+     * Is the vector p contained in the triangle whose corners are
+     * given by the vectors v1, v2, v3?
+     */
+    private static boolean inside(double px,  double py,  double pz,
+				  double v1x, double v1y, double v1z,
+				  double v2x, double v2y, double v2z,
+				  double v3x, double v3y, double v3z, double epsilon) {
 	
-	midpoint(vectors[0],vectors[1], midpoints[0]);
-	midpoint(vectors[1],vectors[2], midpoints[1]);
-	midpoint(vectors[2],vectors[0], midpoints[2]);
+	double c0, c1, c2;
 	
-	if (inside(unit, vectors[0], midpoints[0],midpoints[2])) {
-	    return 0;
-	} 
-	if (inside(unit, midpoints[0], vectors[1],midpoints[1])) {
-	    return 1;
-	} 
-	if (inside(unit, midpoints[2], midpoints[1], vectors[2])) {
-	    return 2;
-	    
-	} else {
-	    return 3;
+	c0 = v1y * v2z - v2y * v1z;
+	c1 = v1z * v2x - v2z * v1x;
+	c2 = v1x * v2y - v2x * v1y;
+	if (px * c0 + py * c1 + pz * c2 < -epsilon) {
+	    return false;
 	}
+	
+	c0 = v2y * v3z - v3y * v2z;
+	c1 = v2z * v3x - v3z * v2x;
+	c2 = v2x * v3y - v3x * v2y;
+	if (px * c0 + py * c1 + pz * c2 < -epsilon) {
+	    return false;
+	}
+	
+	c0 = v3y * v1z - v1y * v3z;
+	c1 = v3z * v1x - v1z * v3x;
+	c2 = v3x * v1y - v1x * v3y;
+	return px * c0 + py * c1 + pz * c2 >= -epsilon;
     }
     
-    /**
-     * for a given vector p is it contained in the triangle whose corners are
-     *  given by the vectors v1, v2,v3.
+    /** The first levels of the subdivision of one octant, shared by all
+     *  instances.  Node 0 is the octant and the children of node n are
+     *  4n+1 to 4n+4 in the order of the fragments.  For the interior
+     *  nodes the cross products used to test which fragment holds a
+     *  point are kept; for the leaves the corners are kept.  These are
+     *  computed exactly as the subdivision would compute them, so
+     *  using the tree does not change the results.
      */
-    boolean inside(double[] p, double[] v1, double[] v2, double[] v3) {
-	 
-        double crossp[] = new double[3];
-	    
-	crossp[0] = v1[1] * v2[2] - v2[1] * v1[2];
-	crossp[1] = v1[2] * v2[0] - v2[2] * v1[0];
-	crossp[2] = v1[0] * v2[1] - v2[0] * v1[1];
-	  
-	if (p[0] * crossp[0] + p[1] * crossp[1] + p[2] * crossp[2] < -epsilon)
-	    return false;
-
-	crossp[0] = v2[1] * v3[2] - v3[1] * v2[2];
-	crossp[1] = v2[2] * v3[0] - v3[2] * v2[0];
-	crossp[2] = v2[0] * v3[1] - v3[0] * v2[1];
-	if (p[0] * crossp[0] + p[1] * crossp[1] + p[2] * crossp[2] < -epsilon)
-	    return false;
-
-
-	crossp[0] = v3[1] * v1[2] - v1[1] * v3[2];
-	crossp[1] = v3[2] * v1[0] - v1[2] * v3[0];
-	crossp[2] = v3[0] * v1[1] - v1[0] * v3[1];
-
-    return p[0] * crossp[0] + p[1] * crossp[1] + p[2] * crossp[2] >= -epsilon;
-
+    static final class TriangleTree {
+	
+	/** The number of levels in the tree */
+	static final int LEVELS = 6;
+	
+	/** The index of the first leaf */
+	static final int FIRST_LEAF = ((1 << 2*LEVELS) - 1)/3;
+	
+	/** The octant at the north pole, used for projection. */
+	static final TriangleTree NORTH = new TriangleTree(new double[]{0,1,0, 0,0,1, 1,0,0}, true);
+	
+	/** The octant at the south pole, used for deprojection. */
+	static final TriangleTree SOUTH = new TriangleTree(new double[]{0,0,-1, 0,1,0, 1,0,0}, false);
+	
+	/** The direction of each node */
+	final boolean[] dir = new boolean[FIRST_LEAF + (1 << 2*LEVELS)];
+	
+	/** For each interior node the cross products of the three
+	 *  pairs of corners for each of fragments 0, 1 and 2.
+	 */
+	final double[] cross = new double[27*FIRST_LEAF];
+	
+	/** The corners of each leaf */
+	final double[] vertices = new double[9*(1 << 2*LEVELS)];
+	
+	/** The corners and direction of the root */
+	private final double[] root;
+	private final boolean  rootDir;
+	
+	private TriangleTree(double[] root, boolean rootDir) {
+	    this.root    = root;
+	    this.rootDir = rootDir;
+	    build(0, 0, root, rootDir);
+	}
+	
+	/** Find the corners of any node by following the path from the root. */
+	double[] corners(int node) {
+	    int[] path  = new int[LEVELS];
+	    int   depth = 0;
+	    while (node > 0) {
+		path[depth++] = (node-1) % 4;
+		node = (node-1) / 4;
+	    }
+	    double[] v0 = {root[0], root[1], root[2]};
+	    double[] v1 = {root[3], root[4], root[5]};
+	    double[] v2 = {root[6], root[7], root[8]};
+	    boolean d = rootDir;
+	    while (depth > 0) {
+		double[] m0 = new double[3];
+		double[] m1 = new double[3];
+		double[] m2 = new double[3];
+		mid(v0, v1, m0);
+		mid(v1, v2, m1);
+		mid(v2, v0, m2);
+		switch (path[--depth]) {
+		  case 0:
+		    v1 = m0; v2 = m2;
+		    break;
+		  case 1:
+		    v0 = m0; v2 = m1;
+		    break;
+		  case 2:
+		    v0 = m2; v1 = m1;
+		    break;
+		  default:
+		    if (d) {
+			v0 = m2; v1 = m0; v2 = m1;
+		    } else {
+			v0 = m0; v1 = m1; v2 = m2;
+		    }
+		    d = !d;
+		}
+	    }
+	    return join(v0, v1, v2);
+	}
+	
+	private void build(int node, int level, double[] v, boolean d) {
+	    
+	    dir[node] = d;
+	    if (level == LEVELS) {
+		System.arraycopy(v, 0, vertices, 9*(node-FIRST_LEAF), 9);
+		return;
+	    }
+	    
+	    double[] v0 = {v[0], v[1], v[2]};
+	    double[] v1 = {v[3], v[4], v[5]};
+	    double[] v2 = {v[6], v[7], v[8]};
+	    double[] m0 = new double[3];
+	    double[] m1 = new double[3];
+	    double[] m2 = new double[3];
+	    mid(v0, v1, m0);
+	    mid(v1, v2, m1);
+	    mid(v2, v0, m2);
+	    
+	    int k = 27*node;
+	    k = crosses(v0, m0, m2, k);
+	    k = crosses(m0, v1, m1, k);
+	    k = crosses(m2, m1, v2, k);
+	    
+	    int c = 4*node + 1;
+	    build(c,   level+1, join(v0, m0, m2), d);
+	    build(c+1, level+1, join(m0, v1, m1), d);
+	    build(c+2, level+1, join(m2, m1, v2), d);
+	    if (d) {
+		build(c+3, level+1, join(m2, m0, m1), !d);
+	    } else {
+		build(c+3, level+1, join(m0, m1, m2), !d);
+	    }
+	}
+	
+	private int crosses(double[] a, double[] b, double[] c, int k) {
+	    k = cross(a, b, k);
+	    k = cross(b, c, k);
+	    return cross(c, a, k);
+	}
+	
+	private int cross(double[] a, double[] b, int k) {
+	    cross[k]   = a[1] * b[2] - b[1] * a[2];
+	    cross[k+1] = a[2] * b[0] - b[2] * a[0];
+	    cross[k+2] = a[0] * b[1] - b[0] * a[1];
+	    return k+3;
+	}
+	
+	private static double[] join(double[] a, double[] b, double[] c) {
+	    return new double[]{a[0], a[1], a[2], b[0], b[1], b[2], c[0], c[1], c[2]};
+	}
+	
+	private static void mid(double[] a, double[] b, double[] w) {
+	    double x = a[0] + b[0];
+	    double y = a[1] + b[1];
+	    double z = a[2] + b[2];
+	    double tmp = Math.sqrt(x*x + y*y + z*z);
+	    w[0] = x/tmp;
+	    w[1] = y/tmp;
+	    w[2] = z/tmp;
+	}
+	
+	/** Which fragment of an interior node holds the point? */
+	int fragment(int node, double px, double py, double pz, double epsilon) {
+	    int k = 27*node;
+	    for (int f=0; f<3; f += 1, k += 9) {
+		if (px * cross[k]   + py * cross[k+1] + pz * cross[k+2] < -epsilon) {
+		    continue;
+		}
+		if (px * cross[k+3] + py * cross[k+4] + pz * cross[k+5] < -epsilon) {
+		    continue;
+		}
+		if (px * cross[k+6] + py * cross[k+7] + pz * cross[k+8] >= -epsilon) {
+		    return f;
+		}
+	    }
+	    return 3;
+	}
     }
-
+    
     /* Calculate midpoint fo vectors v1 and v2 the answer is put in
        the provided w vector.  Allow v1,v2,w vectors to be aliased.
      */
@@ -434,7 +645,7 @@ public class Toa extends org.asterope.geometry.Projecter {
 	    coords[0][dim]    = bounds[1];
 	    coords[0][0]      = bounds[2];
 	    coords[dim][0]    = bounds[3];
-	    fill(coords, dim, 0, 0, dim, diagonal);
+	    fill(coords, dim, 0, 0, dim, sinister(level, ix, iy));
 	    
 	} else {
 	    
@@ -461,6 +672,107 @@ public class Toa extends org.asterope.geometry.Projecter {
     }
     
     
+    /** Compute a tile as in tile() but with the unit vector of
+     *  node [i][j] at offset 3*(i*(2^subdiv+1)+j) of a single array.
+     */
+    public double[] grid(int level, int ix, int iy, int subdiv) {
+	
+	double[][][] coords = tile(level, ix, iy, subdiv);
+	int m = coords.length;
+	double[] g = new double[3*m*m];
+	int k = 0;
+	for (int i=0; i<m; i += 1) {
+	    for (int j=0; j<m; j += 1) {
+		double[] v = coords[i][j];
+		g[k]   = v[0];
+		g[k+1] = v[1];
+		g[k+2] = v[2];
+		k += 3;
+	    }
+	}
+	return g;
+    }
+    
+    /** Compute the grid of a tile from the grid of its parent.
+     *  The nodes the tile shares with its parent are copied and
+     *  only the new nodes are computed, so this is several times
+     *  faster than grid() and gives the same values.
+     *  @param parent The grid of tile ix/2, iy/2 at level-1, as returned by grid().
+     *  @param level  The level of the tile, at least 1.
+     *  @param ix     The horizontal index of the tile.
+     *  @param iy     The vertical index of the tile.
+     *  @param subdiv The subdivision of both grids.
+     *  @param child  Filled with the grid of the tile.  This must not be the parent.
+     */
+    public void subgrid(double[] parent, int level, int ix, int iy, int subdiv, double[] child) {
+	
+	int dim = 1 << subdiv;
+	int m   = dim+1;
+	int d2  = dim/2;
+	if (level < 1 || parent.length < 3*m*m || child.length < 3*m*m) {
+	    throw new IllegalArgumentException("Invalid subgrid: level "+level+" subdivision "+subdiv);
+	}
+	
+	// The tiles are numbered from the top, the nodes from the bottom.
+	int r0 = (ix & 1)*d2;
+	int s0 = (1 - (iy & 1))*d2;
+	for (int r=0; r<=d2; r += 1) {
+	    for (int s=0; s<=d2; s += 1) {
+		int p = 3*((r0+r)*m + s0+s);
+		int c = 3*(2*r*m + 2*s);
+		child[c]   = parent[p];
+		child[c+1] = parent[p+1];
+		child[c+2] = parent[p+2];
+	    }
+	}
+	
+	boolean sinister = sinister(level, ix, iy);
+	int row = 3*m;
+	for (int r=0; r<dim; r += 1) {
+	    for (int s=0; s<dim; s += 1) {
+		int k = 3*(r*m + s);
+		if ((r & 1) == 0) {
+		    if ((s & 1) == 1) {
+			midpoint(child, k-3, k+3, k);
+		    }
+		} else if ((s & 1) == 0) {
+		    midpoint(child, k-row, k+row, k);
+		} else if (sinister) {
+		    midpoint(child, k+row-3, k-row+3, k);
+		} else {
+		    midpoint(child, k-row-3, k+row+3, k);
+		}
+	    }
+	}
+	// The last row and column.
+	for (int s=1; s<dim; s += 2) {
+	    int k = 3*(dim*m + s);
+	    midpoint(child, k-3, k+3, k);
+	}
+	for (int r=1; r<dim; r += 2) {
+	    int k = 3*(r*m + dim);
+	    midpoint(child, k-row, k+row, k);
+	}
+    }
+    
+    /** The midpoint of two vectors in a grid, as computed by midpoint(double[]...). */
+    private static void midpoint(double[] g, int a, int b, int w) {
+	double x = g[a]   + g[b];
+	double y = g[a+1] + g[b+1];
+	double z = g[a+2] + g[b+2];
+	
+	double tmp = Math.sqrt(x*x + y*y + z*z);
+	g[w]   = x/tmp;
+	g[w+1] = y/tmp;
+	g[w+2] = z/tmp;
+    }
+    
+    /** Does the tile have sinister or dexter diagonals. */
+    static boolean sinister(int level, int ix, int iy) {
+	int pow = (int)Math.pow(2,level-1);
+	return ix/pow != iy/pow;
+    }
+    
     double[][] bounds(int level, int ix, int iy) {
 	
 	int pow = (int)Math.pow(2,level-1);
@@ -476,14 +788,10 @@ public class Toa extends org.asterope.geometry.Projecter {
 	} else {
 	    coords = new double[][]{ { 0, 0,-1}, { 0, 1, 0}, { 0, 0, 1}, {1, 0, 0} };
 	}
-	diagonal = (tx != ty);
-	return bounds(coords, level-1, ix%pow, iy%pow);
+	return bounds(coords, tx != ty, level-1, ix%pow, iy%pow);
     }
     
-    double[][] temp    = new double[4][3];
-    double[]   diagTem = new double[3]; 
-    
-    double[][] bounds(double[][] coords, int level, int x, int y) {
+    double[][] bounds(double[][] coords, boolean diagonal, int level, int x, int y) {
 	
 	if (level == 0) {
 	    return coords;
@@ -505,6 +813,7 @@ public class Toa extends org.asterope.geometry.Projecter {
 	
 	// First handle diagonal corner.
 	int diag = (ind+2)%4;
+	double[] diagTem = new double[3];
 	if (diagonal) {
 	    midpoint(coords[1],coords[3],diagTem);
 	} else {
@@ -522,7 +831,7 @@ public class Toa extends org.asterope.geometry.Projecter {
 	
 	// Copy the diagonal in...
 	System.arraycopy(diagTem, 0, coords[diag], 0, diagTem.length);
-	return bounds(coords, level-1, x%pow, y%pow);
+	return bounds(coords, diagonal, level-1, x%pow, y%pow);
     }
 	    
     void fill(double[][][] coords, int len, int x0, int y0, int mx, boolean sinister) {
@@ -571,13 +880,41 @@ public class Toa extends org.asterope.geometry.Projecter {
 	}
 	
         public void transform(double[] plane, double[] sphere) {
-	    double[] res = deproject(plane[0]/RSCALE, plane[1]/RSCALE);
-//	    show(" Deproject:", res);
-	    System.arraycopy(res,0, sphere, 0, res.length);
+	    toSphere(plane[0]/RSCALE, plane[1]/RSCALE, sphere, 0, sphere, 1, sphere, 2);
         }
-    
-	double[] result = new double[3];
 	
+	/** Deproject a block of points. */
+	public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+	    
+	    final double[] x = in[0],  y = in[1];
+	    final double[] u = out[0], v = out[1], w = out[2];
+	    
+	    Grid g = grid;
+	    if (g == null) {
+		for (int i=0; i<len; i += 1) {
+		    exact(x[inOff+i]/RSCALE, y[inOff+i]/RSCALE, u, outOff+i, v, outOff+i, w, outOff+i);
+		}
+		return;
+	    }
+	    
+	    // Keep the current tile in a local until the block is done.
+	    GridTile tile = lastTile;
+	    GridTile start = tile;
+	    for (int i=0; i<len; i += 1) {
+		double px = x[inOff+i]/RSCALE;
+		double py = y[inOff+i]/RSCALE;
+		GridTile t = gridValue(g, px, py, tile, u, outOff+i, v, outOff+i, w, outOff+i);
+		if (t != null) {
+		    tile = t;
+		} else {
+		    exact(px, py, u, outOff+i, v, outOff+i, w, outOff+i);
+		}
+	    }
+	    if (tile != start) {
+		lastTile = tile;
+	    }
+	}
+    
         /** Deproject from the plane to the sky.  Note that
 	 *  deproject uses the [-1,1] range of plane coordinates
 	 *  while transform uses [-pi/2,pi/2].
@@ -585,19 +922,81 @@ public class Toa extends org.asterope.geometry.Projecter {
 	
         public double[] deproject(double x, double y) {
 	    
-	    if (gridLevel >= 0) {
-		
-		x = x-gridOffX;
-		y = y-gridOffY;
-		
-		double tx = Math.floor(x/gridDelta + 0.5);
-	        double ty = Math.floor(y/gridDelta + 0.5);
-		
-		
-		if (tx >= 0 && tx <= nPix && ty >= 0 && ty <= nPix) {
-		    return gridValues[(int)tx][(int)ty];
+	    double[] unit = new double[3];
+	    toSphere(x, y, unit, 0, unit, 1, unit, 2);
+	    return unit;
+	}
+	
+	/** Copy the grid value for a point if it is on a node of the grid.
+	 *  @param g    The grid.
+	 *  @param tile The tile used for the previous point, or null.
+	 *              If the point is on the same tile the cache is not used.
+	 *  @return The tile holding the point, or null if the point
+	 *          is not on the grid.
+	 */
+	private GridTile gridValue(Grid g, double x, double y, GridTile tile,
+				   double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+	    
+	    int    dim  = 1 << g.sub;
+	    int    n    = 1 << g.level;
+	    double half = 0.5*n*dim;
+	    double tol  = Math.min(minDelta*half, MAX_SNAP);
+	    
+	    double gx = (x+1)*half;
+	    double gy = (y+1)*half;
+	    double rx = Math.rint(gx);
+	    double ry = Math.rint(gy);
+	    if (!(Math.abs(gx-rx) <= tol && Math.abs(gy-ry) <= tol &&
+		  rx >= 0 && rx < 2*half && ry >= 0 && ry < 2*half)) {
+		return null;
+	    }
+	    
+	    long gi  = (long) rx;
+	    long gj  = (long) ry;
+	    int  tix = (int) (gi >> g.sub);
+	    int  tpy = (int) (gj >> g.sub);
+	    int  r   = (int) (gi & (dim-1));
+	    int  s   = (int) (gj & (dim-1));
+	    
+	    // The key also holds the level and subdivision in case
+	    // the grid is changed while the projection is in use.
+	    long key = ((long) g.level << 55) | ((long) g.sub << 50) |
+		       ((long) tix << 25) | (n-1-tpy);
+	    if (tile == null || tile.key != key) {
+		tile = new GridTile(key, g.cache.get(g.level, tix, n-1-tpy, g.sub));
+	    }
+	    double[] values = tile.grid;
+	    int k = 3*(r*(dim+1) + s);
+	    u[iu] = values[k];
+	    v[iv] = values[k+1];
+	    w[iw] = values[k+2];
+	    return tile;
+	}
+	
+	/** Deproject a point in the [-1,1] range and store the unit
+	 *  vector in the given array elements.
+	 */
+	private void toSphere(double x, double y,
+			      double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+	    
+	    Grid g = grid;
+	    if (g != null) {
+		GridTile last = lastTile;
+		GridTile t = gridValue(g, x, y, last, u, iu, v, iv, w, iw);
+		if (t != null) {
+		    if (t != last) {
+			lastTile = t;
+		    }
+		    return;
 		}
 	    }
+	    exact(x, y, u, iu, v, iv, w, iw);
+	}
+	
+	/** Deproject a point in the [-1,1] range without using the grid. */
+	private void exact(double x, double y,
+			   double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+	    
 	    // Translate to the nominal region.
 	    x = (x+1) % 2 - 1;
 	    y = (y+1) % 2 - 1;
@@ -614,82 +1013,136 @@ public class Toa extends org.asterope.geometry.Projecter {
 		y      = -y;
 	        signy  = -1;
 	    }
-	
-	    double[][] vectors;
-	    boolean dir;
-            if (x + y > 1) {  // Dec < 0
-	        vectors = new double[][]{{0,0,-1}, {0,1,0}, {1,0,0}};
-	        dir = false;
-	    } else {
-	        vectors = new double[][]{{0,1,0},  {0,0,1}, {1,0,0}};
-	        dir = true;
-	    }
+	    
+	    final double min = minDelta;
+	    
+	    TriangleTree tree = x + y > 1 ? TriangleTree.SOUTH : TriangleTree.NORTH;
+	    boolean dir = tree.dir[0];
 	    double delta  = 1;
-	    double factor = 1;
-	
-	    while (delta > minDelta) {
 	    
+	    // Descend through the precomputed levels.
+	    int node  = 0;
+	    int level = 0;
+	    while (delta > min && level < TriangleTree.LEVELS) {
+		
 	        delta  = delta/2;
-	        factor = factor*2;
 	        x *= 2;
 	        y *= 2;
+		
+		int fragment;
+		if (dir) {
+		    if (y > 1) {
+			fragment = 0;
+			y -= 1;
+		    } else if (x > 1) {
+			fragment = 2;
+			x -= 1;
+		    } else if (x+y < 1) {
+			fragment = 1;
+		    } else {
+			fragment = 3;
+		    }
+		} else {
+		    if (x < 1) {
+			fragment = 1;
+			y -= 1;
+		    } else if (y < 1) {
+			fragment = 2;
+			x -= 1;
+		    } else {
+			x -= 1;
+			y -= 1;
+			fragment = x + y < 1 ? 3 : 0;
+		    }
+		}
+		node  = 4*node + 1 + fragment;
+		dir   = tree.dir[node];
+		level += 1;
+	    }
 	    
-	        double[][] midpoints = new double[3][3];
+	    double v0x, v0y, v0z, v1x, v1y, v1z, v2x, v2y, v2z;
+	    if (level == TriangleTree.LEVELS) {
+		double[] t = tree.vertices;
+		int k = 9*(node - TriangleTree.FIRST_LEAF);
+		v0x = t[k];   v0y = t[k+1]; v0z = t[k+2];
+		v1x = t[k+3]; v1y = t[k+4]; v1z = t[k+5];
+		v2x = t[k+6]; v2y = t[k+7]; v2z = t[k+8];
+	    } else {
+		// Only the corners of the nodes above the leaves are needed.
+		double[] c = tree.corners(node);
+		v0x = c[0]; v0y = c[1]; v0z = c[2];
+		v1x = c[3]; v1y = c[4]; v1z = c[5];
+		v2x = c[6]; v2y = c[7]; v2z = c[8];
+	    }
+	
+	    while (delta > min) {
 	    
-	        midpoint(vectors[0],vectors[1], midpoints[0]);
-	        midpoint(vectors[1],vectors[2], midpoints[1]);
-	        midpoint(vectors[2],vectors[0], midpoints[2]);
+		delta  = delta/2;
+		x *= 2;
+		y *= 2;
+		
+		double sx, sy, sz, n;
+		sx = v0x + v1x; sy = v0y + v1y; sz = v0z + v1z;
+		n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+		double m0x = sx/n, m0y = sy/n, m0z = sz/n;
+		sx = v1x + v2x; sy = v1y + v2y; sz = v1z + v2z;
+		n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+		double m1x = sx/n, m1y = sy/n, m1z = sz/n;
+		sx = v2x + v0x; sy = v2y + v0y; sz = v2z + v0z;
+		n  = Math.sqrt(sx*sx + sy*sy + sz*sz);
+		double m2x = sx/n, m2y = sy/n, m2z = sz/n;
 	
 	        if (dir) {
 		    if (y > 1) {
-		        vectors[1] = midpoints[0];
-		        vectors[2] = midpoints[2];
+			v1x = m0x; v1y = m0y; v1z = m0z;
+			v2x = m2x; v2y = m2y; v2z = m2z;
 		        y -= 1;
 		    } else if (x > 1) {
-		        vectors[0] = midpoints[2];
-		        vectors[1] = midpoints[1];
+			v0x = m2x; v0y = m2y; v0z = m2z;
+			v1x = m1x; v1y = m1y; v1z = m1z;
 		        x -= 1;
 		    } else if (x+y < 1) {
-		        vectors[0] = midpoints[0];
-		        vectors[2] = midpoints[1];
+			v0x = m0x; v0y = m0y; v0z = m0z;
+			v2x = m1x; v2y = m1y; v2z = m1z;
 		    } else {
-		        vectors[0] = midpoints[2];
-		        vectors[1] = midpoints[0];
-		        vectors[2] = midpoints[1];
+			v0x = m2x; v0y = m2y; v0z = m2z;
+			v1x = m0x; v1y = m0y; v1z = m0z;
+			v2x = m1x; v2y = m1y; v2z = m1z;
 		        dir    = !dir;
 		    }
 	        } else {
 		    if (x < 1) {
-		        vectors[0] = midpoints[0];
-		        vectors[2] = midpoints[1];
+			v0x = m0x; v0y = m0y; v0z = m0z;
+			v2x = m1x; v2y = m1y; v2z = m1z;
 		        y -= 1;
 		    } else if (y < 1) {
-		        vectors[0] = midpoints[2];
-		        vectors[1] = midpoints[1];
+			v0x = m2x; v0y = m2y; v0z = m2z;
+			v1x = m1x; v1y = m1y; v1z = m1z;
 		        x -= 1;
 		    } else {
 		        x -= 1;
 		        y -= 1;
 		        if (x + y < 1) {
-			    vectors = midpoints;
+			    v0x = m0x; v0y = m0y; v0z = m0z;
+			    v1x = m1x; v1y = m1y; v1z = m1z;
+			    v2x = m2x; v2y = m2y; v2z = m2z;
 			    dir = !dir;
 		        } else {
-			    vectors[1] = midpoints[0];
-			    vectors[2] = midpoints[2];
+			    v1x = m0x; v1y = m0y; v1z = m0z;
+			    v2x = m2x; v2y = m2y; v2z = m2z;
 		        }
 		    }
 	       }
 	    }
 	
-	    double xs = vectors[0][0] + vectors[1][0] + vectors[2][0];
-	    double ys = vectors[0][1] + vectors[1][1] + vectors[2][1];
-            double zs = vectors[0][2] + vectors[1][2] + vectors[2][2];
+	    double xs = v0x + v1x + v2x;
+	    double ys = v0y + v1y + v2y;
+	    double zs = v0z + v1z + v2z;
 	    double norm = Math.sqrt(xs*xs + ys*ys + zs*zs);
 	
- 	    double[] unit = {xs/norm, ys/norm, zs/norm};
-	    unit[0] *= signx;
-	    unit[1] *= signy;
-	    return unit;
+	    u[iu] = xs/norm*signx;
+	    v[iv] = ys/norm*signy;
+	    w[iw] = zs/norm;
         }
     }
 	
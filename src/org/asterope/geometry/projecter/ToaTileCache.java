@@ -0,0 +1,138 @@
+package org.asterope.geometry.projecter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Recently used TOAST tile grids.  A grid holds the unit vectors
+ *  at the (2^subdiv+1) x (2^subdiv+1) nodes of a tile, as computed by
+ *  Toa.grid, and is used by Toa deprojections for which a grid has been
+ *  set.  The least recently used grids are dropped when the total size
+ *  of the grids would exceed the limit given to the constructor.
+ *  <p>
+ *  Tiles are numbered as in Toa.tile: at level L tile (ix, iy) covers
+ *  plane coordinates (in the [-1,1] range) from -1+2ix/2^L in x and from
+ *  1-2(iy+1)/2^L in y, i.e., tile 0,0 is at the top left.
+ *  Node (i, j) of a tile is at offset 3*(i*(2^subdiv+1)+j) in the
+ *  array returned by get(), with i counting along x and j along y.
+ *  <p>
+ *  The cache may be used by several threads.  Two threads asking for
+ *  the same missing tile may both compute it.
+ */
+public final class ToaTileCache {
+
+    /** The size of the default cache in bytes */
+    public static final long DEFAULT_SIZE = 64L << 20;
+
+    private static final ToaTileCache DEFAULT = new ToaTileCache(DEFAULT_SIZE);
+
+    /** The largest level and subdivision which may be cached */
+    static final int MAX_LEVEL  = 24;
+    static final int MAX_SUBDIV = 12;
+
+    private final Map<Long, double[]> grids =
+      new LinkedHashMap<Long, double[]>(16, 0.75f, true);
+
+    /** Used to compute the grids.  Toa.grid does not depend on the
+     *  settings of the projection.
+     */
+    private final Toa toa = new Toa();
+
+    private final long maxBytes;
+    private long bytes;
+    private long hits, misses;
+
+    /** Create a cache.
+     *  @param maxBytes The largest total size of the grids kept.
+     */
+    public ToaTileCache(long maxBytes) {
+	this.maxBytes = maxBytes;
+    }
+
+    /** Get the cache shared by projections which do not give their own. */
+    public static ToaTileCache getDefault() {
+	return DEFAULT;
+    }
+
+    /** Get the grid for a tile, computing it if it is not cached.
+     *  The array is shared and must not be modified.
+     *  @param level  The level of the tile, with 0 the whole plane.
+     *  @param ix     The horizontal index of the tile, from 0 at the left.
+     *  @param iy     The vertical index of the tile, from 0 at the top.
+     *  @param subdiv The tile is divided into 2^subdiv cells on a side.
+     */
+    public double[] get(int level, int ix, int iy, int subdiv) {
+
+	check(level, subdiv);
+	int n = 1 << level;
+	if (ix < 0 || ix >= n || iy < 0 || iy >= n) {
+	    throw new IllegalArgumentException("No tile "+ix+","+iy+" at level "+level);
+	}
+
+	Long key = ((long) level << 55) | ((long) subdiv << 50) | ((long) ix << 25) | iy;
+	synchronized (grids) {
+	    double[] g = grids.get(key);
+	    if (g != null) {
+		hits += 1;
+		return g;
+	    }
+	    misses += 1;
+	}
+
+	double[] g = toa.grid(level, ix, iy, subdiv);
+	long size = 8L*g.length;
+
+	synchronized (grids) {
+	    double[] old = grids.get(key);
+	    if (old != null) {
+		return old;
+	    }
+	    if (size > maxBytes) {
+		return g;
+	    }
+	    grids.put(key, g);
+	    bytes += size;
+	    Iterator<double[]> it = grids.values().iterator();
+	    while (bytes > maxBytes) {
+		bytes -= 8L*it.next().length;
+		it.remove();
+	    }
+	}
+	return g;
+    }
+
+    static void check(int level, int subdiv) {
+	if (level < 0 || level > MAX_LEVEL || subdiv < 1 || subdiv > MAX_SUBDIV) {
+	    throw new IllegalArgumentException("Invalid TOAST grid: level "+level+" subdivision "+subdiv);
+	}
+    }
+
+    /** The total size of the grids held, in bytes */
+    public long getBytes() {
+	synchronized (grids) {
+	    return bytes;
+	}
+    }
+
+    /** The number of requests answered from the cache */
+    public long getHits() {
+	synchronized (grids) {
+	    return hits;
+	}
+    }
+
+    /** The number of requests which computed a grid */
+    public long getMisses() {
+	synchronized (grids) {
+	    return misses;
+	}
+    }
+
+    /** Forget the cached grids */
+    public void clear() {
+	synchronized (grids) {
+	    grids.clear();
+	    bytes = 0;
+	}
+    }
+}
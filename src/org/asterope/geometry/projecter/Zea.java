@@ -11,6 +11,8 @@ package org.asterope.geometry.projecter;
 import org.asterope.geometry.Deprojecter;
 import org.asterope.geometry.Projecter;
 import org.asterope.geometry.Transformer;
+import org.asterope.geometry.vector.Kernels;
+import org.asterope.geometry.vector.Vectorized;
 
 public class Zea extends Projecter {
 
@@ -62,6 +64,43 @@ public class Zea extends Projecter {
 	}
     }
     
+    /** Project a block of points from the sphere to the plane. */
+    public void transform(double[][] sphere, int inOff, double[][] plane, int outOff, int len) {
+	
+	final double[] x = sphere[0], y = sphere[1], z = sphere[2];
+	final double[] u = plane[0],  v = plane[1];
+	
+	int start = 0;
+	Kernels k = Vectorized.KERNELS;
+	if (k != null) {
+	    start = k.zea(x, y, z, inOff, u, v, outOff, len);
+	}
+
+	for (int i=start; i<len; i += 1) {
+	    double sx = x[inOff+i];
+	    double sy = y[inOff+i];
+	    double sz = z[inOff+i];
+	    if (Double.isNaN(sz)) {
+		u[outOff+i] = Double.NaN;
+		v[outOff+i] = Double.NaN;
+	    } else {
+		double num = 2*(1-sz);
+		if (num < 0) {
+		    num = 0;
+		}
+		double denom = sx*sx + sy*sy;
+		if (denom == 0) {
+		    u[outOff+i] = 0;
+		    v[outOff+i] = 0;
+		} else {
+		    double ratio = Math.sqrt(num) / Math.sqrt(denom);
+		    u[outOff+i] = ratio * sx;
+		    v[outOff+i] = ratio * sy;
+		}
+	    }
+	}
+    }
+    
     public boolean validPosition(double[] plane) {
 	return super.validPosition(plane) &&
 	       plane[0]*plane[0] + plane[1]*plane[1] <= 4;
@@ -115,5 +154,41 @@ public class Zea extends Projecter {
 	        sphere[1] = ratio * plane[1];
 	    }
 	}
+	
+	/** Deproject a block of points from the plane to the sphere. */
+	public void transform(double[][] plane, int inOff, double[][] sphere, int outOff, int len) {
+	
+	    final double[] x = plane[0],  y = plane[1];
+	    final double[] u = sphere[0], v = sphere[1], w = sphere[2];
+	
+	    int start = 0;
+	    Kernels k = Vectorized.KERNELS;
+	    if (k != null) {
+		start = k.zeaDeproj(x, y, inOff, u, v, w, outOff, len);
+	    }
+
+	    for (int i=start; i<len; i += 1) {
+		double px = x[inOff+i];
+		double py = y[inOff+i];
+		double r2 = px*px + py*py;
+		if (Double.isNaN(px) || !(r2 <= 4)) {
+		    u[outOff+i] = Double.NaN;
+		    v[outOff+i] = Double.NaN;
+		    w[outOff+i] = Double.NaN;
+		} else {
+		    double r     = Math.sqrt(r2);
+		    double z     = 1 - r*r/2;
+		    double ratio = (1-z*z);
+		    if (ratio > 0) {
+			ratio = Math.sqrt(ratio)/r;
+		    } else {
+			ratio = 0;
+		    }
+		    u[outOff+i] = ratio * px;
+		    v[outOff+i] = ratio * py;
+		    w[outOff+i] = z;
+		}
+	    }
+	}
     }
 }
@@ -0,0 +1,348 @@
+package org.asterope.geometry.sampler;
+
+import org.asterope.geometry.Converter;
+import org.asterope.geometry.TransformationException;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.WCS;
+
+/** A piecewise bilinear approximation to a smooth 2-d transformation,
+ *  typically the mapping between the pixels of two images.
+ *  <p>
+ *  The exact transformation is sampled at the corners of a coarse grid
+ *  of cells.  Each cell is checked at its center and at the midpoints and
+ *  quarter points between its corners, and where bilinear interpolation
+ *  misses any of these by more than the tolerance the cell is split in
+ *  four, down to a minimum cell size.  Cells which are still too far out
+ *  at the minimum size, or where any sample cannot be transformed (e.g.,
+ *  across the seam of an all-sky projection or off the edge of a
+ *  projection's valid region), are evaluated exactly.  So are points
+ *  outside the gridded region.
+ *  <p>
+ *  The grid is built in the constructor and is not changed afterwards,
+ *  so the approximation may be shared among threads if the exact
+ *  transformation can.
+ */
+public final class GridApproximatedTransformer extends Transformer {
+
+    private final Transformer exact;
+    private final double minX, minY;
+    private final double cell;
+    private final int    nx, ny;
+    private final double tolerance;
+
+    /** For each node the index of its first child (the other three
+     *  follow in the order lower left, lower right, upper left,
+     *  upper right) or LEAF or EXACT.
+     */
+    private int[] child;
+
+    /** The transformed corners of each leaf: x and y at the lower left,
+     *  lower right, upper left and upper right.
+     */
+    private double[] corners;
+
+    private int nodes;
+    private int exactLeaves;
+
+    private static final int LEAF  = -1;
+    private static final int EXACT = -2;
+
+    /** The number of missed points transformed exactly at a time
+     *  in block transforms.
+     */
+    private static final int MISSED_BLOCK = 256;
+
+    /** Per-thread work arrays for the missed points, so that
+     *  block transforms create no objects.
+     */
+    private static final ThreadLocal<Missed> missedScratch = new ThreadLocal<Missed>() {
+	protected Missed initialValue() {
+	    return new Missed();
+	}
+    };
+
+    /** The points of a block which need the exact transformation:
+     *  where they are in the block and their coordinates.
+     */
+    private static final class Missed {
+	final int[]      index = new int[MISSED_BLOCK];
+	final double[][] xy    = new double[2][MISSED_BLOCK];
+	/** Is the thread's Missed being used by an enclosing transform? */
+	boolean busy;
+    }
+
+    /** Approximate a 2-d transformation over a rectangle.
+     *  @param exact     The transformation to be approximated.
+     *  @param minX      The low x edge of the region.
+     *  @param minY      The low y edge of the region.
+     *  @param maxX      The high x edge of the region.
+     *  @param maxY      The high y edge of the region.
+     *  @param cell      The size of the initial grid cells.
+     *  @param minCell   Cells are not split below this size.
+     *  @param tolerance The largest acceptable error in the output coordinates.
+     */
+    public GridApproximatedTransformer(Transformer exact,
+				       double minX, double minY, double maxX, double maxY,
+				       double cell, double minCell, double tolerance) {
+
+	if (exact.transform(new double[]{minX, minY}).length != 2) {
+	    throw new IllegalArgumentException("Only 2-d transformations may be approximated");
+	}
+	if (!(maxX > minX && maxY > minY && cell > 0 && minCell > 0 && tolerance > 0)) {
+	    throw new IllegalArgumentException("Invalid grid");
+	}
+	if (exact instanceof Converter) {
+	    exact = ((Converter) exact).compile();
+	}
+	this.exact     = exact;
+	this.minX      = minX;
+	this.minY      = minY;
+	this.cell      = cell;
+	this.nx        = (int) Math.ceil((maxX-minX)/cell);
+	this.ny        = (int) Math.ceil((maxY-minY)/cell);
+	this.tolerance = tolerance;
+
+	child   = new int[4*nx*ny];
+	corners = new double[8*4*nx*ny];
+	nodes   = nx*ny;
+	for (int j=0; j<ny; j += 1) {
+	    for (int i=0; i<nx; i += 1) {
+		build(j*nx+i, minX+i*cell, minY+j*cell, cell, minCell);
+	    }
+	}
+    }
+
+    /** The approximate mapping from the pixels of a target image to
+     *  those of a source image, as used by ImageReprojector.  The grid
+     *  covers the whole target image, including the outer pixel edges.
+     *  @param tolerance The largest acceptable error in source pixels.
+     */
+    public static GridApproximatedTransformer pixelMapping(WCS source, WCS target,
+							   int tgtWidth, int tgtHeight,
+							   double tolerance)
+      throws TransformationException {
+	Converter c = new Converter();
+	c.add(target.inverse());
+	c.add(source);
+	return new GridApproximatedTransformer(c, 0, 0, tgtWidth, tgtHeight, 32, 1, tolerance);
+    }
+
+    /** Fill in a node, splitting it if needed. */
+    private void build(int node, double x0, double y0, double size, double minCell) {
+
+	// Sample on a 5x5 grid: the corners are used for the
+	// interpolation and everything else checks it.
+	double[][] in  = new double[2][25];
+	double[][] out = new double[2][25];
+	for (int j=0; j<5; j += 1) {
+	    for (int i=0; i<5; i += 1) {
+		in[0][5*j+i] = x0 + size*i/4;
+		in[1][5*j+i] = y0 + size*j/4;
+	    }
+	}
+	exact.transform(in, 0, out, 0, 25);
+
+	boolean good = true;
+	for (int k=0; k<25 && good; k += 1) {
+	    if (Double.isNaN(out[0][k]) || Double.isNaN(out[1][k]) ||
+		Double.isInfinite(out[0][k]) || Double.isInfinite(out[1][k])) {
+		good = false;
+	    }
+	}
+	for (int j=0; j<5 && good; j += 1) {
+	    double ty = j/4.;
+	    for (int i=0; i<5 && good; i += 1) {
+		double tx = i/4.;
+		double ex = lerp(out[0][0], out[0][4], out[0][20], out[0][24], tx, ty);
+		double ey = lerp(out[1][0], out[1][4], out[1][20], out[1][24], tx, ty);
+		double dx = ex - out[0][5*j+i];
+		double dy = ey - out[1][5*j+i];
+		if (dx*dx + dy*dy > tolerance*tolerance) {
+		    good = false;
+		}
+	    }
+	}
+
+	if (good) {
+	    child[node] = LEAF;
+	    int c = 8*node;
+	    corners[c]   = out[0][0];
+	    corners[c+1] = out[1][0];
+	    corners[c+2] = out[0][4];
+	    corners[c+3] = out[1][4];
+	    corners[c+4] = out[0][20];
+	    corners[c+5] = out[1][20];
+	    corners[c+6] = out[0][24];
+	    corners[c+7] = out[1][24];
+	} else if (size/2 < minCell) {
+	    child[node] = EXACT;
+	    exactLeaves += 1;
+	} else {
+	    int first = nodes;
+	    nodes += 4;
+	    if (nodes > child.length) {
+		child   = java.util.Arrays.copyOf(child, 2*nodes);
+		corners = java.util.Arrays.copyOf(corners, 16*nodes);
+	    }
+	    child[node] = first;
+	    double h = size/2;
+	    build(first,   x0,   y0,   h, minCell);
+	    build(first+1, x0+h, y0,   h, minCell);
+	    build(first+2, x0,   y0+h, h, minCell);
+	    build(first+3, x0+h, y0+h, h, minCell);
+	}
+    }
+
+    private static double lerp(double v00, double v10, double v01, double v11, double tx, double ty) {
+	return (1-ty)*((1-tx)*v00 + tx*v10) + ty*((1-tx)*v01 + tx*v11);
+    }
+
+    /** The number of cells in the tree */
+    public int getCellCount() {
+	return nodes;
+    }
+
+    /** The number of cells which are evaluated exactly */
+    public int getExactCellCount() {
+	return exactLeaves;
+    }
+
+    /** Get the transformation being approximated */
+    public Transformer getExact() {
+	return exact;
+    }
+
+    public String getName() {
+	return "GridApproximation";
+    }
+
+    public String getDescription() {
+	return "Piecewise bilinear approximation of "+exact.getName();
+    }
+
+    protected int getInputDimension() {
+	return 2;
+    }
+
+    protected int getOutputDimension() {
+	return 2;
+    }
+
+    /** The approximation has no inverse of its own, so this
+     *  is the inverse of the exact transformation.
+     */
+    public Transformer inverse() throws TransformationException {
+	return exact.inverse();
+    }
+
+    public boolean isInverse(Transformer t) {
+	return exact.isInverse(t);
+    }
+
+    /** Interpolate a point, leaving the result in u[iu] and v[iv].
+     *  Nothing is written if the point must be transformed exactly.
+     *  @return false if the point must be transformed exactly.
+     */
+    private boolean interpolate(double x, double y, double[] u, int iu, double[] v, int iv) {
+
+	double fx = (x - minX)/cell;
+	double fy = (y - minY)/cell;
+	// Also catches NaNs.
+	if (!(fx >= 0 && fy >= 0 && fx <= nx && fy <= ny)) {
+	    return false;
+	}
+	int ix = Math.min((int) fx, nx-1);
+	int iy = Math.min((int) fy, ny-1);
+	double tx = fx - ix;
+	double ty = fy - iy;
+	int node = iy*nx + ix;
+
+	int c;
+	while ((c = child[node]) >= 0) {
+	    tx *= 2;
+	    ty *= 2;
+	    int q = 0;
+	    if (tx >= 1) {
+		tx -= 1;
+		q  += 1;
+	    }
+	    if (ty >= 1) {
+		ty -= 1;
+		q  += 2;
+	    }
+	    node = c + q;
+	}
+	if (c == EXACT) {
+	    return false;
+	}
+	int b = 8*node;
+	double[] g = corners;
+	double ox = (1-ty)*((1-tx)*g[b]   + tx*g[b+2]) + ty*((1-tx)*g[b+4] + tx*g[b+6]);
+	double oy = (1-ty)*((1-tx)*g[b+1] + tx*g[b+3]) + ty*((1-tx)*g[b+5] + tx*g[b+7]);
+	u[iu] = ox;
+	v[iv] = oy;
+	return true;
+    }
+
+    public void transform(double[] in, double[] out) {
+	if (!interpolate(in[0], in[1], out, 0, out, 1)) {
+	    exact.transform(in, out);
+	}
+    }
+
+    /** Interpolate a block of points.  The points which need the
+     *  exact transformation are gathered up and transformed together.
+     */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	Missed m = missedScratch.get();
+	if (m.busy) {
+	    m = new Missed();
+	} else {
+	    m.busy = true;
+	}
+	try {
+	    transform(in, inOff, out, outOff, len, m);
+	} finally {
+	    m.busy = false;
+	}
+    }
+
+    private void transform(double[][] in, int inOff, double[][] out, int outOff, int len, Missed m) {
+
+	double[] x = in[0],  y = in[1];
+	double[] u = out[0], v = out[1];
+	int[]    missed = m.index;
+	double[] mx = m.xy[0], my = m.xy[1];
+	int      nMissed = 0;
+
+	for (int i=0; i<len; i += 1) {
+	    double px = x[inOff+i];
+	    double py = y[inOff+i];
+	    if (!interpolate(px, py, u, outOff+i, v, outOff+i)) {
+		// Keep the input, since the output may overwrite it.
+		missed[nMissed] = i;
+		mx[nMissed] = px;
+		my[nMissed] = py;
+		nMissed += 1;
+		if (nMissed == MISSED_BLOCK) {
+		    exact(m, nMissed, u, v, outOff);
+		    nMissed = 0;
+		}
+	    }
+	}
+	if (nMissed > 0) {
+	    exact(m, nMissed, u, v, outOff);
+	}
+    }
+
+    /** Transform the gathered points exactly and put them in place. */
+    private void exact(Missed m, int n, double[] u, double[] v, int outOff) {
+	exact.transform(m.xy, 0, m.xy, 0, n);
+	double[] mx = m.xy[0], my = m.xy[1];
+	for (int k=0; k<n; k += 1) {
+	    u[outOff+m.index[k]] = mx[k];
+	    v[outOff+m.index[k]] = my[k];
+	}
+    }
+}
@@ -0,0 +1,552 @@
+package org.asterope.geometry.sampler;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.asterope.geometry.CompiledTransform;
+import org.asterope.geometry.Converter;
+import org.asterope.geometry.Projecter;
+import org.asterope.geometry.Projection;
+import org.asterope.geometry.TransformationException;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.WCS;
+
+/** Resample an image from one WCS onto another.  For each
+ *  row of the target image the pixel positions are pushed through
+ *  the target WCS inverse and the source WCS as a single compiled
+ *  transformation, and the source image is sampled at the resulting
+ *  positions.  The rows are shared among the threads of a ForkJoinPool.
+ *  <p>
+ *  Images are stored by rows, so pixel (x,y) is at index y*width+x.
+ *  Pixel x covers the pixel coordinates x to x+1 and has its center at x+0.5.
+ *  Target pixels which do not fall on the source image, or whose position
+ *  cannot be transformed, are set to the blank value (NaN unless changed).
+ *  <p>
+ *  In FLUX mode a target pixel whose footprint crosses the seam of
+ *  the source projection, e.g., lon=180 in a Car image centered on 0,
+ *  has corners on both sides of the source image.  When the source is
+ *  given as a WCS the footprint is found in the source projection plane
+ *  and split with the straddle components of the projecter, and each
+ *  piece is integrated separately.  A footprint whose bounding box is
+ *  more than half the size of the source image, or covers more than
+ *  MAX_FOOTPRINT source pixels, is treated as missing data.
+ *  <p>
+ *  A reprojector may be used from several threads at once.
+ */
+public final class ImageReprojector {
+
+    /** How the source image is sampled */
+    public enum Mode {
+	/** The source pixel containing the target pixel center. */
+	NEAREST,
+	/** Bilinear interpolation between the four nearest source pixel centers. */
+	BILINEAR,
+	/** A Lanczos kernel with a=3, i.e., 6x6 source pixels. */
+	LANCZOS,
+	/** The corners of each target pixel are transformed and the
+	 *  source pixels are weighted by the fraction of their area which
+	 *  falls inside the resulting quadrilateral.  Source values are
+	 *  treated as fluxes, so the total flux is preserved.
+	 */
+	FLUX
+    }
+
+    /** The approximate number of target pixels handled by one task */
+    private static final int PIXELS_PER_TASK = 4096;
+
+    /** The largest number of source pixels in the bounding box of a
+     *  target pixel footprint in FLUX mode.
+     */
+    public static final int MAX_FOOTPRINT = 1 << 20;
+
+    private final Transformer pix2pix;
+
+    /** When the source projection can straddle its boundary, the
+     *  mapping from target pixels to the source projection plane,
+     *  the mapping from that plane to source pixels, and the source
+     *  projecter.  Otherwise null.
+     */
+    private final Transformer tgt2plane;
+    private final Transformer plane2pix;
+    private final Projecter   straddler;
+
+    private final int srcWidth, srcHeight;
+    private final int tgtWidth, tgtHeight;
+    private final ForkJoinPool pool;
+
+    private volatile double blank = Double.NaN;
+
+    /** Create a reprojector using the common pool.
+     *  @param source    The WCS of the source image.
+     *  @param srcWidth  The width of the source image in pixels.
+     *  @param srcHeight The height of the source image in pixels.
+     *  @param target    The WCS of the target image.
+     *  @param tgtWidth  The width of the target image in pixels.
+     *  @param tgtHeight The height of the target image in pixels.
+     */
+    public ImageReprojector(WCS source, int srcWidth, int srcHeight,
+			    WCS target, int tgtWidth, int tgtHeight)
+      throws TransformationException {
+	this(source, srcWidth, srcHeight, target, tgtWidth, tgtHeight, ForkJoinPool.commonPool());
+    }
+
+    /** Create a reprojector doing its work in the given pool. */
+    public ImageReprojector(WCS source, int srcWidth, int srcHeight,
+			    WCS target, int tgtWidth, int tgtHeight, ForkJoinPool pool)
+      throws TransformationException {
+	this(pixelMapping(source, target), srcWidth, srcHeight, tgtWidth, tgtHeight, pool,
+	     source.getProjection().getProjecter().straddleable() ? source : null, target);
+    }
+
+    /** Create a reprojector from an explicit mapping of target to source
+     *  pixel coordinates, e.g., a GridApproximatedTransformer.
+     */
+    public ImageReprojector(Transformer pix2pix, int srcWidth, int srcHeight,
+			    int tgtWidth, int tgtHeight, ForkJoinPool pool) {
+	this(pix2pix, srcWidth, srcHeight, tgtWidth, tgtHeight, pool, null, null);
+    }
+
+    /** @param source The source WCS if its projection is straddleable, or null. */
+    private ImageReprojector(Transformer pix2pix, int srcWidth, int srcHeight,
+			     int tgtWidth, int tgtHeight, ForkJoinPool pool,
+			     WCS source, WCS target) {
+
+	if (srcWidth < 1 || srcHeight < 1 || tgtWidth < 1 || tgtHeight < 1) {
+	    throw new IllegalArgumentException("Invalid image size");
+	}
+	if (pix2pix instanceof Converter) {
+	    pix2pix = ((Converter) pix2pix).compile();
+	}
+	this.pix2pix   = pix2pix;
+	this.srcWidth  = srcWidth;
+	this.srcHeight = srcHeight;
+	this.tgtWidth  = tgtWidth;
+	this.tgtHeight = tgtHeight;
+	this.pool      = pool;
+
+	if (source != null) {
+	    // Split the source WCS at the projection plane, as in the WCS constructor.
+	    Projection proj = source.getProjection();
+	    try {
+		Converter a = new Converter();
+		a.add(target.inverse());
+		a.add(source.getCoordinateSystem().getSphereDistorter());
+		a.add(source.getCoordinateSystem().getRotater());
+		a.add(proj.getRotater());
+		a.add(proj.getProjecter());
+		Converter b = new Converter();
+		b.add(proj.getDistorter());
+		b.add(source.getScaler());
+		this.tgt2plane = a.compile();
+		this.plane2pix = b.compile();
+	    } catch (TransformationException e) {
+		// The same components already make up the pixel mapping.
+		throw new Error("Unexpected error:"+e);
+	    }
+	    this.straddler = proj.getProjecter();
+	} else {
+	    this.tgt2plane = null;
+	    this.plane2pix = null;
+	    this.straddler = null;
+	}
+    }
+
+    private static CompiledTransform pixelMapping(WCS source, WCS target)
+      throws TransformationException {
+	Converter c = new Converter();
+	c.add(target.inverse());
+	c.add(source);
+	return c.compile();
+    }
+
+    /** Set the value used for target pixels with no data */
+    public void setBlank(double blank) {
+	this.blank = blank;
+    }
+
+    /** Get the value used for target pixels with no data */
+    public double getBlank() {
+	return blank;
+    }
+
+    /** Get the transformation from target to source pixel coordinates */
+    public Transformer getTransform() {
+	return pix2pix;
+    }
+
+    public void reproject(double[] src, double[] dst, Mode mode) {
+	run(Pixels.of(src), Pixels.of(dst), mode);
+    }
+
+    public void reproject(float[] src, float[] dst, Mode mode) {
+	run(Pixels.of(src), Pixels.of(dst), mode);
+    }
+
+    /** Reproject images held in buffers, which may be direct or mapped
+     *  from files.  The images start at the current buffer positions,
+     *  which are not changed.
+     */
+    public void reproject(DoubleBuffer src, DoubleBuffer dst, Mode mode) {
+	run(Pixels.of(src), Pixels.of(dst), mode);
+    }
+
+    public void reproject(FloatBuffer src, FloatBuffer dst, Mode mode) {
+	run(Pixels.of(src), Pixels.of(dst), mode);
+    }
+
+    private void run(Pixels src, Pixels dst, Mode mode) {
+	if (src.size() < (long) srcWidth*srcHeight) {
+	    throw new IllegalArgumentException("Source image too small");
+	}
+	if (dst.size() < (long) tgtWidth*tgtHeight) {
+	    throw new IllegalArgumentException("Target image too small");
+	}
+	int rows = Math.max(1, PIXELS_PER_TASK/tgtWidth);
+	pool.invoke(new Rows(src, dst, mode, blank, 0, tgtHeight, rows));
+    }
+
+    /** Resample a range of target rows */
+    private class Rows extends RecursiveAction {
+
+	static final long serialVersionUID = 1L;
+
+	private final Pixels src, dst;
+	private final Mode   mode;
+	private final double blank;
+	private final int    start, count, leaf;
+
+	Rows(Pixels src, Pixels dst, Mode mode, double blank, int start, int count, int leaf) {
+	    this.src   = src;
+	    this.dst   = dst;
+	    this.mode  = mode;
+	    this.blank = blank;
+	    this.start = start;
+	    this.count = count;
+	    this.leaf  = leaf;
+	}
+
+	protected void compute() {
+	    if (count > leaf) {
+		int half = count/2;
+		invokeAll(new Rows(src, dst, mode, blank, start, half, leaf),
+			  new Rows(src, dst, mode, blank, start+half, count-half, leaf));
+		return;
+	    }
+	    if (mode == Mode.FLUX) {
+		fluxRows();
+	    } else {
+		sampleRows();
+	    }
+	}
+
+	/** Sample the source at the target pixel centers */
+	private void sampleRows() {
+	    int w = tgtWidth;
+	    double[][] pos = new double[2][w];
+	    double[] wx = new double[2*Samplers.LANCZOS_A];
+	    for (int y=start; y<start+count; y += 1) {
+		for (int x=0; x<w; x += 1) {
+		    pos[0][x] = x + 0.5;
+		    pos[1][x] = y + 0.5;
+		}
+		pix2pix.transform(pos, 0, pos, 0, w);
+
+		int row = y*w;
+		for (int x=0; x<w; x += 1) {
+		    double v = Samplers.sample(mode, src, srcWidth, srcHeight, pos[0][x], pos[1][x], wx);
+		    dst.set(row+x, Double.isNaN(v) ? blank : v);
+		}
+	    }
+	}
+
+	/** Integrate the source over the target pixel footprints */
+	private void fluxRows() {
+	    if (straddler != null) {
+		straddleRows();
+		return;
+	    }
+	    int w = tgtWidth;
+	    double[][] lower = new double[2][w+1];
+	    double[][] upper = new double[2][w+1];
+	    Polygon poly = new Polygon();
+
+	    corners(start, lower);
+	    for (int y=start; y<start+count; y += 1) {
+		corners(y+1, upper);
+		int row = y*w;
+		for (int x=0; x<w; x += 1) {
+		    poly.set(lower[0][x], lower[1][x], lower[0][x+1], lower[1][x+1],
+			     upper[0][x+1], upper[1][x+1], upper[0][x], upper[1][x]);
+		    double v = flux(src, poly);
+		    dst.set(row+x, Double.isNaN(v) ? blank : v);
+		}
+		double[][] t = lower;
+		lower = upper;
+		upper = t;
+	    }
+	}
+
+	/** Integrate the source over the target pixel footprints, splitting
+	 *  footprints which straddle the boundary of the source projection.
+	 */
+	private void straddleRows() {
+	    int w = tgtWidth;
+	    double[][] planeLower = new double[2][w+1];
+	    double[][] planeUpper = new double[2][w+1];
+	    double[][] lower = new double[2][w+1];
+	    double[][] upper = new double[2][w+1];
+	    double[][] vertices = new double[2][4];
+	    Polygon poly = new Polygon();
+
+	    planeCorners(start, planeLower, lower);
+	    for (int y=start; y<start+count; y += 1) {
+		planeCorners(y+1, planeUpper, upper);
+		int row = y*w;
+		for (int x=0; x<w; x += 1) {
+		    vertices[0][0] = planeLower[0][x];
+		    vertices[1][0] = planeLower[1][x];
+		    vertices[0][1] = planeLower[0][x+1];
+		    vertices[1][1] = planeLower[1][x+1];
+		    vertices[0][2] = planeUpper[0][x+1];
+		    vertices[1][2] = planeUpper[1][x+1];
+		    vertices[0][3] = planeUpper[0][x];
+		    vertices[1][3] = planeUpper[1][x];
+		    double v;
+		    if (straddler.straddle(vertices)) {
+			v = straddleFlux(src, poly, straddler.straddleComponents(vertices));
+		    } else {
+			poly.set(lower[0][x], lower[1][x], lower[0][x+1], lower[1][x+1],
+				 upper[0][x+1], upper[1][x+1], upper[0][x], upper[1][x]);
+			v = flux(src, poly);
+		    }
+		    dst.set(row+x, Double.isNaN(v) ? blank : v);
+		}
+		double[][] t = lower;
+		lower = upper;
+		upper = t;
+		t = planeLower;
+		planeLower = planeUpper;
+		planeUpper = t;
+	    }
+	}
+
+	/** The source projection plane and pixel positions of the pixel
+	 *  corners along a row edge.
+	 */
+	private void planeCorners(int y, double[][] plane, double[][] pix) {
+	    int n = plane[0].length;
+	    for (int x=0; x<n; x += 1) {
+		plane[0][x] = x;
+		plane[1][x] = y;
+	    }
+	    tgt2plane.transform(plane, 0, plane, 0, n);
+	    plane2pix.transform(plane, 0, pix, 0, n);
+	}
+
+	/** The source positions of the pixel corners along a row edge */
+	private void corners(int y, double[][] pos) {
+	    int n = pos[0].length;
+	    for (int x=0; x<n; x += 1) {
+		pos[0][x] = x;
+		pos[1][x] = y;
+	    }
+	    pix2pix.transform(pos, 0, pos, 0, n);
+	}
+    }
+
+    /** The total flux of the pieces of a footprint which straddles
+     *  the boundary of the source projection.
+     *  @param pieces The pieces in the source projection plane,
+     *                as returned by straddleComponents.
+     */
+    private double straddleFlux(Pixels src, Polygon poly, double[][][] pieces) {
+	double[] p = new double[2];
+	double sum = 0;
+	boolean covered = false;
+	for (double[][] piece: pieces) {
+	    int n = piece[0].length;
+	    if (n < 3) {
+		continue;
+	    }
+	    poly.clear();
+	    for (int i=0; i<n; i += 1) {
+		p[0] = piece[0][i];
+		p[1] = piece[1][i];
+		plane2pix.transform(p, p);
+		poly.add(p[0], p[1]);
+	    }
+	    double v = flux(src, poly);
+	    if (!Double.isNaN(v)) {
+		sum += v;
+		covered = true;
+	    }
+	}
+	return covered ? sum : Double.NaN;
+    }
+
+    /** The sum of the source pixels weighted by the fraction of
+     *  each which lies within the polygon.
+     */
+    double flux(Pixels src, Polygon poly) {
+
+	double minX = poly.min(0);
+	double maxX = poly.max(0);
+	double minY = poly.min(1);
+	double maxY = poly.max(1);
+	if (Double.isNaN(minX + maxX + minY + maxY)) {
+	    return Double.NaN;
+	}
+	// A footprint which wraps around the source image has corners
+	// on both sides of it.
+	if (maxX - minX > 0.5*srcWidth || maxY - minY > 0.5*srcHeight) {
+	    return Double.NaN;
+	}
+	int x0 = Math.max(0, (int) Math.floor(minX));
+	int x1 = Math.min(srcWidth-1, (int) Math.floor(maxX));
+	int y0 = Math.max(0, (int) Math.floor(minY));
+	int y1 = Math.min(srcHeight-1, (int) Math.floor(maxY));
+	if (x0 > x1 || y0 > y1) {
+	    return Double.NaN;
+	}
+	if ((long) (x1-x0+1)*(y1-y0+1) > MAX_FOOTPRINT) {
+	    return Double.NaN;
+	}
+
+	double sum = 0;
+	boolean covered = false;
+	for (int iy=y0; iy<=y1; iy += 1) {
+	    for (int ix=x0; ix<=x1; ix += 1) {
+		double area = poly.clip(ix, iy, ix+1, iy+1);
+		if (area > 0) {
+		    double v = src.get(iy*srcWidth + ix);
+		    if (!Double.isNaN(v)) {
+			sum += area*v;
+			covered = true;
+		    }
+		}
+	    }
+	}
+	return covered ? sum : Double.NaN;
+    }
+
+    /** A polygon which is clipped against pixel boundaries
+     *  in turn.  The vertices given with set() or add() are kept, and
+     *  each clip starts again from them.  Each task uses its own Polygon.
+     */
+    static final class Polygon {
+
+	// The vertices as given.
+	private double[] vx = new double[8];
+	private double[] vy = new double[8];
+	private int nv;
+
+	// The clipped polygon and the work arrays for the next clip.
+	private double[] x = new double[64];
+	private double[] y = new double[64];
+	private double[] nx = new double[64];
+	private double[] ny = new double[64];
+	private int n;
+
+	void set(double ax, double ay, double bx, double by,
+		 double cx, double cy, double dx, double dy) {
+	    vx[0] = ax; vy[0] = ay;
+	    vx[1] = bx; vy[1] = by;
+	    vx[2] = cx; vy[2] = cy;
+	    vx[3] = dx; vy[3] = dy;
+	    nv = 4;
+	}
+
+	void clear() {
+	    nv = 0;
+	}
+
+	void add(double px, double py) {
+	    if (nv == vx.length) {
+		vx = java.util.Arrays.copyOf(vx, 2*nv);
+		vy = java.util.Arrays.copyOf(vy, 2*nv);
+	    }
+	    vx[nv] = px;
+	    vy[nv] = py;
+	    nv += 1;
+	}
+
+	/** The smallest value of a coordinate, NaN if any is NaN */
+	double min(int axis) {
+	    double[] c = axis == 0 ? vx : vy;
+	    double m = c[0];
+	    for (int i=1; i<nv; i += 1) {
+		m = Math.min(m, c[i]);
+	    }
+	    return m;
+	}
+
+	/** The largest value of a coordinate, NaN if any is NaN */
+	double max(int axis) {
+	    double[] c = axis == 0 ? vx : vy;
+	    double m = c[0];
+	    for (int i=1; i<nv; i += 1) {
+		m = Math.max(m, c[i]);
+	    }
+	    return m;
+	}
+
+	/** Clip to the rectangle and return the area of what remains */
+	double clip(double minX, double minY, double maxX, double maxY) {
+	    // Each of the four clips at most doubles the number of vertices.
+	    if (x.length < 16*nv) {
+		x  = new double[16*nv];
+		y  = new double[16*nv];
+		nx = new double[16*nv];
+		ny = new double[16*nv];
+	    }
+	    System.arraycopy(vx, 0, x, 0, nv);
+	    System.arraycopy(vy, 0, y, 0, nv);
+	    n = nv;
+	    clip(0,  1, minX);
+	    clip(0, -1, -maxX);
+	    clip(1,  1, minY);
+	    clip(1, -1, -maxY);
+	    if (n < 3) {
+		return 0;
+	    }
+	    double a = 0;
+	    for (int i=0, j=n-1; i<n; j = i, i += 1) {
+		a += x[j]*y[i] - x[i]*y[j];
+	    }
+	    return Math.abs(a)/2;
+	}
+
+	/** Keep the part of the polygon where sign*coordinate >= limit. */
+	private void clip(int axis, double sign, double limit) {
+	    if (n == 0) {
+		return;
+	    }
+	    int m = 0;
+	    for (int i=0, j=n-1; i<n; j = i, i += 1) {
+		double ci = sign*(axis == 0 ? x[i] : y[i]) - limit;
+		double cj = sign*(axis == 0 ? x[j] : y[j]) - limit;
+		if (ci >= 0) {
+		    if (cj < 0) {
+			m = cross(m, j, i, cj/(cj-ci));
+		    }
+		    nx[m] = x[i];
+		    ny[m] = y[i];
+		    m += 1;
+		} else if (cj >= 0) {
+		    m = cross(m, j, i, cj/(cj-ci));
+		}
+	    }
+	    double[] t = x; x = nx; nx = t;
+	    t = y; y = ny; ny = t;
+	    n = m;
+	}
+
+	private int cross(int m, int j, int i, double f) {
+	    nx[m] = x[j] + f*(x[i]-x[j]);
+	    ny[m] = y[j] + f*(y[i]-y[j]);
+	    return m+1;
+	}
+    }
+}
@@ -0,0 +1,88 @@
+package org.asterope.geometry.sampler;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/** Access to the pixels of an image held in an array or NIO buffer.
+ *  Pixels are stored by rows, so pixel (x,y) is at index y*width+x.
+ *  Buffers are read and written with absolute indices from the position
+ *  they had when they were wrapped, so several threads may use them at once
+ *  as long as they write different pixels.
+ *  <p>
+ *  This is a single final class which switches on the kind of storage,
+ *  rather than a subclass for each kind, so that the calls to get and set
+ *  in the sampling loops stay monomorphic and are inlined whatever mix of
+ *  image types a program uses.
+ */
+final class Pixels {
+
+    private static final int DOUBLES = 0, FLOATS = 1, DOUBLE_BUFFER = 2, FLOAT_BUFFER = 3;
+
+    private final int          kind;
+    private final int          size;
+    private final double[]     doubles;
+    private final float[]      floats;
+    private final DoubleBuffer doubleBuffer;
+    private final FloatBuffer  floatBuffer;
+
+    private Pixels(int kind, int size, double[] doubles, float[] floats,
+		   DoubleBuffer doubleBuffer, FloatBuffer floatBuffer) {
+	this.kind         = kind;
+	this.size         = size;
+	this.doubles      = doubles;
+	this.floats       = floats;
+	this.doubleBuffer = doubleBuffer;
+	this.floatBuffer  = floatBuffer;
+    }
+
+    static Pixels of(double[] data) {
+	return new Pixels(DOUBLES, data.length, data, null, null, null);
+    }
+
+    static Pixels of(float[] data) {
+	return new Pixels(FLOATS, data.length, null, data, null, null);
+    }
+
+    static Pixels of(DoubleBuffer buffer) {
+	DoubleBuffer data = buffer.slice();
+	return new Pixels(DOUBLE_BUFFER, data.remaining(), null, null, data, null);
+    }
+
+    static Pixels of(FloatBuffer buffer) {
+	FloatBuffer data = buffer.slice();
+	return new Pixels(FLOAT_BUFFER, data.remaining(), null, null, null, data);
+    }
+
+    int size() {
+	return size;
+    }
+
+    double get(int index) {
+	switch (kind) {
+	  case DOUBLES:
+	    return doubles[index];
+	  case FLOATS:
+	    return floats[index];
+	  case DOUBLE_BUFFER:
+	    return doubleBuffer.get(index);
+	  default:
+	    return floatBuffer.get(index);
+	}
+    }
+
+    void set(int index, double value) {
+	switch (kind) {
+	  case DOUBLES:
+	    doubles[index] = value;
+	    break;
+	  case FLOATS:
+	    floats[index] = (float) value;
+	    break;
+	  case DOUBLE_BUFFER:
+	    doubleBuffer.put(index, value);
+	    break;
+	  default:
+	    floatBuffer.put(index, (float) value);
+	}
+    }
+}
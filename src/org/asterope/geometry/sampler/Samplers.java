@@ -0,0 +1,121 @@
+package org.asterope.geometry.sampler;
+
+/** The point samplers shared by ImageReprojector and ToastPyramidBuilder.
+ *  Positions are in pixel coordinates of an image of width x height
+ *  pixels, where pixel x covers x to x+1.  Positions off the image give NaN.
+ */
+final class Samplers {
+
+    /** The half width of the Lanczos kernel */
+    static final int LANCZOS_A = 3;
+
+    private Samplers() {
+    }
+
+    /** Sample an image with one of the point modes.
+     *  @param wx Work space for lanczos.
+     */
+    static double sample(ImageReprojector.Mode mode, Pixels src, int width, int height,
+			 double px, double py, double[] wx) {
+	switch (mode) {
+	  case NEAREST:
+	    return nearest(src, width, height, px, py);
+	  case BILINEAR:
+	    return bilinear(src, width, height, px, py);
+	  case LANCZOS:
+	    return lanczos(src, width, height, px, py, wx);
+	  default:
+	    throw new IllegalArgumentException("Not a point sampling mode:"+mode);
+	}
+    }
+
+    /** The source pixel containing the position */
+    static double nearest(Pixels src, int width, int height, double px, double py) {
+	if (!(px >= 0 && px < width && py >= 0 && py < height)) {
+	    return Double.NaN;
+	}
+	return src.get((int) py * width + (int) px);
+    }
+
+    /** Bilinear interpolation between the four nearest pixel centers */
+    static double bilinear(Pixels src, int width, int height, double px, double py) {
+	if (!(px >= 0 && px <= width && py >= 0 && py <= height)) {
+	    return Double.NaN;
+	}
+	double fx = px - 0.5;
+	double fy = py - 0.5;
+	int x0 = (int) Math.floor(fx);
+	int y0 = (int) Math.floor(fy);
+	double tx = fx - x0;
+	double ty = fy - y0;
+
+	// Clamp to the edge pixels in the outer half pixel.
+	int xa = Math.max(x0, 0);
+	int xb = Math.min(x0+1, width-1);
+	int ya = Math.max(y0, 0);
+	int yb = Math.min(y0+1, height-1);
+
+	double v00 = src.get(ya*width + xa);
+	double v10 = src.get(ya*width + xb);
+	double v01 = src.get(yb*width + xa);
+	double v11 = src.get(yb*width + xb);
+	return (1-ty)*((1-tx)*v00 + tx*v10) + ty*((1-tx)*v01 + tx*v11);
+    }
+
+    static double lanczosKernel(double x) {
+	if (x == 0) {
+	    return 1;
+	}
+	if (x <= -LANCZOS_A || x >= LANCZOS_A) {
+	    return 0;
+	}
+	double px = Math.PI * x;
+	return LANCZOS_A * Math.sin(px) * Math.sin(px/LANCZOS_A) / (px*px);
+    }
+
+    /** Lanczos interpolation.  The wx array holds the weights for
+     *  the columns and must have 2*LANCZOS_A elements.
+     */
+    static double lanczos(Pixels src, int width, int height, double px, double py, double[] wx) {
+	if (!(px >= 0 && px <= width && py >= 0 && py <= height)) {
+	    return Double.NaN;
+	}
+	double fx = px - 0.5;
+	double fy = py - 0.5;
+	int x0 = (int) Math.floor(fx);
+	int y0 = (int) Math.floor(fy);
+
+	for (int i=0; i<wx.length; i += 1) {
+	    wx[i] = lanczosKernel(fx - (x0 - LANCZOS_A + 1 + i));
+	}
+
+	// Pixels off the image or blank are left out and the
+	// remaining weights renormalized.
+	double sum  = 0;
+	double wsum = 0;
+	for (int j=0; j<2*LANCZOS_A; j += 1) {
+	    int iy = y0 - LANCZOS_A + 1 + j;
+	    if (iy < 0 || iy >= height) {
+		continue;
+	    }
+	    double wy = lanczosKernel(fy - iy);
+	    if (wy == 0) {
+		continue;
+	    }
+	    for (int i=0; i<2*LANCZOS_A; i += 1) {
+		int ix = x0 - LANCZOS_A + 1 + i;
+		if (ix < 0 || ix >= width) {
+		    continue;
+		}
+		double v = src.get(iy*width + ix);
+		if (Double.isNaN(v)) {
+		    continue;
+		}
+		double wt = wx[i]*wy;
+		sum  += wt*v;
+		wsum += wt;
+	    }
+	}
+	return wsum == 0 ? Double.NaN : sum/wsum;
+    }
+}
@@ -0,0 +1,317 @@
+package org.asterope.geometry.sampler;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+import org.asterope.geometry.Converter;
+import org.asterope.geometry.TransformationException;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.WCS;
+import org.asterope.geometry.projecter.HpxIndex;
+import org.asterope.geometry.projecter.Toa;
+
+/** Build every tile of a TOAST pyramid from an all-sky source.
+ *  Tiles are numbered as in Toa.tile, with tile 0,0 at the top left
+ *  and 4^level tiles at each level.  Each tile is an image of
+ *  tileSize x tileSize pixels, sampled at the pixel centers, which are
+ *  the odd nodes of the Toa grid of the tile with 2*tileSize cells a side.
+ *  Pixel (x,y) of a tile is at index y*tileSize+x with row 0 at the top.
+ *  <p>
+ *  The grid of each tile is computed from the grid of its parent with
+ *  Toa.subgrid, so only the new nodes are found at each level.
+ *  The tiles below each tile are built as separate tasks in a
+ *  ForkJoinPool.  Each task keeps the grid of its parent, about
+ *  24*(2*tileSize+1)^2 bytes, so a thread needs about that much
+ *  memory for each level of the pyramid.
+ */
+public final class ToastPyramidBuilder {
+
+    /** The values of an all-sky map at given positions */
+    public interface Source {
+	/** Find the values at a set of positions.
+	 *  @param unit   The unit vectors, as unit[3][len].
+	 *  @param len    The number of positions.
+	 *  @param values Filled with the values, NaN where there is no data.
+	 */
+	void sample(double[][] unit, int len, double[] values);
+    }
+
+    /** Where finished tiles go.  Tiles are written from several
+     *  threads at once.
+     */
+    public interface Sink {
+	/** Write a tile.  The pixel array is not used after the call returns. */
+	void write(int level, int ix, int iy, float[] pixels, int tileSize) throws IOException;
+    }
+
+    /** The usual TOAST tile size */
+    public static final int TILE_SIZE = 256;
+
+    private final Source source;
+    private final Sink   sink;
+    private final int    maxLevel;
+    private final int    tileSize;
+    private final int    subdiv;
+    private final ForkJoinPool pool;
+
+    private final Toa toa = new Toa();
+
+    /** Create a builder for 256x256 pixel tiles using the common pool.
+     *  @param source   The map to be sampled.
+     *  @param sink     Where the tiles are written.
+     *  @param maxLevel The deepest level built.
+     */
+    public ToastPyramidBuilder(Source source, Sink sink, int maxLevel) {
+	this(source, sink, maxLevel, TILE_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /** Create a builder.
+     *  @param tileSize The width of the tiles in pixels, a power of 2.
+     */
+    public ToastPyramidBuilder(Source source, Sink sink, int maxLevel, int tileSize, ForkJoinPool pool) {
+	if (maxLevel < 0 || maxLevel > 24) {
+	    throw new IllegalArgumentException("Invalid TOAST level:"+maxLevel);
+	}
+	if (tileSize < 1 || tileSize > 2048 || (tileSize & (tileSize-1)) != 0) {
+	    throw new IllegalArgumentException("Invalid tile size:"+tileSize);
+	}
+	this.source   = source;
+	this.sink     = sink;
+	this.maxLevel = maxLevel;
+	this.tileSize = tileSize;
+	this.subdiv   = Integer.numberOfTrailingZeros(tileSize) + 1;
+	this.pool     = pool;
+    }
+
+    /** Build and write all of the tiles.
+     *  @throws IOException if the sink could not write a tile.
+     *          The other tiles may or may not have been written.
+     */
+    public void build() throws IOException {
+	try {
+	    pool.invoke(new Tile(null, 0, 0, 0));
+	} catch (TileException e) {
+	    throw e.getCause();
+	}
+    }
+
+    /** Sample a single tile, e.g., to rebuild it.
+     *  @return The pixels of the tile.
+     */
+    public float[] tile(int level, int ix, int iy) {
+	float[] pixels = new float[tileSize*tileSize];
+	sample(toa.grid(level, ix, iy, subdiv), pixels, new double[3][tileSize*tileSize], new double[tileSize*tileSize]);
+	return pixels;
+    }
+
+    /** Sample the source at the pixel centers of a tile */
+    private void sample(double[] grid, float[] pixels, double[][] unit, double[] values) {
+
+	int m = 2*tileSize + 1;
+	int k = 0;
+	for (int y=0; y<tileSize; y += 1) {
+	    // The grid nodes are counted from the bottom of the tile.
+	    int s = 2*(tileSize-1-y) + 1;
+	    for (int x=0; x<tileSize; x += 1) {
+		int g = 3*((2*x+1)*m + s);
+		unit[0][k] = grid[g];
+		unit[1][k] = grid[g+1];
+		unit[2][k] = grid[g+2];
+		k += 1;
+	    }
+	}
+	source.sample(unit, k, values);
+	for (int i=0; i<k; i += 1) {
+	    pixels[i] = (float) values[i];
+	}
+    }
+
+    /** Build a tile and the tiles below it */
+    private class Tile extends RecursiveAction {
+
+	static final long serialVersionUID = 1L;
+
+	private final double[] parent;
+	private final int level, ix, iy;
+
+	Tile(double[] parent, int level, int ix, int iy) {
+	    this.parent = parent;
+	    this.level  = level;
+	    this.ix     = ix;
+	    this.iy     = iy;
+	}
+
+	protected void compute() {
+
+	    double[] grid;
+	    if (parent == null) {
+		grid = toa.grid(level, ix, iy, subdiv);
+	    } else {
+		grid = new double[parent.length];
+		toa.subgrid(parent, level, ix, iy, subdiv, grid);
+	    }
+
+	    int n = tileSize*tileSize;
+	    float[] pixels = new float[n];
+	    sample(grid, pixels, new double[3][n], new double[n]);
+	    try {
+		sink.write(level, ix, iy, pixels, tileSize);
+	    } catch (IOException e) {
+		throw new TileException(e);
+	    }
+
+	    if (level < maxLevel) {
+		int l = level+1;
+		invokeAll(new Tile(grid, l, 2*ix,   2*iy),
+			  new Tile(grid, l, 2*ix+1, 2*iy),
+			  new Tile(grid, l, 2*ix,   2*iy+1),
+			  new Tile(grid, l, 2*ix+1, 2*iy+1));
+	    }
+	}
+    }
+
+    /** Carries a sink failure out of the pool */
+    private static class TileException extends RuntimeException {
+
+	static final long serialVersionUID = 1L;
+
+	TileException(IOException e) {
+	    super(e);
+	}
+	public IOException getCause() {
+	    return (IOException) super.getCause();
+	}
+    }
+
+    /** Sample an image with a WCS.  The unit vectors are in the J2000
+     *  frame used by WCS.  Positions off the image give NaN.
+     *  @param mode How the image is sampled.  FLUX is not supported.
+     */
+    public static Source image(WCS wcs, double[] pixels, int width, int height,
+			       ImageReprojector.Mode mode) throws TransformationException {
+	return image(wcs, Pixels.of(pixels), width, height, mode);
+    }
+
+    /** Sample a single precision image with a WCS */
+    public static Source image(WCS wcs, float[] pixels, int width, int height,
+			       ImageReprojector.Mode mode) throws TransformationException {
+	return image(wcs, Pixels.of(pixels), width, height, mode);
+    }
+
+    private static Source image(WCS wcs, final Pixels src, final int width, final int height,
+				final ImageReprojector.Mode mode) throws TransformationException {
+
+	if (mode == ImageReprojector.Mode.FLUX) {
+	    throw new IllegalArgumentException("Flux sampling is not supported for TOAST tiles");
+	}
+	if (src.size() < (long) width*height) {
+	    throw new IllegalArgumentException("Source image too small");
+	}
+	Converter c = new Converter();
+	c.add(wcs);
+	final Transformer sky2pix = c.compile();
+
+	return new Source() {
+	    public void sample(double[][] unit, int len, double[] values) {
+		double[][] pix = new double[2][len];
+		double[] wx = new double[2*Samplers.LANCZOS_A];
+		sky2pix.transform(unit, 0, pix, 0, len);
+		for (int i=0; i<len; i += 1) {
+		    values[i] = Samplers.sample(mode, src, width, height, pix[0][i], pix[1][i], wx);
+		}
+	    }
+	};
+    }
+
+    /** Sample a HEALPix map.  The map is taken to be in the same
+     *  frame as the unit vectors given to the source, and each position
+     *  takes the value of the HEALPix pixel it falls in.
+     *  @param map    The map, with 12*4^order pixels.
+     *  @param order  The HEALPix order of the map.
+     *  @param scheme How the pixels of the map are numbered.
+     */
+    public static Source healpix(double[] map, int order, HpxIndex.Scheme scheme) {
+	return healpix(Pixels.of(map), order, scheme);
+    }
+
+    /** Sample a single precision HEALPix map */
+    public static Source healpix(float[] map, int order, HpxIndex.Scheme scheme) {
+	return healpix(Pixels.of(map), order, scheme);
+    }
+
+    private static Source healpix(final Pixels map, int order, HpxIndex.Scheme scheme) {
+
+	final HpxIndex index = new HpxIndex(order, scheme);
+	if (map.size() != index.getNpix()) {
+	    throw new IllegalArgumentException("HEALPix map of order "+order+" needs "+
+					       index.getNpix()+" pixels, not "+map.size());
+	}
+
+	return new Source() {
+	    public void sample(double[][] unit, int len, double[] values) {
+		long[] pix = new long[len];
+		index.vec2pix(unit, 0, pix, 0, len);
+		for (int i=0; i<len; i += 1) {
+		    values[i] = pix[i] < 0 ? Double.NaN : map.get((int) pix[i]);
+		}
+	    }
+	};
+    }
+
+    /** Write each tile as big-endian 32 bit floats, by rows from the top,
+     *  to dir/level/iy/iy_ix.raw.
+     */
+    public static Sink rawFiles(final File dir) {
+	return new Sink() {
+	    public void write(int level, int ix, int iy, float[] pixels, int tileSize) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+		  new FileOutputStream(file(dir, level, ix, iy, "raw"))));
+		try {
+		    for (int i=0; i<tileSize*tileSize; i += 1) {
+			out.writeFloat(pixels[i]);
+		    }
+		} finally {
+		    out.close();
+		}
+	    }
+	};
+    }
+
+    /** Write each tile as an 8 bit grey scale PNG to dir/level/iy/iy_ix.png.
+     *  Values are scaled linearly from min (black) to max (white) and
+     *  NaNs are black.
+     */
+    public static Sink pngFiles(final File dir, final double min, final double max) {
+	return new Sink() {
+	    public void write(int level, int ix, int iy, float[] pixels, int tileSize) throws IOException {
+		BufferedImage img = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+		double scale = 255/(max-min);
+		for (int i=0; i<tileSize*tileSize; i += 1) {
+		    double v = (pixels[i]-min)*scale;
+		    data[i] = (byte) (v > 255 ? 255 : v >= 0 ? (int) (v+0.5) : 0);
+		}
+		if (!ImageIO.write(img, "png", file(dir, level, ix, iy, "png"))) {
+		    throw new IOException("No PNG writer available");
+		}
+	    }
+	};
+    }
+
+    private static File file(File dir, int level, int ix, int iy, String ext) throws IOException {
+	File d = new File(new File(dir, Integer.toString(level)), Integer.toString(iy));
+	if (!d.isDirectory() && !d.mkdirs() && !d.isDirectory()) {
+	    throw new IOException("Unable to create directory "+d);
+	}
+	return new File(d, iy+"_"+ix+"."+ext);
+    }
+}
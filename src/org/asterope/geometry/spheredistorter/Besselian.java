@@ -7,163 +7,198 @@ import static java.lang.Math.sqrt;
 
 
 /** This class implements the distortion of Besselian coordinate systems.
+ *  <p>
+ *  The constants are held in static fields and the intermediate values
+ *  in local variables, so a single instance may be used by several
+ *  threads and no objects are created during transformations.
+ *  The arithmetic is done in the same order as in the original
+ *  loops so the results are unchanged.
  */
 public class Besselian extends org.asterope.geometry.SphereDistorter {
 
     private static final double D2PI = 6.2831853071795864769252867665590057683943387987502;
     private static final double pmf  = 100.0 * 60 * 60 * 360 / D2PI;
-      
+
+    /** The E-terms vector a */
+    private static final double A0 = -1.62557E-6, A1 = -0.31919E-6, A2 = -0.13843E-6;
+
+    /** The FK5 to FK4 matrix, emi */
+    private static final double
+      EMI00 =  0.9999256795, EMI01 =  0.0111814828, EMI02 =  0.0048590039,
+      EMI10 = -0.0111814828, EMI11 =  0.9999374849, EMI12 = -0.0000271771,
+      EMI20 = -0.0048590040, EMI21 = -0.0000271557, EMI22 =  0.9999881946;
+
+    /** The position part of the FK4 to FK5 matrix, em1 */
+    private static final double
+      EM100 =  0.9999256782, EM101 = -0.0111820611, EM102 = -0.0048579477,
+      EM110 =  0.0111820610, EM111 =  0.9999374784, EM112 = -0.0000271765,
+      EM120 =  0.0048579479, EM121 = -0.0000271474, EM122 =  0.9999881997;
+
+    /** The velocity part of the FK4 to FK5 matrix, em2 */
+    private static final double
+      EM200 = -0.000551, EM201 = -0.238565, EM202 =  0.435739,
+      EM210 =  0.238514, EM211 = -0.002667, EM212 = -0.008541,
+      EM220 = -0.435623, EM221 =  0.012254, EM222 =  0.002117;
+
+    /** -50 years since this is from 1950-2000 */
+    private static final double TDELTA = -50/pmf;
+
+    private final BesselianInverse inverse = new BesselianInverse();
+
     /** Get the inverse distorter */
     public SphereDistorter inverse() {
-	return new Besselian.BesselianInverse();
+	return inverse;
     }
-    
+
     /** Is the the inverse of another transformation */
     public boolean isInverse(Transformer t) {
 	return t instanceof BesselianInverse;
     }
-    
-    
-    
-    /** These two work arrays mean that this class is not
-     *  thread safe.  If multiple threads are to be used each thread
-     *  needs its own coordinate system object.
-     */
-    private double[] v  = new double[3];
-    private double[] t1 = new double[3];
-    
+
+
+
     public String getName() {
 	return "Besselian distorter";
     }
-    
+
     public String getDescription() {
 	return "A Besselian (FK4 based) distortion.  Dynamic terms are not included.";
     }
-    
+
 
     public final void transform(double[] x, double[] y) {
+	toFK4(x[0], x[1], x[2], y, 0, y, 1, y, 2);
+    }
 
-        double[] a = new double[] { -1.62557E-6,   -0.31919E-6, -0.13843E-6};
- 
-        double[][] emi = new double[][] {
-          { 0.9999256795,      0.0111814828,       0.0048590039},
-          {-0.0111814828,      0.9999374849,      -0.0000271771},
-          {-0.0048590040,     -0.0000271557,       0.9999881946}};
+    /** Transform a block of points. */
+    public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	final double[] x = in[0],  y = in[1],  z = in[2];
+	final double[] u = out[0], v = out[1], w = out[2];
+
+	for (int i=0; i<len; i += 1) {
+	    toFK4(x[inOff+i], y[inOff+i], z[inOff+i], u, outOff+i, v, outOff+i, w, outOff+i);
+	}
+    }
+
+    /** Convert a J2000 unit vector to B1950 and store
+     *  the components in the given array elements.
+     */
+    private static void toFK4(double x, double y, double z,
+			      double[] u, int iu, double[] v, int iv, double[] w, int iw) {
 
         //  Convert position+velocity vector to BN system */
-        for (int i=0; i<3; i += 1) {
-	    t1[i] = x[0]*emi[i][0] + x[1]*emi[i][1]+x[2]*emi[i][2];
-        }
+	double y0 = x*EMI00 + y*EMI01 + z*EMI02;
+	double y1 = x*EMI10 + y*EMI11 + z*EMI12;
+	double y2 = x*EMI20 + y*EMI21 + z*EMI22;
 
-        System.arraycopy(t1, 0, y, 0, 3);
-    
-        double rxyz = sqrt (y[0]*y[0] + y[1]*y[1] + y[2]*y[2]);
+	double rxyz = sqrt (y0*y0 + y1*y1 + y2*y2);
 
         //  Include e-terms */
-        double w = 0;
-        for (int i=0; i<3; i += 1) {
-	    w += a[i]*y[i];
-        }
-    
-    
-        for (int i=0; i<3; i += 1) {
-            t1[i]  = (1-w)*y[i] + a[i]*rxyz;
-        }
-   
+	double e = 0;
+	e += A0*y0;
+	e += A1*y1;
+	e += A2*y2;
+
+	double t0 = (1-e)*y0 + A0*rxyz;
+	double t1 = (1-e)*y1 + A1*rxyz;
+	double t2 = (1-e)*y2 + A2*rxyz;
+
         //  Recompute magnitude */
-        rxyz =  sqrt (t1[0]*t1[0] + t1[1]*t1[1] + t1[2]*t1[2]);
+	rxyz =  sqrt (t0*t0 + t1*t1 + t2*t2);
 
-        //  Apply E-terms to both position and velocity */
-        for (int i=0; i<3; i += 1) {
-	    w += a[i]*y[i];
-        }
-        for (int i=0; i<3; i += 1) {
-            y[i]  = (1-w)*y[i] + a[i]*rxyz; 
-        }
+	//  Apply E-terms to both position and velocity.
+	//  The weight is accumulated a second time, as it always has been.
+	e += A0*y0;
+	e += A1*y1;
+	e += A2*y2;
+
+	y0 = (1-e)*y0 + A0*rxyz;
+	y1 = (1-e)*y1 + A1*rxyz;
+	y2 = (1-e)*y2 + A2*rxyz;
 
         // Make sure we output a unit vector!
-        rxyz = sqrt (y[0]*y[0] + y[1]*y[1] + y[2]*y[2]);
-    
-        for (int i=0; i<3; i += 1) {
-            y[i]  /= rxyz;
-        }
+	rxyz = sqrt (y0*y0 + y1*y1 + y2*y2);
+
+	u[iu] = y0/rxyz;
+	v[iv] = y1/rxyz;
+	w[iw] = y2/rxyz;
     }
-    
+
+    /** Convert a B1950 unit vector to J2000 for epoch 1950 and store
+     *  the components in the given array elements.
+     */
+    private static void toFK5(double x, double y, double z,
+			      double[] u, int iu, double[] v, int iv, double[] w, int iw) {
+
+	//  Remove e-terms
+	double e = 0;
+	e += A0*x;
+	e += A1*y;
+	e += A2*z;
+
+	double y0 = x - A0-e*x;
+	double y1 = y - A1-e*y;
+	double y2 = z - A2-e*z;
+
+	double t0 = y0*EM100 + y1*EM101 + y2*EM102;
+	double t1 = y0*EM110 + y1*EM111 + y2*EM112;
+	double t2 = y0*EM120 + y1*EM121 + y2*EM122;
+
+	double v0 = y0*EM200 + y1*EM201 + y2*EM202;
+	double v1 = y0*EM210 + y1*EM211 + y2*EM212;
+	double v2 = y0*EM220 + y1*EM221 + y2*EM222;
+
+	t0 += TDELTA*v0;
+	t1 += TDELTA*v1;
+	t2 += TDELTA*v2;
+
+	// Make sure we output a unit vector.
+	double rxyz = Math.sqrt (t0*t0 + t1*t1 + t2*t2);
+
+	u[iu] = t0/rxyz;
+	v[iv] = t1/rxyz;
+	w[iw] = t2/rxyz;
+    }
+
     /** This inner class defines the inverse distortion
      *  to the enclosing Besselian distorter.
      */
     public class BesselianInverse extends org.asterope.geometry.SphereDistorter {
-	
+
 	public String getName() {
 	    return "Inv. "+Besselian.this.getName();
 	}
-	
+
 	public SphereDistorter inverse() {
 	    return Besselian.this;
 	}
-	
+
         /** Is the the inverse of another transformation */
         public boolean isInverse(Transformer t) {
 	    return t instanceof Besselian;
         }
-	
+
 	public String getDescription() {
 	    return Besselian.this.getDescription()+ " (inverse)";
 	}
-	
+
         /**
          * Convert coordinates from B1950 to J2000 for epoch 1950.
          */
         public final void transform(double[] x, double[] y) {
-    
-            //  Canonical constants
-            //  vectors a and adot, and matrix m (only half of which is needed here) */
-
-            double[]   a  = new double[]{ -1.62557E-6,  -0.31919E-6, -0.13843E-6 };
-   
-            double[][] em1 = new double[][] {
-              {0.9999256782, -0.0111820611, -0.0048579477},
-              {0.0111820610,  0.9999374784, -0.0000271765},
-              {0.0048579479, -0.0000271474,  0.9999881997}};
-            double[][] em2 = new double[][] {
-              {-0.000551,     -0.238565,      0.435739},
-              { 0.238514,     -0.002667,     -0.008541},
-              {-0.435623,      0.012254,      0.002117}};
-
-
-            double w = 0;
-      
-            for (int i=0; i<3; i += 1) {
-                //  Remove e-terms
-                w  += a[i]*x[i];
-            }
-   
-            for (int i=0; i<3; i += 1) {
-                t1[i] = x[i] - a[i]-w*x[i];
-            }
-
-            System.arraycopy(t1, 0, y, 0, 3);
-    
-    
-            for (int i=0; i<3; i += 1) {
-                t1[i] = y[0]*em1[i][0] + y[1]*em1[i][1] + y[2]*em1[i][2];
-	        v[i]  = y[0]*em2[i][0] + y[1]*em2[i][1] + y[2]*em2[i][2];
-            }
-            System.arraycopy(t1, 0, y, 0, 3);
-
-            // -50 since this is from 1950-2000
-            double tdelta = -50/pmf;
-
-            for (int i=0; i < 3; i += 1) {
-	        y[i] += tdelta*v[i];
-            }
-    
-            // Make sure we output a unit vector.
-            double rxyz = Math.sqrt (y[0]*y[0] + y[1]*y[1] + y[2]*y[2]);
-    
-            for (int i=0; i<3; i += 1) {
-                y[i]  /= rxyz;
-            }
+	    toFK5(x[0], x[1], x[2], y, 0, y, 1, y, 2);
         }
+
+	/** Transform a block of points. */
+	public void transform(double[][] in, int inOff, double[][] out, int outOff, int len) {
+
+	    final double[] x = in[0],  y = in[1],  z = in[2];
+	    final double[] u = out[0], v = out[1], w = out[2];
+
+	    for (int i=0; i<len; i += 1) {
+		toFK5(x[inOff+i], y[inOff+i], z[inOff+i], u, outOff+i, v, outOff+i, w, outOff+i);
+	    }
+	}
     }
 }
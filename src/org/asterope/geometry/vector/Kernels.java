@@ -0,0 +1,57 @@
+package org.asterope.geometry.vector;
+
+/** Block kernels for the simplest transformations.  Each kernel
+ *  handles as many points as fit in whole vectors, starting at the first,
+ *  and returns the number of points done.  The caller must deal with
+ *  the remaining points itself.
+ *  <p>
+ *  The kernels give exactly the same results as the scalar code:
+ *  they use only addition, multiplication, division and square roots.
+ *  Arrays are in the [dimension][point] layout used by the block
+ *  transforms and the offsets are as in Transformer.transform.
+ */
+public interface Kernels {
+
+    /** The number of points handled per vector */
+    int lanes();
+
+    /** Multiply by a 3x3 matrix. */
+    int rotate(double m00, double m01, double m02,
+	       double m10, double m11, double m12,
+	       double m20, double m21, double m22,
+	       double[] x, double[] y, double[] z, int inOff,
+	       double[] u, double[] v, double[] w, int outOff, int len);
+
+    /** Apply a 2-d affine transformation. */
+    int scale(double x0, double y0, double a00, double a01, double a10, double a11,
+	      double[] x, double[] y, int inOff,
+	      double[] u, double[] v, int outOff, int len);
+
+    /** Gnomonic projection (Tan). */
+    int tan(double[] x, double[] y, double[] z, int inOff,
+	    double[] u, double[] v, int outOff, int len);
+
+    /** Orthographic projection (Sin). */
+    int sin(double[] x, double[] y, double[] z, int inOff,
+	    double[] u, double[] v, int outOff, int len);
+
+    /** Stereographic projection (Stg). */
+    int stg(double[] x, double[] y, double[] z, int inOff,
+	    double[] u, double[] v, int outOff, int len);
+
+    /** Zenithal equal area projection (Zea). */
+    int zea(double[] x, double[] y, double[] z, int inOff,
+	    double[] u, double[] v, int outOff, int len);
+
+    /** Gnomonic deprojection. */
+    int tanDeproj(double[] x, double[] y, int inOff,
+		  double[] u, double[] v, double[] w, int outOff, int len);
+
+    /** Orthographic deprojection. */
+    int sinDeproj(double[] x, double[] y, int inOff,
+		  double[] u, double[] v, double[] w, int outOff, int len);
+
+    /** Zenithal equal area deprojection. */
+    int zeaDeproj(double[] x, double[] y, int inOff,
+		  double[] u, double[] v, double[] w, int outOff, int len);
+}
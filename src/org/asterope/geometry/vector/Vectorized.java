@@ -0,0 +1,42 @@
+package org.asterope.geometry.vector;
+
+/** Access to the SIMD kernels.  These are built on the incubating
+ *  jdk.incubator.vector module, so VectorKernels lives in the separate
+ *  vector source root and is found here by name.  It must be compiled
+ *  and run with --add-modules jdk.incubator.vector.  If the class or the
+ *  module is not present, or the property org.asterope.geometry.vector
+ *  is set to false, KERNELS is null and the transformers use their
+ *  scalar loops.
+ */
+public final class Vectorized {
+
+    /** The kernels, or null if vectors are not available. */
+    public static final Kernels KERNELS = load();
+
+    private Vectorized() {
+    }
+
+    /** Are the vector kernels being used? */
+    public static boolean isAvailable() {
+	return KERNELS != null;
+    }
+
+    private static Kernels load() {
+
+	if ("false".equals(System.getProperty("org.asterope.geometry.vector"))) {
+	    return null;
+	}
+	try {
+	    Class.forName("jdk.incubator.vector.DoubleVector");
+	    Kernels k = (Kernels) Class.forName("org.asterope.geometry.vector.VectorKernels")
+	      .getDeclaredConstructor().newInstance();
+	    // Nothing to gain without at least two lanes.
+	    return k.lanes() > 1 ? k : null;
+
+	} catch (Exception e) {
+	    return null;
+	} catch (LinkageError e) {
+	    return null;
+	}
+    }
+}
@@ -0,0 +1,293 @@
+package org.asterope.geometry;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the round trip error and speed of the projections and of
+ * full WCS chains.  Points on the sphere are sent forward and back and
+ * the angle between the original and final vectors is recorded.  The
+ * sample sets cover the whole sphere uniformly and concentrate on the
+ * places where projections tend to break down: the poles, the seams at
+ * longitude 0 and 180 and the edges of the faces of the octahedral and
+ * HEALPix projections.
+ * <p>
+ * Each case has a declared budget in arcseconds; AccuracyTest checks
+ * that the budgets are met.  The report may be written as CSV or JSON:
+ * <pre>
+ *   java org.asterope.geometry.AccuracyHarness [csv|json] [points]
+ * </pre>
+ */
+public class AccuracyHarness {
+
+    static final double R2AS = 180 * 3600 / Math.PI;
+    static final double D2R = Math.PI / 180;
+
+    /** The sample sets */
+    static final String[] SAMPLES = {"uniform", "pole", "seam", "edge"};
+
+    /** The round trip budget for a case: the largest error in
+     *  arcseconds and the fraction of accepted points which may be
+     *  lost (NaN) on the way back.
+     */
+    static class Budget {
+	final double arcsec;
+	final double lost;
+	Budget(double arcsec, double lost) {
+	    this.arcsec = arcsec;
+	    this.lost = lost;
+	}
+    }
+
+    /** The budget for cases which are not listed: 10 microarcseconds. */
+    static final Budget DEFAULT_BUDGET = new Budget(1e-5, 0);
+
+    /** Budgets keyed by case, or by case:sample. */
+    private static final Map<String, Budget> budgets = new HashMap<String, Budget>();
+    static {
+	// Within 1e-8 degrees of the pole 1-z underflows and the projections
+	// which work from z lose half the digits.
+	for (String p : new String[]{"Arc", "Stg", "Car", "Hpx", "Tea"}) {
+	    budgets.put(p + ":pole", new Budget(0.01, 0));
+	}
+	// The antipode of the projection centre is on the boundary.
+	budgets.put("Arc:pole", new Budget(0.01, 0.1));
+	budgets.put("Zea:pole", new Budget(0.03, 0.1));
+	// The limb of the orthographic projection.
+	budgets.put("Sin:edge", new Budget(0.005, 0));
+	// Hammer-Aitoff is singular at the poles and the 180 degree seam.
+	budgets.put("Ait:pole", new Budget(15, 0.6));
+	budgets.put("Ait:seam", new Budget(0.02, 0.2));
+	budgets.put("Ait:edge", new Budget(0.02, 0.01));
+	// The seam and edge samples cross the rim of the rotated ellipse.
+	budgets.put("WCS Ait:seam", new Budget(5, 0));
+	budgets.put("WCS Ait:edge", new Budget(5, 0));
+	// The COBE quadrilateralized sphere uses approximate polynomials.
+	budgets.put("Csc", new Budget(120, 0));
+	budgets.put("WCS Csc", new Budget(120, 0));
+	// TOAST deprojection stops subdividing at a fixed triangle size.
+	budgets.put("Toa", new Budget(3, 0));
+	budgets.put("WCS Toa", new Budget(0.5, 0));
+    }
+
+    /** The budget for a case and sample set */
+    static Budget budget(String name, String sample) {
+	Budget b = budgets.get(name + ":" + sample);
+	if (b == null) {
+	    b = budgets.get(name);
+	}
+	return b == null ? DEFAULT_BUDGET : b;
+    }
+
+    /** The result for one case and sample set */
+    static class Result {
+	String name;
+	String sample;
+	int    points;
+	/** Points which the forward transform rejects (NaN) */
+	int    rejected;
+	/** Points accepted by the forward transform but lost on the way back */
+	int    lost;
+	double maxError;
+	double rmsError;
+	double forwardNs;
+	double inverseNs;
+	Budget budget;
+
+	boolean withinBudget() {
+	    return maxError <= budget.arcsec && lost <= budget.lost * (points - rejected);
+	}
+    }
+
+    private final int n;
+
+    public AccuracyHarness(int n) {
+	this.n = n;
+    }
+
+    /** Generate the sample points of a set. */
+    double[][] sample(String kind) {
+	Random r = new Random(kind.hashCode());
+	double[][] v = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double lon, lat;
+	    if (kind.equals("uniform")) {
+		lon = 2 * Math.PI * r.nextDouble();
+		lat = Math.asin(2 * r.nextDouble() - 1);
+	    } else if (kind.equals("pole")) {
+		// Within a degree of either pole, logarithmically spaced.
+		lon = 2 * Math.PI * r.nextDouble();
+		double d = D2R * Math.pow(10, -8 * r.nextDouble());
+		lat = (i % 2 == 0 ? 1 : -1) * (Math.PI / 2 - d);
+	    } else if (kind.equals("seam")) {
+		// Just either side of longitude 0 and 180.
+		double d = D2R * Math.pow(10, -8 * r.nextDouble()) * (r.nextBoolean() ? 1 : -1);
+		lon = (i % 2 == 0 ? 0 : Math.PI) + d;
+		lat = Math.asin(2 * r.nextDouble() - 1);
+	    } else {
+		// Face edges: the meridians at multiples of 90 degrees,
+		// the equator and the HEALPix polar cap boundaries.
+		double d = D2R * Math.pow(10, -6 * r.nextDouble()) * (r.nextBoolean() ? 1 : -1);
+		switch (i % 3) {
+		  case 0:
+		    lon = (r.nextInt(4) * Math.PI / 2) + d;
+		    lat = Math.asin(2 * r.nextDouble() - 1);
+		    break;
+		  case 1:
+		    lon = 2 * Math.PI * r.nextDouble();
+		    lat = d;
+		    break;
+		  default:
+		    lon = 2 * Math.PI * r.nextDouble();
+		    lat = (r.nextBoolean() ? 1 : -1) * Math.asin(2. / 3) + d;
+		}
+	    }
+	    v[0][i] = Math.cos(lon) * Math.cos(lat);
+	    v[1][i] = Math.sin(lon) * Math.cos(lat);
+	    v[2][i] = Math.sin(lat);
+	}
+	return v;
+    }
+
+    /** The angle between two unit vectors in arcseconds. */
+    static double separation(double x0, double y0, double z0, double x1, double y1, double z1) {
+	double cx = y0 * z1 - z0 * y1;
+	double cy = z0 * x1 - x0 * z1;
+	double cz = x0 * y1 - y0 * x1;
+	double cross = Math.sqrt(cx * cx + cy * cy + cz * cz);
+	double dot = x0 * x1 + y0 * y1 + z0 * z1;
+	return Math.atan2(cross, dot) * R2AS;
+    }
+
+    /** The best time in ns/point over a few repetitions of a block transform. */
+    private static double time(Transformer t, double[][] in, double[][] out) {
+	int len = in[0].length;
+	long best = Long.MAX_VALUE;
+	for (int k = 0; k < 5; k++) {
+	    long start = System.nanoTime();
+	    t.transform(in, 0, out, 0, len);
+	    best = Math.min(best, System.nanoTime() - start);
+	}
+	return (double) best / len;
+    }
+
+    /** Run one case against one sample set. */
+    Result measure(String name, String kind, Transformer forward, Transformer inverse) {
+	double[][] in = sample(kind);
+	double[][] mid = new double[2][n];
+	double[][] back = new double[3][n];
+
+	Result res = new Result();
+	res.name = name;
+	res.sample = kind;
+	res.points = n;
+	res.budget = budget(name, kind);
+	res.forwardNs = time(forward, in, mid);
+	res.inverseNs = time(inverse, mid, back);
+
+	double sum = 0;
+	int count = 0;
+	for (int i = 0; i < n; i++) {
+	    if (Double.isNaN(mid[0][i]) || Double.isNaN(mid[1][i])) {
+		res.rejected += 1;
+		continue;
+	    }
+	    if (Double.isNaN(back[0][i]) || Double.isNaN(back[1][i]) || Double.isNaN(back[2][i])) {
+		res.lost += 1;
+		continue;
+	    }
+	    double err = separation(in[0][i], in[1][i], in[2][i], back[0][i], back[1][i], back[2][i]);
+	    res.maxError = Math.max(res.maxError, err);
+	    sum += err * err;
+	    count += 1;
+	}
+	if (count > 0) {
+	    res.rmsError = Math.sqrt(sum / count);
+	}
+	return res;
+    }
+
+    /** A WCS covering the whole sky as far as the projection allows. */
+    static WCS wcs(String projection) throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 30;
+	b.refDe = D2R * 50;
+	b.width = 1000;
+	b.height = 1000;
+	b.projection = projection;
+	b.pixelScale = D2R * 360 / 1000;
+	return b.build();
+    }
+
+    /** The projection names in WCSBuilder.projections without repeats, plus Tea. */
+    static List<String> projections() {
+	List<String> names = new ArrayList<String>();
+	for (String p : WCSBuilder.projections) {
+	    if (!names.contains(p)) {
+		names.add(p);
+	    }
+	}
+	names.add("Tea");
+	return names;
+    }
+
+    /** Run every case against every sample set. */
+    public List<Result> run() throws TransformationException {
+	List<Result> results = new ArrayList<Result>();
+	for (String name : projections()) {
+	    Projecter p = new Projection(name, new double[]{0, 0}).getProjecter();
+	    for (String kind : SAMPLES) {
+		results.add(measure(name, kind, p, p.inverse()));
+	    }
+	}
+	for (String name : projections()) {
+	    WCS w = wcs(name);
+	    for (String kind : SAMPLES) {
+		results.add(measure("WCS " + name, kind, w, w.inverse()));
+	    }
+	}
+	return results;
+    }
+
+    static void writeCsv(List<Result> results, PrintStream out) {
+	out.println("case,sample,points,rejected,lost,max_arcsec,rms_arcsec,budget_arcsec,forward_ns,inverse_ns,pass");
+	for (Result r : results) {
+	    out.println(String.format(Locale.US, "%s,%s,%d,%d,%d,%.6g,%.6g,%.6g,%.2f,%.2f,%b",
+				      r.name, r.sample, r.points, r.rejected, r.lost,
+				      r.maxError, r.rmsError, r.budget.arcsec, r.forwardNs, r.inverseNs,
+				      r.withinBudget()));
+	}
+    }
+
+    static void writeJson(List<Result> results, PrintStream out) {
+	out.println("[");
+	for (int i = 0; i < results.size(); i++) {
+	    Result r = results.get(i);
+	    out.print(String.format(Locale.US,
+				    "  {\"case\":\"%s\",\"sample\":\"%s\",\"points\":%d,\"rejected\":%d,\"lost\":%d," +
+				    "\"max_arcsec\":%.6g,\"rms_arcsec\":%.6g,\"budget_arcsec\":%.6g," +
+				    "\"forward_ns\":%.2f,\"inverse_ns\":%.2f,\"pass\":%b}",
+				    r.name, r.sample, r.points, r.rejected, r.lost,
+				    r.maxError, r.rmsError, r.budget.arcsec, r.forwardNs, r.inverseNs,
+				    r.withinBudget()));
+	    out.println(i < results.size() - 1 ? "," : "");
+	}
+	out.println("]");
+    }
+
+    public static void main(String[] args) throws Exception {
+	String format = args.length > 0 ? args[0] : "csv";
+	int n = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+	List<Result> results = new AccuracyHarness(n).run();
+	if (format.equals("json")) {
+	    writeJson(results, System.out);
+	} else {
+	    writeCsv(results, System.out);
+	}
+    }
+}
@@ -0,0 +1,34 @@
+package org.asterope.geometry;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Check the round trip errors of all projections and WCS chains
+ * against the budgets declared in AccuracyHarness.
+ */
+public class AccuracyTest extends TestCase {
+
+    public void testBudgets() throws Exception {
+	List<AccuracyHarness.Result> results = new AccuracyHarness(2000).run();
+	StringBuilder failures = new StringBuilder();
+	for (AccuracyHarness.Result r : results) {
+	    if (!r.withinBudget()) {
+		failures.append(String.format("%s/%s: max %.3g\" (budget %.3g\"), %d lost; ",
+					      r.name, r.sample, r.maxError, r.budget.arcsec, r.lost));
+	    }
+	}
+	assertEquals("", failures.toString());
+    }
+
+    /** The Tea deprojection used to put points at the wrong distance from the pole. */
+    public void testTeaRoundTrip() throws Exception {
+	Projecter p = new Projection("Tea", new double[]{0, 0}).getProjecter();
+	double[] unit = Utilities.rade2Vector(Math.toRadians(40), Math.toRadians(25));
+	double[] back = p.inverse().transform(p.transform(unit));
+	for (int i = 0; i < 3; i++) {
+	    assertEquals(unit[i], back[i], 1e-12);
+	}
+    }
+}
@@ -0,0 +1,123 @@
+package org.asterope.geometry;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Check that the block transforms give the same answers as
+ * transforming the points one at a time.
+ */
+public class BatchTransformTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    /** Random unit vectors over the whole sphere plus a few special points. */
+    static double[][] sphere(int n, long seed) {
+	Random r = new Random(seed);
+	double[][] pnts = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double z = 2 * r.nextDouble() - 1;
+	    double phi = 2 * Math.PI * r.nextDouble();
+	    double c = Math.sqrt(1 - z * z);
+	    pnts[0][i] = c * Math.cos(phi);
+	    pnts[1][i] = c * Math.sin(phi);
+	    pnts[2][i] = z;
+	}
+	double[][] special = {{0, 0, 1}, {0, 0, -1}, {1, 0, 0}, {-1, 0, 0},
+		{Double.NaN, Double.NaN, Double.NaN}};
+	for (int i = 0; i < special.length && i < n; i++) {
+	    for (int j = 0; j < 3; j++) {
+		pnts[j][i] = special[i][j];
+	    }
+	}
+	return pnts;
+    }
+
+    /** Equal within roundoff, including matching NaNs and infinities. */
+    static void assertClose(String msg, double expected, double actual) {
+	if (Double.compare(expected, actual) != 0) {
+	    assertEquals(msg, expected, actual, 1e-12);
+	}
+    }
+
+    /** Compare the block transform with the single point transform. */
+    static void compare(String name, Transformer t, double[][] in, int odim) {
+	int n = in[0].length;
+	double[][] block = new double[odim][n];
+	t.transform(in, 0, block, 0, n);
+
+	double[] xin = new double[in.length];
+	double[] xout = new double[odim];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < in.length; j++) {
+		xin[j] = in[j][i];
+	    }
+	    t.transform(xin, xout);
+	    for (int j = 0; j < odim; j++) {
+		assertClose(name + " point " + i, xout[j], block[j][i]);
+	    }
+	}
+    }
+
+    public void testProjecters() throws Exception {
+	double[][] in = sphere(2000, 1);
+	for (String name : WCSBuilder.projections) {
+	    Projection p = new Projection(name, new double[]{0, 0});
+	    Projecter proj = p.getProjecter();
+	    compare(name, proj, in, 2);
+
+	    double[][] plane = new double[2][in[0].length];
+	    proj.transform(in, 0, plane, 0, in[0].length);
+	    compare(name + " inverse", proj.inverse(), plane, 3);
+	}
+    }
+
+    public void testRotaterAndScaler() throws Exception {
+	double[][] in = sphere(500, 2);
+	compare("Rotater", new Rotater("ZYZ", 0.3, 1.1, -0.7), in, 3);
+
+	double[][] plane = new double[][]{in[0].clone(), in[1].clone()};
+	compare("Scaler", new Scaler(3, -2, 0.5, 0.1, -0.2, 2), plane, 2);
+    }
+
+    public void testAliasedAndOffset() throws Exception {
+	Rotater r = new Rotater("ZYZ", 0.3, 1.1, -0.7);
+	double[][] in = sphere(100, 3);
+	double[][] expected = new double[3][100];
+	r.transform(in, expected);
+
+	// Transform in place, a sub-range at a time.
+	r.transform(in, 0, in, 0, 40);
+	r.transform(in, 40, in, 40, 60);
+	for (int j = 0; j < 3; j++) {
+	    for (int i = 0; i < 100; i++) {
+		assertClose("aliased", expected[j][i], in[j][i]);
+	    }
+	}
+    }
+
+    public void testWCS() throws Exception {
+	for (String name : WCSBuilder.projections) {
+	    WCSBuilder b = new WCSBuilder();
+	    b.refRa = D2R * 30;
+	    b.refDe = D2R * 40;
+	    b.width = 800;
+	    b.height = 600;
+	    b.projection = name;
+	    b.pixelScale = 1 / (D2R * 16 * 800);
+	    WCS wcs = b.build();
+
+	    // More points than a single block of the converter.
+	    double[][] in = sphere(1000, 4);
+	    compare(name, wcs, in, 2);
+
+	    double[][] pix = new double[2][1000];
+	    for (int i = 0; i < 1000; i++) {
+		pix[0][i] = 800 * (i % 40) / 40.;
+		pix[1][i] = 600 * (i / 40) / 25.;
+	    }
+	    compare(name + " inverse", wcs.inverse(), pix, 3);
+	}
+    }
+}
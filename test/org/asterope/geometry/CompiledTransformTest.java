@@ -0,0 +1,285 @@
+package org.asterope.geometry;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.asterope.geometry.vector.Vectorized;
+
+import junit.framework.TestCase;
+
+public class CompiledTransformTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private WCS build(String projection) throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 120;
+	b.refDe = D2R * -30;
+	b.width = 1000;
+	b.height = 1000;
+	b.projection = projection;
+	b.pixelScale = D2R * 10 / 1000;
+	return b.build();
+    }
+
+    public void testSameAsConverter() throws Exception {
+	WCS wcs = build("Tan");
+	CompiledTransform c = wcs.compile();
+	assertSame(c, wcs.compile());
+
+	double[][] in = BatchTransformTest.sphere(300, 5);
+	double[] v = new double[3];
+	double[] p1 = new double[2];
+	double[] p2 = new double[2];
+	CompiledTransform.Scratch s = c.newScratch();
+	for (int i = 0; i < 300; i++) {
+	    v[0] = in[0][i];
+	    v[1] = in[1][i];
+	    v[2] = in[2][i];
+	    wcs.transform(v, p1);
+	    c.transform(v, p2, s);
+	    BatchTransformTest.assertClose("x", p1[0], p2[0]);
+	    BatchTransformTest.assertClose("y", p1[1], p2[1]);
+	}
+	// The input must not be overwritten by intermediate results.
+	assertEquals(in[2][299], v[2], 0);
+    }
+
+    public void testFrozen() throws Exception {
+	Converter conv = new Converter();
+	conv.add(new Scaler(1, 2, 1, 0, 0, 1));
+	CompiledTransform c = conv.compile();
+	conv.add(new Scaler(10, 0, 1, 0, 0, 1));
+
+	double[] out = c.transform(new double[]{0, 0});
+	assertEquals(1, out[0], 0);
+	assertEquals(2, out[1], 0);
+	out = conv.transform(new double[]{0, 0});
+	assertEquals(11, out[0], 0);
+    }
+
+    public void testInverse() throws Exception {
+	CompiledTransform c = build("Sin").compile();
+	CompiledTransform inv = c.inverse();
+	double[] unit = Utilities.rade2Vector(D2R * 121, D2R * -29);
+	double[] back = inv.transform(c.transform(unit));
+	for (int i = 0; i < 3; i++) {
+	    assertEquals(unit[i], back[i], 1e-12);
+	}
+    }
+
+    /** The work arrays of a thread are shared, so a compiled transform
+     *  used as a component of another must not reuse them.
+     */
+    public void testNested() throws Exception {
+	CompiledTransform inner = build("Tan").compile();
+	Converter conv = new Converter();
+	conv.add(inner);
+	conv.add(new Scaler(5, -3, 2, 0, 0, 2));
+	assertEquals(2, conv.getOutputDimension());
+	CompiledTransform c = conv.compile();
+
+	int n = 600;
+	double[][] in = BatchTransformTest.sphere(n, 7);
+	double[][] out = new double[2][n];
+	c.transform(in, 0, out, 0, n);
+	double[] v = new double[3];
+	for (int i = 0; i < n; i++) {
+	    v[0] = in[0][i];
+	    v[1] = in[1][i];
+	    v[2] = in[2][i];
+	    double[] p = c.transform(v);
+	    double[] e = reference(c, v);
+	    BatchTransformTest.assertClose("x", e[0], p[0]);
+	    BatchTransformTest.assertClose("y", e[1], p[1]);
+	    BatchTransformTest.assertClose("x", e[0], out[0][i]);
+	    BatchTransformTest.assertClose("y", e[1], out[1][i]);
+	}
+    }
+
+    /** Apply the unfused components one at a time. */
+    private static double[] reference(CompiledTransform c, double[] in) {
+	double[] x = in.clone();
+	for (Transformer t: c.getComponents()) {
+	    double[] y = new double[t.getOutputDimension()];
+	    t.transform(x, y);
+	    x = y;
+	}
+	return x;
+    }
+
+    public void testFused() throws Exception {
+	String[] names = {"Tan", "Sin", "Arc", "Stg", "Zea", "Car"};
+	double[][] sky = BatchTransformTest.sphere(500, 6);
+	double[][] pix = new double[2][500];
+	for (int i = 0; i < 500; i++) {
+	    pix[0][i] = -100 + 1200 * (i % 25) / 25.;
+	    pix[1][i] = -100 + 1200 * (i / 25) / 20.;
+	}
+
+	for (String name : names) {
+	    CompiledTransform c = build(name).compile();
+	    CompiledTransform inv = c.inverse();
+	    Transformer[] stages = c.getStages();
+	    assertTrue(name, stages[stages.length - 1] instanceof FusedProjecter);
+	    stages = inv.getStages();
+	    assertTrue(name, stages[0] instanceof FusedDeprojecter);
+	    assertTrue(name, c.isInverse(inv));
+
+	    BatchTransformTest.compare(name, c, sky, 2);
+	    BatchTransformTest.compare(name + " inverse", inv, pix, 3);
+
+	    double[] out = new double[3];
+	    for (int i = 0; i < 500; i++) {
+		double[] v = {sky[0][i], sky[1][i], sky[2][i]};
+		double[] expected = reference(c, v);
+		c.transform(v, out);
+		BatchTransformTest.assertClose(name, expected[0], out[0]);
+		BatchTransformTest.assertClose(name, expected[1], out[1]);
+
+		double[] p = {pix[0][i], pix[1][i]};
+		expected = reference(inv, p);
+		inv.transform(p, out);
+		for (int j = 0; j < 3; j++) {
+		    BatchTransformTest.assertClose(name + " inverse", expected[j], out[j]);
+		}
+	    }
+	}
+    }
+
+    /** Many threads share one compiled WCS. */
+    public void testSharedBetweenThreads() throws Exception {
+	final CompiledTransform c = build("Arc").compile();
+	final CompiledTransform inv = c.inverse();
+	final List<Throwable> errors = new ArrayList<Throwable>();
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int t = 0; t < 8; t++) {
+	    Thread th = new Thread() {
+		public void run() {
+		    try {
+			double[] pix = new double[2];
+			double[] unit = new double[3];
+			double[] back = new double[2];
+			for (int i = 0; i < 20000; i++) {
+			    pix[0] = Math.random() * 1000;
+			    pix[1] = Math.random() * 1000;
+			    inv.transform(pix, unit);
+			    c.transform(unit, back);
+			    assertEquals(pix[0], back[0], 1e-6);
+			    assertEquals(pix[1], back[1], 1e-6);
+			}
+		    } catch (Throwable e) {
+			synchronized (errors) {
+			    errors.add(e);
+			}
+		    }
+		}
+	    };
+	    threads.add(th);
+	    th.start();
+	}
+	for (Thread th : threads) {
+	    th.join();
+	}
+	if (!errors.isEmpty()) {
+	    throw new Exception(errors.get(0));
+	}
+    }
+
+    /** Loads the org.asterope classes afresh, so that their static
+     *  state is set up again.
+     */
+    private static class FreshLoader extends URLClassLoader {
+
+	FreshLoader() throws Exception {
+	    super(classPath(), CompiledTransformTest.class.getClassLoader());
+	}
+
+	private static URL[] classPath() throws Exception {
+	    String[] parts = System.getProperty("java.class.path").split(File.pathSeparator);
+	    URL[] urls = new URL[parts.length];
+	    for (int i = 0; i < parts.length; i++) {
+		urls[i] = new File(parts[i]).toURI().toURL();
+	    }
+	    return urls;
+	}
+
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+	    if (!name.startsWith("org.asterope.")) {
+		return super.loadClass(name, resolve);
+	    }
+	    synchronized (getClassLoadingLock(name)) {
+		Class<?> c = findLoadedClass(name);
+		if (c == null) {
+		    c = findClass(name);
+		}
+		if (resolve) {
+		    resolveClass(c);
+		}
+		return c;
+	    }
+	}
+    }
+
+    /** A rotation, a projection and a scaling, built in the given loader. */
+    private static Object chain(ClassLoader l) throws Exception {
+	Class<?> t = l.loadClass("org.asterope.geometry.Transformer");
+	Class<?> conv = l.loadClass("org.asterope.geometry.Converter");
+	Object c = conv.getConstructor().newInstance();
+	Method add = conv.getMethod("add", t);
+	add.invoke(c, l.loadClass("org.asterope.geometry.Rotater")
+		   .getConstructor(String.class, double.class, double.class, double.class)
+		   .newInstance("ZYZ", 0.3, -1.2, 2.1));
+	add.invoke(c, l.loadClass("org.asterope.geometry.projecter.Tan").getConstructor().newInstance());
+	add.invoke(c, l.loadClass("org.asterope.geometry.Scaler")
+		   .getConstructor(double.class, double.class, double.class, double.class, double.class, double.class)
+		   .newInstance(500, 500, 1000, 10, -10, 1000));
+	return conv.getMethod("compile").invoke(c);
+    }
+
+    /** Block transforms use the vector kernels exactly when they are
+     *  available, and fall back to the scalar stages when they are not.
+     */
+    public void testScalarFallback() throws Exception {
+	CompiledTransform here = (CompiledTransform) chain(getClass().getClassLoader());
+	assertEquals(Vectorized.isAvailable(), here.isVectorized());
+
+	String key = "org.asterope.geometry.vector";
+	String old = System.getProperty(key);
+	System.setProperty(key, "false");
+	Object fresh;
+	FreshLoader l = new FreshLoader();
+	try {
+	    fresh = chain(l);
+	    assertFalse((Boolean) l.loadClass("org.asterope.geometry.vector.Vectorized")
+			.getMethod("isAvailable").invoke(null));
+	} finally {
+	    if (old == null) {
+		System.clearProperty(key);
+	    } else {
+		System.setProperty(key, old);
+	    }
+	}
+	Method vectorized = fresh.getClass().getDeclaredMethod("isVectorized");
+	vectorized.setAccessible(true);
+	assertFalse((Boolean) vectorized.invoke(fresh));
+
+	// The scalar stages give the same answers.
+	int n = 300;
+	double[][] in = BatchTransformTest.sphere(n, 9);
+	double[][] a = new double[2][n];
+	double[][] b = new double[2][n];
+	here.transform(in, 0, a, 0, n);
+	fresh.getClass().getMethod("transform", double[][].class, int.class, double[][].class, int.class, int.class)
+	    .invoke(fresh, in, 0, b, 0, n);
+	for (int i = 0; i < n; i++) {
+	    BatchTransformTest.assertClose("x", a[0][i], b[0][i]);
+	    BatchTransformTest.assertClose("y", a[1][i], b[1][i]);
+	}
+	l.close();
+    }
+}
@@ -0,0 +1,147 @@
+package org.asterope.geometry;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import junit.framework.TestCase;
+
+public class CoordinateBufferTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private WCS wcs() throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 10;
+	b.refDe = D2R * 20;
+	b.width = 500;
+	b.height = 500;
+	b.projection = "Zea";
+	b.pixelScale = D2R * 40 / 500;
+	return b.build();
+    }
+
+    /** The buffer transforms must agree with the array transforms. */
+    private void check(WCS wcs, CoordinateBuffer in, CoordinateBuffer out, double[][] sky) throws Exception {
+	int n = sky[0].length;
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < 3; j++) {
+		in.put(i, j, sky[j][i]);
+	    }
+	}
+	double[][] expected = new double[2][n];
+	wcs.transform(sky, expected);
+	wcs.transform(in, out);
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < 2; j++) {
+		BatchTransformTest.assertClose("point " + i, expected[j][i], out.get(i, j));
+	    }
+	}
+    }
+
+    public void testLayouts() throws Exception {
+	WCS wcs = wcs();
+	double[][] sky = BatchTransformTest.sphere(1000, 9);
+	check(wcs, CoordinateBuffer.allocateDirect(3, 1000, true),
+	      CoordinateBuffer.allocateDirect(2, 1000, false), sky);
+	check(wcs, CoordinateBuffer.allocateDirect(3, 1000, false),
+	      CoordinateBuffer.interleaved(DoubleBuffer.allocate(2000), 2), sky);
+    }
+
+    public void testMapped() throws Exception {
+	File f = File.createTempFile("coords", ".dat");
+	f.deleteOnExit();
+	RandomAccessFile raf = new RandomAccessFile(f, "rw");
+	try {
+	    FileChannel ch = raf.getChannel();
+	    DoubleBuffer data = ch.map(FileChannel.MapMode.READ_WRITE, 0, 8 * 3 * 600)
+		.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	    CoordinateBuffer sky = CoordinateBuffer.interleaved(data, 3);
+	    assertEquals(600, sky.size());
+	    check(wcs(), sky, CoordinateBuffer.allocateDirect(2, 600, true),
+		  BatchTransformTest.sphere(600, 10));
+	} finally {
+	    raf.close();
+	}
+    }
+
+    /** Blocks of points which straddle the segments. */
+    public void testSegments() throws Exception {
+	WCS wcs = wcs();
+	double[][] sky = BatchTransformTest.sphere(1000, 12);
+	DoubleBuffer[] inter = new DoubleBuffer[8];
+	DoubleBuffer[][] cols = new DoubleBuffer[2][8];
+	for (int j = 0; j < 8; j++) {
+	    int n = j < 7 ? 130 : 90;
+	    inter[j] = DoubleBuffer.allocate(3 * n);
+	    cols[0][j] = DoubleBuffer.allocate(n);
+	    cols[1][j] = DoubleBuffer.allocate(n);
+	}
+	CoordinateBuffer in = CoordinateBuffer.interleaved(3, inter);
+	CoordinateBuffer out = CoordinateBuffer.columns(cols);
+	assertEquals(1000, in.size());
+	check(wcs, in, out, sky);
+	CoordinateBuffer par = CoordinateBuffer.allocateDirect(2, 1000, false);
+	new ParallelTransformer(wcs, java.util.concurrent.ForkJoinPool.commonPool(), 97).transform(in, par);
+	for (int i = 0; i < 1000; i++) {
+	    BatchTransformTest.assertClose("point " + i, out.get(i, 0), cols[0][i / 130].get(i % 130));
+	    BatchTransformTest.assertClose("point " + i, out.get(i, 1), par.get(i, 1));
+	}
+
+	try {
+	    in.get(1000, 0);
+	    fail("Point past the end not detected");
+	} catch (IndexOutOfBoundsException e) {
+	}
+	try {
+	    CoordinateBuffer.interleaved(3, DoubleBuffer.allocate(30), DoubleBuffer.allocate(60));
+	    fail("Uneven segments not detected");
+	} catch (IllegalArgumentException e) {
+	}
+    }
+
+    public void testMappedSegments() throws Exception {
+	File f = File.createTempFile("coords", ".dat");
+	f.deleteOnExit();
+	RandomAccessFile raf = new RandomAccessFile(f, "rw");
+	try {
+	    FileChannel ch = raf.getChannel();
+	    for (boolean inter : new boolean[]{true, false}) {
+		CoordinateBuffer sky = CoordinateBuffer.map(ch, FileChannel.MapMode.READ_WRITE, 16,
+							    ByteOrder.BIG_ENDIAN, 3, 600, inter, 77);
+		assertEquals(600, sky.size());
+		check(wcs(), sky, CoordinateBuffer.allocateDirect(2, 600, true),
+		      BatchTransformTest.sphere(600, 13));
+	    }
+	    // The axes follow one another in the file.
+	    CoordinateBuffer cols = CoordinateBuffer.map(ch, FileChannel.MapMode.READ_ONLY, 16,
+							 ByteOrder.BIG_ENDIAN, 3, 600, false);
+	    raf.seek(16 + 8 * (600 + 5));
+	    assertEquals(cols.get(5, 1), raf.readDouble(), 0);
+	} finally {
+	    raf.close();
+	}
+    }
+
+    public void testInPlaceAndMismatch() throws Exception {
+	Rotater r = new Rotater("ZYZ", 0.1, 0.2, 0.3);
+	double[][] sky = BatchTransformTest.sphere(300, 11);
+	CoordinateBuffer buf = CoordinateBuffer.allocateDirect(3, 300, true);
+	buf.write(0, 300, sky, 0);
+	r.transform(buf, buf);
+	r.transform(sky, sky);
+	for (int i = 0; i < 300; i++) {
+	    for (int j = 0; j < 3; j++) {
+		BatchTransformTest.assertClose("in place", sky[j][i], buf.get(i, j));
+	    }
+	}
+
+	try {
+	    r.transform(buf, CoordinateBuffer.allocateDirect(2, 300, true));
+	    fail("Dimension mismatch not detected");
+	} catch (TransformationException e) {
+	}
+    }
+}
@@ -47,4 +47,79 @@ public class CoordinateSystemTest extends TestCase {
     a(r,v[0],v[1],v[2], 0.3400649326435842,-0.8575798632289657,-0.3858919794065476);
 
   }
-}
\ No newline at end of file
+
+  public void testInterned(){
+    assertSame(CoordinateSystem.J2000, CoordinateSystem.factory("J2000"));
+    assertSame(CoordinateSystem.J2000, CoordinateSystem.factory("j"));
+    assertSame(CoordinateSystem.B1950, CoordinateSystem.factory("B1950.0"));
+    assertSame(CoordinateSystem.factory("J1975.5"), CoordinateSystem.factory("j1975.50"));
+    assertSame(CoordinateSystem.factory("E2010"), CoordinateSystem.factory("Ecl", "2010"));
+    assertNotSame(CoordinateSystem.factory("B1900"), CoordinateSystem.factory("B1950"));
+  }
+
+  public void testSameRotations(){
+    CoordinateSystem[] shared = {CoordinateSystem.factory("J1975.5"), CoordinateSystem.factory("B1900"),
+                                 CoordinateSystem.factory("E1990"), CoordinateSystem.Gal, CoordinateSystem.ICRS};
+    CoordinateSystem[] fresh = {new org.asterope.geometry.csys.Julian(1975.5),
+                                new org.asterope.geometry.csys.Besselian(1900),
+                                new org.asterope.geometry.csys.Ecliptic(1990),
+                                new org.asterope.geometry.csys.Galactic(),
+                                new org.asterope.geometry.csys.ICRS()};
+    for (int k = 0; k < shared.length; k++) {
+      Rotater r = shared[k].getRotater();
+      assertSame(r, shared[k].getRotater());
+      double[][] a = r.getMatrix();
+      double[][] b = fresh[k].getRotater().getMatrix();
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          assertEquals(b[i][j], a[i][j], 0);
+        }
+      }
+    }
+    assertSame(CoordinateSystem.B1950.getSphereDistorter(), CoordinateSystem.factory("B1900").getSphereDistorter());
+  }
+
+  public void testComposition() throws Exception {
+    Rotater a = new Rotater("ZYZ", 0.3, -1.1, 2.0);
+    Rotater b = new Rotater("xz", 0.7, 0.2, 0);
+    Rotater c = a.add(b);
+    double[] v = {0.2, -0.5, Math.sqrt(0.71)};
+    double[] w = b.transform(a.transform(v));
+    double[] u = c.transform(v);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(w[i], u[i], 1e-15);
+    }
+    assertTrue(c.isInverse(c.inverse()));
+    assertTrue(c.isInverse(b.inverse().add(a.inverse())));
+    assertFalse(c.isInverse(c));
+    assertSame(c, c.inverse().inverse());
+
+    // The matrix returned is a copy.
+    c.getMatrix()[0][0] = 5;
+    assertEquals(c.transform(v)[0], u[0], 0);
+  }
+
+  public void testQuaternion() throws Exception {
+    Rotater r = new Rotater("ZYZ", 0.3, -1.1, 2.0);
+    double[] q = r.getQuaternion();
+    double[][] m = Rotater.fromQuaternion(q[0], q[1], q[2], q[3]).getMatrix();
+    double[][] n = r.getMatrix();
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(n[i][j], m[i][j], 1e-15);
+      }
+    }
+
+    Rotater unit = new Rotater("z", 0, 0, 0);
+    Rotater z = new Rotater("z", Math.toRadians(90), 0, 0);
+    Rotater half = unit.slerp(z, 0.5);
+    a(half, 1, 0, 0, Math.sqrt(0.5), -Math.sqrt(0.5), 0);
+    n = z.getMatrix();
+    m = unit.slerp(z, 1).getMatrix();
+    for (int i = 0; i < 3; i++) {
+      for (int j = 0; j < 3; j++) {
+        assertEquals(n[i][j], m[i][j], 1e-15);
+      }
+    }
+  }
+}
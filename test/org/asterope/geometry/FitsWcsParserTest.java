@@ -0,0 +1,237 @@
+package org.asterope.geometry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.csys.Besselian;
+
+public class FitsWcsParserTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private FitsWcsParser parser;
+
+    protected void setUp() {
+	parser = new FitsWcsParser();
+    }
+
+    private static String card(String key, Object value) {
+	String v = value instanceof String ? "'" + value + "'" : value.toString();
+	return String.format("%-8s= %20s / comment", key, v);
+    }
+
+    private static String header(Object... kv) {
+	StringBuilder b = new StringBuilder();
+	for (int i = 0; i < kv.length; i += 2) {
+	    b.append(card((String) kv[i], kv[i + 1])).append('\n');
+	}
+	return b.toString();
+    }
+
+    private double[] pixel(WCS w, double ra, double dec) {
+	return w.transform(Utilities.rade2Vector(ra * D2R, dec * D2R));
+    }
+
+    private static double[][] sky(double ra, double dec, double radius, int n) {
+	Random r = new Random(13);
+	double[][] v = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double[] u = Utilities.rade2Vector((ra + radius * (2 * r.nextDouble() - 1)) * Math.PI / 180,
+					       (dec + radius * (2 * r.nextDouble() - 1)) * Math.PI / 180);
+	    v[0][i] = u[0];
+	    v[1][i] = u[1];
+	    v[2][i] = u[2];
+	}
+	return v;
+    }
+
+    private static void same(WCS a, WCS b, double[][] in, double tol) {
+	int n = in[0].length;
+	double[][] x = new double[2][n];
+	double[][] y = new double[2][n];
+	a.transform(in, 0, x, 0, n);
+	b.transform(in, 0, y, 0, n);
+	for (int i = 0; i < n; i++) {
+	    assertEquals(i + " x", x[0][i], y[0][i], tol);
+	    assertEquals(i + " y", x[1][i], y[1][i], tol);
+	}
+    }
+
+    public void testTan() throws Exception {
+	WCS w = parser.parse(header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN",
+				    "CRVAL1", 0.0, "CRVAL2", 0.0, "CRPIX1", 100.0, "CRPIX2", 100.0, "EQUINOX", 2000.0,
+				    "CDELT1", -0.01, "CDELT2", 0.01));
+	double[] p = pixel(w, 0, 0);
+	assertEquals(99.5, p[0], 1e-9);
+	assertEquals(99.5, p[1], 1e-9);
+	// x = tan(0.5 degrees) to the east, i.e., to lower pixels.
+	double t = Math.tan(0.5 * D2R) / D2R / 0.01;
+	p = pixel(w, 0.5, 0);
+	assertEquals(99.5 - t, p[0], 1e-7);
+	assertEquals(99.5, p[1], 1e-7);
+	p = pixel(w, 0, 0.5);
+	assertEquals(99.5, p[0], 1e-7);
+	assertEquals(99.5 + t, p[1], 1e-7);
+
+	// The rotation is the one Projection uses for the same center.
+	w = parser.parse(header("CTYPE1", "RA---SIN", "CTYPE2", "DEC--SIN",
+				"CRVAL1", 150.0, "CRVAL2", 20.0, "CRPIX1", 1.0, "CRPIX2", 1.0,
+				"CDELT1", -0.01, "CDELT2", 0.01));
+	double[][] a = w.getProjection().getRotater().getMatrix();
+	double[][] b = new Projection("Sin", new double[]{150 * D2R, 20 * D2R}).getRotater().getMatrix();
+	for (int i = 0; i < 3; i++) {
+	    for (int j = 0; j < 3; j++) {
+		assertEquals(b[i][j], a[i][j], 1e-12);
+	    }
+	}
+    }
+
+    public void testCar() throws Exception {
+	WCS w = parser.parse(header("CTYPE1", "RA---CAR", "CTYPE2", "DEC--CAR",
+				    "CRVAL1", 180.0, "CRVAL2", 0.0, "CRPIX1", 180.5, "CRPIX2", 90.5, "EQUINOX", 2000.0,
+				    "CDELT1", -1.0, "CDELT2", 1.0));
+	double[] p = pixel(w, 100, 30);
+	assertEquals(260, p[0], 1e-9);
+	assertEquals(120, p[1], 1e-9);
+
+	// An oblique reference point still lands on CRPIX.
+	w = parser.parse(header("CTYPE1", "GLON-AIT", "CTYPE2", "GLAT-AIT",
+				"CRVAL1", 30.0, "CRVAL2", -40.0, "CRPIX1", 50.0, "CRPIX2", 60.0,
+				"CDELT1", -0.1, "CDELT2", 0.1));
+	assertSame(CoordinateSystem.Gal, w.getCoordinateSystem());
+	double[] v = CoordinateSystem.Gal.getRotater().inverse().transform(Utilities.rade2Vector(30 * D2R, -40 * D2R));
+	p = w.transform(v);
+	// The galactic matrix is only orthogonal to about 1e-8.
+	assertEquals(49.5, p[0], 1e-4);
+	assertEquals(59.5, p[1], 1e-4);
+    }
+
+    /** A change in LONPOLE turns the projection plane. */
+    public void testLonpole() throws Exception {
+	double d = 30;
+	double c = Math.cos(d * D2R), s = Math.sin(d * D2R);
+	WCS a = parser.parse(header("CTYPE1", "RA---ZEA", "CTYPE2", "DEC--ZEA",
+				    "CRVAL1", 80.0, "CRVAL2", 60.0, "CRPIX1", 10.0, "CRPIX2", 20.0,
+				    "CD1_1", -0.01, "CD1_2", 0.0, "CD2_1", 0.0, "CD2_2", 0.01,
+				    "LONPOLE", 180 + d));
+	// CD = R(-d) * diag(-0.01, 0.01)
+	WCS b = parser.parse(header("CTYPE1", "RA---ZEA", "CTYPE2", "DEC--ZEA",
+				    "CRVAL1", 80.0, "CRVAL2", 60.0, "CRPIX1", 10.0, "CRPIX2", 20.0,
+				    "CD1_1", -0.01 * c, "CD1_2", 0.01 * s, "CD2_1", 0.01 * s, "CD2_2", 0.01 * c));
+	same(a, b, sky(80, 60, 2, 500), 1e-7);
+    }
+
+    /** CD, PC with CDELT and CDELT with CROTA2 describe the same thing. */
+    public void testLinearForms() throws Exception {
+	double r = 25;
+	double c = Math.cos(r * D2R), s = Math.sin(r * D2R);
+	Object[] common = {"CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN",
+			   "CRVAL1", 210.0, "CRVAL2", -35.0, "CRPIX1", 512.0, "CRPIX2", 300.0};
+	WCS a = parser.parse(header(common) + header("CDELT1", -2e-3, "CDELT2", 1e-3, "CROTA2", r));
+	WCS b = parser.parse(header(common) + header("CDELT1", -2e-3, "CDELT2", 1e-3,
+						     "PC1_1", c, "PC1_2", s / 2, "PC2_1", -2 * s, "PC2_2", c));
+	WCS d = parser.parse(header(common) + header("CD1_1", -2e-3 * c, "CD1_2", -1e-3 * s,
+						     "CD2_1", -2e-3 * s, "CD2_2", 1e-3 * c));
+	double[][] in = sky(210, -35, 0.5, 500);
+	same(a, b, in, 1e-8);
+	same(a, d, in, 1e-8);
+
+	// Latitude first.
+	WCS e = parser.parse(header("CTYPE2", "RA---TAN", "CTYPE1", "DEC--TAN",
+				    "CRVAL2", 210.0, "CRVAL1", -35.0, "CRPIX1", 512.0, "CRPIX2", 300.0,
+				    "CD2_1", -2e-3 * c, "CD2_2", -1e-3 * s, "CD1_1", -2e-3 * s, "CD1_2", 1e-3 * c));
+	same(a, e, in, 1e-8);
+    }
+
+    public void testCoordinateSystems() throws Exception {
+	Object[] common = {"CRVAL1", 10.0, "CRVAL2", 10.0, "CRPIX1", 1.0, "CRPIX2", 1.0,
+			   "CDELT1", -1e-3, "CDELT2", 1e-3};
+	WCS w = parser.parse(header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN") + header(common));
+	assertSame(CoordinateSystem.ICRS, w.getCoordinateSystem());
+	w = parser.parse(header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN", "EQUINOX", 2000.0) + header(common));
+	assertSame(CoordinateSystem.J2000, w.getCoordinateSystem());
+	w = parser.parse(header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN",
+				"RADESYS", "FK4", "EQUINOX", 1950.0) + header(common));
+	assertTrue(w.getCoordinateSystem() instanceof Besselian);
+    }
+
+    /** A DSS plate solution with only linear terms is a TAN projection. */
+    public void testDSS() throws Exception {
+	double scale = 67.2;
+	double size = 25.28;
+	WCS dss = parser.parse(header("PLTRAH", 10, "PLTRAM", 20, "PLTRAS", 30.0,
+				      "PLTDECSN", "-", "PLTDECD", 15, "PLTDECM", 30, "PLTDECS", 0.0,
+				      "PLTSCALE", scale, "XPIXELSZ", size, "YPIXELSZ", size,
+				      "PPO3", 177500.0, "PPO6", 177500.0, "CNPIX1", 6000, "CNPIX2", 6500,
+				      "AMDX1", scale, "AMDY1", scale, "EQUINOX", 2000.0));
+	double ra = 15 * (10 + 20 / 60. + 30 / 3600.);
+	double dec = -(15 + 30 / 60.);
+	double cdelt = size / 1000 * scale / 3600;
+	WCS tan = parser.parse(header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN",
+				      "CRVAL1", ra, "CRVAL2", dec, "EQUINOX", 2000.0,
+				      "CRPIX1", 177500 / size - 6000 + 0.5, "CRPIX2", 177500 / size - 6500 + 0.5,
+				      "CDELT1", -cdelt, "CDELT2", cdelt));
+	same(tan, dss, sky(ra, dec, 0.5, 200), 1e-4);
+    }
+
+    public void testStreamAndCache() throws Exception {
+	String h1 = header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN", "CRVAL1", 1.5D, "CRVAL2", 2.5D, "EQUINOX", 2000,
+			   "CRPIX1", 1.0, "CRPIX2", 1.0, "CDELT1", "-1.0D-3", "CDELT2", 1e-3)
+	    .replace("'-1.0D-3'", "-1.0D-3") + "END";
+	String h2 = "SIMPLE  =                    T\n" + h1;
+	ByteBuffer b = ByteBuffer.allocate(3 * 2880);
+	byte[] c = new byte[3 * 2880];
+	Arrays.fill(c, (byte) ' ');
+	int p = 0;
+	for (String h : new String[]{h1, h2}) {
+	    for (String line : h.split("\n")) {
+		byte[] l = line.getBytes("US-ASCII");
+		System.arraycopy(l, 0, c, p, l.length);
+		p += 80;
+	    }
+	    p = 2880;
+	}
+	b.put(c).flip();
+
+	WCS a = parser.parse(b);
+	assertEquals(2880, b.position());
+	WCS w = parser.parse(b);
+	assertEquals(5760, b.position());
+	assertNotSame(a, w);
+	assertEquals(1, parser.getCacheHits());
+	assertEquals(1, parser.getCacheMisses());
+
+	double[] px = pixel(a, 1.5, 2.5);
+	assertEquals(0.5, px[0], 1e-9);
+	double[] q = pixel(a, 1.5, 2.51);
+	assertEquals(10.5, q[1], 1e-4);
+
+	parser.clearCache();
+	b.position(0);
+	parser.parse(b);
+	assertEquals(2, parser.getCacheMisses());
+    }
+
+    /** Changing a parsed WCS does not change later parses of the header. */
+    public void testCachedCopies() throws Exception {
+	String h = header("CTYPE1", "RA---TAN", "CTYPE2", "DEC--TAN",
+			  "CRVAL1", 10.0, "CRVAL2", 20.0, "CRPIX1", 50.0, "CRPIX2", 50.0,
+			  "CDELT1", -0.01, "CDELT2", 0.01);
+	WCS a = parser.parse(h);
+	double[] before = pixel(a, 10.2, 20.1);
+
+	a.getProjection().setReference(0, 0);
+	a.getScaler().interchangeAxes();
+	a.add(new Scaler(5, 5, 1, 0, 0, 1));
+
+	WCS b = parser.parse(h);
+	assertEquals(1, parser.getCacheHits());
+	double[] after = pixel(b, 10.2, 20.1);
+	assertEquals(before[0], after[0], 0);
+	assertEquals(before[1], after[1], 0);
+	assertNotSame(a.getScaler(), b.getScaler());
+    }
+}
@@ -0,0 +1,97 @@
+package org.asterope.geometry;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+public class FrameConverterTest extends TestCase {
+
+    private double[] lon;
+    private double[] lat;
+
+    protected void setUp() {
+	Random r = new Random(17);
+	int n = 10000;
+	lon = new double[n];
+	lat = new double[n];
+	for (int i = 0; i < n; i++) {
+	    lon[i] = 360 * r.nextDouble();
+	    lat[i] = Math.toDegrees(Math.asin(2 * r.nextDouble() - 1));
+	}
+    }
+
+    /** Each point agrees with Position. */
+    private void check(String from, String to, double tol) throws Exception {
+	FrameConverter f = FrameConverter.of(from, to);
+	int n = lon.length;
+	double[] l = new double[n];
+	double[] b = new double[n];
+	f.convert(lon, lat, l, b);
+	for (int i = 0; i < n; i += 37) {
+	    double[] p = new Position(lon[i], lat[i], from).getCoordinates(to);
+	    double dl = Math.abs(p[0] - l[i]);
+	    assertEquals(from + " " + i, 0, Math.min(dl, 360 - dl) * Math.cos(Math.toRadians(b[i])), tol);
+	    assertEquals(from + " " + i, p[1], b[i], tol);
+	    assertTrue(l[i] >= 0 && l[i] < 360);
+	}
+    }
+
+    public void testAgainstPosition() throws Exception {
+	check("B1950", "Galactic", 1e-10);
+	check("J2000", "B1950", 1e-10);
+	check("E2000", "J1975", 1e-10);
+	check("J2000", "J2000", 1e-12);
+    }
+
+    public void testRadiansAndInPlace() throws Exception {
+	FrameConverter f = FrameConverter.of("B1950", "J2000");
+	int n = lon.length;
+	double[] l = new double[n];
+	double[] b = new double[n];
+	f.convert(lon, lat, l, b);
+
+	double[] rl = new double[n];
+	double[] rb = new double[n];
+	for (int i = 0; i < n; i++) {
+	    rl[i] = Math.toRadians(lon[i]);
+	    rb[i] = Math.toRadians(lat[i]);
+	}
+	f.convertRadians(rl, rb, rl, rb);
+	for (int i = 0; i < n; i++) {
+	    assertEquals(l[i], Math.toDegrees(rl[i]), 1e-9);
+	    assertEquals(b[i], Math.toDegrees(rb[i]), 1e-9);
+	}
+    }
+
+    public void testParallel() throws Exception {
+	ForkJoinPool pool = new ForkJoinPool(4);
+	try {
+	    for (String from : new String[]{"Galactic", "B1950"}) {
+		FrameConverter f = FrameConverter.of(from, "J2000");
+		int n = lon.length;
+		double[] l = new double[n];
+		double[] b = new double[n];
+		double[] pl = new double[n];
+		double[] pb = new double[n];
+		f.convert(lon, lat, l, b);
+		f.convert(lon, lat, pl, pb, true, pool);
+		for (int i = 0; i < n; i++) {
+		    assertEquals(l[i], pl[i], 0);
+		    assertEquals(b[i], pb[i], 0);
+		}
+	    }
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    public void testUnknown() {
+	try {
+	    FrameConverter.of("Q2000", "J2000");
+	    fail();
+	} catch (TransformationException e) {
+	    // expected
+	}
+    }
+}
@@ -0,0 +1,118 @@
+package org.asterope.geometry;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.distorter.DSS;
+
+public class ParallelTransformerTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private ForkJoinPool pool;
+
+    protected void setUp() {
+	pool = new ForkJoinPool(4);
+    }
+
+    protected void tearDown() {
+	pool.shutdown();
+    }
+
+    /** A WCS in J2000 preceded by the conversion from another system. */
+    private Converter build(String projection, CoordinateSystem csys) throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 40;
+	b.refDe = D2R * 60;
+	b.width = 1000;
+	b.height = 1000;
+	b.projection = projection;
+	b.pixelScale = D2R * 10 / 1000;
+	Converter c = new Converter();
+	c.add(csys.getSphereDistorter());
+	c.add(csys.getRotater());
+	c.add(b.build());
+	return c;
+    }
+
+    /** The parallel results must be the same as those of a single thread. */
+    private void check(String name, Transformer t, double[][] in, int odim) throws Exception {
+	int n = in[0].length;
+	double[][] expected = new double[odim][n];
+	t.transform(in, expected);
+
+	ParallelTransformer p = new ParallelTransformer(t, pool, 1000);
+	double[][] out = new double[odim][n];
+	p.transform(in, out);
+	for (int j = 0; j < odim; j++) {
+	    for (int i = 0; i < n; i++) {
+		BatchTransformTest.assertClose(name, expected[j][i], out[j][i]);
+	    }
+	}
+
+	CoordinateBuffer bin = CoordinateBuffer.allocateDirect(in.length, n, true);
+	bin.write(0, n, in, 0);
+	CoordinateBuffer bout = CoordinateBuffer.allocateDirect(odim, n, false);
+	p.transform(bin, bout);
+	for (int j = 0; j < odim; j++) {
+	    for (int i = 0; i < n; i++) {
+		BatchTransformTest.assertClose(name + " buffer", expected[j][i], bout.get(i, j));
+	    }
+	}
+    }
+
+    public void testWCS() throws Exception {
+	double[][] sky = BatchTransformTest.sphere(20000, 11);
+	check("J2000 Tan", build("Tan", CoordinateSystem.J2000), sky, 2);
+	check("B1950 Arc", build("Arc", CoordinateSystem.B1950), sky, 2);
+	check("Gal Toa", build("Toa", CoordinateSystem.Gal), sky, 2);
+    }
+
+    public void testMixedChain() throws Exception {
+	double[] x = new double[13];
+	double[] y = new double[13];
+	x[0] = 1;
+	x[1] = 1e-3;
+	x[3] = 1e-5;
+	y[0] = 1;
+	y[1] = -1e-3;
+	y[5] = 2e-5;
+	DSS dss = new DSS(0, 0, 25, 25, 67, null, x, y);
+
+	Converter c = new Converter();
+	c.add(CoordinateSystem.B1950.getSphereDistorter());
+	c.add(new Projection("Sin", new double[]{0, 0}).getProjecter());
+	c.add(dss);
+	c.add(new Scaler(500, 500, 1e4, 0, 0, 1e4));
+
+	double[][] sky = BatchTransformTest.sphere(15000, 12);
+	check("mixed", c, sky, 2);
+	check("mixed inverse", c.inverse(), new double[][]{
+		BatchTransformTest.sphere(15000, 13)[0],
+		BatchTransformTest.sphere(15000, 14)[1]}, 3);
+    }
+
+    public void testInPlace() throws Exception {
+	Converter c = new Converter();
+	c.add(new Scaler(-500, -500, 1e-4, 0, 0, 1e-4));
+	c.add(new Projection("Tan", new double[]{0, 0}).getProjecter().inverse());
+	c.add(new Projection("Zea", new double[]{0, 0}).getProjecter());
+	c.add(new Scaler(500, 500, 1e4, 0, 0, 1e4));
+
+	ParallelTransformer p = new ParallelTransformer(c, pool, 500);
+	double[][] pix = new double[2][5000];
+	for (int i = 0; i < 5000; i++) {
+	    pix[0][i] = i % 1000;
+	    pix[1][i] = i / 5;
+	}
+	double[][] expected = new double[2][5000];
+	c.transform(pix, expected);
+	p.transform(pix, pix);
+	for (int j = 0; j < 2; j++) {
+	    for (int i = 0; i < 5000; i++) {
+		BatchTransformTest.assertClose("in place", expected[j][i], pix[j][i]);
+	    }
+	}
+    }
+}
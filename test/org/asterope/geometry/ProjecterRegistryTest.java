@@ -0,0 +1,62 @@
+package org.asterope.geometry;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.projecter.Hpx;
+import org.asterope.geometry.projecter.Tan;
+
+public class ProjecterRegistryTest extends TestCase {
+
+    public void testBuiltIns() throws Exception {
+	ProjecterRegistry r = ProjecterRegistry.getDefault();
+	for (String p : WCSBuilder.projections) {
+	    assertTrue(p, r.contains(p));
+	    assertEquals(p, r.create(p).getClass().getSimpleName());
+	}
+	assertTrue(r.contains("Tea"));
+    }
+
+    public void testSharing() throws Exception {
+	ProjecterRegistry r = ProjecterRegistry.getDefault();
+	assertSame(r.create("Tan"), r.create("Tan"));
+	assertSame(new Projection("Sin", new double[]{1, 1}).getProjecter(),
+		   new Projection("Sin", new double[]{2, 0}).getProjecter());
+	// These have settable state.
+	assertNotSame(r.create("Hpx"), r.create("Hpx"));
+	assertNotSame(r.create("Toa"), r.create("Toa"));
+    }
+
+    public void testUnknown() throws Exception {
+	try {
+	    new Projection("Xyz", new double[]{0, 0});
+	    fail();
+	} catch (TransformationException e) {
+	    // expected
+	}
+	// Class names still work.
+	assertTrue(ProjecterRegistry.getDefault().create(Hpx.class.getName()) instanceof Hpx);
+    }
+
+    protected void tearDown() {
+	ProjecterRegistry.getDefault().unregister("MyTan");
+    }
+
+    public void testRegister() throws Exception {
+	ProjecterRegistry r = new ProjecterRegistry();
+	assertFalse(r.contains("Tan"));
+	r.register("MyTan", Tan::new, false);
+	assertTrue(r.create("MyTan") instanceof Tan);
+	assertNotSame(r.create("MyTan"), r.create("MyTan"));
+	assertTrue(r.names().contains("MyTan"));
+	r.unregister("MyTan");
+	assertFalse(r.contains("MyTan"));
+	assertFalse(ProjecterRegistry.getDefault().contains("MyTan"));
+    }
+
+    /** Projection finds projections registered in the default registry. */
+    public void testRegisterDefault() throws Exception {
+	ProjecterRegistry.getDefault().register("MyTan", Tan::new, false);
+	Projection p = new Projection("MyTan", new double[]{0.5, 0.5});
+	assertTrue(p.getProjecter() instanceof Tan);
+    }
+}
@@ -0,0 +1,175 @@
+package org.asterope.geometry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.distorter.DSS;
+import org.asterope.geometry.distorter.Neat;
+
+/**
+ * Stress test for sharing transformers between threads.  Each chain
+ * is evaluated once in a single thread and then by many threads at the
+ * same time, both through the compiled Converter and by calling the
+ * components one at a time; every answer must be the same.
+ */
+public class ThreadSafetyTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 10;
+    private static final int POINTS = 400;
+
+    private ExecutorService exec;
+
+    protected void setUp() {
+	exec = Executors.newFixedThreadPool(THREADS);
+    }
+
+    protected void tearDown() {
+	exec.shutdown();
+    }
+
+    private static CoordinateSystem[] systems() {
+	return new CoordinateSystem[]{
+	    CoordinateSystem.J2000, CoordinateSystem.B1950, CoordinateSystem.Gal,
+	    CoordinateSystem.ICRS, CoordinateSystem.factory("E2000"),
+	    CoordinateSystem.factory("H2000"), CoordinateSystem.factory("B1900")};
+    }
+
+    private static Distorter[] distorters() {
+	double[] x = new double[13];
+	double[] y = new double[13];
+	x[0] = 1;
+	x[3] = 1e-6;
+	x[11] = 1e-9;
+	y[0] = 1;
+	y[5] = -1e-6;
+	y[12] = 1e-12;
+	return new Distorter[]{new DSS(0, 0, 25, 25, 67, null, x, y), new Neat(0.01, 0, 0)};
+    }
+
+    private Converter chain(CoordinateSystem csys, String projection, Distorter dist) throws Exception {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 30;
+	b.refDe = D2R * 50;
+	b.width = 1000;
+	b.height = 1000;
+	b.projection = projection;
+	b.pixelScale = D2R * 20 / 1000;
+	WCS wcs = b.build();
+
+	Converter c = new Converter();
+	c.add(csys.getSphereDistorter());
+	c.add(csys.getRotater());
+	for (Transformer t : wcs.compile().getComponents()) {
+	    if (t instanceof Scaler && dist != null) {
+		c.add(dist);
+	    }
+	    c.add(t);
+	}
+	return c;
+    }
+
+    /** Apply the components one at a time, with new arrays for each step. */
+    private static double[][] byComponent(Transformer[] parts, double[][] in) {
+	double[][] x = in;
+	for (Transformer t : parts) {
+	    double[][] y = new double[t.getOutputDimension()][x[0].length];
+	    t.transform(x, 0, y, 0, x[0].length);
+	    x = y;
+	}
+	return x;
+    }
+
+    private static double[][] pointwise(Transformer t, double[][] in, int odim) {
+	double[][] out = new double[odim][in[0].length];
+	double[] a = new double[in.length];
+	double[] b = new double[odim];
+	for (int i = 0; i < in[0].length; i++) {
+	    for (int j = 0; j < in.length; j++) {
+		a[j] = in[j][i];
+	    }
+	    t.transform(a, b);
+	    for (int j = 0; j < odim; j++) {
+		out[j][i] = b[j];
+	    }
+	}
+	return out;
+    }
+
+    private static void same(String name, double[][] expected, double[][] actual) {
+	for (int j = 0; j < expected.length; j++) {
+	    for (int i = 0; i < expected[j].length; i++) {
+		if (Double.compare(expected[j][i], actual[j][i]) != 0) {
+		    fail(name + " [" + j + "][" + i + "] " + expected[j][i] + " != " + actual[j][i]);
+		}
+	    }
+	}
+    }
+
+    /** Run the chain and its inverse from all threads at once. */
+    private void stress(final String name, final Converter c) throws Exception {
+	final Converter inv = c.inverse();
+	final Transformer[] parts = c.compile().getComponents();
+	final Transformer[] invParts = inv.compile().getComponents();
+
+	final double[][] sky = BatchTransformTest.sphere(POINTS, name.hashCode());
+	final double[][] pix = new double[2][POINTS];
+	for (int i = 0; i < POINTS; i++) {
+	    pix[0][i] = 50 * (i % 20) + 7;
+	    pix[1][i] = 50 * (i / 20) + 3;
+	}
+
+	final double[][] eBlock = byComponent(parts, sky);
+	final double[][] ePoint = pointwise(c, sky, 2);
+	final double[][] eInvBlock = byComponent(invParts, pix);
+	final double[][] eInvPoint = pointwise(inv, pix, 3);
+
+	final CountDownLatch start = new CountDownLatch(1);
+	List<Future<Void>> results = new ArrayList<Future<Void>>();
+	for (int k = 0; k < THREADS; k++) {
+	    results.add(exec.submit(new Callable<Void>() {
+		public Void call() throws Exception {
+		    start.await();
+		    for (int r = 0; r < ROUNDS; r++) {
+			same(name + " components", eBlock, byComponent(parts, sky));
+			same(name + " point", ePoint, pointwise(c, sky, 2));
+			same(name + " inverse components", eInvBlock, byComponent(invParts, pix));
+			same(name + " inverse point", eInvPoint, pointwise(inv, pix, 3));
+		    }
+		    return null;
+		}
+	    }));
+	}
+	start.countDown();
+	for (Future<Void> f : results) {
+	    f.get();
+	}
+    }
+
+    public void testProjections() throws Exception {
+	for (String p : WCSBuilder.projections) {
+	    stress(p, chain(CoordinateSystem.J2000, p, null));
+	}
+    }
+
+    public void testCoordinateSystems() throws Exception {
+	for (CoordinateSystem csys : systems()) {
+	    stress(csys.getName(), chain(csys, "Tan", null));
+	}
+    }
+
+    public void testDistorters() throws Exception {
+	for (Distorter d : distorters()) {
+	    stress(d.getName(), chain(CoordinateSystem.B1950, "Sin", d));
+	}
+    }
+}
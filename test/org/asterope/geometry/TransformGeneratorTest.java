@@ -0,0 +1,87 @@
+package org.asterope.geometry;
+
+import junit.framework.TestCase;
+
+/**
+ * The generated transformers must give the same answers as the
+ * compiled transforms they are made from.
+ */
+public class TransformGeneratorTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private WCS build(String projection) throws TransformationException {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 250;
+	b.refDe = D2R * 60;
+	b.width = 800;
+	b.height = 600;
+	b.projection = projection;
+	b.pixelScale = D2R * 30 / 800;
+	return b.build();
+    }
+
+    /** Compare a generated transformer with the original point by point and in blocks. */
+    private void compare(String name, CompiledTransform c, double[][] in, int odim) {
+
+	Transformer g = TransformGenerator.generate(c);
+	if (TransformGenerator.isAvailable()) {
+	    assertTrue(name, g instanceof GeneratedTransformer);
+	}
+
+	int n = in[0].length;
+	double[][] expected = new double[odim][n];
+	double[][] actual = new double[odim][n];
+	c.transform(in, 0, expected, 0, n);
+	g.transform(in, 0, actual, 0, n);
+
+	double[] x = new double[in.length];
+	double[] y = new double[odim];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < in.length; j++) {
+		x[j] = in[j][i];
+	    }
+	    g.transform(x, y);
+	    for (int j = 0; j < odim; j++) {
+		BatchTransformTest.assertClose(name + " block " + i, expected[j][i], actual[j][i]);
+		BatchTransformTest.assertClose(name + " point " + i, expected[j][i], y[j]);
+	    }
+	}
+    }
+
+    public void testProjections() throws Exception {
+	double[][] sky = BatchTransformTest.sphere(1000, 7);
+	double[][] pix = new double[2][1000];
+	for (int i = 0; i < 1000; i++) {
+	    pix[0][i] = -200 + 1200 * (i % 40) / 40.;
+	    pix[1][i] = -200 + 1000 * (i / 40) / 25.;
+	}
+	for (String name : WCSBuilder.projections) {
+	    CompiledTransform c = build(name).compile();
+	    compare(name, c, sky, 2);
+	    compare(name + " inverse", c.inverse(), pix, 3);
+	}
+    }
+
+    /** A chain with components which are called rather than inlined. */
+    public void testMixed() throws Exception {
+	Converter conv = new Converter();
+	conv.add(CoordinateSystem.B1950.getSphereDistorter());
+	conv.add(CoordinateSystem.B1950.getRotater());
+	conv.add(new Rotater("ZYZ", 0.2, 0.4, 0.6));
+	conv.add(new Projection("Ait").getProjecter());
+	conv.add(new Scaler(10, 20, 100, 1, -1, 100));
+
+	double[][] sky = BatchTransformTest.sphere(700, 8);
+	compare("mixed", conv.compile(), sky, 2);
+
+	Transformer g = TransformGenerator.generate(conv);
+	Transformer inv = g.inverse();
+	assertTrue(g.isInverse(inv));
+	double[] unit = Utilities.rade2Vector(D2R * 20, D2R * 10);
+	double[] back = inv.transform(g.transform(unit));
+	for (int i = 0; i < 3; i++) {
+	    assertEquals(unit[i], back[i], 1e-9);
+	}
+    }
+}
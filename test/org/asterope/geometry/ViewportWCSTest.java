@@ -0,0 +1,141 @@
+package org.asterope.geometry;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+
+public class ViewportWCSTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private static double[][] points(int n) {
+	Random r = new Random(11);
+	double[][] v = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double lon = 2 * Math.PI * r.nextDouble();
+	    double lat = Math.asin(2 * r.nextDouble() - 1);
+	    v[0][i] = Math.cos(lon) * Math.cos(lat);
+	    v[1][i] = Math.sin(lon) * Math.cos(lat);
+	    v[2][i] = Math.sin(lat);
+	}
+	return v;
+    }
+
+    private WCS built(ViewportWCS v) throws Exception {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = v.getRefRa();
+	b.refDe = v.getRefDe();
+	b.width = v.getWidth();
+	b.height = v.getHeight();
+	b.projection = v.getProjection();
+	b.pixelScale = v.getPixelScale();
+	b.rotation = v.getRotation();
+	return b.build();
+    }
+
+    private static void same(Transformer expected, Transformer actual, double[][] in, int outDim, double tol) {
+	int n = in[0].length;
+	double[][] a = new double[outDim][n];
+	double[][] b = new double[outDim][n];
+	expected.transform(in, 0, a, 0, n);
+	actual.transform(in, 0, b, 0, n);
+	for (int i = 0; i < n; i++) {
+	    if (Double.isNaN(a[0][i])) {
+		continue;
+	    }
+	    double[] p = {in[0][i], in[1][i], in[2 % in.length][i]};
+	    if (in.length == 2) {
+		p = new double[]{in[0][i], in[1][i]};
+	    }
+	    double[] q = actual.transform(p);
+	    for (int k = 0; k < outDim; k++) {
+		assertEquals(i + " " + k, a[k][i], b[k][i], tol);
+		assertEquals(i + " " + k, b[k][i], q[k], tol);
+	    }
+	}
+    }
+
+    /** After each kind of update the snapshot matches a freshly built WCS. */
+    public void testMatchesBuilder() throws Exception {
+	double[][] sky = points(2000);
+	for (String p : new String[]{"Tan", "Sin", "Zea", "Arc", "Ait", "Car", "Toa"}) {
+	    ViewportWCS v = new ViewportWCS(p, D2R * 150, D2R * 20, 800, 600, D2R * 10 / 800);
+	    ViewportWCS.Snapshot s = v.newSnapshot();
+	    same(built(v), s, sky, 2, 1e-6);
+
+	    v.pan(D2R * 3, D2R * -4);
+	    v.zoom(2);
+	    v.rotate(0.3);
+	    v.resize(1024, 768);
+	    assertTrue(v.refresh(s));
+	    assertFalse(v.refresh(s));
+	    WCS w = built(v);
+	    same(w, s, sky, 2, 1e-6);
+	    same(v.toWCS(), s, sky, 2, 1e-6);
+
+	    // And back from the pixels.
+	    double[][] pix = new double[2][400];
+	    Random r = new Random(5);
+	    for (int i = 0; i < 400; i++) {
+		pix[0][i] = 1024 * r.nextDouble();
+		pix[1][i] = 768 * r.nextDouble();
+	    }
+	    same(w.inverse(), s.inverse(), pix, 3, 1e-9);
+	}
+    }
+
+    public void testOtherCoordinateSystem() throws Exception {
+	CoordinateSystem csys = CoordinateSystem.B1950;
+	ViewportWCS v = new ViewportWCS(csys, "Tan", D2R * 40, D2R * -30, 500, 500, D2R * 5 / 500);
+	v.pan(0.01, 0.02);
+	Converter c = new Converter();
+	c.add(csys.getSphereDistorter());
+	c.add(csys.getRotater());
+	Projection proj = new Projection("Tan", new double[]{v.getRefRa(), v.getRefDe()});
+	c.add(proj.getRotater());
+	c.add(proj.getProjecter());
+	c.add(v.toWCS().getScaler());
+	same(c, v.newSnapshot(), points(1000), 2, 1e-6);
+    }
+
+    /** A snapshot is always one of the states the writer published. */
+    public void testConsistentSnapshots() throws Exception {
+	final ViewportWCS v = new ViewportWCS("Tan", 0, 0, 100, 100, D2R / 100);
+	final double[] center = {1, 0, 0};
+	final AtomicBoolean stop = new AtomicBoolean();
+	Thread writer = new Thread() {
+	    public void run() {
+		int k = 0;
+		while (!stop.get()) {
+		    // Alternate between two views in which the point lands on known pixels.
+		    if ((k++ & 1) == 0) {
+			v.setCenter(0, 0);
+			v.resize(100, 100);
+		    } else {
+			v.setCenter(D2R, 0);
+			v.resize(200, 300);
+		    }
+		}
+	    }
+	};
+	writer.start();
+	try {
+	    ViewportWCS.Snapshot s = v.newSnapshot();
+	    double[] out = new double[2];
+	    for (int i = 0; i < 20000; i++) {
+		v.refresh(s);
+		s.transform(center, out);
+		// Either view, or the first half of either update.
+		boolean found = false;
+		for (double[] e : new double[][]{{50, 50}, {150, 50}, {200, 150}, {100, 150}}) {
+		    found |= Math.abs(out[0] - e[0]) < 0.05 && Math.abs(out[1] - e[1]) < 0.05;
+		}
+		assertTrue(out[0] + " " + out[1], found);
+	    }
+	} finally {
+	    stop.set(true);
+	    writer.join();
+	}
+    }
+}
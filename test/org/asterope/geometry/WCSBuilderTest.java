@@ -122,4 +122,24 @@ public class WCSBuilderTest extends TestCase {
         assertEquals(v2[1], 300d);
 
     }
+
+    /** Building a fixed point projection must not change its default reference. */
+    public void testFixedProjectionTwice() throws TransformationException {
+        WCSBuilder wcsBuilder = new WCSBuilder();
+        wcsBuilder.refRa = D2R * 30;
+        wcsBuilder.refDe = D2R * 50;
+        wcsBuilder.width = 800;
+        wcsBuilder.height = 600;
+        wcsBuilder.projection = "Ait";
+        wcsBuilder.pixelScale = D2R * 10 / 800;
+
+        WCS wcs1 = wcsBuilder.build();
+        WCS wcs2 = wcsBuilder.build();
+
+        double[] ref = Utilities.rade2Vector(wcsBuilder.refRa, wcsBuilder.refDe);
+        double[] v1 = wcs1.transform(ref);
+        double[] v2 = wcs2.transform(ref);
+        assertEquals(v1[0], v2[0], 1e-9);
+        assertEquals(v1[1], v2[1], 1e-9);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package org.asterope.geometry.csys;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.Rotater;
+import org.asterope.geometry.TransformationException;
+
+public class EpochFrameCacheTest extends TestCase {
+
+    private static void close(Rotater expected, double[] m, double tol) {
+	double[][] e = expected.getMatrix();
+	for (int j = 0; j < 9; j++) {
+	    assertEquals(j + "", e[j / 3][j % 3], m[j], tol);
+	}
+    }
+
+    /** Interpolated rotations are as accurate as the cache says. */
+    public void testAccuracy() throws Exception {
+	Random r = new Random(21);
+	double[] m = new double[9];
+	for (String type : new String[]{"J", "B", "E", "H"}) {
+	    // The Sun moves about a degree a day, and not uniformly.
+	    boolean helio = type.equals("H");
+	    double step = helio ? 0.25 / 365.25 : 1;
+	    EpochFrameCache c = new EpochFrameCache(type, 1990, 2010, step);
+	    assertTrue(type + " " + c.getAccuracy(), c.getAccuracy() < (helio ? 1e-7 : 1e-9));
+	    for (int i = 0; i < 200; i++) {
+		double epoch = 1990 + 20 * r.nextDouble();
+		c.matrix(epoch, m);
+		close(exact(type, epoch), m, 2 * c.getAccuracy() + 1e-14);
+	    }
+	    // Grid points and outside of the range.
+	    for (double epoch : new double[]{1990, 2000, c.getEnd(), 1950, 2050}) {
+		c.matrix(epoch, m);
+		close(exact(type, epoch), m, 1e-14);
+	    }
+	}
+    }
+
+    private static Rotater exact(String type, double epoch) throws Exception {
+	Rotater r = org.asterope.geometry.CoordinateSystem.factory(type + epoch).getRotater();
+	return r == null ? new Rotater(new double[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}}) : r;
+    }
+
+    public void testWithAccuracy() throws Exception {
+	EpochFrameCache c = EpochFrameCache.withAccuracy("H", 2020, 2021, 1e-8);
+	assertTrue(c.getAccuracy() <= 1e-8);
+	assertTrue(c.getStep() < 1);
+    }
+
+    public void testBatch() throws Exception {
+	EpochFrameCache c = new EpochFrameCache("Ecliptic", 2000, 2030, 0.5);
+	double[] epochs = {2001.3, 2017.9, 2029.99};
+	Rotater[] rs = new Rotater[3];
+	c.getRotaters(epochs, rs);
+	double[][] v = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+	c.rotate(epochs, v, 0, v, 0, 3);
+	for (int i = 0; i < 3; i++) {
+	    double[] u = new double[]{i == 0 ? 1 : 0, i == 1 ? 1 : 0, i == 2 ? 1 : 0};
+	    double[] w = rs[i].transform(u);
+	    for (int k = 0; k < 3; k++) {
+		assertEquals(w[k], v[k][i], 1e-15);
+	    }
+	}
+    }
+
+    public void testInvalid() throws Exception {
+	try {
+	    new EpochFrameCache("Galactic", 2000, 2010, 1);
+	    fail();
+	} catch (TransformationException e) {
+	    // expected
+	}
+    }
+}
@@ -0,0 +1,165 @@
+package org.asterope.geometry.projecter;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class HpxIndexTest extends TestCase {
+
+    private static double[][] sphere(int n, long seed) {
+	Random r = new Random(seed);
+	double[][] u = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double z = 2 * r.nextDouble() - 1;
+	    double phi = 2 * Math.PI * r.nextDouble();
+	    double c = Math.sqrt(1 - z * z);
+	    u[0][i] = c * Math.cos(phi);
+	    u[1][i] = c * Math.sin(phi);
+	    u[2][i] = z;
+	}
+	return u;
+    }
+
+    /** Pixels whose positions are fixed by the definition of HEALPix. */
+    public void testKnownPixels() {
+	HpxIndex ring = new HpxIndex(0, HpxIndex.Scheme.RING);
+	double[] ll = new double[2];
+	ring.pix2ang(0, ll);
+	assertEquals(Math.PI / 4, ll[0], 1e-15);
+	assertEquals(Math.asin(2. / 3), ll[1], 1e-15);
+	ring.pix2ang(4, ll);
+	assertEquals(0, ll[0], 1e-15);
+	assertEquals(0, ll[1], 1e-15);
+
+	HpxIndex nest = new HpxIndex(3, HpxIndex.Scheme.NESTED);
+	assertEquals(63, nest.vec2pix(0, 0, 1));
+	assertEquals(8 * 64, nest.vec2pix(0, 0, -1));
+	HpxIndex ring3 = new HpxIndex(3, HpxIndex.Scheme.RING);
+	assertEquals(0, ring3.vec2pix(0, 0, 1));
+	assertEquals(ring3.getNpix() - 4, ring3.vec2pix(0, 0, -1));
+	assertEquals(-1, ring3.vec2pix(Double.NaN, 0, 0));
+    }
+
+    /** The schemes agree, pixel centers fall in their own pixels
+     *  and the RING numbers run from north to south.
+     */
+    public void testSchemes() {
+	for (int order : new int[]{0, 1, 4}) {
+	    HpxIndex nest = new HpxIndex(order, HpxIndex.Scheme.NESTED);
+	    HpxIndex ring = new HpxIndex(order, HpxIndex.Scheme.RING);
+	    double[] u = new double[3];
+	    double lastZ = 1;
+	    for (long p = 0; p < nest.getNpix(); p++) {
+		assertEquals(p, ring.nest2ring(ring.ring2nest(p)));
+		nest.pix2vec(p, u);
+		assertEquals(p, nest.vec2pix(u[0], u[1], u[2]));
+		assertEquals(nest.nest2ring(p), ring.vec2pix(u[0], u[1], u[2]));
+		ring.pix2vec(p, u);
+		assertEquals(p, ring.vec2pix(u[0], u[1], u[2]));
+		assertTrue(u[2] <= lastZ);
+		lastZ = u[2];
+	    }
+	}
+    }
+
+    /** A NESTED pixel contains the four pixels at the next order. */
+    public void testHierarchy() {
+	int n = 10000;
+	double[][] u = sphere(n, 3);
+	long[] fine = new long[n];
+	long[] coarse = new long[n];
+	new HpxIndex(29, HpxIndex.Scheme.NESTED).vec2pix(u, 0, fine, 0, n);
+	new HpxIndex(20, HpxIndex.Scheme.NESTED).vec2pix(u, 0, coarse, 0, n);
+	for (int i = 0; i < n; i++) {
+	    assertEquals(coarse[i], fine[i] >>> 18);
+	}
+    }
+
+    /** At the largest order pixel centers are within a pixel of the position. */
+    public void testLargeOrder() {
+	int n = 10000;
+	double[][] u = sphere(n, 5);
+	double[][] c = new double[3][n];
+	long[] pix = new long[n];
+	for (HpxIndex.Scheme s : HpxIndex.Scheme.values()) {
+	    HpxIndex h = new HpxIndex(29, s);
+	    h.vec2pix(u, 0, pix, 0, n);
+	    h.pix2vec(pix, 0, c, 0, n);
+	    double size = Math.sqrt(4 * Math.PI / h.getNpix());
+	    for (int i = 0; i < n; i++) {
+		double dx = u[0][i] - c[0][i];
+		double dy = u[1][i] - c[1][i];
+		double dz = u[2][i] - c[2][i];
+		assertTrue(Math.sqrt(dx * dx + dy * dy + dz * dz) < size);
+	    }
+	}
+    }
+
+    /** Angles agree with the vectors, and the schemes convert at the largest order. */
+    public void testAnglesAndLargeOrderSchemes() {
+	Random r = new Random(11);
+	double[] u = new double[3];
+	double[] ll = new double[2];
+	for (HpxIndex.Scheme s : HpxIndex.Scheme.values()) {
+	    HpxIndex h = new HpxIndex(29, s);
+	    for (int i = 0; i < 10000; i++) {
+		long p = (long) (r.nextDouble() * h.getNpix());
+		assertEquals(p, h.nest2ring(h.ring2nest(p)));
+		h.pix2vec(p, u);
+		h.pix2ang(p, ll);
+		assertTrue(ll[0] >= 0 && ll[0] < 2 * Math.PI);
+		assertEquals(Math.cos(ll[1]) * Math.cos(ll[0]), u[0], 1e-15);
+		assertEquals(Math.cos(ll[1]) * Math.sin(ll[0]), u[1], 1e-15);
+		assertEquals(Math.sin(ll[1]), u[2], 1e-15);
+	    }
+	}
+    }
+
+    /** Neighbours are mutual and only missing where three faces meet. */
+    public void testNeighbours() {
+	for (HpxIndex.Scheme s : HpxIndex.Scheme.values()) {
+	    HpxIndex h = new HpxIndex(2, s);
+	    long[] nb = new long[8];
+	    long[] back = new long[8];
+	    int missing = 0;
+	    for (long p = 0; p < h.getNpix(); p++) {
+		h.neighbours(p, nb);
+		Set<Long> seen = new HashSet<Long>();
+		for (int i = 0; i < 8; i++) {
+		    if (nb[i] < 0) {
+			assertTrue(i % 2 == 1);
+			missing++;
+			continue;
+		    }
+		    assertTrue(nb[i] != p && seen.add(nb[i]));
+		    h.neighbours(nb[i], back);
+		    boolean found = false;
+		    for (long q : back) {
+			found |= q == p;
+		    }
+		    assertTrue(s + " " + p + " " + nb[i], found);
+		}
+	    }
+	    assertEquals(24, missing);
+	}
+    }
+
+    /** Hpx numbers its pixels as the NESTED scheme. */
+    public void testHpxPixels() {
+	int n = 20000;
+	double[][] u = sphere(n, 7);
+	Hpx hpx = new Hpx(4);
+	HpxIndex nest = hpx.getIndex();
+	double[] unit = new double[3];
+	double[] plane = new double[2];
+	for (int i = 0; i < n; i++) {
+	    unit[0] = u[0][i];
+	    unit[1] = u[1][i];
+	    unit[2] = u[2][i];
+	    Hpx.proj(unit, plane);
+	    assertEquals(nest.vec2pix(unit[0], unit[1], unit[2]), hpx.getPixel(plane));
+	}
+    }
+}
@@ -0,0 +1,86 @@
+package org.asterope.geometry.projecter;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.Utilities;
+
+public class TeaTest extends TestCase {
+
+    /** Values given by the earlier implementation which
+     *  folded the plane with loops.
+     */
+    public void testValues() throws Exception {
+	Tea t = new Tea();
+	double[][] units = {{0.6, 0, 0.8}, {-0.48, 0.6, -0.64}, {0.3, -0.4, Math.sqrt(0.75)}};
+	double[][] planes = {{0.7926654595212022, 0.0},
+			     {-1.1657997137970786, 1.3156356774706435},
+			     {0.2657758937548233, -0.38298724271215145}};
+	for (int i = 0; i < units.length; i++) {
+	    double[] p = t.transform(units[i]);
+	    assertEquals(planes[i][0], p[0], 0);
+	    assertEquals(planes[i][1], p[1], 0);
+	}
+
+	Transformer d = t.inverse();
+	double[][] in = {{0.3, -1.2}, {2.5, 3.1}, {-4.4, 0.7}};
+	double[][] out = {{0.29631104399504515, -0.9119516219867638, 0.2838027560864711},
+			  {0.8526971573411763, 0.43216670344859176, 0.29349531221580705},
+			  {0.7398459808083149, 0.6321576426885129, 0.23022736473383232}};
+	for (int i = 0; i < in.length; i++) {
+	    double[] u = d.transform(in[i]);
+	    for (int k = 0; k < 3; k++) {
+		assertEquals(out[i][k], u[k], 0);
+	    }
+	}
+    }
+
+    /** Positions far outside the square fold back in one step. */
+    public void testFolding() throws Exception {
+	Transformer d = new Tea().inverse();
+	double rat = Math.sqrt(Math.PI);
+	double[] a = d.transform(new double[]{0.3 * rat, -0.4 * rat});
+	double[] b = d.transform(new double[]{(0.3 + 2e6) * rat, (-0.4 - 4e6) * rat});
+	for (int k = 0; k < 3; k++) {
+	    assertEquals(a[k], b[k], 1e-6);
+	}
+	// This used to loop forever.
+	d.transform(new double[]{Double.POSITIVE_INFINITY, 0});
+    }
+
+    /** Polygons are projected in a block and split like straddleComponents. */
+    public void testPolygons() throws Exception {
+	Tea t = new Tea();
+	double[][] corners = {{85, 5}, {95, 5}, {95, 15}, {85, 15},
+			      {10, -60}, {20, -60}, {20, -50}, {10, -50},
+			      {175, -30}, {185, -30}, {185, -20}, {175, -20}};
+	int n = corners.length;
+	double[][] unit = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double[] u = Utilities.rade2Vector(Math.toRadians(corners[i][0]), Math.toRadians(corners[i][1]));
+	    for (int k = 0; k < 3; k++) {
+		unit[k][i] = u[k];
+	    }
+	}
+	double[][][][] polys = t.projectPolygons(unit, 0, 3, 4);
+	assertEquals(3, polys.length);
+	for (int i = 0; i < 3; i++) {
+	    double[][] vert = new double[2][4];
+	    for (int j = 0; j < 4; j++) {
+		double[] p = t.transform(new double[]{unit[0][4 * i + j], unit[1][4 * i + j], unit[2][4 * i + j]});
+		vert[0][j] = p[0];
+		vert[1][j] = p[1];
+	    }
+	    double[][][] expect = t.straddle(vert) ? t.straddleComponents(vert) : new double[][][]{vert};
+	    assertEquals(expect.length, polys[i].length);
+	    for (int c = 0; c < expect.length; c++) {
+		for (int k = 0; k < 2; k++) {
+		    assertEquals(expect[c][k].length, polys[i][c][k].length);
+		    for (int j = 0; j < expect[c][k].length; j++) {
+			assertEquals(expect[c][k][j], polys[i][c][k][j], 0);
+		    }
+		}
+	    }
+	}
+    }
+}
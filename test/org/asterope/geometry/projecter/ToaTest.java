@@ -0,0 +1,72 @@
+package org.asterope.geometry.projecter;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.Transformer;
+
+public class ToaTest extends TestCase {
+
+    private static final double[][] UNITS = {{0.6, 0, 0.8}, {-0.48, 0.6, -0.64}, {0.3, -0.4, Math.sqrt(0.75)}};
+
+    private static void check(Toa t, double[][] expected, double[] deproj) {
+	for (int i = 0; i < UNITS.length; i++) {
+	    double[] p = t.transform(UNITS[i]);
+	    assertEquals(expected[i][0], p[0], 0);
+	    assertEquals(expected[i][1], p[1], 0);
+	}
+	double[] u = t.inverse().transform(new double[]{0.3, -1.2});
+	for (int k = 0; k < 3; k++) {
+	    assertEquals(deproj[k], u[k], 0);
+	}
+    }
+
+    /** Values given by the earlier implementation which
+     *  subdivided every level afresh.
+     */
+    public void testValues() throws Exception {
+	Toa t = new Toa();
+	check(t, new double[][]{{0.6435011085869826, 9.143237995419748E-11},
+				{-1.0225871657400216, 1.13272305784486},
+				{0.28432959012012926, -0.3840753239017398}},
+	      new double[]{0.29811666130423686, -0.9517786608371691, 0.07241434269411033});
+
+	// Coarser than the precomputed levels.
+	t.setPrecision(1e-20, 1e-3);
+	check(t, new double[][]{{0.6427379501240836, 0.0},
+				{-1.0231651855197226, 1.1336118022474888},
+				{0.2837864457588436, -0.38349519697141027}},
+	      new double[]{0.29777745701413516, -0.9518632593682049, 0.07269746597462969});
+    }
+
+    /** The block transforms give the same results as single points. */
+    public void testBlock() throws Exception {
+	Toa t = new Toa();
+	Transformer d = t.inverse();
+	Random r = new Random(23);
+	int n = 500;
+	double[][] sky = new double[3][n];
+	for (int i = 0; i < n; i++) {
+	    double l = 2 * Math.PI * r.nextDouble();
+	    double b = Math.asin(2 * r.nextDouble() - 1);
+	    sky[0][i] = Math.cos(l) * Math.cos(b);
+	    sky[1][i] = Math.sin(l) * Math.cos(b);
+	    sky[2][i] = Math.sin(b);
+	}
+	double[][] plane = new double[2][n];
+	double[][] back = new double[3][n];
+	t.transform(sky, 0, plane, 0, n);
+	d.transform(plane, 0, back, 0, n);
+	for (int i = 0; i < n; i++) {
+	    double[] p = t.transform(new double[]{sky[0][i], sky[1][i], sky[2][i]});
+	    assertEquals(p[0], plane[0][i], 0);
+	    assertEquals(p[1], plane[1][i], 0);
+	    double[] u = d.transform(p);
+	    for (int k = 0; k < 3; k++) {
+		assertEquals(u[k], back[k][i], 0);
+		assertEquals(sky[k][i], back[k][i], 1e-7);
+	    }
+	}
+    }
+}
@@ -0,0 +1,125 @@
+package org.asterope.geometry.projecter;
+
+import junit.framework.TestCase;
+
+public class ToaTileCacheTest extends TestCase {
+
+    /** Grid nodes match the exact deprojection. */
+    public void testGridValues() {
+	Toa exact = new Toa();
+	Toa gridded = new Toa();
+	ToaTileCache cache = new ToaTileCache(1 << 20);
+	gridded.setGrid(2, 3, cache);
+
+	Toa.ToaDeproj e = (Toa.ToaDeproj) exact.inverse();
+	Toa.ToaDeproj g = (Toa.ToaDeproj) gridded.inverse();
+	int nodes = 32;
+	for (int i = 0; i < nodes; i++) {
+	    for (int j = 0; j < nodes; j++) {
+		double x = -1 + 2. * i / nodes;
+		double y = -1 + 2. * j / nodes;
+		double[] u = e.deproject(x, y);
+		double[] v = g.deproject(x, y);
+		for (int k = 0; k < 3; k++) {
+		    assertEquals(x + "," + y, u[k], v[k], 1e-8);
+		}
+	    }
+	}
+	// Each column of nodes crosses four tiles, and the cache is
+	// only asked again when the tile changes.
+	assertEquals(16, cache.getMisses());
+	assertEquals(4 * nodes - 16, cache.getHits());
+	assertEquals(16 * 8 * 3 * 81, cache.getBytes());
+    }
+
+    /** A block of nodes on one tile looks the tile up once. */
+    public void testBlockOneLookup() {
+	Toa exact = new Toa();
+	Toa gridded = new Toa();
+	ToaTileCache cache = new ToaTileCache(1 << 20);
+	gridded.setGrid(1, 4, cache);
+
+	int n = 16 * 16;
+	double[][] in = new double[2][n];
+	for (int i = 0; i < n; i++) {
+	    in[0][i] = (-1 + (i % 16) / 16.) * Math.PI / 2;
+	    in[1][i] = (-1 + (i / 16) / 16.) * Math.PI / 2;
+	}
+	double[][] u = new double[3][n];
+	double[][] v = new double[3][n];
+	exact.inverse().transform(in, 0, u, 0, n);
+	gridded.inverse().transform(in, 0, v, 0, n);
+	for (int k = 0; k < 3; k++) {
+	    for (int i = 0; i < n; i++) {
+		assertEquals(u[k][i], v[k][i], 1e-8);
+	    }
+	}
+	assertEquals(1, cache.getMisses() + cache.getHits());
+
+	// The next block starts on the tile the last one ended with.
+	gridded.inverse().transform(in, 0, v, 0, n);
+	assertEquals(1, cache.getMisses() + cache.getHits());
+    }
+
+    /** Points between the nodes use the exact deprojection. */
+    public void testOffGrid() {
+	Toa exact = new Toa();
+	Toa gridded = new Toa();
+	ToaTileCache cache = new ToaTileCache(1 << 20);
+	gridded.setGrid(1, 2, cache);
+
+	double[] u = ((Toa.ToaDeproj) exact.inverse()).deproject(0.3, -0.7);
+	double[] v = ((Toa.ToaDeproj) gridded.inverse()).deproject(0.3, -0.7);
+	for (int k = 0; k < 3; k++) {
+	    assertEquals(u[k], v[k], 0);
+	}
+	assertEquals(0, cache.getMisses() + cache.getHits());
+
+	gridded.clearGrid();
+	((Toa.ToaDeproj) gridded.inverse()).deproject(0.5, 0.5);
+	assertEquals(0, cache.getMisses() + cache.getHits());
+    }
+
+    /** On the finest grid points between nodes are not snapped to them. */
+    public void testFinestGrid() {
+	Toa exact = new Toa();
+	Toa gridded = new Toa();
+	ToaTileCache cache = new ToaTileCache(1 << 20);
+	gridded.setGrid(24, 12, cache);
+
+	// A tenth of a cell from a node.
+	double cell = 1. / (1L << 35);
+	double x = -1 + (12345678901L + 0.1) * cell;
+	double y = 0.3;
+	double[] u = ((Toa.ToaDeproj) exact.inverse()).deproject(x, y);
+	double[] v = ((Toa.ToaDeproj) gridded.inverse()).deproject(x, y);
+	for (int k = 0; k < 3; k++) {
+	    assertEquals(u[k], v[k], 0);
+	}
+	assertEquals(0, cache.getMisses() + cache.getHits());
+    }
+
+    /** The least recently used tiles are dropped. */
+    public void testEviction() {
+	int size = 8 * 3 * 9 * 9;
+	ToaTileCache cache = new ToaTileCache(2 * size);
+	double[] a = cache.get(1, 0, 0, 3);
+	cache.get(1, 0, 1, 3);
+	assertSame(a, cache.get(1, 0, 0, 3));
+	cache.get(1, 1, 0, 3);
+	assertEquals(2 * size, cache.getBytes());
+	assertSame(a, cache.get(1, 0, 0, 3));
+	cache.get(1, 0, 1, 3);
+	assertEquals(4, cache.getMisses());
+	assertEquals(2, cache.getHits());
+
+	cache.clear();
+	assertEquals(0, cache.getBytes());
+	try {
+	    cache.get(1, 2, 0, 3);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+}
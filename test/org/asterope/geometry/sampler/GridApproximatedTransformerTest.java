@@ -0,0 +1,130 @@
+package org.asterope.geometry.sampler;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.Converter;
+import org.asterope.geometry.Transformer;
+import org.asterope.geometry.WCS;
+import org.asterope.geometry.WCSBuilder;
+
+public class GridApproximatedTransformerTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private WCS build(String projection, double ra, double de, int size, double fov, double rotation) throws Exception {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * ra;
+	b.refDe = D2R * de;
+	b.width = size;
+	b.height = size;
+	b.projection = projection;
+	b.pixelScale = D2R * fov / size;
+	b.rotation = rotation;
+	return b.build();
+    }
+
+    private static Transformer exact(WCS source, WCS target) throws Exception {
+	Converter c = new Converter();
+	c.add(target.inverse());
+	c.add(source);
+	return c;
+    }
+
+    /** Random points compared with the exact mapping */
+    private static void check(GridApproximatedTransformer g, Transformer exact, int size, double tolerance) {
+	Random r = new Random(7);
+	int n = 20000;
+	double[][] in = new double[2][n];
+	for (int i = 0; i < n; i++) {
+	    in[0][i] = size * r.nextDouble();
+	    in[1][i] = size * r.nextDouble();
+	}
+	double[][] a = new double[2][n];
+	double[][] b = new double[2][n];
+	g.transform(in, 0, a, 0, n);
+	exact.transform(in, 0, b, 0, n);
+	for (int i = 0; i < n; i++) {
+	    if (Double.isNaN(b[0][i])) {
+		assertTrue(Double.isNaN(a[0][i]));
+		continue;
+	    }
+	    double d = Math.hypot(a[0][i] - b[0][i], a[1][i] - b[1][i]);
+	    assertTrue(i + " " + d, d <= tolerance);
+	}
+    }
+
+    public void testWithinTolerance() throws Exception {
+	WCS src = build("Tan", 150, 20, 2000, 20, 0);
+	WCS tgt = build("Zea", 152, 22, 1500, 15, 0.4);
+	Transformer exact = exact(src, tgt);
+	GridApproximatedTransformer g = new GridApproximatedTransformer(exact, 0, 0, 1500, 1500, 32, 1, 0.05);
+	check(g, exact, 1500, 0.05);
+	// Smooth mappings should need few cells and no exact ones.
+	assertEquals(0, g.getExactCellCount());
+	assertTrue(g.getCellCount() < 1500 * 1500 / 100);
+    }
+
+    /** An all-sky target whose seam and rim cross the source. */
+    public void testSeamFallsBackToExact() throws Exception {
+	WCS src = build("Car", 10, 0, 1000, 360, 0);
+	WCS tgt = build("Ait", 180, 30, 800, 360, 0);
+	Transformer exact = exact(src, tgt);
+	GridApproximatedTransformer g = new GridApproximatedTransformer(exact, 0, 0, 800, 800, 32, 1, 0.1);
+	assertTrue(g.getExactCellCount() > 0);
+	check(g, exact, 800, 0.1);
+
+	// Single points agree with blocks.
+	double[] p = {400.5, 410.25};
+	double[][] q = {{400.5}, {410.25}};
+	g.transform(q, 0, q, 0, 1);
+	double[] r = g.transform(p);
+	assertEquals(q[0][0], r[0], 0);
+	assertEquals(q[1][0], r[1], 0);
+
+	// A long block in place, with many more exact points than are
+	// gathered at a time, agrees with single points.
+	int n = 4000;
+	double[][] block = new double[2][n];
+	double[][] in = new double[2][n];
+	for (int i = 0; i < n; i++) {
+	    in[0][i] = block[0][i] = 0.2 * i;
+	    in[1][i] = block[1][i] = 0.2 * i;
+	}
+	g.transform(block, 0, block, 0, n);
+	for (int i = 0; i < n; i++) {
+	    r = g.transform(new double[]{in[0][i], in[1][i]});
+	    assertEquals(i + " x", Double.isNaN(r[0]), Double.isNaN(block[0][i]));
+	    if (!Double.isNaN(r[0])) {
+		assertEquals(i + " x", r[0], block[0][i], 0);
+		assertEquals(i + " y", r[1], block[1][i], 0);
+	    }
+	}
+    }
+
+    public void testReprojector() throws Exception {
+	WCS src = build("Tan", 150, 20, 200, 4, 0);
+	WCS tgt = build("Sin", 150.5, 20.3, 160, 3, 0.2);
+	double[] img = new double[200 * 200];
+	Random r = new Random(3);
+	for (int i = 0; i < img.length; i++) {
+	    img[i] = r.nextDouble();
+	}
+	ImageReprojector exact = new ImageReprojector(src, 200, 200, tgt, 160, 160);
+	ImageReprojector approx = new ImageReprojector(
+	    GridApproximatedTransformer.pixelMapping(src, tgt, 160, 160, 1e-3),
+	    200, 200, 160, 160, ForkJoinPool.commonPool());
+	double[] a = new double[160 * 160];
+	double[] b = new double[160 * 160];
+	exact.reproject(img, a, ImageReprojector.Mode.FLUX);
+	approx.reproject(img, b, ImageReprojector.Mode.FLUX);
+	for (int i = 0; i < a.length; i++) {
+	    assertEquals(Double.isNaN(a[i]), Double.isNaN(b[i]));
+	    if (!Double.isNaN(a[i])) {
+		assertEquals(a[i], b[i], 1e-2);
+	    }
+	}
+    }
+}
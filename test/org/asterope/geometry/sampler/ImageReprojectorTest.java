@@ -0,0 +1,185 @@
+package org.asterope.geometry.sampler;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.WCS;
+import org.asterope.geometry.WCSBuilder;
+
+public class ImageReprojectorTest extends TestCase {
+
+    private final double D2R = Math.PI / 180d;
+
+    private WCS build(String projection, int size, double fov, double rotation) throws Exception {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = D2R * 150;
+	b.refDe = D2R * 20;
+	b.width = size;
+	b.height = size;
+	b.projection = projection;
+	b.pixelScale = D2R * fov / size;
+	b.rotation = rotation;
+	return b.build();
+    }
+
+    private static double[] image(int n, long seed) {
+	Random r = new Random(seed);
+	double[] img = new double[n];
+	for (int i = 0; i < n; i++) {
+	    img[i] = r.nextDouble();
+	}
+	return img;
+    }
+
+    private static double sum(double[] img) {
+	double s = 0;
+	for (double v : img) {
+	    if (!Double.isNaN(v)) {
+		s += v;
+	    }
+	}
+	return s;
+    }
+
+    /** Onto the same WCS every mode must give back the source image. */
+    public void testIdentity() throws Exception {
+	WCS wcs = build("Tan", 64, 2, 0);
+	double[] src = image(64 * 64, 1);
+	ImageReprojector r = new ImageReprojector(wcs, 64, 64, wcs, 64, 64);
+	for (ImageReprojector.Mode m : ImageReprojector.Mode.values()) {
+	    double[] dst = new double[64 * 64];
+	    r.reproject(src, dst, m);
+	    for (int i = 0; i < dst.length; i++) {
+		assertEquals(m + " " + i, src[i], dst[i], 1e-9);
+	    }
+	}
+    }
+
+    /** Doubling the resolution spreads each source pixel over four target pixels. */
+    public void testFluxConserved() throws Exception {
+	WCS src = build("Tan", 50, 1, 0);
+	WCS tgt = build("Tan", 100, 1, 0);
+	double[] img = image(50 * 50, 2);
+	double[] dst = new double[100 * 100];
+	new ImageReprojector(src, 50, 50, tgt, 100, 100).reproject(img, dst, ImageReprojector.Mode.FLUX);
+	assertEquals(sum(img), sum(dst), 1e-9 * sum(img));
+	assertEquals(img[0] / 4, dst[0], 1e-9);
+
+	// A different projection and a rotation.
+	tgt = build("Sin", 80, 0.6, 0.3);
+	dst = new double[80 * 80];
+	new ImageReprojector(src, 50, 50, tgt, 80, 80).reproject(img, dst, ImageReprojector.Mode.FLUX);
+	double[] ones = new double[50 * 50];
+	java.util.Arrays.fill(ones, 1);
+	double[] area = new double[80 * 80];
+	new ImageReprojector(src, 50, 50, tgt, 80, 80).reproject(ones, area, ImageReprojector.Mode.FLUX);
+	// The target is inside the source, so each pixel covers (0.6*50/80)^2 source pixels.
+	double expected = Math.pow(0.6 * 50 / 80, 2);
+	assertEquals(expected, area[40 * 80 + 40], 1e-3 * expected);
+    }
+
+    /** Target pixels whose footprints cross the lon=180 edge of a Car
+     *  source are split at the edge rather than spread across the image.
+     */
+    public void testFluxAcrossSeam() throws Exception {
+	WCSBuilder b = new WCSBuilder();
+	b.refRa = Math.PI;
+	b.width = 720;
+	b.height = 360;
+	b.projection = "Car";
+	b.pixelScale = D2R * 0.5;
+	WCS src = b.build();
+	b = new WCSBuilder();
+	b.refRa = 0;
+	b.refDe = D2R * 5;
+	b.width = 21;
+	b.height = 21;
+	b.projection = "Tan";
+	b.pixelScale = D2R;
+	WCS tgt = b.build();
+
+	double[] ones = new double[720 * 360];
+	java.util.Arrays.fill(ones, 1);
+	double[] area = new double[21 * 21];
+	ImageReprojector r = new ImageReprojector(src, 720, 360, tgt, 21, 21);
+	r.reproject(ones, area, ImageReprojector.Mode.FLUX);
+	for (int y = 0; y < 21; y++) {
+	    // Each target pixel covers about four source pixels.
+	    for (int x = 0; x < 21; x++) {
+		double v = area[y * 21 + x];
+		assertTrue(x + " " + y + ": " + v, v > 3.5 && v < 4.5);
+	    }
+	    double side = (area[y * 21 + 9] + area[y * 21 + 11]) / 2;
+	    assertEquals(side, area[y * 21 + 10], 1e-3 * side);
+	}
+
+	// Without the source WCS the split is not possible, but the
+	// footprints which wrap around the image are left blank.
+	ImageReprojector raw = new ImageReprojector(r.getTransform(), 720, 360, 21, 21,
+						    ForkJoinPool.commonPool());
+	double[] dst = new double[21 * 21];
+	raw.reproject(ones, dst, ImageReprojector.Mode.FLUX);
+	for (int y = 0; y < 21; y++) {
+	    assertTrue(Double.isNaN(dst[y * 21 + 10]));
+	    assertEquals(area[y * 21 + 9], dst[y * 21 + 9], 1e-9);
+	}
+    }
+
+    public void testParallelSameAsSerial() throws Exception {
+	WCS src = build("Tan", 120, 3, 0);
+	WCS tgt = build("Zea", 150, 2.5, 0.5);
+	double[] img = image(120 * 120, 3);
+	ForkJoinPool one = new ForkJoinPool(1);
+	ForkJoinPool four = new ForkJoinPool(4);
+	try {
+	    ImageReprojector serial = new ImageReprojector(src, 120, 120, tgt, 150, 150, one);
+	    ImageReprojector parallel = new ImageReprojector(src, 120, 120, tgt, 150, 150, four);
+	    for (ImageReprojector.Mode m : ImageReprojector.Mode.values()) {
+		double[] a = new double[150 * 150];
+		double[] b = new double[150 * 150];
+		serial.reproject(img, a, m);
+		parallel.reproject(img, b, m);
+		for (int i = 0; i < a.length; i++) {
+		    assertEquals(m + " " + i, Double.doubleToLongBits(a[i]), Double.doubleToLongBits(b[i]));
+		}
+	    }
+	} finally {
+	    one.shutdown();
+	    four.shutdown();
+	}
+    }
+
+    /** Buffers, and blank pixels off the edge of the source. */
+    public void testBuffersAndBlank() throws Exception {
+	WCS src = build("Tan", 40, 1, 0);
+	WCS tgt = build("Tan", 40, 2, 0);
+	FloatBuffer in = ByteBuffer.allocateDirect(4 * 40 * 40).order(ByteOrder.nativeOrder()).asFloatBuffer();
+	for (int i = 0; i < 40 * 40; i++) {
+	    in.put(i, 5);
+	}
+	FloatBuffer out = FloatBuffer.allocate(40 * 40);
+	ImageReprojector r = new ImageReprojector(src, 40, 40, tgt, 40, 40);
+	r.setBlank(-1);
+	r.reproject(in, out, ImageReprojector.Mode.BILINEAR);
+	assertEquals(-1f, out.get(0));
+	assertEquals(5f, out.get(20 * 40 + 20), 1e-6f);
+    }
+
+    /** The size check does not overflow for large images. */
+    public void testLargeSizeChecked() throws Exception {
+	WCS wcs = build("Tan", 64, 2, 0);
+	// 65536*65537 is 65536 in int arithmetic.
+	ImageReprojector r = new ImageReprojector(wcs, 65536, 65537, wcs, 1, 1);
+	try {
+	    r.reproject(new float[65536], new float[1], ImageReprojector.Mode.NEAREST);
+	    fail();
+	} catch (IllegalArgumentException e) {
+	    // expected
+	}
+    }
+}
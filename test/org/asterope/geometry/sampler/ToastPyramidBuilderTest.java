@@ -0,0 +1,158 @@
+package org.asterope.geometry.sampler;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.WCS;
+import org.asterope.geometry.WCSBuilder;
+import org.asterope.geometry.projecter.HpxIndex;
+import org.asterope.geometry.projecter.Toa;
+
+public class ToastPyramidBuilderTest extends TestCase {
+
+    /** The z component of the position */
+    private static final ToastPyramidBuilder.Source Z = new ToastPyramidBuilder.Source() {
+	public void sample(double[][] unit, int len, double[] values) {
+	    for (int i = 0; i < len; i++) {
+		values[i] = unit[2][i];
+	    }
+	}
+    };
+
+    private static class Collect implements ToastPyramidBuilder.Sink {
+	final Map<String, float[]> tiles = new ConcurrentHashMap<String, float[]>();
+	public void write(int level, int ix, int iy, float[] pixels, int tileSize) {
+	    tiles.put(level + "/" + ix + "/" + iy, pixels.clone());
+	}
+    }
+
+    /** Every tile is written and matches a tile built on its own. */
+    public void testPyramid() throws Exception {
+	Collect sink = new Collect();
+	ForkJoinPool pool = new ForkJoinPool(4);
+	try {
+	    ToastPyramidBuilder b = new ToastPyramidBuilder(Z, sink, 3, 8, pool);
+	    b.build();
+	    assertEquals(1 + 4 + 16 + 64, sink.tiles.size());
+	    for (int l = 0; l <= 3; l++) {
+		for (int ix = 0; ix < (1 << l); ix++) {
+		    for (int iy = 0; iy < (1 << l); iy++) {
+			float[] t = sink.tiles.get(l + "/" + ix + "/" + iy);
+			float[] e = b.tile(l, ix, iy);
+			for (int i = 0; i < e.length; i++) {
+			    assertEquals(e[i], t[i], 0);
+			}
+		    }
+		}
+	    }
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    /** Pixels are sampled at the deprojected pixel centers. */
+    public void testPixelCenters() throws Exception {
+	Collect sink = new Collect();
+	int size = 8;
+	int level = 2;
+	new ToastPyramidBuilder(Z, sink, level, size, ForkJoinPool.commonPool()).build();
+	Toa.ToaDeproj d = (Toa.ToaDeproj) new Toa().inverse();
+	int n = 1 << level;
+	int ix = 1, iy = 2;
+	float[] t = sink.tiles.get(level + "/" + ix + "/" + iy);
+	for (int y = 0; y < size; y++) {
+	    for (int x = 0; x < size; x++) {
+		double px = -1 + 2 * (ix + (x + 0.5) / size) / n;
+		double py = 1 - 2 * (iy + (y + 0.5) / size) / n;
+		assertEquals(d.deproject(px, py)[2], t[y * size + x], 1e-6);
+	    }
+	}
+    }
+
+    /** A latitude map in a Car image comes back as the latitude. */
+    public void testImage() throws Exception {
+	WCSBuilder wb = new WCSBuilder();
+	wb.refRa = Math.PI;
+	wb.width = 360;
+	wb.height = 180;
+	wb.projection = "Car";
+	wb.pixelScale = Math.PI / 180;
+	WCS wcs = wb.build();
+	double[] img = new double[360 * 180];
+	for (int y = 0; y < 180; y++) {
+	    for (int x = 0; x < 360; x++) {
+		double[] unit = wcs.inverse().transform(new double[]{x + 0.5, y + 0.5});
+		img[y * 360 + x] = unit[2];
+	    }
+	}
+	ToastPyramidBuilder.Source s = ToastPyramidBuilder.image(wcs, img, 360, 180, ImageReprojector.Mode.BILINEAR);
+	Collect sink = new Collect();
+	new ToastPyramidBuilder(s, sink, 1, 16, ForkJoinPool.commonPool()).build();
+	Collect exact = new Collect();
+	new ToastPyramidBuilder(Z, exact, 1, 16, ForkJoinPool.commonPool()).build();
+	for (String k : exact.tiles.keySet()) {
+	    float[] a = exact.tiles.get(k);
+	    float[] b = sink.tiles.get(k);
+	    for (int i = 0; i < a.length; i++) {
+		assertEquals(k, a[i], b[i], 0.01);
+	    }
+	}
+    }
+
+    /** A HEALPix map of z comes back as z, whichever the numbering. */
+    public void testHealpix() throws Exception {
+	int order = 6;
+	HpxIndex nest = new HpxIndex(order, HpxIndex.Scheme.NESTED);
+	int npix = (int) nest.getNpix();
+	float[] nested = new float[npix];
+	double[] ring = new double[npix];
+	double[] unit = new double[3];
+	for (int p = 0; p < npix; p++) {
+	    nest.pix2vec(p, unit);
+	    nested[p] = (float) unit[2];
+	    ring[(int) nest.nest2ring(p)] = unit[2];
+	}
+	Collect a = new Collect();
+	new ToastPyramidBuilder(ToastPyramidBuilder.healpix(nested, order, HpxIndex.Scheme.NESTED),
+				a, 1, 16, ForkJoinPool.commonPool()).build();
+	Collect b = new Collect();
+	new ToastPyramidBuilder(ToastPyramidBuilder.healpix(ring, order, HpxIndex.Scheme.RING),
+				b, 1, 16, ForkJoinPool.commonPool()).build();
+	Collect exact = new Collect();
+	new ToastPyramidBuilder(Z, exact, 1, 16, ForkJoinPool.commonPool()).build();
+	for (String k : exact.tiles.keySet()) {
+	    float[] e = exact.tiles.get(k);
+	    for (int i = 0; i < e.length; i++) {
+		assertEquals(k, a.tiles.get(k)[i], b.tiles.get(k)[i], 1e-7);
+		assertEquals(k, e[i], a.tiles.get(k)[i], 0.03);
+	    }
+	}
+
+	try {
+	    ToastPyramidBuilder.healpix(new double[npix - 1], order, HpxIndex.Scheme.RING);
+	    fail();
+	} catch (IllegalArgumentException x) {
+	    // expected
+	}
+    }
+
+    public void testSinkFailure() {
+	ToastPyramidBuilder.Sink fail = new ToastPyramidBuilder.Sink() {
+	    public void write(int level, int ix, int iy, float[] pixels, int tileSize) throws IOException {
+		if (level == 2) {
+		    throw new IOException("full");
+		}
+	    }
+	};
+	try {
+	    new ToastPyramidBuilder(Z, fail, 2, 4, ForkJoinPool.commonPool()).build();
+	    fail();
+	} catch (IOException e) {
+	    assertEquals("full", e.getMessage());
+	}
+    }
+}
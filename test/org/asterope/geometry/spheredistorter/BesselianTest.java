@@ -0,0 +1,67 @@
+package org.asterope.geometry.spheredistorter;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.SphereDistorter;
+
+public class BesselianTest extends TestCase {
+
+    /** Values given by the earlier implementation. */
+    public void testValues() {
+	Besselian b = new Besselian();
+	double[] v = {0.6, 0.0, 0.8};
+	double[] f = b.transform(v);
+	assertEquals(0.6038416433006353, f[0], 0);
+	assertEquals(-0.006730957884484509, f[1], 0);
+	assertEquals(0.797075883477819, f[2], 0);
+	double[] g = b.inverse().transform(v);
+	assertEquals(0.5960691783704835, g[0], 0);
+	assertEquals(0.00668749513757159, g[1], 0);
+	assertEquals(0.8029052322693642, g[2], 0);
+
+	// In place.
+	b.inverse().transform(v, v);
+	assertEquals(g[0], v[0], 0);
+	assertEquals(g[1], v[1], 0);
+	assertEquals(g[2], v[2], 0);
+    }
+
+    /** The block transforms give the same results as single points. */
+    public void testBlock() {
+	Besselian b = new Besselian();
+	Random r = new Random(9);
+	int n = 1000;
+	double[][] in = new double[3][n + 5];
+	for (int i = 0; i < n + 5; i++) {
+	    double l = 2 * Math.PI * r.nextDouble();
+	    double d = Math.asin(2 * r.nextDouble() - 1);
+	    in[0][i] = Math.cos(l) * Math.cos(d);
+	    in[1][i] = Math.sin(l) * Math.cos(d);
+	    in[2][i] = Math.sin(d);
+	}
+	for (SphereDistorter s : new SphereDistorter[]{b, b.inverse()}) {
+	    double[][] out = new double[3][n + 2];
+	    s.transform(in, 5, out, 2, n);
+	    for (int i = 0; i < n; i++) {
+		double[] p = s.transform(new double[]{in[0][i + 5], in[1][i + 5], in[2][i + 5]});
+		for (int k = 0; k < 3; k++) {
+		    assertEquals(p[k], out[k][i + 2], 0);
+		}
+	    }
+	}
+	assertSame(b.inverse(), b.inverse());
+	assertSame(b, b.inverse().inverse());
+    }
+
+    public void testRoundTrip() {
+	Besselian b = new Besselian();
+	double[] v = {0.3, -0.4, Math.sqrt(0.75)};
+	double[] w = b.inverse().transform(b.transform(v));
+	for (int k = 0; k < 3; k++) {
+	    // The model ignores the tiny E-term velocity.
+	    assertEquals(v[k], w[k], 1e-8);
+	}
+    }
+}
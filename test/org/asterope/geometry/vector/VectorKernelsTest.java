@@ -0,0 +1,76 @@
+package org.asterope.geometry.vector;
+
+import junit.framework.TestCase;
+
+import org.asterope.geometry.Projection;
+import org.asterope.geometry.Projecter;
+import org.asterope.geometry.Rotater;
+import org.asterope.geometry.Scaler;
+import org.asterope.geometry.Transformer;
+
+/**
+ * The vector kernels must agree exactly with the scalar code,
+ * including the points which go to NaN.
+ */
+public class VectorKernelsTest extends TestCase {
+
+    /** Points on and off the sphere, including awkward values. */
+    private static double[][] points(int dim, int n) {
+	java.util.Random r = new java.util.Random(11);
+	double[] special = {0, -0., 1, -1, 2, 1e-300, Double.NaN, 0.5};
+	double[][] p = new double[dim][n];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < dim; j++) {
+		p[j][i] = (i % 5 == 0) ? special[(i / 5 + j) % special.length]
+				       : 2.2 * r.nextDouble() - 1.1;
+	    }
+	}
+	return p;
+    }
+
+    private static void check(String name, Transformer t, int idim, int odim) {
+	int n = 203;
+	double[][] in = points(idim, n);
+	double[][] out = new double[odim][n + 3];
+	t.transform(in, 0, out, 3, n);
+
+	double[] x = new double[idim];
+	double[] y = new double[odim];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < idim; j++) {
+		x[j] = in[j][i];
+	    }
+	    t.transform(x, y);
+	    for (int j = 0; j < odim; j++) {
+		double a = y[j], b = out[j][i + 3];
+		assertTrue(name + " point " + i + ": " + a + " " + b,
+			   a == b || (Double.isNaN(a) && Double.isNaN(b)));
+	    }
+	}
+    }
+
+    /** Should the kernels have been loaded?  They are expected when
+     *  the vector module is in the boot layer and they are not switched off.
+     */
+    private static boolean expected() {
+	return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() &&
+	       !"false".equals(System.getProperty("org.asterope.geometry.vector"));
+    }
+
+    public void testKernels() throws Exception {
+	if (!Vectorized.isAvailable()) {
+	    assertFalse("jdk.incubator.vector is present but the vector kernels were not loaded",
+			expected());
+	    System.err.println("VectorKernelsTest: vector kernels not tested;"
+			       + " run with --add-modules jdk.incubator.vector to test them");
+	    return;
+	}
+	check("Rotater", new Rotater("ZYZ", 0.3, -1.2, 2.1), 3, 3);
+	check("Scaler", new Scaler(5, -3, 0.25, 1e-3, -2e-3, 0.5), 2, 2);
+	for (String name : new String[]{"Tan", "Sin", "Stg", "Zea"}) {
+	    Projecter p = new Projection(name, new double[]{0, 0}).getProjecter();
+	    check(name, p, 3, 2);
+	    check(name + " inverse", p.inverse(), 2, 3);
+	}
+    }
+}
@@ -0,0 +1,189 @@
+package org.asterope.geometry.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The kernels implemented with the incubating Vector API.  Points
+ *  which the scalar code sends to NaN (or 0) are handled by masks
+ *  rather than branches.  This class is only loaded through Vectorized.
+ */
+final class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Double> S = DoubleVector.SPECIES_PREFERRED;
+
+    VectorKernels() {
+    }
+
+    public int lanes() {
+	return S.length();
+    }
+
+    public int rotate(double m00, double m01, double m02,
+		      double m10, double m11, double m12,
+		      double m20, double m21, double m22,
+		      double[] x, double[] y, double[] z, int inOff,
+		      double[] u, double[] v, double[] w, int outOff, int len) {
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector a = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector b = DoubleVector.fromArray(S, y, inOff+i);
+	    DoubleVector c = DoubleVector.fromArray(S, z, inOff+i);
+	    a.mul(m00).add(b.mul(m01)).add(c.mul(m02)).intoArray(u, outOff+i);
+	    a.mul(m10).add(b.mul(m11)).add(c.mul(m12)).intoArray(v, outOff+i);
+	    a.mul(m20).add(b.mul(m21)).add(c.mul(m22)).intoArray(w, outOff+i);
+	}
+	return n;
+    }
+
+    public int scale(double x0, double y0, double a00, double a01, double a10, double a11,
+		     double[] x, double[] y, int inOff,
+		     double[] u, double[] v, int outOff, int len) {
+
+	DoubleVector vx0 = DoubleVector.broadcast(S, x0);
+	DoubleVector vy0 = DoubleVector.broadcast(S, y0);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector a = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector b = DoubleVector.fromArray(S, y, inOff+i);
+	    vx0.add(a.mul(a00)).add(b.mul(a01)).intoArray(u, outOff+i);
+	    vy0.add(a.mul(a10)).add(b.mul(a11)).intoArray(v, outOff+i);
+	}
+	return n;
+    }
+
+    public int tan(double[] x, double[] y, double[] z, int inOff,
+		   double[] u, double[] v, int outOff, int len) {
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector sz = DoubleVector.fromArray(S, z, inOff+i);
+	    VectorMask<Double> bad = sz.test(VectorOperators.IS_NAN).or(sz.lt(0));
+	    DoubleVector fac = DoubleVector.broadcast(S, 1).div(sz);
+	    fac.mul(DoubleVector.fromArray(S, x, inOff+i)).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    fac.mul(DoubleVector.fromArray(S, y, inOff+i)).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	}
+	return n;
+    }
+
+    public int sin(double[] x, double[] y, double[] z, int inOff,
+		   double[] u, double[] v, int outOff, int len) {
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector sz = DoubleVector.fromArray(S, z, inOff+i);
+	    VectorMask<Double> bad = sz.test(VectorOperators.IS_NAN).or(sz.compare(VectorOperators.LE, 0));
+	    DoubleVector.fromArray(S, x, inOff+i).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    DoubleVector.fromArray(S, y, inOff+i).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	}
+	return n;
+    }
+
+    public int stg(double[] x, double[] y, double[] z, int inOff,
+		   double[] u, double[] v, int outOff, int len) {
+
+	DoubleVector two = DoubleVector.broadcast(S, 2);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector sz = DoubleVector.fromArray(S, z, inOff+i);
+	    VectorMask<Double> bad = sz.test(VectorOperators.IS_NAN).or(sz.lt(0));
+	    DoubleVector fac = two.div(sz.add(1));
+	    fac.mul(DoubleVector.fromArray(S, x, inOff+i)).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    fac.mul(DoubleVector.fromArray(S, y, inOff+i)).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	}
+	return n;
+    }
+
+    public int zea(double[] x, double[] y, double[] z, int inOff,
+		   double[] u, double[] v, int outOff, int len) {
+
+	DoubleVector one = DoubleVector.broadcast(S, 1);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector sx = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector sy = DoubleVector.fromArray(S, y, inOff+i);
+	    DoubleVector sz = DoubleVector.fromArray(S, z, inOff+i);
+	    VectorMask<Double> bad = sz.test(VectorOperators.IS_NAN);
+
+	    DoubleVector num = one.sub(sz).mul(2);
+	    num = num.blend(0, num.lt(0));
+	    DoubleVector denom = sx.mul(sx).add(sy.mul(sy));
+	    VectorMask<Double> pole = denom.eq(0);
+	    DoubleVector ratio = num.sqrt().div(denom.sqrt());
+
+	    ratio.mul(sx).blend(0, pole).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    ratio.mul(sy).blend(0, pole).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	}
+	return n;
+    }
+
+    public int tanDeproj(double[] x, double[] y, int inOff,
+			 double[] u, double[] v, double[] w, int outOff, int len) {
+
+	DoubleVector one = DoubleVector.broadcast(S, 1);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector px = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector py = DoubleVector.fromArray(S, y, inOff+i);
+	    VectorMask<Double> bad = px.test(VectorOperators.IS_NAN);
+	    DoubleVector factor = one.div(px.mul(px).add(py.mul(py)).add(1).sqrt());
+	    factor.mul(px).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    factor.mul(py).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	    factor.blend(Double.NaN, bad).intoArray(w, outOff+i);
+	}
+	return n;
+    }
+
+    public int sinDeproj(double[] x, double[] y, int inOff,
+			 double[] u, double[] v, double[] w, int outOff, int len) {
+
+	DoubleVector one = DoubleVector.broadcast(S, 1);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector px = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector py = DoubleVector.fromArray(S, y, inOff+i);
+	    DoubleVector xx = px.mul(px);
+	    DoubleVector yy = py.mul(py);
+	    // !(r2 <= 1) also catches NaNs in y.
+	    VectorMask<Double> bad = px.test(VectorOperators.IS_NAN)
+	      .or(xx.add(yy).compare(VectorOperators.LE, 1).not());
+	    px.blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    py.blend(Double.NaN, bad).intoArray(v, outOff+i);
+	    one.sub(xx).sub(yy).sqrt().blend(Double.NaN, bad).intoArray(w, outOff+i);
+	}
+	return n;
+    }
+
+    public int zeaDeproj(double[] x, double[] y, int inOff,
+			 double[] u, double[] v, double[] w, int outOff, int len) {
+
+	DoubleVector one = DoubleVector.broadcast(S, 1);
+
+	int n = S.loopBound(len);
+	for (int i=0; i<n; i += S.length()) {
+	    DoubleVector px = DoubleVector.fromArray(S, x, inOff+i);
+	    DoubleVector py = DoubleVector.fromArray(S, y, inOff+i);
+	    DoubleVector r2 = px.mul(px).add(py.mul(py));
+	    VectorMask<Double> bad = px.test(VectorOperators.IS_NAN)
+	      .or(r2.compare(VectorOperators.LE, 4).not());
+
+	    DoubleVector r     = r2.sqrt();
+	    DoubleVector sz    = one.sub(r.mul(r).div(2));
+	    DoubleVector ratio = one.sub(sz.mul(sz));
+	    VectorMask<Double> pos = ratio.compare(VectorOperators.GT, 0);
+	    ratio = ratio.sqrt().div(r).blend(0, pos.not());
+
+	    ratio.mul(px).blend(Double.NaN, bad).intoArray(u, outOff+i);
+	    ratio.mul(py).blend(Double.NaN, bad).intoArray(v, outOff+i);
+	    sz.blend(Double.NaN, bad).intoArray(w, outOff+i);
+	}
+	return n;
+    }
+}